@@ -0,0 +1,36 @@
+package is.ru.cadia.ggp.propnet;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * chooses the moves in playouts on a propnet
+ *
+ * Moves are given as indices into PropNetStructure.getPossibleMoves(roleId), such that a policy does not
+ * need any Move objects. A policy is called from the thread running the playout, while the state machine
+ * is in the middle of the playout, so it must not use the state machine itself.
+ *
+ * @author stephan
+ *
+ */
+public interface MoveSelectionPolicy {
+
+	/**
+	 * chooses a move uniformly at random
+	 */
+	public static final MoveSelectionPolicy RANDOM = new MoveSelectionPolicy() {
+		@Override
+		public int selectMove(int roleId, int[] legalMoveIndices, int nbLegalMoves, int depth) {
+			return legalMoveIndices[ThreadLocalRandom.current().nextInt(nbLegalMoves)];
+		}
+	};
+
+	/**
+	 * @param roleId the role that has to move
+	 * @param legalMoveIndices the indices of the legal moves of the role are in legalMoveIndices[0] to
+	 *   legalMoveIndices[nbLegalMoves-1] (in increasing order), the array must not be changed
+	 * @param nbLegalMoves the number of legal moves (at least 1)
+	 * @param depth the number of steps done in the playout so far
+	 * @return the index of the chosen move, one of legalMoveIndices[0] to legalMoveIndices[nbLegalMoves-1]
+	 */
+	public int selectMove(int roleId, int[] legalMoveIndices, int nbLegalMoves, int depth);
+}
@@ -19,6 +19,11 @@ public class PropNetMove extends Move {
 	private StaticComponent inputComponent;
 	private StaticComponent legalComponent;
 
+	// the ids of the move in its PropNetStructure (see setIds)
+	private int roleId = -1;
+	private int index = -1;
+	private int moveTermId = -1;
+
 	public PropNetMove(StaticComponent inputComponent, StaticComponent legalComponent, GdlTerm moveTerm) {
 		super(moveTerm);
 		assert moveTerm!=null;
@@ -28,6 +33,36 @@ public class PropNetMove extends Move {
 		this.legalComponent = legalComponent;
 	}
 
+	/**
+	 * called by the PropNetStructure that the move belongs to
+	 */
+	public void setIds(int roleId, int index, int moveTermId) {
+		this.roleId = roleId;
+		this.index = index;
+		this.moveTermId = moveTermId;
+	}
+
+	/**
+	 * @return the id of the role of this move
+	 */
+	public int getRoleId() {
+		return roleId;
+	}
+
+	/**
+	 * @return the index of this move in PropNetStructure.getPossibleMoves(getRoleId())
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the id of the term of this move (see PropNetStructure.getMoveTermId)
+	 */
+	public int getMoveTermId() {
+		return moveTermId;
+	}
+
 	public StaticComponent getInputComponent() {
 		return inputComponent;
 	}
@@ -0,0 +1,372 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * simulates up to 64 independent states of an acyclic propnet at the same time
+ *
+ * Each component has one long word, bit l of which is the value of the component in lane l. Thereby
+ * AND, OR and NOT components are computed for all 64 lanes with one bitwise operation per input.
+ *
+ * Typical use: set the states of the lanes with setState, query the masks (getTerminalMask,
+ * getLegalMask, getGoalMask), choose a joint move for each active lane with setJointMove and call
+ * advance. Lanes that are not active (see setActiveLanes) keep their state when advancing, such
+ * that lanes can reach a terminal state at different depths. performDepthCharges does all of this
+ * for random playouts.
+ *
+ * This class is not thread-safe, each thread should use its own simulator.
+ *
+ * @author stephan
+ *
+ */
+public class BitParallelPropNetSimulator {
+
+	public static final int NB_LANES = 64;
+
+	public static final long ALL_LANES = -1L;
+
+	private final PropNetStructure structure;
+
+	private final int nbBasePropositions;
+
+	private final int nbRoles;
+
+	/**
+	 * the values of each component (by id), bit l is the value in lane l
+	 */
+	private final long[] values;
+
+	private final EvaluationOrder order;
+
+	// ids of the next, legal, goal and terminal components (see PropNetEvaluator)
+	private final int[] nextComponentIds;
+	private final int[][] legalComponentIds;
+	private final int[][] inputComponentIds;
+	private final int[][] goalComponentIds;
+	private final int terminalComponentId;
+
+	/**
+	 * buffer for the values of the base propositions in the next state
+	 */
+	private final long[] nextValues;
+
+	/**
+	 * the lanes that are changed by advance
+	 */
+	private long activeLanes = ALL_LANES;
+
+	private boolean stateDependentValid = false;
+	private boolean inputDependentValid = false;
+
+	public BitParallelPropNetSimulator(PropNetStructure structure) {
+		this.structure = structure;
+		nbBasePropositions = structure.getNbBasePropositions();
+		values = new long[structure.getNbComponents()];
+		nextValues = new long[nbBasePropositions];
+		order = new EvaluationOrder(structure);
+		for (int id : order.trueComponentIds) {
+			values[id] = ALL_LANES;
+		}
+		nextComponentIds = new int[nbBasePropositions];
+		for (BaseProposition p : structure.getBasePropositions()) {
+			nextComponentIds[p.id] = p.nextComponent.id;
+		}
+		nbRoles = structure.getRoles().length;
+		legalComponentIds = new int[nbRoles][];
+		inputComponentIds = new int[nbRoles][];
+		goalComponentIds = new int[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			PropNetMove[] moves = structure.getPossibleMoves(roleId);
+			legalComponentIds[roleId] = new int[moves.length];
+			inputComponentIds[roleId] = new int[moves.length];
+			for (int i = 0; i < moves.length; i++) {
+				legalComponentIds[roleId][i] = moves[i].getLegalComponent().id;
+				inputComponentIds[roleId][i] = moves[i].getInputComponent().id;
+			}
+			StaticComponent[] goalProps = structure.getGoalPropositions(roleId);
+			goalComponentIds[roleId] = new int[goalProps.length];
+			for (int i = 0; i < goalProps.length; i++) {
+				goalComponentIds[roleId][i] = goalProps[i].id;
+			}
+		}
+		terminalComponentId = structure.getTerminalProposition().id;
+	}
+
+	public PropNetStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * sets the state of the lanes in the mask
+	 * @param baseState the state as used by PropNetEvaluator
+	 */
+	public void setState(long lanes, long[] baseState) {
+		for (int i = 0; i < nbBasePropositions; i++) {
+			if (PropNetEvaluator.isSet(baseState, i)) {
+				values[i] |= lanes;
+			} else {
+				values[i] &= ~lanes;
+			}
+		}
+		stateDependentValid = false;
+		inputDependentValid = false;
+	}
+
+	/**
+	 * sets the same state in all lanes, makes all lanes active and clears all inputs
+	 */
+	public void setStateInAllLanes(long[] baseState) {
+		setState(ALL_LANES, baseState);
+		clearInputs();
+		activeLanes = ALL_LANES;
+	}
+
+	/**
+	 * @return the state of the given lane as used by PropNetEvaluator
+	 */
+	public long[] getState(int lane) {
+		long[] result = new long[PropNetEvaluator.getNbStateWords(nbBasePropositions)];
+		for (int i = 0; i < nbBasePropositions; i++) {
+			result[i >>> 6] |= (values[i] >>> lane & 1L) << i;
+		}
+		return result;
+	}
+
+	/**
+	 * @param lanes the lanes that will be changed by advance()
+	 */
+	public void setActiveLanes(long lanes) {
+		activeLanes = lanes;
+	}
+
+	public long getActiveLanes() {
+		return activeLanes;
+	}
+
+	/**
+	 * sets all inputs in all lanes to false
+	 */
+	public void clearInputs() {
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			for (int id : inputComponentIds[roleId]) {
+				values[id] = 0;
+			}
+		}
+		inputDependentValid = false;
+	}
+
+	/**
+	 * sets the joint move of one lane, replacing whatever joint move was set for that lane before
+	 * @param moveIndices moveIndices[roleId] is the index of the move of the role in structure.getPossibleMoves(roleId)
+	 */
+	public void setJointMove(int lane, int[] moveIndices) {
+		long laneBit = 1L << lane;
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			int[] inputIds = inputComponentIds[roleId];
+			for (int i = 0; i < inputIds.length; i++) {
+				values[inputIds[i]] &= ~laneBit;
+			}
+			values[inputIds[moveIndices[roleId]]] |= laneBit;
+		}
+		inputDependentValid = false;
+	}
+
+	/**
+	 * sets the joint moves of all lanes at once
+	 * @param moveIndices moveIndices[lane][roleId] is the index of the move of the role in the lane,
+	 *   lanes without an entry (null or beyond the length of the array) get no inputs
+	 */
+	public void setJointMoves(int[][] moveIndices) {
+		clearInputs();
+		for (int lane = 0; lane < NB_LANES && lane < moveIndices.length; lane++) {
+			if (moveIndices[lane] != null) {
+				long laneBit = 1L << lane;
+				for (int roleId = 0; roleId < nbRoles; roleId++) {
+					values[inputComponentIds[roleId][moveIndices[lane][roleId]]] |= laneBit;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the lanes in which the component is true
+	 */
+	public long getValue(int componentId) {
+		if (!stateDependentValid) {
+			evaluate(0, order.firstInputDependent);
+			stateDependentValid = true;
+		}
+		if (!inputDependentValid) {
+			evaluate(order.firstInputDependent, order.size());
+			inputDependentValid = true;
+		}
+		return values[componentId];
+	}
+
+	/**
+	 * @return the lanes whose state is terminal
+	 */
+	public long getTerminalMask() {
+		return getValue(terminalComponentId);
+	}
+
+	/**
+	 * @param moveIndex index of the move in structure.getPossibleMoves(roleId)
+	 * @return the lanes in which the move is legal
+	 */
+	public long getLegalMask(int roleId, int moveIndex) {
+		return getValue(legalComponentIds[roleId][moveIndex]);
+	}
+
+	/**
+	 * @param goalIndex index of the goal proposition in structure.getGoalPropositions(roleId)
+	 * @return the lanes in which the goal proposition is true
+	 */
+	public long getGoalMask(int roleId, int goalIndex) {
+		return getValue(goalComponentIds[roleId][goalIndex]);
+	}
+
+	/**
+	 * @return the goal value of the first true goal proposition of the role in the lane or -1 if there is none
+	 */
+	public int getGoalValue(int roleId, int lane) {
+		int[] goalIds = goalComponentIds[roleId];
+		for (int i = 0; i < goalIds.length; i++) {
+			if ((getValue(goalIds[i]) >>> lane & 1L) != 0) {
+				return structure.getGoalValues(roleId)[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * computes the successor states of the active lanes with the current joint moves, the other
+	 * lanes keep their state
+	 */
+	public void advance() {
+		for (int i = 0; i < nbBasePropositions; i++) {
+			nextValues[i] = getValue(nextComponentIds[i]);
+		}
+		long inactiveLanes = ~activeLanes;
+		for (int i = 0; i < nbBasePropositions; i++) {
+			values[i] = (values[i] & inactiveLanes) | (nextValues[i] & activeLanes);
+		}
+		stateDependentValid = false;
+		inputDependentValid = false;
+	}
+
+	/**
+	 * plays random joint moves in all 64 lanes starting from the given state until each lane reaches a terminal state
+	 *
+	 * A lane stops early in a non-terminal state if a role has no legal move there (which is a bug in
+	 * the game description). Such lanes have no goal values and are not in the returned mask.
+	 * @param goalValues filled with goalValues[lane][roleId] (-1 if the role has no goal value or the
+	 * lane did not reach a terminal state)
+	 * @param depths if not null, filled with the number of steps each lane needed to reach a terminal state
+	 * @return the lanes that reached a terminal state
+	 */
+	public long performDepthCharges(long[] state, Random random, int[][] goalValues, int[] depths) {
+		setStateInAllLanes(state);
+		if (depths != null) {
+			Arrays.fill(depths, 0, NB_LANES, 0);
+		}
+		long[][] legalMasks = new long[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			legalMasks[roleId] = new long[legalComponentIds[roleId].length];
+		}
+		long running = ALL_LANES & ~getTerminalMask();
+		long stuck = 0;
+		while (running != 0) {
+			for (int roleId = 0; roleId < nbRoles; roleId++) {
+				for (int i = 0; i < legalMasks[roleId].length; i++) {
+					legalMasks[roleId][i] = getLegalMask(roleId, i);
+				}
+			}
+			clearInputs();
+			for (long lanes = running; lanes != 0; lanes &= lanes - 1) {
+				int lane = Long.numberOfTrailingZeros(lanes);
+				long laneBit = lanes & -lanes;
+				for (int roleId = 0; roleId < nbRoles; roleId++) {
+					long[] masks = legalMasks[roleId];
+					int nbLegal = 0;
+					for (int i = 0; i < masks.length; i++) {
+						if ((masks[i] & laneBit) != 0) {
+							nbLegal++;
+						}
+					}
+					// a role without legal moves is a bug in the game description, the lane stops
+					if (nbLegal == 0) {
+						running &= ~laneBit;
+						stuck |= laneBit;
+						break;
+					}
+					int chosen = random.nextInt(nbLegal);
+					for (int i = 0; i < masks.length; i++) {
+						if ((masks[i] & laneBit) != 0 && chosen-- == 0) {
+							values[inputComponentIds[roleId][i]] |= laneBit;
+							break;
+						}
+					}
+				}
+				if (depths != null && (running & laneBit) != 0) {
+					depths[lane]++;
+				}
+			}
+			activeLanes = running;
+			advance();
+			running &= ~getTerminalMask();
+		}
+		activeLanes = ALL_LANES;
+		for (int lane = 0; lane < NB_LANES; lane++) {
+			for (int roleId = 0; roleId < nbRoles; roleId++) {
+				goalValues[lane][roleId] = (stuck >>> lane & 1L) != 0 ? -1 : getGoalValue(roleId, lane);
+			}
+		}
+		return ~stuck;
+	}
+
+	/**
+	 * evaluates the components at positions from (inclusive) to to (exclusive) in the order
+	 */
+	private void evaluate(int from, int to) {
+		final long[] values = this.values;
+		final int[] inputStart = order.inputStart;
+		final int[] inputIds = order.inputIds;
+		final byte[] operations = order.operations;
+		final int[] ids = order.ids;
+		for (int position = from; position < to; position++) {
+			int firstInput = inputStart[position];
+			int lastInput = inputStart[position + 1];
+			long value;
+			switch (operations[position]) {
+				case PropNetEvaluator.OP_AND:
+					value = ALL_LANES;
+					for (int i = firstInput; value != 0 && i < lastInput; i++) {
+						value &= values[inputIds[i]];
+					}
+					break;
+				case PropNetEvaluator.OP_OR:
+					value = 0;
+					for (int i = firstInput; value != ALL_LANES && i < lastInput; i++) {
+						value |= values[inputIds[i]];
+					}
+					break;
+				case PropNetEvaluator.OP_NOT:
+					value = ~values[inputIds[firstInput]];
+					break;
+				case PropNetEvaluator.OP_PIPE:
+					value = values[inputIds[firstInput]];
+					break;
+				default:
+					value = 0;
+			}
+			values[ids[position]] = value;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+/**
+ * super class of the classes generated by PropNetCompiler
+ *
+ * The generated code reads and writes the values of the components in v (indexed by component id).
+ * Everything here is public, because the generated classes are defined by their own class loader and
+ * are therefore not in the same runtime package.
+ *
+ * @author stephan
+ *
+ */
+public abstract class CompiledPropNet {
+
+	/**
+	 * the values of the components by id
+	 */
+	public boolean[] v;
+
+	/**
+	 * computes all components that only depend on the base propositions
+	 */
+	public abstract void computeStateDependent();
+
+	/**
+	 * computes all components that depend on some input, assumes that computeStateDependent was called
+	 * for the current state
+	 */
+	public abstract void computeInputDependent();
+}
@@ -0,0 +1,86 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+/**
+ * evaluates an acyclic propnet with code generated by PropNetCompiler
+ *
+ * The generated code only stores the values of some components in the value array, so getValue only
+ * works for BASE and INPUT components and for next, legal, goal and terminal propositions.
+ *
+ * @author stephan
+ *
+ */
+public class CompiledPropNetEvaluator extends PropNetEvaluator {
+
+	private final CompiledPropNet compiledPropNet;
+
+	/**
+	 * the value of each component (by id), shared with compiledPropNet
+	 */
+	private final boolean[] values;
+
+	private long[] currentState = null;
+	private final int[] currentInputs;
+	private int nbCurrentInputs = 0;
+
+	private boolean stateDependentValid = false;
+	private boolean inputDependentValid = false;
+
+	/**
+	 * @param compiledClass the class generated by PropNetCompiler for the structure
+	 */
+	public CompiledPropNetEvaluator(PropNetStructure structure, Class<? extends CompiledPropNet> compiledClass) {
+		super(structure);
+		try {
+			compiledPropNet = compiledClass.newInstance();
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IllegalArgumentException("can't instantiate compiled propnet " + compiledClass, e);
+		}
+		values = new boolean[nbComponents];
+		compiledPropNet.v = values;
+		EvaluationOrder order = new EvaluationOrder(structure);
+		for (int id : order.trueComponentIds) {
+			values[id] = true;
+		}
+		currentInputs = new int[order.nbInputComponents];
+	}
+
+	@Override
+	public void setState(long[] baseState) {
+		if (baseState == currentState) {
+			return;
+		}
+		for (int i = 0; i < nbBasePropositions; i++) {
+			values[i] = isSet(baseState, i);
+		}
+		currentState = baseState;
+		stateDependentValid = false;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public void setInputs(int[] inputIds, int nbInputs) {
+		for (int i = 0; i < nbCurrentInputs; i++) {
+			values[currentInputs[i]] = false;
+		}
+		for (int i = 0; i < nbInputs; i++) {
+			values[inputIds[i]] = true;
+			currentInputs[i] = inputIds[i];
+		}
+		nbCurrentInputs = nbInputs;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public boolean getValue(int componentId) {
+		if (!stateDependentValid) {
+			compiledPropNet.computeStateDependent();
+			stateDependentValid = true;
+		}
+		if (!inputDependentValid) {
+			compiledPropNet.computeInputDependent();
+			inputDependentValid = true;
+		}
+		return values[componentId];
+	}
+}
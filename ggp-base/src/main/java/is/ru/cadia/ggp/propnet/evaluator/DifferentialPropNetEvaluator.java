@@ -0,0 +1,235 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.PropNetTopology;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+
+import java.util.BitSet;
+
+/**
+ * evaluates an acyclic propnet incrementally
+ *
+ * The values of all components are kept between calls. When the state or the inputs change, only
+ * the BASE and INPUT components whose value actually changed are pushed forward along their outputs.
+ * AND and OR components keep a count of their true inputs, such that their new value can be computed
+ * without looking at the other inputs. Components whose inputs changed are processed in topological
+ * order, so every component is computed at most once per change and only if one of its inputs
+ * changed its value.
+ *
+ * @author stephan
+ *
+ */
+public class DifferentialPropNetEvaluator extends PropNetEvaluator {
+
+	/**
+	 * the value of each component (by id)
+	 */
+	private final boolean[] values;
+
+	/**
+	 * operation of each component (by id)
+	 */
+	private final byte[] operations;
+
+	/**
+	 * number of inputs of each component (by id)
+	 */
+	private final int[] nbInputs;
+
+	/**
+	 * number of true inputs of each AND and OR component (by id)
+	 */
+	private final int[] nbTrueInputs;
+
+	/**
+	 * the first input of each NOT and PIPE component (by id)
+	 */
+	private final int[] firstInput;
+
+	// outputs of component i are outputIds[outputStart[i]] to outputIds[outputStart[i+1]-1]
+	// (only outputs that need to be computed, once for each time i is an input of the output)
+	private final int[] outputStart;
+	private final int[] outputIds;
+
+	/**
+	 * position of each component in the topological order (by id)
+	 */
+	private final int[] positions;
+
+	/**
+	 * component id by position in the topological order
+	 */
+	private final int[] topologicalOrder;
+
+	/**
+	 * positions of the components that have to be recomputed because some of their inputs changed
+	 */
+	private final BitSet changed;
+
+	private boolean hasChanges = false;
+
+	/**
+	 * the state that was set last (all base propositions false in the beginning)
+	 */
+	private long[] currentState;
+	private final boolean[] isCurrentInput;
+	private final int[] currentInputs;
+	private int nbCurrentInputs = 0;
+
+	public DifferentialPropNetEvaluator(PropNetStructure structure) {
+		super(structure);
+		PropNetTopology topology = structure.getTopology();
+		topologicalOrder = structure.getTopologicalOrder();
+		values = new boolean[nbComponents];
+		operations = new byte[nbComponents];
+		nbInputs = new int[nbComponents];
+		nbTrueInputs = new int[nbComponents];
+		firstInput = new int[nbComponents];
+		positions = new int[nbComponents];
+		isCurrentInput = new boolean[nbComponents];
+		changed = new BitSet(nbComponents);
+		currentState = new long[nbStateWords];
+
+		int nbInputComponents = 0;
+		outputStart = new int[nbComponents + 1];
+		for (int id = 0; id < nbComponents; id++) {
+			operations[id] = getOperation(topology.getType(id), topology.getNbInputs(id));
+			nbInputs[id] = topology.getNbInputs(id);
+			if (nbInputs[id] > 0) {
+				firstInput[id] = topology.getInput(topology.getInputStart(id));
+			}
+			if (topology.getType(id) == Type.INPUT) {
+				nbInputComponents++;
+			}
+			if (EvaluationOrder.needsComputation(operations[id])) {
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					outputStart[topology.getInput(i) + 1]++;
+				}
+			}
+		}
+		currentInputs = new int[nbInputComponents];
+
+		// build the outputs from the inputs, such that a component occurs as often in the
+		// outputs of another component as it has that component as input
+		for (int i = 0; i < nbComponents; i++) {
+			outputStart[i + 1] += outputStart[i];
+		}
+		outputIds = new int[outputStart[nbComponents]];
+		int[] nextOutput = new int[nbComponents];
+		System.arraycopy(outputStart, 0, nextOutput, 0, nbComponents);
+		for (int id = 0; id < nbComponents; id++) {
+			if (EvaluationOrder.needsComputation(operations[id])) {
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					outputIds[nextOutput[topology.getInput(i)]++] = id;
+				}
+			}
+		}
+
+		// compute the values for the state where all base propositions and inputs are false
+		for (int position = 0; position < topologicalOrder.length; position++) {
+			int id = topologicalOrder[position];
+			positions[id] = position;
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				if (values[topology.getInput(i)]) {
+					nbTrueInputs[id]++;
+				}
+			}
+			values[id] = computeValue(id);
+		}
+	}
+
+	private boolean computeValue(int id) {
+		switch (operations[id]) {
+			case OP_TRUE:
+				return true;
+			case OP_AND:
+				return nbTrueInputs[id] == nbInputs[id];
+			case OP_OR:
+				return nbTrueInputs[id] > 0;
+			case OP_NOT:
+				return !values[firstInput[id]];
+			case OP_PIPE:
+				return values[firstInput[id]];
+			case OP_SOURCE:
+				return values[id];
+			case OP_FALSE:
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * sets the value of the component and marks its outputs as changed
+	 */
+	private void setValue(int id, boolean value) {
+		values[id] = value;
+		int delta = (value ? 1 : -1);
+		for (int i = outputStart[id]; i < outputStart[id + 1]; i++) {
+			int output = outputIds[i];
+			nbTrueInputs[output] += delta;
+			changed.set(positions[output]);
+		}
+		hasChanges = true;
+	}
+
+	@Override
+	public void setState(long[] baseState) {
+		if (baseState == currentState) {
+			return;
+		}
+		// only look at the base propositions that differ from the current state
+		for (int w = 0; w < nbStateWords; w++) {
+			long diff = baseState[w] ^ currentState[w];
+			while (diff != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+				setValue(i, !values[i]);
+				diff &= diff - 1;
+			}
+		}
+		currentState = baseState;
+	}
+
+	@Override
+	public void setInputs(int[] inputIds, int nbInputs) {
+		for (int i = 0; i < nbCurrentInputs; i++) {
+			isCurrentInput[currentInputs[i]] = false;
+		}
+		for (int i = 0; i < nbInputs; i++) {
+			isCurrentInput[inputIds[i]] = true;
+			if (!values[inputIds[i]]) {
+				setValue(inputIds[i], true);
+			}
+		}
+		for (int i = 0; i < nbCurrentInputs; i++) {
+			int id = currentInputs[i];
+			if (!isCurrentInput[id] && values[id]) {
+				setValue(id, false);
+			}
+		}
+		System.arraycopy(inputIds, 0, currentInputs, 0, nbInputs);
+		nbCurrentInputs = nbInputs;
+	}
+
+	@Override
+	public boolean getValue(int componentId) {
+		if (hasChanges) {
+			propagate();
+		}
+		return values[componentId];
+	}
+
+	/**
+	 * recomputes all changed components in topological order and pushes their changes forward
+	 */
+	private void propagate() {
+		for (int position = changed.nextSetBit(0); position >= 0; position = changed.nextSetBit(position + 1)) {
+			changed.clear(position);
+			int id = topologicalOrder[position];
+			boolean value = computeValue(id);
+			if (value != values[id]) {
+				setValue(id, value);
+			}
+		}
+		hasChanges = false;
+	}
+}
@@ -0,0 +1,303 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.PropNetTopology;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * the components of a propnet that have to be computed, in the order in which to compute them
+ *
+ * The order is split in two parts: the components that only depend on the state (which includes
+ * all legal, goal and terminal propositions) and the components that depend on some INPUT. Changing
+ * the inputs only requires computing the second part again. The topological order is kept within
+ * both parts.
+ *
+ * All data is kept in flat arrays indexed by the position of the component in the order.
+ * Constants, BASE and INPUT components are not part of the order.
+ *
+ * For cyclic propnets the order is an order of the strongly connected components (SCCs) of the propnet: Every
+ * SCC comes after all components it depends on and the components of a cyclic SCC are at consecutive positions
+ * (see cycleStart and cycleEnd). Those have to be computed repeatedly until their values do not change anymore.
+ *
+ * @author stephan
+ *
+ */
+class EvaluationOrder {
+
+	/**
+	 * ids of the components by position
+	 */
+	final int[] ids;
+
+	/**
+	 * operation of the components by position
+	 */
+	final byte[] operations;
+
+	// the inputs of the component at position p are inputIds[inputStart[p]] to inputIds[inputStart[p+1]-1]
+	final int[] inputStart;
+	final int[] inputIds;
+
+	/**
+	 * positions 0 to firstInputDependent-1 only depend on the state
+	 */
+	final int firstInputDependent;
+
+	/**
+	 * ids of all TRUE constants
+	 */
+	final int[] trueComponentIds;
+
+	/**
+	 * number of INPUT components
+	 */
+	final int nbInputComponents;
+
+	// the cyclic SCCs are at positions cycleStart[c] to cycleEnd[c]-1 (in increasing order of positions)
+	final int[] cycleStart;
+	final int[] cycleEnd;
+
+	/**
+	 * cycles 0 to firstInputDependentCycle-1 only depend on the state
+	 */
+	final int firstInputDependentCycle;
+
+	/**
+	 * @throws IllegalStateException if the propnet is cyclic
+	 */
+	public EvaluationOrder(PropNetStructure structure) {
+		this(structure, false);
+	}
+
+	/**
+	 * @param allowCycles if false, an IllegalStateException is thrown for cyclic propnets
+	 */
+	public EvaluationOrder(PropNetStructure structure, boolean allowCycles) {
+		PropNetTopology topology = structure.getTopology();
+		int nbComponents = structure.getNbComponents();
+		int[] topologicalOrder;
+		int[] sccs = null;
+		if (allowCycles && structure.isCylic()) {
+			sccs = new int[nbComponents];
+			topologicalOrder = getCondensedOrder(topology, sccs);
+		} else {
+			topologicalOrder = structure.getTopologicalOrder();
+		}
+
+		// find all components that depend on some input
+		boolean[] dependsOnInput = new boolean[nbComponents];
+		int nbToEvaluate = 0;
+		int nbInputDependent = 0;
+		int nbLinks = 0;
+		int nbTrue = 0;
+		int nbInputs = 0;
+		if (sccs != null) {
+			computeDependsOnInput(topology, topologicalOrder, sccs, dependsOnInput);
+		}
+		for (int id : topologicalOrder) {
+			byte operation = PropNetEvaluator.getOperation(topology.getType(id), topology.getNbInputs(id));
+			if (topology.getType(id) == Type.INPUT) {
+				nbInputs++;
+				dependsOnInput[id] = true;
+			} else if (operation == PropNetEvaluator.OP_TRUE) {
+				nbTrue++;
+			} else if (needsComputation(operation)) {
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					dependsOnInput[id] = dependsOnInput[id] || dependsOnInput[topology.getInput(i)];
+				}
+				nbToEvaluate++;
+				nbLinks += topology.getNbInputs(id);
+				if (dependsOnInput[id]) {
+					nbInputDependent++;
+				}
+			}
+		}
+		nbInputComponents = nbInputs;
+
+		ids = new int[nbToEvaluate];
+		operations = new byte[nbToEvaluate];
+		inputStart = new int[nbToEvaluate + 1];
+		inputIds = new int[nbLinks];
+		trueComponentIds = new int[nbTrue];
+		firstInputDependent = nbToEvaluate - nbInputDependent;
+		int nextStateDependent = 0;
+		int nextInputDependent = firstInputDependent;
+		int nextTrue = 0;
+		for (int id : topologicalOrder) {
+			byte operation = PropNetEvaluator.getOperation(topology.getType(id), topology.getNbInputs(id));
+			if (operation == PropNetEvaluator.OP_TRUE) {
+				trueComponentIds[nextTrue++] = id;
+			} else if (needsComputation(operation)) {
+				int position = (dependsOnInput[id] ? nextInputDependent++ : nextStateDependent++);
+				ids[position] = id;
+				operations[position] = operation;
+			}
+		}
+		int nextLink = 0;
+		for (int position = 0; position < nbToEvaluate; position++) {
+			inputStart[position] = nextLink;
+			int id = ids[position];
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				inputIds[nextLink++] = topology.getInput(i);
+			}
+		}
+		inputStart[nbToEvaluate] = nextLink;
+
+		// find the positions of the cyclic SCCs
+		IntArrayList starts = new IntArrayList();
+		IntArrayList ends = new IntArrayList();
+		int nbStateDependentCycles = 0;
+		if (sccs != null) {
+			boolean[] isCyclicScc = getCyclicSccs(topology, sccs);
+			int position = 0;
+			while (position < nbToEvaluate) {
+				int scc = sccs[ids[position]];
+				int end = position + 1;
+				while (end < nbToEvaluate && sccs[ids[end]] == scc) {
+					end++;
+				}
+				if (isCyclicScc[scc]) {
+					starts.add(position);
+					ends.add(end);
+					if (end <= firstInputDependent) {
+						nbStateDependentCycles++;
+					}
+				}
+				position = end;
+			}
+		}
+		cycleStart = starts.toIntArray();
+		cycleEnd = ends.toIntArray();
+		firstInputDependentCycle = nbStateDependentCycles;
+	}
+
+	/**
+	 * computes the strongly connected components of the propnet with Tarjan's algorithm (without recursion)
+	 *
+	 * @param sccs is filled with the index of the SCC of each component
+	 * @return the ids of all components, such that the components of each SCC are consecutive and every SCC comes
+	 * after the SCCs of the inputs of its components
+	 */
+	private static int[] getCondensedOrder(PropNetTopology topology, int[] sccs) {
+		int nbComponents = topology.getNbComponents();
+		int[] order = new int[nbComponents];
+		int nbOrdered = 0;
+		int nbSccs = 0;
+		int[] index = new int[nbComponents];
+		Arrays.fill(index, -1);
+		int[] lowLink = new int[nbComponents];
+		boolean[] onStack = new boolean[nbComponents];
+		int[] stack = new int[nbComponents];
+		int stackSize = 0;
+		// the components whose inputs are being visited and the position of the next input to visit
+		int[] path = new int[nbComponents];
+		int[] nextInput = new int[nbComponents];
+		int pathLength = 0;
+		int nextIndex = 0;
+		for (int root = 0; root < nbComponents; root++) {
+			if (index[root] != -1) {
+				continue;
+			}
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			path[pathLength] = root;
+			nextInput[pathLength++] = topology.getInputStart(root);
+			while (pathLength > 0) {
+				int id = path[pathLength - 1];
+				if (nextInput[pathLength - 1] < topology.getInputStart(id + 1)) {
+					int input = topology.getInput(nextInput[pathLength - 1]++);
+					if (index[input] == -1) {
+						index[input] = lowLink[input] = nextIndex++;
+						stack[stackSize++] = input;
+						onStack[input] = true;
+						path[pathLength] = input;
+						nextInput[pathLength++] = topology.getInputStart(input);
+					} else if (onStack[input]) {
+						lowLink[id] = Math.min(lowLink[id], index[input]);
+					}
+				} else {
+					pathLength--;
+					if (pathLength > 0) {
+						int parent = path[pathLength - 1];
+						lowLink[parent] = Math.min(lowLink[parent], lowLink[id]);
+					}
+					if (lowLink[id] == index[id]) {
+						// id is the root of an SCC, its components are on top of the stack
+						// (the ones found last first, which are computed best before the others)
+						int member;
+						do {
+							member = stack[--stackSize];
+							onStack[member] = false;
+							sccs[member] = nbSccs;
+							order[nbOrdered++] = member;
+						} while (member != id);
+						nbSccs++;
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return for each SCC, whether it contains a cycle (more than one component or a component that is its own input)
+	 */
+	private static boolean[] getCyclicSccs(PropNetTopology topology, int[] sccs) {
+		int nbSccs = 0;
+		for (int scc : sccs) {
+			nbSccs = Math.max(nbSccs, scc + 1);
+		}
+		int[] sizes = new int[nbSccs];
+		boolean[] isCyclic = new boolean[nbSccs];
+		for (int id = 0; id < sccs.length; id++) {
+			sizes[sccs[id]]++;
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				if (topology.getInput(i) == id) {
+					isCyclic[sccs[id]] = true;
+				}
+			}
+		}
+		for (int scc = 0; scc < nbSccs; scc++) {
+			isCyclic[scc] = isCyclic[scc] || sizes[scc] > 1;
+		}
+		return isCyclic;
+	}
+
+	/**
+	 * marks the INPUT components and all components that depend on one, such that all components of an SCC are marked or none
+	 */
+	private static void computeDependsOnInput(PropNetTopology topology, int[] condensedOrder, int[] sccs, boolean[] dependsOnInput) {
+		int first = 0;
+		while (first < condensedOrder.length) {
+			int scc = sccs[condensedOrder[first]];
+			int end = first + 1;
+			while (end < condensedOrder.length && sccs[condensedOrder[end]] == scc) {
+				end++;
+			}
+			boolean dependsOnInputs = false;
+			for (int position = first; position < end && !dependsOnInputs; position++) {
+				int id = condensedOrder[position];
+				dependsOnInputs = topology.getType(id) == Type.INPUT;
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1) && !dependsOnInputs; i++) {
+					dependsOnInputs = dependsOnInput[topology.getInput(i)];
+				}
+			}
+			for (int position = first; position < end; position++) {
+				dependsOnInput[condensedOrder[position]] = dependsOnInputs;
+			}
+			first = end;
+		}
+	}
+
+	static boolean needsComputation(byte operation) {
+		return operation != PropNetEvaluator.OP_SOURCE && operation != PropNetEvaluator.OP_TRUE && operation != PropNetEvaluator.OP_FALSE;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+}
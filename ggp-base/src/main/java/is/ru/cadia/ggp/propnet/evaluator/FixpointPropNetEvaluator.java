@@ -0,0 +1,155 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+
+/**
+ * evaluates a propnet that may be cyclic
+ *
+ * The propnet is condensed into its strongly connected components (see EvaluationOrder). Components that are not
+ * part of a cycle are computed once in topological order as in ForwardPropNetEvaluator. The components of each cycle
+ * start as false and are computed repeatedly until their values do not change anymore, which gives the least
+ * fixpoint (as defined by the rules) for cycles without negation. Cycles with negation (which do not occur in
+ * stratified games) are computed at most as many times as they have components.
+ *
+ * @author stephan
+ *
+ */
+public class FixpointPropNetEvaluator extends PropNetEvaluator {
+
+	/**
+	 * the value of each component (by id)
+	 */
+	private final boolean[] values;
+
+	private final EvaluationOrder order;
+
+	private long[] currentState = null;
+	private final int[] currentInputs;
+	private int nbCurrentInputs = 0;
+
+	private boolean stateDependentValid = false;
+	private boolean inputDependentValid = false;
+
+	public FixpointPropNetEvaluator(PropNetStructure structure) {
+		super(structure);
+		values = new boolean[nbComponents];
+		order = new EvaluationOrder(structure, true);
+		// constants never change, so they don't have to be evaluated
+		for (int id : order.trueComponentIds) {
+			values[id] = true;
+		}
+		currentInputs = new int[order.nbInputComponents];
+	}
+
+	@Override
+	public void setState(long[] baseState) {
+		if (baseState == currentState) {
+			return;
+		}
+		for (int i = 0; i < nbBasePropositions; i++) {
+			values[i] = isSet(baseState, i);
+		}
+		currentState = baseState;
+		stateDependentValid = false;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public void setInputs(int[] inputIds, int nbInputs) {
+		for (int i = 0; i < nbCurrentInputs; i++) {
+			values[currentInputs[i]] = false;
+		}
+		for (int i = 0; i < nbInputs; i++) {
+			values[inputIds[i]] = true;
+			currentInputs[i] = inputIds[i];
+		}
+		nbCurrentInputs = nbInputs;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public boolean getValue(int componentId) {
+		if (!stateDependentValid) {
+			evaluate(0, order.firstInputDependent, 0);
+			stateDependentValid = true;
+		}
+		if (!inputDependentValid) {
+			evaluate(order.firstInputDependent, order.size(), order.firstInputDependentCycle);
+			inputDependentValid = true;
+		}
+		return values[componentId];
+	}
+
+	/**
+	 * evaluates the components at positions from (inclusive) to to (exclusive) in the order
+	 * @param cycle the first cycle at or after position from
+	 */
+	private void evaluate(int from, int to, int cycle) {
+		int position = from;
+		while (position < to) {
+			if (cycle < order.cycleStart.length && order.cycleStart[cycle] < to) {
+				evaluateOnce(position, order.cycleStart[cycle]);
+				evaluateFixpoint(order.cycleStart[cycle], order.cycleEnd[cycle]);
+				position = order.cycleEnd[cycle];
+				cycle++;
+			} else {
+				evaluateOnce(position, to);
+				position = to;
+			}
+		}
+	}
+
+	private void evaluateOnce(int from, int to) {
+		for (int position = from; position < to; position++) {
+			values[order.ids[position]] = computeValue(position);
+		}
+	}
+
+	/**
+	 * computes the components of one cycle until their values do not change anymore
+	 */
+	private void evaluateFixpoint(int from, int to) {
+		for (int position = from; position < to; position++) {
+			values[order.ids[position]] = false;
+		}
+		boolean changed = true;
+		for (int iteration = 0; changed && iteration <= to - from; iteration++) {
+			changed = false;
+			for (int position = from; position < to; position++) {
+				boolean value = computeValue(position);
+				if (value != values[order.ids[position]]) {
+					values[order.ids[position]] = value;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private boolean computeValue(int position) {
+		final boolean[] values = this.values;
+		final int[] inputIds = order.inputIds;
+		int firstInput = order.inputStart[position];
+		int lastInput = order.inputStart[position + 1];
+		boolean value;
+		switch (order.operations[position]) {
+			case OP_AND:
+				value = true;
+				for (int i = firstInput; value && i < lastInput; i++) {
+					value = values[inputIds[i]];
+				}
+				return value;
+			case OP_OR:
+				value = false;
+				for (int i = firstInput; !value && i < lastInput; i++) {
+					value = values[inputIds[i]];
+				}
+				return value;
+			case OP_NOT:
+				return !values[inputIds[firstInput]];
+			case OP_PIPE:
+				return values[inputIds[firstInput]];
+			default:
+				return false;
+		}
+	}
+}
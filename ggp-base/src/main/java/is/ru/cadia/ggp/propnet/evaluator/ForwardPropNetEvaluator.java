@@ -0,0 +1,119 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+/**
+ * evaluates an acyclic propnet by one iterative pass over the components in topological order
+ *
+ * The components that depend on the state are evaluated separately from those that depend on
+ * the inputs (see EvaluationOrder), such that changing the inputs only requires evaluating the latter.
+ * All data needed for the evaluation is kept in flat arrays, such that the evaluation does not need
+ * recursion or any allocation.
+ *
+ * @author stephan
+ *
+ */
+public class ForwardPropNetEvaluator extends PropNetEvaluator {
+
+	/**
+	 * the value of each component (by id)
+	 */
+	private final boolean[] values;
+
+	private final EvaluationOrder order;
+
+	private long[] currentState = null;
+	private final int[] currentInputs;
+	private int nbCurrentInputs = 0;
+
+	private boolean stateDependentValid = false;
+	private boolean inputDependentValid = false;
+
+	public ForwardPropNetEvaluator(PropNetStructure structure) {
+		super(structure);
+		values = new boolean[nbComponents];
+		order = new EvaluationOrder(structure);
+		// constants never change, so they don't have to be evaluated
+		for (int id : order.trueComponentIds) {
+			values[id] = true;
+		}
+		currentInputs = new int[order.nbInputComponents];
+	}
+
+	@Override
+	public void setState(long[] baseState) {
+		if (baseState == currentState) {
+			return;
+		}
+		for (int i = 0; i < nbBasePropositions; i++) {
+			values[i] = isSet(baseState, i);
+		}
+		currentState = baseState;
+		stateDependentValid = false;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public void setInputs(int[] inputIds, int nbInputs) {
+		for (int i = 0; i < nbCurrentInputs; i++) {
+			values[currentInputs[i]] = false;
+		}
+		for (int i = 0; i < nbInputs; i++) {
+			values[inputIds[i]] = true;
+			currentInputs[i] = inputIds[i];
+		}
+		nbCurrentInputs = nbInputs;
+		inputDependentValid = false;
+	}
+
+	@Override
+	public boolean getValue(int componentId) {
+		if (!stateDependentValid) {
+			evaluate(0, order.firstInputDependent);
+			stateDependentValid = true;
+		}
+		if (!inputDependentValid) {
+			evaluate(order.firstInputDependent, order.size());
+			inputDependentValid = true;
+		}
+		return values[componentId];
+	}
+
+	/**
+	 * evaluates the components at positions from (inclusive) to to (exclusive) in the order
+	 */
+	private void evaluate(int from, int to) {
+		final boolean[] values = this.values;
+		final int[] inputStart = order.inputStart;
+		final int[] inputIds = order.inputIds;
+		final byte[] operations = order.operations;
+		final int[] ids = order.ids;
+		for (int position = from; position < to; position++) {
+			int firstInput = inputStart[position];
+			int lastInput = inputStart[position + 1];
+			boolean value;
+			switch (operations[position]) {
+				case OP_AND:
+					value = true;
+					for (int i = firstInput; value && i < lastInput; i++) {
+						value = values[inputIds[i]];
+					}
+					break;
+				case OP_OR:
+					value = false;
+					for (int i = firstInput; !value && i < lastInput; i++) {
+						value = values[inputIds[i]];
+					}
+					break;
+				case OP_NOT:
+					value = !values[inputIds[firstInput]];
+					break;
+				case OP_PIPE:
+					value = values[inputIds[firstInput]];
+					break;
+				default:
+					value = false;
+			}
+			values[ids[position]] = value;
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * compiles an acyclic PropNetStructure into a subclass of CompiledPropNet using javassist
+ *
+ * The generated code computes the components in the same order as ForwardPropNetEvaluator, but with one
+ * statement per component without any dispatch on the type of the component. Inside of a method, values
+ * are kept in local variables and only values that are needed outside of the method (by other methods or
+ * as next, legal, goal or terminal proposition) are written to the value array.
+ *
+ * A method in the JVM is limited to 64KB of bytecode and large methods are not compiled by the JIT,
+ * so the code is split into chunks of at most maxComponentsPerMethod components and maxInputsPerMethod
+ * component inputs. A component with more inputs than that gets a chunk of its own whose inputs are
+ * combined by helper methods, and the chunks are called through a tree of methods with at most
+ * MAX_CALLS_PER_METHOD calls each.
+ *
+ * The constant pool of a class is limited to 65535 entries. Component ids that do not fit in a short
+ * and every generated method take entries, so propnets that would exceed the limit are not compiled.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetCompiler {
+
+	// HotSpot does not JIT compile methods with more than 8000 bytes of bytecode (HugeMethodLimit),
+	// so the chunks are kept well below that
+	public static final int DEFAULT_MAX_COMPONENTS_PER_METHOD = 250;
+	public static final int DEFAULT_MAX_INPUTS_PER_METHOD = 500;
+
+	/**
+	 * maximal number of inputs combined in one expression (to keep the expressions simple for the javassist compiler)
+	 */
+	private static final int MAX_INPUTS_PER_EXPRESSION = 32;
+
+	/**
+	 * maximal number of chunks called from one method
+	 */
+	private static final int MAX_CALLS_PER_METHOD = 1000;
+
+	/**
+	 * entries of the constant pool that may be used by the generated class, leaving some room for the
+	 * entries that javassist adds for the class itself and for CompiledPropNet
+	 */
+	private static final int MAX_CONSTANT_POOL_ENTRIES = 65535 - 256;
+
+	/**
+	 * constant pool entries taken by each generated method: its name, a NameAndType and a Methodref
+	 */
+	private static final int CONSTANTS_PER_METHOD = 3;
+
+	private static final AtomicInteger nbCompiledClasses = new AtomicInteger(0);
+
+	private final int maxComponentsPerMethod;
+	private final int maxInputsPerMethod;
+
+	public PropNetCompiler() {
+		this(DEFAULT_MAX_COMPONENTS_PER_METHOD, DEFAULT_MAX_INPUTS_PER_METHOD);
+	}
+
+	public PropNetCompiler(int maxComponentsPerMethod, int maxInputsPerMethod) {
+		this.maxComponentsPerMethod = maxComponentsPerMethod;
+		this.maxInputsPerMethod = maxInputsPerMethod;
+	}
+
+	/**
+	 * a class loader for one compiled propnet, such that the class can be garbage collected together
+	 * with the propnet
+	 */
+	private static class CompiledPropNetClassLoader extends ClassLoader {
+		public CompiledPropNetClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+
+	/**
+	 * @return a class generated for the structure, new instances of it can be used with CompiledPropNetEvaluator
+	 * @throws CannotCompileException if the generated code can not be compiled or exceeds the limits of
+	 * the JVM
+	 */
+	public Class<? extends CompiledPropNet> compile(PropNetStructure structure) throws CannotCompileException {
+		Stopwatch stopWatch = new Stopwatch().start();
+		EvaluationOrder order = new EvaluationOrder(structure);
+		int[] stateChunkStarts = computeChunkStarts(order, 0, order.firstInputDependent);
+		int[] inputChunkStarts = computeChunkStarts(order, order.firstInputDependent, order.size());
+		boolean[] needsStore = computeNeedsStore(structure, order, stateChunkStarts, inputChunkStarts);
+		checkConstantPoolSize(order, stateChunkStarts, inputChunkStarts);
+
+		ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new ClassClassPath(CompiledPropNet.class));
+		String className = CompiledPropNet.class.getName() + "$" + nbCompiledClasses.incrementAndGet();
+		CtClass ctClass;
+		try {
+			ctClass = pool.makeClass(className, pool.get(CompiledPropNet.class.getName()));
+		} catch (NotFoundException e) {
+			throw new CannotCompileException(e);
+		}
+		ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+
+		addChunks(ctClass, "computeStateDependent", "s", stateChunkStarts, order, needsStore);
+		addChunks(ctClass, "computeInputDependent", "i", inputChunkStarts, order, needsStore);
+
+		byte[] bytecode;
+		try {
+			bytecode = ctClass.toBytecode();
+		} catch (IOException e) {
+			throw new CannotCompileException(e);
+		} finally {
+			ctClass.detach();
+		}
+		Class<?> compiledClass;
+		try {
+			CompiledPropNetClassLoader classLoader = new CompiledPropNetClassLoader(CompiledPropNet.class.getClassLoader());
+			classLoader.define(className, bytecode);
+			// initializing the class verifies it, such that a VerifyError shows up here and not in the evaluator
+			compiledClass = Class.forName(className, true, classLoader);
+		} catch (LinkageError e) {
+			// e.g., a ClassFormatError or VerifyError if the class exceeds a limit that is not checked above
+			throw new CannotCompileException(e);
+		} catch (ClassNotFoundException e) {
+			throw new CannotCompileException(e);
+		}
+		System.out.println("compiling propnet to " + bytecode.length + " bytes took: " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
+		return compiledClass.asSubclass(CompiledPropNet.class);
+	}
+
+	/**
+	 * @return for each component id, true if the value of the component must be written to the value array
+	 */
+	private boolean[] computeNeedsStore(PropNetStructure structure, EvaluationOrder order, int[] stateChunkStarts, int[] inputChunkStarts) {
+		boolean[] needsStore = new boolean[structure.getNbComponents()];
+		for (BaseProposition p : structure.getBasePropositions()) {
+			needsStore[p.nextComponent.id] = true;
+		}
+		for (int roleId = 0; roleId < structure.getRoles().length; roleId++) {
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				needsStore[move.getLegalComponent().id] = true;
+			}
+			for (StaticComponent goal : structure.getGoalPropositions(roleId)) {
+				needsStore[goal.id] = true;
+			}
+		}
+		needsStore[structure.getTerminalProposition().id] = true;
+
+		// values that are used in another chunk than the one computing them must be stored as well
+		int[] chunkById = new int[structure.getNbComponents()];
+		int[] chunkByPosition = new int[order.size()];
+		int chunk = 0;
+		for (int[] chunkStarts : new int[][] {stateChunkStarts, inputChunkStarts}) {
+			for (int i = 0; i + 1 < chunkStarts.length; i++, chunk++) {
+				for (int position = chunkStarts[i]; position < chunkStarts[i + 1]; position++) {
+					chunkByPosition[position] = chunk;
+					chunkById[order.ids[position]] = chunk;
+				}
+			}
+		}
+		for (int position = 0; position < order.size(); position++) {
+			for (int i = order.inputStart[position]; i < order.inputStart[position + 1]; i++) {
+				int input = order.inputIds[i];
+				if (chunkById[input] != chunkByPosition[position]) {
+					needsStore[input] = true;
+				}
+			}
+		}
+		return needsStore;
+	}
+
+	/**
+	 * estimates the number of constant pool entries of the generated class
+	 * @throws CannotCompileException if it exceeds MAX_CONSTANT_POOL_ENTRIES
+	 */
+	private void checkConstantPoolSize(EvaluationOrder order, int[] stateChunkStarts, int[] inputChunkStarts) throws CannotCompileException {
+		long nbMethods = 2;
+		for (int[] chunkStarts : new int[][] {stateChunkStarts, inputChunkStarts}) {
+			int nbChunks = chunkStarts.length - 1;
+			nbMethods += nbChunks;
+			// the methods calling the chunks
+			for (int nbCalls = nbChunks; nbCalls > MAX_CALLS_PER_METHOD; nbCalls = (nbCalls + MAX_CALLS_PER_METHOD - 1) / MAX_CALLS_PER_METHOD) {
+				nbMethods += (nbCalls + MAX_CALLS_PER_METHOD - 1) / MAX_CALLS_PER_METHOD;
+			}
+		}
+		// each id that does not fit into sipush is loaded from an Integer constant
+		BitSet largeIds = new BitSet();
+		for (int position = 0; position < order.size(); position++) {
+			int nbInputs = order.inputStart[position + 1] - order.inputStart[position];
+			if (nbInputs > maxInputsPerMethod) {
+				nbMethods += (nbInputs + maxInputsPerMethod - 1) / maxInputsPerMethod;
+			}
+			if (order.ids[position] > Short.MAX_VALUE) {
+				largeIds.set(order.ids[position]);
+			}
+			for (int i = order.inputStart[position]; i < order.inputStart[position + 1]; i++) {
+				if (order.inputIds[i] > Short.MAX_VALUE) {
+					largeIds.set(order.inputIds[i]);
+				}
+			}
+		}
+		long nbEntries = nbMethods * CONSTANTS_PER_METHOD + largeIds.cardinality();
+		if (nbEntries > MAX_CONSTANT_POOL_ENTRIES) {
+			throw new CannotCompileException("the propnet is too large to be compiled into one class ("
+					+ nbEntries + " constant pool entries)");
+		}
+	}
+
+	/**
+	 * splits the positions from (inclusive) to to (exclusive) into chunks
+	 * @return the start positions of the chunks followed by to
+	 */
+	private int[] computeChunkStarts(EvaluationOrder order, int from, int to) {
+		int[] starts = new int[to - from + 1];
+		int nbChunks = 0;
+		int position = from;
+		while (position < to) {
+			starts[nbChunks++] = position;
+			int nbComponents = 0;
+			int nbInputs = 0;
+			do {
+				int nbComponentInputs = order.inputStart[position + 1] - order.inputStart[position];
+				if (nbComponents > 0 && nbInputs + nbComponentInputs > maxInputsPerMethod) {
+					// a component with many inputs starts a new chunk, so that it gets one of its own
+					break;
+				}
+				nbInputs += nbComponentInputs;
+				nbComponents++;
+				position++;
+			} while (position < to && nbComponents < maxComponentsPerMethod && nbInputs < maxInputsPerMethod);
+		}
+		int[] result = new int[nbChunks + 1];
+		System.arraycopy(starts, 0, result, 0, nbChunks);
+		result[nbChunks] = to;
+		return result;
+	}
+
+	private void addChunks(CtClass ctClass, String methodName, String chunkPrefix, int[] chunkStarts, EvaluationOrder order, boolean[] needsStore) throws CannotCompileException {
+		List<String> calledMethods = new ArrayList<String>();
+		for (int chunk = 0; chunk + 1 < chunkStarts.length; chunk++) {
+			String chunkName = chunkPrefix + chunk;
+			ctClass.addMethod(CtNewMethod.make(generateChunk(ctClass, chunkName, chunkStarts[chunk], chunkStarts[chunk + 1], order, needsStore), ctClass));
+			calledMethods.add(chunkName);
+		}
+		// methods calling at most MAX_CALLS_PER_METHOD chunks each, until one method is left
+		int level = 0;
+		while (calledMethods.size() > MAX_CALLS_PER_METHOD) {
+			List<String> callingMethods = new ArrayList<String>();
+			for (int i = 0; i < calledMethods.size(); i += MAX_CALLS_PER_METHOD) {
+				String name = chunkPrefix + "_" + level + "_" + callingMethods.size();
+				List<String> calls = calledMethods.subList(i, Math.min(i + MAX_CALLS_PER_METHOD, calledMethods.size()));
+				ctClass.addMethod(CtNewMethod.make(generateCalls("private void " + name, calls), ctClass));
+				callingMethods.add(name);
+			}
+			calledMethods = callingMethods;
+			level++;
+		}
+		ctClass.addMethod(CtNewMethod.make(generateCalls("public void " + methodName, calledMethods), ctClass));
+	}
+
+	private String generateCalls(String signature, List<String> calledMethods) {
+		StringBuilder code = new StringBuilder();
+		code.append(signature).append("() {\n");
+		for (String calledMethod : calledMethods) {
+			code.append(calledMethod).append("();\n");
+		}
+		code.append("}");
+		return code.toString();
+	}
+
+	/**
+	 * generates the code computing the components at positions from (inclusive) to to (exclusive)
+	 *
+	 * Components with more than maxInputsPerMethod inputs are the only component of their chunk, so all
+	 * their inputs are stored in the value array and can be combined by helper methods that are added
+	 * to ctClass.
+	 */
+	private String generateChunk(CtClass ctClass, String name, int from, int to, EvaluationOrder order, boolean[] needsStore) throws CannotCompileException {
+		// ids of the components that are available as local variables
+		BitSet isLocal = new BitSet();
+		StringBuilder code = new StringBuilder();
+		code.append("private void ").append(name).append("() {\n");
+		code.append("boolean[] v = this.v;\n");
+		for (int position = from; position < to; position++) {
+			int id = order.ids[position];
+			int firstInput = order.inputStart[position];
+			int lastInput = order.inputStart[position + 1];
+			String local = "c" + id;
+			code.append("boolean ").append(local).append(" = ");
+			switch (order.operations[position]) {
+				case PropNetEvaluator.OP_AND:
+				case PropNetEvaluator.OP_OR:
+					boolean isAnd = order.operations[position] == PropNetEvaluator.OP_AND;
+					String operator = (isAnd ? " && " : " || ");
+					if (firstInput == lastInput) {
+						code.append(isAnd ? "true" : "false");
+					}
+					if (lastInput - firstInput > maxInputsPerMethod) {
+						for (int i = firstInput; i < lastInput; i += maxInputsPerMethod) {
+							String helperName = name + "_" + (i - firstInput) / maxInputsPerMethod;
+							ctClass.addMethod(CtNewMethod.make(generateHelper(helperName, i, Math.min(i + maxInputsPerMethod, lastInput), order, isAnd), ctClass));
+							if (i > firstInput) {
+								code.append(operator);
+							}
+							code.append(helperName).append("()");
+						}
+						break;
+					}
+					for (int i = firstInput; i < lastInput; i++) {
+						if (i > firstInput) {
+							if ((i - firstInput) % MAX_INPUTS_PER_EXPRESSION == 0) {
+								code.append(";\n").append(local).append(" = ").append(local);
+							}
+							code.append(operator);
+						}
+						appendValue(code, order.inputIds[i], isLocal);
+					}
+					break;
+				case PropNetEvaluator.OP_NOT:
+					code.append("!");
+					appendValue(code, order.inputIds[firstInput], isLocal);
+					break;
+				case PropNetEvaluator.OP_PIPE:
+					appendValue(code, order.inputIds[firstInput], isLocal);
+					break;
+				default:
+					code.append("false");
+			}
+			code.append(";\n");
+			isLocal.set(id);
+			if (needsStore[id]) {
+				code.append("v[").append(id).append("] = ").append(local).append(";\n");
+			}
+		}
+		code.append("}");
+		return code.toString();
+	}
+
+	/**
+	 * generates a method combining the inputs from (inclusive) to to (exclusive) of a component, which are
+	 * all read from the value array
+	 */
+	private String generateHelper(String name, int from, int to, EvaluationOrder order, boolean isAnd) {
+		BitSet noLocals = new BitSet();
+		String operator = (isAnd ? " && " : " || ");
+		StringBuilder code = new StringBuilder();
+		code.append("private boolean ").append(name).append("() {\n");
+		code.append("boolean[] v = this.v;\n");
+		code.append("boolean r = ");
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				if ((i - from) % MAX_INPUTS_PER_EXPRESSION == 0) {
+					code.append(";\nr = r");
+				}
+				code.append(operator);
+			}
+			appendValue(code, order.inputIds[i], noLocals);
+		}
+		code.append(";\nreturn r;\n}");
+		return code.toString();
+	}
+
+	private void appendValue(StringBuilder code, int id, BitSet isLocal) {
+		if (isLocal.get(id)) {
+			code.append("c").append(id);
+		} else {
+			code.append("v[").append(id).append("]");
+		}
+	}
+}
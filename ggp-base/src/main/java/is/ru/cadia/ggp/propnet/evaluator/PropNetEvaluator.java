@@ -0,0 +1,193 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+
+/**
+ * computes the values of all components of a PropNetStructure for one state and one set of inputs
+ *
+ * An evaluator holds the values of the components for the state that was set last. Evaluators are
+ * not thread-safe, each thread should use its own evaluator.
+ *
+ * States are given as arrays of long words, where bit i%64 of word i/64 is the value of the base
+ * proposition with id i. States passed to setState are assumed to be immutable: setting the same
+ * array again does not cause any work.
+ *
+ * @author stephan
+ *
+ */
+public abstract class PropNetEvaluator {
+
+	// operations of the components as used in the flat arrays of the evaluators
+	protected static final byte OP_SOURCE = 0; // BASE and INPUT, their values are set from the outside
+	protected static final byte OP_TRUE = 1;
+	protected static final byte OP_FALSE = 2;
+	protected static final byte OP_AND = 3;
+	protected static final byte OP_OR = 4;
+	protected static final byte OP_NOT = 5;
+	protected static final byte OP_PIPE = 6;
+
+	protected final PropNetStructure structure;
+
+	protected final int nbComponents;
+
+	protected final int nbBasePropositions;
+
+	/**
+	 * number of long words needed for a state
+	 */
+	protected final int nbStateWords;
+
+	/**
+	 * nextComponentIds[i] is the id of the component computing the value of base proposition i in the next state
+	 */
+	protected final int[] nextComponentIds;
+
+	/**
+	 * legalComponentIds[roleId][i] is the id of the legal proposition of getPossibleMoves(roleId)[i]
+	 */
+	protected final int[][] legalComponentIds;
+
+	/**
+	 * goalComponentIds[roleId][i] is the id of getGoalPropositions(roleId)[i]
+	 */
+	protected final int[][] goalComponentIds;
+
+	protected final int terminalComponentId;
+
+	public PropNetEvaluator(PropNetStructure structure) {
+		this.structure = structure;
+		nbComponents = structure.getNbComponents();
+		nbBasePropositions = structure.getNbBasePropositions();
+		nbStateWords = getNbStateWords(nbBasePropositions);
+		nextComponentIds = new int[nbBasePropositions];
+		for (BaseProposition p : structure.getBasePropositions()) {
+			nextComponentIds[p.id] = p.nextComponent.id;
+		}
+		int nbRoles = structure.getRoles().length;
+		legalComponentIds = new int[nbRoles][];
+		goalComponentIds = new int[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			PropNetMove[] moves = structure.getPossibleMoves(roleId);
+			legalComponentIds[roleId] = new int[moves.length];
+			for (int i = 0; i < moves.length; i++) {
+				legalComponentIds[roleId][i] = moves[i].getLegalComponent().id;
+			}
+			StaticComponent[] goalProps = structure.getGoalPropositions(roleId);
+			goalComponentIds[roleId] = new int[goalProps.length];
+			for (int i = 0; i < goalProps.length; i++) {
+				goalComponentIds[roleId][i] = goalProps[i].id;
+			}
+		}
+		terminalComponentId = structure.getTerminalProposition().id;
+	}
+
+	protected static byte getOperation(Type type, int nbInputs) {
+		switch (type) {
+			case BASE:
+			case INPUT:
+				return OP_SOURCE;
+			case TRUE:
+				return OP_TRUE;
+			case AND:
+				return OP_AND;
+			case OR:
+				return OP_OR;
+			case NOT:
+				return OP_NOT;
+			case PIPE:
+				// a PIPE without input is false
+				return (nbInputs == 0 ? OP_FALSE : OP_PIPE);
+			case FALSE:
+			case INIT:
+			default:
+				return OP_FALSE;
+		}
+	}
+
+	/**
+	 * @return the number of long words needed for a state with the given number of base propositions
+	 */
+	public static int getNbStateWords(int nbBasePropositions) {
+		return (nbBasePropositions + 63) >>> 6;
+	}
+
+	/**
+	 * @return the value of base proposition i in the state
+	 */
+	public static boolean isSet(long[] baseState, int i) {
+		return (baseState[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public PropNetStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * sets the values of the base propositions
+	 * @param baseState bit i%64 of baseState[i/64] is the value of the base proposition with id i
+	 */
+	public abstract void setState(long[] baseState);
+
+	/**
+	 * sets the given input components to true and all other input components to false
+	 * @param inputIds ids of INPUT components
+	 * @param nbInputs number of valid entries in inputIds
+	 */
+	public abstract void setInputs(int[] inputIds, int nbInputs);
+
+	/**
+	 * @return the value of the component with the given id for the current state and inputs
+	 */
+	public abstract boolean getValue(int componentId);
+
+	public boolean isTerminal() {
+		return getValue(terminalComponentId);
+	}
+
+	/**
+	 * @return the goal value of the first true goal proposition of the role or -1 if there is none
+	 */
+	public int getGoalValue(int roleId) {
+		int[] goalIds = goalComponentIds[roleId];
+		for (int i = 0; i < goalIds.length; i++) {
+			if (getValue(goalIds[i])) {
+				return structure.getGoalValues(roleId)[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param moveIndex index of the move in structure.getPossibleMoves(roleId)
+	 */
+	public boolean isLegal(int roleId, int moveIndex) {
+		return getValue(legalComponentIds[roleId][moveIndex]);
+	}
+
+	/**
+	 * computes the base propositions of the successor state for the current state and inputs
+	 * @param result is overwritten with the next state
+	 */
+	public void getNextState(long[] result) {
+		for (int w = 0; w < nbStateWords; w++) {
+			long word = 0;
+			int last = Math.min(nbBasePropositions, (w + 1) << 6);
+			for (int i = w << 6; i < last; i++) {
+				if (getValue(nextComponentIds[i])) {
+					word |= 1L << i;
+				}
+			}
+			result[w] = word;
+		}
+	}
+
+	public long[] getNextState() {
+		long[] result = new long[nbStateWords];
+		getNextState(result);
+		return result;
+	}
+}
@@ -1,26 +1,37 @@
 package is.ru.cadia.ggp.propnet.structure;
 
-import is.ru.cadia.ggp.propnet.structure.LParseRules.Rule;
 import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponent;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponentPool;
+import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponentSet;
 import is.ru.cadia.ggp.utils.IOUtils;
-import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -39,10 +50,13 @@ import com.google.common.base.Stopwatch;
 public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 	private String matchId;
     private List<Gdl> description;
-	private Map<Integer, DynamicComponent> componentMap;
+	private Int2ObjectMap<DynamicComponent> componentMap;
 	private List<Role> roles;
 	private DynamicComponentPool componentPool;
-	private Map<Integer, GdlSentence> symbolTable;
+	private IntSet facts;
+	private IntArrayList rootIds;
+	private SymbolBuffer symbolBuffer;
+	private boolean boundedMemory = false;
 //	private Map<GdlSentence, DynamicComponent> symbolToComponent;
 
     public ASPPropNetStructureFactory() {
@@ -54,7 +68,16 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
     	this.matchId = matchId;
 	}
 
-    protected LParseRules readRulesFromFile() throws InterruptedException, IOException {
+    /**
+     * In bounded-memory mode the relevant part of the symbol table is written to a temporary file while the
+     * grounder output is read and only parsed again after the unreachable components have been removed.
+     * Otherwise it is kept in memory.
+     */
+    public void setBoundedMemory(boolean boundedMemory) {
+    	this.boundedMemory = boundedMemory;
+    }
+
+    protected int readRulesFromFile(LParseRules.Listener listener) throws InterruptedException, IOException {
     	InputStream is = null;
     	try {
 	    	Stopwatch stopWatch = new Stopwatch().start();
@@ -65,10 +88,10 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 	        is = new BufferedInputStream(new FileInputStream(filename));
 
 	        // read GDLish version of lparse file with proposition structure
-	        LParseRules rules = LParseRules.readLParseRules(is);
+	        int nbRules = LParseRules.read(is, listener);
 	        is.close();
 	        System.out.println("reading rules took " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
-	        return rules;
+	        return nbRules;
     	} catch (InterruptedIOException e) {
     		throw new InterruptedException(e.getMessage());
     	} finally {
@@ -76,7 +99,11 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
     	}
 	}
 
-	protected LParseRules runAspGrounder() throws InterruptedException {
+	/**
+	 * runs the grounder on the description and passes its output to the listener while it is read
+	 * @return the number of rules
+	 */
+	protected int runAspGrounder(LParseRules.Listener listener) throws InterruptedException {
         long startTime = System.currentTimeMillis();
         Process p = null;
         try {
@@ -102,14 +129,14 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 	        // read the whole input before producing any output, so it should not block
 
 	        // read GDLish version of lparse file with proposition structure
-	        LParseRules rules = LParseRules.readLParseRules(p.getInputStream());
+	        int nbRules = LParseRules.read(p.getInputStream(), listener);
 			p.waitFor();
 	        if (p.exitValue() != 0) {
 	        	throw new RuntimeException("Running GDL grounder failed: non zero exit value!");
 	        }
 	        long grounderEndTime = System.currentTimeMillis();
 	        System.out.println("GDL grounder took " + ((grounderEndTime - startTime) / 1000.0) + "s");
-	        return rules;
+	        return nbRules;
         } catch (InterruptedIOException e) {
         	throw new InterruptedException(e.getMessage());
         } catch (IOException e) {
@@ -124,20 +151,14 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 	@Override
 	public PropNetStructure create(List<Gdl> description) throws InterruptedException {
 		this.description = description;
-		LParseRules rules;
-		// rules = readRulesFromFile();
-		rules = runAspGrounder();
 
-		// map from id of proposition in grounder result to component for that proposition
-		componentMap = new HashMap<>(rules.size());
-		// all components
-		componentPool = new DynamicComponentPool(rules.size());
-
-        // convert lparse rules to propnet
-        //    - each named id is a component
-        //    - ids with several rules have a disjunction as input or are the disjunction
-        //    - the body of each rule becomes a conjunction (if it has more than 1 element)
+        // convert lparse rules to propnet while they are read
+        //    - each id is a component
+        //    - ids with several rules are a disjunction of the rules
+        //    - the body of each rule becomes a conjunction (or a pipe if it has only 1 element)
         //    - negated body atoms are routed through a negation (we only make one negation per atom)
+        // The symbol table comes after the rules in the lparse format. Thus, we only know which
+        // components are needed once all rules are read and remove the others afterwards.
 
 		// get roles from the rules directly, so we have them in the right order
 		roles = Role.computeRoles(description);
@@ -145,123 +166,82 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 		Map<GdlTerm, DynamicComponent> nextMap = new HashMap<>();
 		Map<GdlSentence, DynamicComponent> legalMap = new HashMap<>(); // maps does(R,M) to the legal component
 
-		// Start from the symbol table (role, init, next, legal, goal, terminal) and create components
-		// for the symbols in the table. From those create all inputs that are needed.
-		// This way we automatically skip creating components, that we don't need.
-
-		Stopwatch stopWatch = new Stopwatch().start();
-		// mapping id to GDL sentence
-		symbolTable = new HashMap<>(rules.symbolTable.size());
-		// reverse symbol table (mapping GDL sentence to id)
-		Map<GdlSentence, Integer> symbol2Id = new HashMap<>(rules.symbolTable.size());
-		// keeping track of ids of propositions that we need to create components for
-		IntLinkedOpenHashSet neededIds = new IntLinkedOpenHashSet(rules.size());
-
-		for (Entry<Integer, String> entry : rules.symbolTable.entrySet()) {
-			ConcurrencyUtils.checkForInterruption();
-			int id = entry.getKey();
-			String symbolString = entry.getValue();
-			GdlSentence symbol = null;
-			try {
-				symbol = (GdlSentence)GdlFactory.create(symbolString);
-			} catch (GdlFormatException | SymbolFormatException e) {
-				System.err.println("error parsing \"" + symbolString + "\"");
-				e.printStackTrace();
-			}
-			if (symbol != null) {
-				PropType propType = getPropTypeForSymbol(symbol);
-				if (propType == PropType.ROLE
-					|| propType == PropType.INIT
-					|| propType == PropType.TRUE
-					|| propType == PropType.NEXT
-					|| propType == PropType.LEGAL && firstArgumentIsARole(symbol, roles)
-					|| propType == PropType.DOES && firstArgumentIsARole(symbol, roles)
-					|| propType == PropType.GOAL && firstArgumentIsARole(symbol, roles)
-					|| propType == PropType.TERMINAL) {
-					symbolTable.put(id, symbol);
-					symbol2Id.put(symbol, id);
-
-					if (propType == PropType.TRUE
-//						|| symbolName.equals(GdlPool.INIT) // we only need those, if there is a true that we need
-//						|| symbolName.equals(GdlPool.NEXT)
-						|| propType == PropType.LEGAL
-						|| propType == PropType.GOAL
-						|| propType == PropType.TERMINAL) {
-						neededIds.add(id);
-					}
-				} else {
-					symbol = null;
-				}
-			}
-		}
-		System.out.println("creating symbol table with " + symbolTable.size() + " symbols took " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
-		rules.symbolTable = null;
-		stopWatch.reset();
+		// map from id of proposition in grounder result to component for that proposition
+		componentMap = new Int2ObjectOpenHashMap<>();
+		// all components
+		componentPool = new DynamicComponentPool();
+		facts = new IntOpenHashSet();
+		rootIds = new IntArrayList();
 
-		// keeping track of which ids of propositions we already have components for
-		IntSet processedIds = new IntOpenHashSet(rules.size());
 		Set<DynamicComponent> baseComponents = new HashSet<>();
 		Set<DynamicComponent> inputComponents = new HashSet<>();
-		int nbProcessedComponents = 0;
-		while (!neededIds.isEmpty()) {
-			ConcurrencyUtils.checkForInterruption();
-			int headId = neededIds.removeFirstInt();
-			if (processedIds.contains(headId)) continue;
-			processedIds.add(headId);
-			nbProcessedComponents++;
-			if (nbProcessedComponents % 100000 == 0) {
-				System.out.println("processed " + nbProcessedComponents + " components");
-			}
-
-			// if the symbol for the current id is true(...), add the ids for next(..) and init(..) to the neededIds
-			GdlSentence symbol = symbolTable.get(headId);
-			PropType propType = getPropTypeForSymbol(symbol);
-			if (propType == PropType.TRUE) {
-				GdlSentence initSymbol = GdlPool.getRelation(GdlPool.INIT, symbol.getBody());
-				Integer initId = symbol2Id.get(initSymbol);
-				if (initId != null) {
-					neededIds.add(initId);
+		Stopwatch stopWatch = new Stopwatch().start();
+		try {
+			symbolBuffer = new SymbolBuffer(boundedMemory);
+			int nbRules;
+			// nbRules = readRulesFromFile(new ComponentBuilder());
+			nbRules = runAspGrounder(new ComponentBuilder());
+			System.out.println(componentPool.size() + " components created from " + nbRules + " rules and "
+					+ symbolBuffer.size() + " symbols kept in " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
+			stopWatch.reset().start();
+
+			removeUnreachableComponents();
+			rootIds = null;
+			System.out.println(componentPool.size() + " components left after removing unreachable ones in " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
+			stopWatch.reset().start();
+
+			// attach the symbols to their components
+			symbolBuffer.startReading();
+			while (symbolBuffer.next()) {
+				ConcurrencyUtils.checkForInterruption();
+				int id = symbolBuffer.getId();
+				GdlSentence symbol = symbolBuffer.getSymbol();
+				if (symbol == null) {
+					continue;
 				}
-				GdlSentence nextSymbol = GdlPool.getRelation(GdlPool.NEXT, symbol.getBody());
-				Integer nextId = symbol2Id.get(nextSymbol);
-				if (nextId != null) {
-					neededIds.add(nextId);
+				PropType propType = getPropTypeForSymbol(symbol);
+				if ((propType == PropType.LEGAL || propType == PropType.DOES || propType == PropType.GOAL) && !firstArgumentIsARole(symbol, roles)) {
+					continue;
 				}
-				DynamicComponent base = getDynamicComponent(headId);
-				baseComponents.add(base);
-				base.type = Type.BASE;
-			} else if (propType == PropType.DOES) {
-				DynamicComponent input = getDynamicComponent(headId);
-				inputComponents.add(input);
-				input.type = Type.INPUT;
-			} else {
-				if (rules.facts.rem(headId)) {
-					DynamicComponent headComponent = getDynamicComponent(headId);
-					headComponent.type = Type.TRUE;
-					if (propType == PropType.INIT && symbol.arity()==1) {
+				if (propType == PropType.TRUE) {
+					DynamicComponent base = getDynamicComponent(id);
+					base.type = Type.BASE;
+					base.addSymbol(symbol);
+					baseComponents.add(base);
+				} else if (propType == PropType.DOES) {
+					DynamicComponent input = getDynamicComponent(id);
+					input.type = Type.INPUT;
+					input.addSymbol(symbol);
+					inputComponents.add(input);
+				} else if (propType != PropType.NONE && propType != PropType.ROLE) {
+					DynamicComponent headComponent = componentMap.get(id);
+					if (headComponent == null) {
+						System.out.println("component does not have rules: " + id + " - " + symbol);
+						continue;
+					}
+					headComponent.addSymbol(symbol);
+					if (propType == PropType.LEGAL || propType == PropType.GOAL || propType == PropType.TERMINAL) {
+						headComponent.isView = true;
+					}
+					if (propType == PropType.INIT && symbol.arity()==1 && facts.contains(id)) {
 						initialState.add(GdlPool.getRelation(GdlPool.TRUE, symbol.getBody()));
 					}
 					processComponent(symbol, headComponent, nextMap, legalMap);
-				} else {
-					List<Rule> rulesForAtom = rules.rulesByHeadAtom.remove(headId);
-					if (rulesForAtom != null) {
-						DynamicComponent headComponent = getDynamicComponent(headId);
-						makeComponentForRules(headComponent, rulesForAtom, neededIds);
-						processComponent(symbol, headComponent, nextMap, legalMap);
-					} else {
-						System.out.println("component does not have rules: " + headId + " - " + symbolTable.get(headId));
-					}
 				}
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (symbolBuffer != null) {
+				symbolBuffer.close();
+			}
 		}
 		// we should not need the symbol table anymore from here on
-		symbolTable = null;
+		symbolBuffer = null;
 		componentMap = null;
-		rules = null;
-		processedIds = null;
-		neededIds = null;
-		System.out.println(componentPool.size() + " components created from rules in " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
-		stopWatch.reset();
+		facts = null;
+		System.out.println("attaching symbols took " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
+		stopWatch.reset().start();
 
 		// at this point we have all the dynamic components
 		// now we should connect true(X) with next(X) and does(R,M) with legal(R,M)
@@ -324,41 +304,151 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 		}
 	}
 
-	private void makeComponentForRules(DynamicComponent head, List<Rule> rulesForAtom, IntSet neededIds) {
-		if (rulesForAtom.size()==1 && rulesForAtom.get(0).isFact()) {
-			head.type = Type.TRUE;
-		} else if (rulesForAtom.size()>1) {
-			head.type = Type.OR;
-			for (Rule rule : rulesForAtom) {
-				DynamicComponent ruleComponent = componentPool.create();
-				makeComponentForRule(ruleComponent, rule, neededIds);
-				DynamicComponentPool.connect(ruleComponent, head);
+	/**
+	 * creates the components for the rules as they are read and keeps the relevant symbols
+	 */
+	private class ComponentBuilder implements LParseRules.Listener {
+
+		@Override
+		public void rule(int head, int[] positives, int[] negatives) {
+			DynamicComponent headComponent = getDynamicComponent(head);
+			if (positives.length + negatives.length == 0) {
+				// the head is made TRUE once all rules are read
+				facts.add(head);
+				return;
 			}
+			DynamicComponent ruleComponent;
+			if (headComponent.type == Type.FALSE) {
+				// first rule for this head, no need to create an or
+				ruleComponent = headComponent;
+			} else {
+				if (headComponent.type != Type.OR) {
+					// second rule for this head, move the first rule to its own component
+					DynamicComponent firstRuleComponent = componentPool.create();
+					firstRuleComponent.type = headComponent.type;
+					DynamicComponentSet inputs = new DynamicComponentSet(headComponent.getInputs());
+					DynamicComponentPool.disconnect(inputs, headComponent);
+					DynamicComponentPool.connect(inputs, firstRuleComponent);
+					DynamicComponentPool.connect(firstRuleComponent, headComponent);
+					headComponent.type = Type.OR;
+				}
+				ruleComponent = componentPool.create();
+				DynamicComponentPool.connect(ruleComponent, headComponent);
+			}
+			makeComponentForRule(ruleComponent, positives, negatives);
+		}
 
-		} else { // only one rule, no need to create an or
-			makeComponentForRule(head, rulesForAtom.get(0), neededIds);
+		@Override
+		public void endOfRules() {
+			// facts are true regardless of other rules for the same head
+			IntIterator it = facts.iterator();
+			while (it.hasNext()) {
+				DynamicComponent c = getDynamicComponent(it.nextInt());
+				DynamicComponentPool.disconnect(new DynamicComponentSet(c.getInputs()), c);
+				c.type = Type.TRUE;
+			}
+		}
+
+		@Override
+		public void symbol(int id, String symbolString) throws IOException {
+			PropType propType = getPropTypeForSymbolString(symbolString);
+			if (propType == PropType.NONE || propType == PropType.ROLE) {
+				return;
+			}
+			if (propType == PropType.TRUE || propType == PropType.DOES) {
+				// bases and inputs are needed even if they are not used in any rule
+				getDynamicComponent(id);
+			} else if (!componentMap.containsKey(id)) {
+				return;
+			}
+			rootIds.add(id);
+			symbolBuffer.add(id, symbolString);
+		}
+	}
+
+	/**
+	 * @return the type of the symbol judging only from its name or NONE,
+	 * the exact type is only known after parsing the symbol
+	 */
+	private static PropType getPropTypeForSymbolString(String symbolString) {
+		int start = 0;
+		while (start < symbolString.length() && (symbolString.charAt(start) == '(' || Character.isWhitespace(symbolString.charAt(start)))) {
+			start++;
+		}
+		int end = start;
+		while (end < symbolString.length() && symbolString.charAt(end) != '(' && symbolString.charAt(end) != ')' && !Character.isWhitespace(symbolString.charAt(end))) {
+			end++;
+		}
+		switch (symbolString.substring(start, end).toLowerCase()) {
+			case "role": return PropType.ROLE;
+			case "init": return PropType.INIT;
+			case "true": return PropType.TRUE;
+			case "next": return PropType.NEXT;
+			case "legal": return PropType.LEGAL;
+			case "does": return PropType.DOES;
+			case "goal": return PropType.GOAL;
+			case "terminal": return PropType.TERMINAL;
+			default: return PropType.NONE;
 		}
 	}
 
-	private void makeComponentForRule(DynamicComponent head, Rule rule, IntSet neededIds) {
-		if (rule.negatives.length + rule.positives.length == 0) {
-			head.type = Type.TRUE;
-		} else {
-			head.type = Type.AND;
-			for (int id : rule.positives) {
-				DynamicComponent c = getDynamicComponent(id);
-				DynamicComponentPool.connect(c, head);
-				neededIds.add(id);
+	/**
+	 * removes all components that are not inputs of the components with a relevant symbol, directly or indirectly
+	 */
+	private void removeUnreachableComponents() throws InterruptedException {
+		BitSet reachable = new BitSet(componentPool.getHighestId() + 1);
+		IntArrayList stack = new IntArrayList();
+		for (int i = 0; i < rootIds.size(); i++) {
+			DynamicComponent c = componentMap.get(rootIds.getInt(i));
+			if (!reachable.get(c.id)) {
+				reachable.set(c.id);
+				stack.add(c.id);
 			}
-			for (int id : rule.negatives) {
-				DynamicComponent c = getDynamicComponent(-id);
-				DynamicComponentPool.connect(c, head);
-				neededIds.add(id);
+		}
+		while (!stack.isEmpty()) {
+			DynamicComponent c = componentPool.get(stack.popInt());
+			for (DynamicComponent input : c.getInputs()) {
+				if (!reachable.get(input.id)) {
+					reachable.set(input.id);
+					stack.add(input.id);
+				}
 			}
-			if (head.getNbInputs()==1) {
-				head.type = Type.PIPE;
+		}
+		ConcurrencyUtils.checkForInterruption();
+		List<DynamicComponent> unreachable = new ArrayList<>(componentPool.size() - reachable.cardinality());
+		for (DynamicComponent c : componentPool) {
+			if (!reachable.get(c.id)) {
+				unreachable.add(c);
 			}
 		}
+		for (ObjectIterator<DynamicComponent> it = componentMap.values().iterator(); it.hasNext(); ) {
+			if (!reachable.get(it.next().id)) {
+				it.remove();
+			}
+		}
+		for (DynamicComponent c : unreachable) {
+			// reachable components have no unreachable inputs
+			DynamicComponentPool.disconnect(new DynamicComponentSet(c.getInputs()), c);
+			DynamicComponentPool.disconnect(c, new DynamicComponentSet(c.getOutputs()));
+		}
+		for (DynamicComponent c : unreachable) {
+			componentPool.free(c);
+		}
+	}
+
+	private void makeComponentForRule(DynamicComponent head, int[] positives, int[] negatives) {
+		head.type = Type.AND;
+		for (int id : positives) {
+			DynamicComponent c = getDynamicComponent(id);
+			DynamicComponentPool.connect(c, head);
+		}
+		for (int id : negatives) {
+			DynamicComponent c = getDynamicComponent(-id);
+			DynamicComponentPool.connect(c, head);
+		}
+		if (head.getNbInputs()==1) {
+			head.type = Type.PIPE;
+		}
 	}
 
 	private DynamicComponent getDynamicComponent(int id) {
@@ -370,22 +460,124 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 				c.type = Type.NOT;
 				DynamicComponent notC = getDynamicComponent(-id);
 				DynamicComponentPool.connect(notC, c);
-			} else {
-				GdlSentence symbol = symbolTable.get(id);
-				if (symbol != null) {
-					PropType propType = getPropTypeForSymbol(symbol);
-					if (propType != PropType.NONE) {
-						c.addSymbol(symbol);
-						if (propType == PropType.LEGAL || propType == PropType.GOAL || propType == PropType.TERMINAL) {
-							c.isView = true;
-						}
-					}
-				}
 			}
 		}
 		return c;
 	}
 
+	/**
+	 * keeps the relevant symbols of the symbol table until all rules are read, either in memory or in a
+	 * temporary file that is parsed again while reading the symbols back
+	 */
+	private static class SymbolBuffer {
+		private int size = 0;
+		// in memory
+		private IntArrayList ids;
+		private List<GdlSentence> symbols;
+		// on disk
+		private File file;
+		private DataOutputStream out;
+		private DataInputStream in;
+
+		private int position;
+		private int id;
+		private GdlSentence symbol;
+
+		public SymbolBuffer(boolean onDisk) throws IOException {
+			if (onDisk) {
+				file = File.createTempFile("symbols", ".tmp");
+				file.deleteOnExit();
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			} else {
+				ids = new IntArrayList();
+				symbols = new ArrayList<>();
+			}
+		}
+
+		public void add(int id, String symbolString) throws IOException {
+			if (out != null) {
+				// writeUTF is limited to 64KB
+				byte[] bytes = symbolString.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(id);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else {
+				ids.add(id);
+				symbols.add(parse(symbolString));
+			}
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public void startReading() throws IOException {
+			if (out != null) {
+				out.close();
+				out = null;
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			}
+			position = 0;
+		}
+
+		/**
+		 * moves to the next symbol
+		 * @return false if there are no more symbols
+		 */
+		public boolean next() throws IOException {
+			if (position >= size) {
+				return false;
+			}
+			if (in != null) {
+				id = in.readInt();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				symbol = parse(new String(bytes, StandardCharsets.UTF_8));
+			} else {
+				id = ids.getInt(position);
+				symbol = symbols.get(position);
+			}
+			position++;
+			return true;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return the current symbol or null if it could not be parsed
+		 */
+		public GdlSentence getSymbol() {
+			return symbol;
+		}
+
+		public void close() {
+			try {
+				if (out != null) out.close();
+				if (in != null) in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (file != null) {
+				file.delete();
+			}
+			ids = null;
+			symbols = null;
+		}
+
+		private static GdlSentence parse(String symbolString) {
+			try {
+				return (GdlSentence)GdlFactory.create(symbolString);
+			} catch (GdlFormatException | SymbolFormatException e) {
+				System.err.println("error parsing \"" + symbolString + "\"");
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
 	@Override
 	public void cleanup() {
 		super.cleanup();
@@ -394,7 +586,9 @@ public class ASPPropNetStructureFactory extends PropNetStructureFactory {
 		componentMap = null;
 		roles = null;
 		componentPool = null;
-		symbolTable = null;
+		facts = null;
+		rootIds = null;
+		symbolBuffer = null;
 	}
 
 }
@@ -0,0 +1,108 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.scrambler.GdlRenderer;
+import org.ggp.base.util.gdl.scrambler.MappingGdlScrambler;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * a canonical form of a game description that does not depend on the names of constants and variables
+ *
+ * Every constant that MappingGdlScrambler would scramble (everything except GDL keywords and numbers) is
+ * renamed to "c" followed by the number of distinct constants seen before its first occurrence. Variables are
+ * renamed in the same way per rule. Thus, a game description and every scrambled version of it have the same
+ * canonical form and the same hash, as long as the order of the rules and literals is the same.
+ *
+ * getCanonicalNames and getConstants map between the constants of this description and their canonical names,
+ * such that something computed for one version of the game (e.g., a propnet) can be used with another version.
+ *
+ * @author stephan
+ *
+ */
+public class CanonicalRules {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<GdlConstant, String> canonicalNames = new HashMap<>();
+	private final Map<String, GdlConstant> constants = new HashMap<>();
+	private final String hash;
+
+	public CanonicalRules(List<Gdl> description) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+		for (Gdl gdl : description) {
+			digest.update(new CanonicalRenderer().renderGdl(gdl).getBytes(UTF8));
+			digest.update((byte)'\n');
+		}
+		hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	/**
+	 * renders constants by their canonical names and variables by their number in the rendered rule
+	 */
+	private class CanonicalRenderer extends GdlRenderer {
+		private final Map<GdlVariable, String> variableNames = new HashMap<>();
+
+		@Override
+		protected String renderConstant(GdlConstant constant) {
+			String name = canonicalNames.get(constant);
+			if (name == null) {
+				if (MappingGdlScrambler.shouldMap(constant.getValue())) {
+					name = "c" + canonicalNames.size();
+					constants.put(name, constant);
+				} else {
+					name = constant.getValue();
+				}
+				canonicalNames.put(constant, name);
+			}
+			return name;
+		}
+
+		@Override
+		protected String renderVariable(GdlVariable variable) {
+			String name = variableNames.get(variable);
+			if (name == null) {
+				name = "?v" + variableNames.size();
+				variableNames.put(variable, name);
+			}
+			return name;
+		}
+	}
+
+	/**
+	 * @return the SHA-256 hash of the canonical form of the description as a hex string
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the canonical name of each constant in the description (the name itself for keywords and numbers)
+	 */
+	public Map<GdlConstant, String> getCanonicalNames() {
+		return Collections.unmodifiableMap(canonicalNames);
+	}
+
+	/**
+	 * @return the constant of the description for each canonical name that differs from the name of the constant
+	 */
+	public Map<String, GdlConstant> getConstants() {
+		return Collections.unmodifiableMap(constants);
+	}
+}
@@ -0,0 +1,186 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+
+/**
+ * the components of a GGP-base propnet with their inputs and outputs as arrays of indices
+ *
+ * The indices of the components depend on the (identity) hash codes of the components, which differ between
+ * runs. getCanonicalOrder computes an order of the components that only depends on the structure of the propnet
+ * and the names of the propositions.
+ *
+ * @author stephan
+ *
+ */
+class ComponentGraph {
+
+	private static final long INPUT_SEED = 0x9e3779b97f4a7c15L;
+	private static final long OUTPUT_SEED = 0xc2b2ae3d27d4eb4fL;
+
+	final Component[] components;
+
+	// inputs of component i are inputs[inputStarts[i]] to inputs[inputStarts[i+1]-1], same for outputs
+	final int[] inputStarts;
+	final int[] inputs;
+	final int[] outputStarts;
+	final int[] outputs;
+
+	public ComponentGraph(Set<Component> componentSet) {
+		components = componentSet.toArray(new Component[componentSet.size()]);
+		Map<Component, Integer> indexByComponent = new HashMap<>(components.length);
+		for (int i = 0; i < components.length; i++) {
+			indexByComponent.put(components[i], i);
+		}
+		inputStarts = new int[components.length + 1];
+		outputStarts = new int[components.length + 1];
+		for (int i = 0; i < components.length; i++) {
+			inputStarts[i + 1] = inputStarts[i] + components[i].getInputs().size();
+			outputStarts[i + 1] = outputStarts[i] + components[i].getOutputs().size();
+		}
+		inputs = new int[inputStarts[components.length]];
+		outputs = new int[outputStarts[components.length]];
+		for (int i = 0; i < components.length; i++) {
+			int j = inputStarts[i];
+			for (Component c : components[i].getInputs()) {
+				inputs[j++] = indexByComponent.get(c);
+			}
+			j = outputStarts[i];
+			for (Component c : components[i].getOutputs()) {
+				outputs[j++] = indexByComponent.get(c);
+			}
+		}
+	}
+
+	/**
+	 * orders the components by color refinement: The initial color of a component is a hash of its type and
+	 * name. In every round, the new color of a component is a hash of its color and the colors of its inputs and
+	 * outputs. This is repeated until the number of different colors does not grow anymore.
+	 *
+	 * Components with the same color are ordered by their index. This only happens for components that are
+	 * indistinguishable by their neighborhood, which (nearly always) means that exchanging them gives the same
+	 * propnet.
+	 *
+	 * @param nbShards the number of parts that the components are split into for computing the colors
+	 * @param executor used for computing the colors of the shards in parallel, may be null
+	 * @return the indices of the components in canonical order
+	 */
+	public int[] getCanonicalOrder(int nbShards, ExecutorService executor) throws InterruptedException {
+		final int nbComponents = components.length;
+		long[] colors = new long[nbComponents];
+		for (int i = 0; i < nbComponents; i++) {
+			colors[i] = getInitialColor(components[i]);
+		}
+		int nbColors = countColors(colors);
+		while (true) {
+			ConcurrencyUtils.checkForInterruption();
+			final long[] oldColors = colors;
+			final long[] newColors = new long[nbComponents];
+			List<Callable<Void>> tasks = new ArrayList<>(nbShards);
+			for (int shard = 0; shard < nbShards; shard++) {
+				final int from = (int)((long)nbComponents * shard / nbShards);
+				final int to = (int)((long)nbComponents * (shard + 1) / nbShards);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = from; i < to; i++) {
+							newColors[i] = refineColor(oldColors, i);
+						}
+						return null;
+					}
+				});
+			}
+			ConcurrencyUtils.invokeAll(executor, tasks);
+			int newNbColors = countColors(newColors);
+			if (newNbColors <= nbColors) {
+				// the new colors do not distinguish more components than the old ones
+				break;
+			}
+			colors = newColors;
+			nbColors = newNbColors;
+		}
+
+		final long[] finalColors = colors;
+		int[] order = new int[nbComponents];
+		for (int i = 0; i < nbComponents; i++) {
+			order[i] = i;
+		}
+		IntArrays.mergeSort(order, new IntComparator() {
+			@Override
+			public int compare(int i1, int i2) {
+				return Long.compare(finalColors[i1], finalColors[i2]);
+			}
+
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return compare(i1.intValue(), i2.intValue());
+			}
+		});
+		return order;
+	}
+
+	private long refineColor(long[] colors, int i) {
+		// sums are independent of the order of inputs and outputs
+		long inputColors = 0;
+		for (int j = inputStarts[i]; j < inputStarts[i + 1]; j++) {
+			inputColors += mix(colors[inputs[j]] ^ INPUT_SEED);
+		}
+		long outputColors = 0;
+		for (int j = outputStarts[i]; j < outputStarts[i + 1]; j++) {
+			outputColors += mix(colors[outputs[j]] ^ OUTPUT_SEED);
+		}
+		return mix(colors[i] + mix(inputColors + mix(outputColors)));
+	}
+
+	private static long getInitialColor(Component c) {
+		String label = c.getClass().getSimpleName();
+		if (c instanceof Proposition) {
+			label += " " + ((Proposition)c).getName();
+		} else if (c instanceof Constant) {
+			label += " " + c.getValue();
+		}
+		long color = 0;
+		for (int i = 0; i < label.length(); i++) {
+			color = mix(color + label.charAt(i));
+		}
+		return color;
+	}
+
+	private static int countColors(long[] colors) {
+		long[] sortedColors = colors.clone();
+		Arrays.sort(sortedColors);
+		int nbColors = 0;
+		for (int i = 0; i < sortedColors.length; i++) {
+			if (i == 0 || sortedColors[i] != sortedColors[i - 1]) {
+				nbColors++;
+			}
+		}
+		return nbColors;
+	}
+
+	/**
+	 * the finalizer of MurmurHash3
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
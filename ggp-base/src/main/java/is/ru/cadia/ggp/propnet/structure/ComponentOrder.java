@@ -0,0 +1,27 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+/**
+ * the possible orders in which PropNetStructureFactory gives ids to the components
+ *
+ * Base propositions always get the ids 0 to (number of base propositions - 1). All orders are topological
+ * for acyclic propnets, that is, every component gets a higher id than all of its inputs. For cyclic propnets
+ * DEPTH_FIRST is used.
+ *
+ * @author stephan
+ *
+ */
+public enum ComponentOrder {
+	/**
+	 * the order of a depth-first search along the inputs of the components (used by earlier versions)
+	 */
+	DEPTH_FIRST,
+	/**
+	 * all components that only depend on components with lower levels before the next level
+	 */
+	LEVELS,
+	/**
+	 * always the component next whose last input got its id most recently, such that inputs of components
+	 * are close to the components and chains of components get consecutive ids
+	 */
+	LOCALITY
+}
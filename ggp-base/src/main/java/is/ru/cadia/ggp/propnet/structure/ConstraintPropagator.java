@@ -0,0 +1,331 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * checks whether some values of components are contradictory in any state of the propnet
+ *
+ * The check assigns the values and propagates them through the propnet (in both directions) taking into account that
+ * - every role does at most one move and only legal moves,
+ * - at most one base proposition of each mutex group is true (see setMutexGroups).
+ * If that does not lead to a contradiction, it tries all inputs of some undecided AND or OR component up to some depth.
+ *
+ * The check is incomplete: Values can be contradictory without the check noticing.
+ *
+ * @author stephan
+ *
+ */
+class ConstraintPropagator {
+
+	static final byte UNKNOWN = 0;
+	static final byte TRUE = 1;
+	static final byte FALSE = 2;
+
+	private final PropNetTopology topology;
+
+	private final byte[] values;
+	// the ids of all components that have a value in the order they got it
+	private final IntArrayList trail;
+	// the ids of components that got a value, but whose neighbors have not been checked yet
+	private final IntArrayList queue;
+
+	// the role of each input component (or -1) and the input components of each role
+	private final int[] roleByInput;
+	private final int[][] inputsByRole;
+	// the legal component of each input component and the input components of each legal component
+	private final int[] legalByInput;
+	private final IntList[] inputsByLegal;
+
+	private int[][] mutexGroups = new int[0][];
+	// the indices of the mutex groups of each base proposition
+	private int[][] mutexGroupsByBase;
+
+	private final int maxDepth;
+	private final int maxNbNodes;
+	private int nbNodes;
+
+	/**
+	 * @param maxDepth the maximal number of nested case distinctions
+	 * @param maxNbNodes the maximal number of case distinctions for one call of isContradictory
+	 */
+	public ConstraintPropagator(PropNetStructure structure, int maxDepth, int maxNbNodes) {
+		this.topology = structure.getTopology();
+		this.maxDepth = maxDepth;
+		this.maxNbNodes = maxNbNodes;
+		int nbComponents = topology.getNbComponents();
+		values = new byte[nbComponents];
+		trail = new IntArrayList();
+		queue = new IntArrayList();
+		roleByInput = new int[nbComponents];
+		Arrays.fill(roleByInput, -1);
+		legalByInput = new int[nbComponents];
+		inputsByLegal = new IntList[nbComponents];
+		int nbRoles = structure.getRoles().length;
+		// moves without any effect share one INPUT component, which is left unconstrained
+		int[] nbMovesByInput = new int[nbComponents];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				nbMovesByInput[move.getInputComponent().id]++;
+			}
+		}
+		inputsByRole = new int[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			PropNetMove[] moves = structure.getPossibleMoves(roleId);
+			IntList inputs = new IntArrayList(moves.length);
+			for (int i = 0; i < moves.length; i++) {
+				int inputId = moves[i].getInputComponent().id;
+				int legalId = moves[i].getLegalComponent().id;
+				if (nbMovesByInput[inputId] > 1) {
+					continue;
+				}
+				inputs.add(inputId);
+				roleByInput[inputId] = roleId;
+				legalByInput[inputId] = legalId;
+				if (inputsByLegal[legalId] == null) {
+					inputsByLegal[legalId] = new IntArrayList(1);
+				}
+				inputsByLegal[legalId].add(inputId);
+			}
+			inputsByRole[roleId] = inputs.toIntArray();
+		}
+		mutexGroupsByBase = new int[structure.getNbBasePropositions()][0];
+	}
+
+	/**
+	 * @param groups groups of base propositions of which at most one is true in every state
+	 */
+	public void setMutexGroups(List<int[]> groups) {
+		mutexGroups = groups.toArray(new int[groups.size()][]);
+		IntList[] groupsByBase = new IntList[mutexGroupsByBase.length];
+		for (int g = 0; g < mutexGroups.length; g++) {
+			for (int id : mutexGroups[g]) {
+				if (groupsByBase[id] == null) {
+					groupsByBase[id] = new IntArrayList();
+				}
+				groupsByBase[id].add(g);
+			}
+		}
+		for (int id = 0; id < mutexGroupsByBase.length; id++) {
+			mutexGroupsByBase[id] = (groupsByBase[id] == null ? new int[0] : groupsByBase[id].toIntArray());
+		}
+	}
+
+	/**
+	 * @return true if the components with the given ids can not have the given values (TRUE or FALSE) at the same time
+	 * (false means that it is unknown)
+	 */
+	public boolean isContradictory(int[] ids, byte[] valuesOfIds) {
+		assert trail.isEmpty();
+		nbNodes = 0;
+		boolean contradictory = false;
+		for (int i = 0; i < ids.length && !contradictory; i++) {
+			contradictory = !assign(ids[i], valuesOfIds[i]);
+		}
+		if (!contradictory) {
+			contradictory = !isSatisfiable(maxDepth);
+		}
+		undo(0);
+		return contradictory;
+	}
+
+	public boolean isContradictory(int id1, byte value1, int id2, byte value2) {
+		return isContradictory(new int[] {id1, id2}, new byte[] {value1, value2});
+	}
+
+	/**
+	 * @return false, if the current values lead to a contradiction
+	 */
+	private boolean isSatisfiable(int depth) {
+		if (!propagate()) {
+			return false;
+		}
+		if (depth == 0 || nbNodes >= maxNbNodes) {
+			return true;
+		}
+		// find a true OR (false AND) for which it is unclear which input is true (false)
+		int caseComponent = -1;
+		for (int i = 0; i < trail.size() && caseComponent == -1; i++) {
+			int id = trail.getInt(i);
+			Type type = topology.getType(id);
+			if (type == Type.OR && values[id] == TRUE && hasSeveralUnknownInputs(id, TRUE)
+					|| type == Type.AND && values[id] == FALSE && hasSeveralUnknownInputs(id, FALSE)) {
+				caseComponent = id;
+			}
+		}
+		if (caseComponent == -1) {
+			return true;
+		}
+		byte caseValue = values[caseComponent];
+		int mark = trail.size();
+		for (int i = topology.getInputStart(caseComponent); i < topology.getInputStart(caseComponent + 1); i++) {
+			int input = topology.getInput(i);
+			if (values[input] == UNKNOWN) {
+				nbNodes++;
+				boolean satisfiable = assign(input, caseValue) && isSatisfiable(depth - 1);
+				undo(mark);
+				if (satisfiable) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if no input has the given value and at least two inputs are unknown
+	 */
+	private boolean hasSeveralUnknownInputs(int id, byte value) {
+		int nbUnknown = 0;
+		for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+			byte inputValue = values[topology.getInput(i)];
+			if (inputValue == value) {
+				return false;
+			} else if (inputValue == UNKNOWN) {
+				nbUnknown++;
+			}
+		}
+		return nbUnknown >= 2;
+	}
+
+	private void undo(int mark) {
+		while (trail.size() > mark) {
+			values[trail.removeInt(trail.size() - 1)] = UNKNOWN;
+		}
+		queue.clear();
+	}
+
+	/**
+	 * @return false, if the component already has the opposite value
+	 */
+	private boolean assign(int id, byte value) {
+		if (values[id] == UNKNOWN) {
+			values[id] = value;
+			trail.add(id);
+			queue.add(id);
+			return true;
+		}
+		return values[id] == value;
+	}
+
+	/**
+	 * @return false, if a contradiction was found
+	 */
+	private boolean propagate() {
+		while (!queue.isEmpty()) {
+			int id = queue.removeInt(queue.size() - 1);
+			if (!check(id)) {
+				return false;
+			}
+			for (int i = topology.getOutputStart(id); i < topology.getOutputStart(id + 1); i++) {
+				if (!check(topology.getOutput(i))) {
+					return false;
+				}
+			}
+			if (values[id] == TRUE) {
+				if (id < mutexGroupsByBase.length) {
+					// the other base propositions in the mutex groups are false
+					for (int g : mutexGroupsByBase[id]) {
+						for (int other : mutexGroups[g]) {
+							if (other != id && !assign(other, FALSE)) {
+								return false;
+							}
+						}
+					}
+				}
+				if (roleByInput[id] != -1) {
+					// the other moves of the role are not done and this move is legal
+					for (int other : inputsByRole[roleByInput[id]]) {
+						if (other != id && !assign(other, FALSE)) {
+							return false;
+						}
+					}
+					if (!assign(legalByInput[id], TRUE)) {
+						return false;
+					}
+				}
+			} else if (inputsByLegal[id] != null) {
+				// illegal moves are not done
+				for (int input : inputsByLegal[id]) {
+					if (!assign(input, FALSE)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * assigns the values that follow from the type of the component and the values of its inputs (or the other way round)
+	 * @return false, if there is a contradiction
+	 */
+	private boolean check(int id) {
+		Type type = topology.getType(id);
+		int firstInput = topology.getInputStart(id);
+		int lastInput = topology.getInputStart(id + 1);
+		switch (type) {
+			case AND:
+			case OR:
+				// AND and OR are the same with TRUE and FALSE swapped
+				byte dominant = (type == Type.AND ? FALSE : TRUE);
+				byte neutral = (type == Type.AND ? TRUE : FALSE);
+				int nbUnknown = 0;
+				int unknownInput = -1;
+				for (int i = firstInput; i < lastInput; i++) {
+					int input = topology.getInput(i);
+					if (values[input] == dominant) {
+						return assign(id, dominant);
+					} else if (values[input] == UNKNOWN) {
+						nbUnknown++;
+						unknownInput = input;
+					}
+				}
+				if (nbUnknown == 0) {
+					return assign(id, neutral);
+				} else if (values[id] == neutral) {
+					for (int i = firstInput; i < lastInput; i++) {
+						if (!assign(topology.getInput(i), neutral)) {
+							return false;
+						}
+					}
+				} else if (values[id] == dominant && nbUnknown == 1) {
+					return assign(unknownInput, dominant);
+				}
+				return true;
+			case NOT:
+			case PIPE:
+				if (firstInput == lastInput) {
+					// a PIPE without input is false
+					return assign(id, FALSE);
+				}
+				int input = topology.getInput(firstInput);
+				boolean negate = (type == Type.NOT);
+				if (values[input] != UNKNOWN) {
+					return assign(id, negate ? opposite(values[input]) : values[input]);
+				} else if (values[id] != UNKNOWN) {
+					return assign(input, negate ? opposite(values[id]) : values[id]);
+				}
+				return true;
+			case TRUE:
+				return assign(id, TRUE);
+			case FALSE:
+				return assign(id, FALSE);
+			case INIT:
+				// INIT is only true in the initial state, but that can be the current state
+			case BASE:
+			case INPUT:
+			default:
+				return true;
+		}
+	}
+
+	private static byte opposite(byte value) {
+		return (value == TRUE ? FALSE : TRUE);
+	}
+}
@@ -11,11 +11,15 @@ import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -38,40 +42,80 @@ public class DynamicPropnetOptimizer {
 	FALSE, TRUE,
 	PUSH_FACTOR, FACTOR, DUPLICATE_NOT_OUTPUT, SELF_LOOP, DEMORGAN}
 
+	/**
+	 * default number of components per partition (see DynamicPropnetOptimizer(DynamicComponentPool, ExecutorService, int))
+	 */
+	public static final int DEFAULT_PARTITION_SIZE = 4096;
+
+	/**
+	 * components with more inputs and outputs than this are not used to grow a partition, because they
+	 * would pull unrelated parts of the propnet into the same partition
+	 */
+	private static final int MAX_DEGREE_FOR_PARTITIONING = 64;
+
+	/**
+	 * minimal number of ids reserved for new components of each partition
+	 */
+	private static final int MIN_NEW_IDS_PER_PARTITION = 256;
+
 	private int[] optimizationsDone = new int[OptimizationType.values().length];
 
 	private DynamicComponentPool componentPool;
 	private BitSet changedComponentIds;
 	private BitSetIterator changedComponentIterator;
 
+	private final ExecutorService executor;
+	private final int partitionSize;
+
+	// the following are only set for the optimizer of a single partition (see optimizePartitions)
+	private Partitioning partitioning = null;
+	private int partition;
+	private int nextNewId;
+	private int endNewId;
+	private BitSet deferredComponentIds;
+	private List<DynamicComponent> removedComponents;
+
 	public DynamicPropnetOptimizer(DynamicComponentPool componentPool) {
+		this(componentPool, null, DEFAULT_PARTITION_SIZE);
+	}
+
+	/**
+	 * Each round of optimizations first splits propnets with more than partitionSize components into
+	 * partitions and optimizes the partitions independently, possibly in parallel. Components that are
+	 * too close to other partitions are optimized after that in a single thread.
+	 *
+	 * The result only depends on partitionSize, not on the number of threads.
+	 *
+	 * @param executor used for optimizing the partitions in parallel, may be null
+	 * @param partitionSize the minimal number of components per partition
+	 */
+	public DynamicPropnetOptimizer(DynamicComponentPool componentPool, ExecutorService executor, int partitionSize) {
 		this.componentPool = componentPool;
+		this.executor = executor;
+		this.partitionSize = partitionSize;
+	}
+
+	/**
+	 * creates an optimizer for one partition that creates new components with ids from firstNewId to endNewId-1
+	 */
+	private DynamicPropnetOptimizer(DynamicComponentPool componentPool, Partitioning partitioning, int partition,
+			int firstNewId, int endNewId) {
+		this(componentPool, null, Integer.MAX_VALUE);
+		this.partitioning = partitioning;
+		this.partition = partition;
+		this.nextNewId = firstNewId;
+		this.endNewId = endNewId;
+		this.deferredComponentIds = new BitSet();
+		this.removedComponents = new ArrayList<>();
 	}
 
 	public Set<DynamicComponent> run() throws InterruptedException {
 		ConcurrencyUtils.checkForInterruption();
 		resetOptimizationStats();
-		int iterations = 0;
 
 		// first run one fast round without the expensive optimizations
 		// this should cut down on the number of components a lot and make things easier later on
-		changedComponentIds = new BitSet(componentPool.getHighestId());
-		setBits(changedComponentIds, componentPool);
-		changedComponentIterator = new BitSetIterator(changedComponentIds);
-		while (changedComponentIterator.hasNext()) {
-			ConcurrencyUtils.checkForInterruption();
-			DynamicComponent c = componentPool.get(changedComponentIterator.nextInt());
-			changedComponentIterator.remove();
-			iterations++;
-//			removeSelfLoops(c);
-			if (!removeUnusedComponent(c)) {
-				optimizeComponent(c);
-			}
-			if (iterations % 10000 == 0) {
-				System.out.println("iteration " + iterations + ": " + componentPool.size() + " components left");
-			}
-		}
-		assert changedComponentIds.cardinality() == 0;
+		int iterations = runRound(false);
 		System.out.println("optimization: first round checked on " + iterations + " components");
 
 		PropNetStructureFactory.packComponents(componentPool);
@@ -95,34 +139,254 @@ public class DynamicPropnetOptimizer {
 		//  - remove BASEs if they are always false
 		//  Note: removing can only be done if components are not technically needed (are not base, input or any other recognized proposition)
 
-		iterations = 0;
+		iterations = runRound(true);
+		System.out.println("optimization: checked on " + iterations + " components");
+		printOptimizationStats();
+		return componentPool;
+	}
+
+	/**
+	 * optimizes the components until a fixpoint is reached
+	 * @param allOptimizations whether to also use the optimizations that look at more than one component (factoring, etc.)
+	 * @return the number of components checked
+	 */
+	private int runRound(boolean allOptimizations) throws InterruptedException {
+		int iterations = 0;
 		changedComponentIds = new BitSet(componentPool.getHighestId());
-		setBits(changedComponentIds, componentPool);
+		int nbPartitions = componentPool.size() / partitionSize;
+		if (nbPartitions > 1) {
+			// leaves the components that still need to be checked in changedComponentIds
+			iterations += optimizePartitions(nbPartitions, allOptimizations);
+			System.out.println("optimization: " + changedComponentIds.cardinality() + " components left to check after optimizing " + nbPartitions + " partitions");
+		} else {
+			setBits(changedComponentIds, componentPool);
+		}
 		changedComponentIterator = new BitSetIterator(changedComponentIds);
+		iterations += optimizeChangedComponents(allOptimizations);
+		return iterations;
+	}
+
+	private int optimizeChangedComponents(boolean allOptimizations) throws InterruptedException {
+		int iterations = 0;
 		while (changedComponentIterator.hasNext()) {
 			ConcurrencyUtils.checkForInterruption();
 			DynamicComponent c = componentPool.get(changedComponentIterator.nextInt());
 			changedComponentIterator.remove();
 			iterations++;
-//			removeSelfLoops(c);
-			if (!removeUnusedComponent(c)) {
-//				if (removeDuplicateInputsAndOutputs(c)) {
-//					changedComponents.addAll(c.getInputs());
-//					changedComponents.addAll(c.getOutputs());
-//				}
-				optimizeNotOutputs(c);
-				optimizeCommonFactors(c, Type.AND);
-				optimizeCommonFactors(c, Type.OR);
-				pushFactorToCommonOutputs(c); // TODO: find better name
-				optimizeComponent(c);
-			}
-			if (iterations % 10000 == 0) {
+			optimize(c, allOptimizations);
+			if (partitioning == null && iterations % 10000 == 0) {
 				System.out.println("iteration " + iterations + ": " + componentPool.size() + " components left");
 			}
 		}
-		System.out.println("optimization: checked on " + iterations + " components");
-		printOptimizationStats();
-		return componentPool;
+		assert changedComponentIds.cardinality() == 0;
+		return iterations;
+	}
+
+	private void optimize(DynamicComponent c, boolean allOptimizations) {
+		if (!isLocal(c)) {
+			deferComponent(c);
+			return;
+		}
+//		removeSelfLoops(c);
+		if (removeUnusedComponent(c)) {
+			return;
+		}
+		if (allOptimizations) {
+//			if (removeDuplicateInputsAndOutputs(c)) {
+//				changedComponents.addAll(c.getInputs());
+//				changedComponents.addAll(c.getOutputs());
+//			}
+			// each optimization might have changed the neighborhood of c
+			optimizeNotOutputs(c);
+			if (!isLocal(c) || !optimizeCommonFactors(c, Type.AND)
+					|| !isLocal(c) || !optimizeCommonFactors(c, Type.OR)
+					|| !isLocal(c) || !pushFactorToCommonOutputs(c) // TODO: find better name
+					|| !isLocal(c)) {
+				deferComponent(c);
+				return;
+			}
+		}
+		optimizeComponent(c);
+	}
+
+	/**
+	 * Splits the components into partitions and optimizes each partition with its own optimizer. A component
+	 * is only optimized by the optimizer of its partition and only if all components that are at most two
+	 * links away are in the same partition. Thus, the optimizers never change the same components and links
+	 * between partitions do not change.
+	 *
+	 * Afterwards, the components that could not be optimized are set in changedComponentIds.
+	 * @return the number of components checked
+	 */
+	private int optimizePartitions(int nbPartitions, final boolean allOptimizations) throws InterruptedException {
+		Partitioning partitioning = new Partitioning(componentPool, nbPartitions);
+		// every partition gets its own range of ids for new components, such that the ids do not depend on timing
+		int firstNewId = componentPool.getHighestId() + 1;
+		final List<DynamicPropnetOptimizer> optimizers = new ArrayList<>(nbPartitions);
+		for (int p = 0; p < nbPartitions; p++) {
+			int nbNewIds = Math.max(MIN_NEW_IDS_PER_PARTITION, partitioning.sizes[p]);
+			optimizers.add(new DynamicPropnetOptimizer(componentPool, partitioning, p, firstNewId, firstNewId + nbNewIds));
+			firstNewId += nbNewIds;
+		}
+		partitioning.reserve(firstNewId);
+		componentPool.reserve(firstNewId - 1);
+
+		List<Callable<Integer>> tasks = new ArrayList<>(nbPartitions);
+		for (final DynamicPropnetOptimizer optimizer : optimizers) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws InterruptedException {
+					return optimizer.optimizePartition(allOptimizations);
+				}
+			});
+		}
+		List<Integer> iterations = ConcurrencyUtils.invokeAll(executor, tasks);
+		componentPool.trim();
+
+		int totalIterations = 0;
+		List<DynamicComponent> removedComponents = new ArrayList<>();
+		for (int p = 0; p < nbPartitions; p++) {
+			DynamicPropnetOptimizer optimizer = optimizers.get(p);
+			totalIterations += iterations.get(p);
+			for (int i = 0; i < optimizationsDone.length; i++) {
+				optimizationsDone[i] += optimizer.optimizationsDone[i];
+			}
+			changedComponentIds.or(optimizer.deferredComponentIds);
+			removedComponents.addAll(optimizer.removedComponents);
+		}
+		for (DynamicComponent c : removedComponents) {
+			// c might have been deferred by the optimizer of a neighboring partition
+			changedComponentIds.clear(c.id);
+			componentPool.free(c);
+		}
+		return totalIterations;
+	}
+
+	private int optimizePartition(boolean allOptimizations) throws InterruptedException {
+		changedComponentIds = new BitSet(endNewId);
+		for (int id = 0; id < partitioning.owner.length; id++) {
+			if (partitioning.owner[id] == partition) {
+				changedComponentIds.set(id);
+			}
+		}
+		changedComponentIterator = new BitSetIterator(changedComponentIds);
+		return optimizeChangedComponents(allOptimizations);
+	}
+
+	/**
+	 * the assignment of components to partitions
+	 *
+	 * Partitions are consecutive parts of a breadth-first ordering of the components (following inputs and
+	 * outputs), such that most links stay inside a partition.
+	 */
+	private static class Partitioning {
+		// partition of each component id (-1 for unused ids)
+		private int[] owner;
+		// ids of components with a link to a component in another partition
+		private final BitSet boundary;
+		private final int[] sizes;
+
+		public Partitioning(DynamicComponentPool componentPool, int nbPartitions) {
+			owner = new int[componentPool.getHighestId() + 1];
+			Arrays.fill(owner, -1);
+			IntArrayList order = new IntArrayList(componentPool.size());
+			BitSet visited = new BitSet(owner.length);
+			for (DynamicComponent start : componentPool) {
+				if (visited.get(start.id)) {
+					continue;
+				}
+				int next = order.size();
+				visited.set(start.id);
+				order.add(start.id);
+				while (next < order.size()) {
+					DynamicComponent c = componentPool.get(order.getInt(next++));
+					if (c.getNbInputs() + c.getNbOutputs() > MAX_DEGREE_FOR_PARTITIONING) {
+						continue;
+					}
+					for (DynamicComponentSet neighbors : Arrays.asList(c.getInputs(), c.getOutputs())) {
+						for (IntIterator it = neighbors.getIndices().iterator(); it.hasNext(); ) {
+							int id = it.nextInt();
+							if (!visited.get(id)) {
+								visited.set(id);
+								order.add(id);
+							}
+						}
+					}
+				}
+			}
+			sizes = new int[nbPartitions];
+			for (int i = 0; i < order.size(); i++) {
+				int p = (int)((long)i * nbPartitions / order.size());
+				owner[order.getInt(i)] = p;
+				sizes[p]++;
+			}
+			boundary = new BitSet(owner.length);
+			for (DynamicComponent c : componentPool) {
+				for (DynamicComponentSet neighbors : Arrays.asList(c.getInputs(), c.getOutputs())) {
+					for (IntIterator it = neighbors.getIndices().iterator(); it.hasNext(); ) {
+						if (owner[it.nextInt()] != owner[c.id]) {
+							boundary.set(c.id);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * makes room for new components with ids up to maxId-1
+		 */
+		public void reserve(int maxId) {
+			int oldLength = owner.length;
+			owner = Arrays.copyOf(owner, maxId);
+			Arrays.fill(owner, oldLength, maxId, -1);
+		}
+	}
+
+	/**
+	 * @return true, if all components that are at most two links away from c are in the partition of this optimizer
+	 * (always true, if this optimizer is not for a partition)
+	 */
+	private boolean isLocal(DynamicComponent c) {
+		if (partitioning == null) {
+			return true;
+		}
+		assert partitioning.owner[c.id] == partition;
+		if (partitioning.boundary.get(c.id)) {
+			return false;
+		}
+		for (DynamicComponentSet neighbors : Arrays.asList(c.getInputs(), c.getOutputs())) {
+			for (IntIterator it = neighbors.getIndices().iterator(); it.hasNext(); ) {
+				if (partitioning.boundary.get(it.nextInt())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * leaves c to be optimized after all partitions are done
+	 */
+	private void deferComponent(DynamicComponent c) {
+		assert partitioning != null;
+		deferredComponentIds.set(c.id);
+	}
+
+	private DynamicComponent createComponent() {
+		if (partitioning == null) {
+			return componentPool.create();
+		}
+		assert nextNewId < endNewId;
+		DynamicComponent c;
+		synchronized (componentPool) {
+			c = componentPool.create(nextNewId++);
+		}
+		partitioning.owner[c.id] = partition;
+		return c;
+	}
+
+	private boolean canCreateComponents(int nbComponents) {
+		return partitioning == null || nextNewId + nbComponents <= endNewId;
 	}
 
 	/**
@@ -315,6 +579,10 @@ public class DynamicPropnetOptimizer {
 //	}
 
 	private void addChangedComponent(int id) {
+		if (partitioning != null && partitioning.owner[id] != partition) {
+			deferredComponentIds.set(id);
+			return;
+		}
 		changedComponentIds.set(id);
 		changedComponentIterator.resetTo(id);
 	}
@@ -460,7 +728,11 @@ public class DynamicPropnetOptimizer {
 //		} else if (!c.isView && c.getNbOutputs() == 1 && c.getFirstOutput().type==Type.NOT) {
 //			useDeMorgan(c);
 		} else if (onlyNotInputs(c)) {
-			useDeMorganReversed(c);
+			if (canCreateComponents(1)) {
+				useDeMorganReversed(c);
+			} else {
+				deferComponent(c);
+			}
 		}
 	}
 
@@ -515,7 +787,7 @@ public class DynamicPropnetOptimizer {
 		for (DynamicComponent input : c.getInputs()) {
 			negInputs.add(input.getFirstInput());
 		}
-		DynamicComponent newC = componentPool.create();
+		DynamicComponent newC = createComponent();
 		if (c.type == Type.AND) {
 			newC.type = Type.OR;
 		} else { // c.type == Type.OR
@@ -702,7 +974,11 @@ public class DynamicPropnetOptimizer {
 //		} else if (!c.isView && c.getNbOutputs() == 1 && c.getFirstOutput().type==Type.NOT) {
 //			useDeMorgan(c);
 		} else if (onlyNotInputs(c)) {
-			useDeMorganReversed(c);
+			if (canCreateComponents(1)) {
+				useDeMorganReversed(c);
+			} else {
+				deferComponent(c);
+			}
 		}
 	}
 
@@ -810,12 +1086,15 @@ public class DynamicPropnetOptimizer {
 	}
 
 	private BitSet occurs = null;
-	private void optimizeCommonFactors(DynamicComponent c, Type type) {
+	/**
+	 * @return false, if not all common factors could be optimized, because this optimizer can not create more components
+	 */
+	private boolean optimizeCommonFactors(DynamicComponent c, Type type) {
 		assert type == Type.AND || type == Type.OR;
 		// if c outputs to several ANDs (or ORs) and these have other inputs in common
 		// then add an intermediate AND (or OR) for the common inputs
 		if (c.getNbOutputs() < 3) {
-			return;
+			return true;
 		}
 //		if (c.getNbOutputs() > 1000) {
 //			System.out.println("number of outputs is too high for optimizeCommonFactors: " + c.getNbOutputs());
@@ -866,9 +1145,12 @@ public class DynamicPropnetOptimizer {
 			}
 			if (factoredComponentIds.size()>1) {
 				assert factor.cardinality()>=2; // at least c.id and commonId are in here
+				if (!canCreateComponents(1)) {
+					return false;
+				}
 				// deal with the found factor
 				// create factor component of the same type as factored components
-				DynamicComponent factorComponent = componentPool.create();
+				DynamicComponent factorComponent = createComponent();
 				factorComponent.type = componentPool.get(factoredComponentIds.get(0)).type;
 				DynamicComponentSet componentsInFactor = new DynamicComponentSet(componentPool, factor);
 				DynamicComponentSet factoredComponents = new DynamicComponentSet(componentPool, factoredComponentIds);
@@ -895,11 +1177,15 @@ public class DynamicPropnetOptimizer {
 				didOptimize(OptimizationType.FACTOR);
 			}
 		}
+		return true;
 	}
 
-	private void pushFactorToCommonOutputs(DynamicComponent c) {
+	/**
+	 * @return false, if not all factors could be pushed, because this optimizer can not create more components
+	 */
+	private boolean pushFactorToCommonOutputs(DynamicComponent c) {
 		if (c.getNbOutputs()<2) {
-			return;
+			return true;
 		}
 		// find AND/ORs in outputs of c that have only one output each, that is a an OR/AND, that they have all in common
 		IntList outputsWithCommonOutputIds = new IntArrayList(c.getNbOutputs());
@@ -932,6 +1218,9 @@ public class DynamicPropnetOptimizer {
 					}
 					if (outputsWithCommonOutputIds.size()>1) {
 						assert factor.size()>=1; // at least c should be in the factor
+						if (!canCreateComponents(2)) {
+							return false;
+						}
 						// disconnect outputsWithCommonOutput from commonOutputsOutput
 						// put two new components in between:
 						// - one of the type of commonOutputsOutput combining the outputsWithCommonOutput
@@ -942,7 +1231,7 @@ public class DynamicPropnetOptimizer {
 						DynamicComponentPool.disconnect(componentsInFactor, outputsWithCommonOutput);
 						Type type1 = commonOutputsOutput.type;
 						Type type2 = (commonOutputsOutput.type == Type.AND ? Type.OR : Type.AND);
-						DynamicComponent newC1 = componentPool.create();
+						DynamicComponent newC1 = createComponent();
 						newC1.type = type1;
 						DynamicComponentPool.connect(outputsWithCommonOutput, newC1);
 						DynamicComponent newC2;
@@ -951,7 +1240,7 @@ public class DynamicPropnetOptimizer {
 							// -> reuse the commonOutputsOutput for the second new component
 							newC2 = commonOutputsOutput;
 						} else {
-							newC2 = componentPool.create();
+							newC2 = createComponent();
 							DynamicComponentPool.connect(newC2, commonOutputsOutput);
 						}
 						newC2.type = type2;
@@ -992,6 +1281,7 @@ public class DynamicPropnetOptimizer {
 				}
 			}
 		}
+		return true;
 	}
 
 	private void removeFalseInput(DynamicComponent c) {
@@ -1027,8 +1317,14 @@ public class DynamicPropnetOptimizer {
 		if (c.type == Type.INIT) {
 			System.out.println("removing INIT");
 		}
-		componentPool.free(c);
 		removeChangedComponent(c);
+		if (partitioning == null) {
+			componentPool.free(c);
+		} else {
+			// other optimizers might create components at the same time, so c is freed later
+			deferredComponentIds.clear(c.id);
+			removedComponents.add(c);
+		}
 	}
 
 	private void resetOptimizationStats() {
@@ -5,13 +5,17 @@ import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponent;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponentPool;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponentSet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -28,12 +32,58 @@ import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
 import org.ggp.base.util.statemachine.Role;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * creates propnet structures with the OptimizingPropNetFactory of GGP-base
+ *
+ * Creating the propnet is done in stages that use several threads: The rules of independent sentence forms
+ * are grounded in parallel and the resulting propnet is converted into dynamic components in shards. To
+ * keep the ids of the components reproducible, the components are converted in a canonical order that does
+ * not depend on the (identity) hash codes of the GGP-base components, which differ between runs.
+ *
+ * @author stephan
+ *
+ */
 public class GGPBasePropNetStructureFactory extends PropNetStructureFactory {
 
+	/**
+	 * number of shards per thread for converting the propnet
+	 */
+	private static final int SHARDS_PER_THREAD = 4;
+
+	private final int nbThreads;
+
+	public GGPBasePropNetStructureFactory() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param nbThreads the number of threads used for creating the propnet (1 means the current thread only)
+	 */
+	public GGPBasePropNetStructureFactory(int nbThreads) {
+		this.nbThreads = nbThreads;
+	}
+
 	@Override
 	public PropNetStructure create(List<Gdl> description) throws InterruptedException {
+		ExecutorService executor = null;
+		if (nbThreads > 1) {
+			executor = Executors.newFixedThreadPool(nbThreads,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("propnet-factory-%d").build());
+		}
+		try {
+			return create(description, executor);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private PropNetStructure create(List<Gdl> description, ExecutorService executor) throws InterruptedException {
     	long startTime = System.currentTimeMillis();
-        PropNet propNet = OptimizingPropNetFactory.create(description);
+        PropNet propNet = OptimizingPropNetFactory.create(description, false, executor);
         System.out.println("original #components: " + propNet.getSize()
         		+ ", #and: " + propNet.getNumAnds()
         		+ ", #or: " + propNet.getNumOrs()
@@ -48,43 +98,52 @@ public class GGPBasePropNetStructureFactory extends PropNetStructureFactory {
         System.out.println("making propnet took " + (createPropNetEndTime-startTime)/1000.0 + "s");
 
         System.out.println("making propnet structure ...");
-        PropNetStructure propNetStructure = createFromPropNet(propNet);
+        PropNetStructure propNetStructure = createFromPropNet(propNet, executor);
 
         long endTime = System.currentTimeMillis();
         System.out.println("making propnet structure took " + (endTime-createPropNetEndTime)/1000.0 + "s");
         return propNetStructure;
 	}
 
-	private PropNetStructure createFromPropNet(PropNet propNet) throws InterruptedException {
+	private PropNetStructure createFromPropNet(PropNet propNet, ExecutorService executor) throws InterruptedException {
         // setup roles
         List<Role> roles = propNet.getRoles();
 
 		// turn components of the PropNet into our own objects
-		Set<Component> propNetComponents = propNet.getComponents();
-		int nbComponents = propNetComponents.size();
-        DynamicComponentPool componentPool = new DynamicComponentPool(nbComponents);
+		final ComponentGraph graph = new ComponentGraph(propNet.getComponents());
+		int nbComponents = graph.components.length;
+		int nbShards = (executor == null ? 1 : nbThreads * SHARDS_PER_THREAD);
+		int[] order = graph.getCanonicalOrder(nbShards, executor);
+        final DynamicComponentPool componentPool = new DynamicComponentPool(nbComponents);
 		Map<Component, DynamicComponent> componentMapping = new HashMap<>(nbComponents);
-		for (Component c:propNetComponents) {
+		final DynamicComponent[] dcByIndex = new DynamicComponent[nbComponents];
+		for (int index : order) {
 			ConcurrencyUtils.checkForInterruption();
+			Component c = graph.components[index];
 			DynamicComponent dc = getDynamicComponentForPropNetComponent(c, roles, componentPool);
 			componentMapping.put(c,dc);
+			dcByIndex[index] = dc;
 		}
 
-		// set inputs and outputs of our components
-		for (Entry<Component, DynamicComponent> e : componentMapping.entrySet()) {
-			ConcurrencyUtils.checkForInterruption();
-			DynamicComponent dc = e.getValue();
-			Set<Component> inputs = e.getKey().getInputs();
-			final DynamicComponentSet dcInputs = dc.getInputs();
-			for (Component c:inputs) {
-				dcInputs.add(componentMapping.get(c));
-			}
-			Set<Component> outputs = e.getKey().getOutputs();
-			final DynamicComponentSet dcOutputs = dc.getOutputs();
-			for (Component c:outputs) {
-				dcOutputs.add(componentMapping.get(c));
-			}
+		// set inputs and outputs of our components, each shard only changes its own components
+		List<Callable<Void>> tasks = new ArrayList<>(nbShards);
+		for (int shard = 0; shard < nbShards; shard++) {
+			final int from = (int)((long)nbComponents * shard / nbShards);
+			final int to = (int)((long)nbComponents * (shard + 1) / nbShards);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					for (int index = from; index < to; index++) {
+						ConcurrencyUtils.checkForInterruption();
+						DynamicComponent dc = dcByIndex[index];
+						addInOrder(dc.getInputs(), graph.inputs, graph.inputStarts[index], graph.inputStarts[index + 1], dcByIndex, componentPool);
+						addInOrder(dc.getOutputs(), graph.outputs, graph.outputStarts[index], graph.outputStarts[index + 1], dcByIndex, componentPool);
+					}
+					return null;
+				}
+			});
 		}
+		ConcurrencyUtils.invokeAll(executor, tasks);
 
 		// set initial value of base propositions
 		// search forward to next transition and to get the base propositions
@@ -120,7 +179,23 @@ public class GGPBasePropNetStructureFactory extends PropNetStructureFactory {
 				}
 			}
 		}
-		return create(roles, initialState, componentPool);
+		return create(roles, initialState, componentPool, executor);
+	}
+
+	/**
+	 * adds the components with the given indices in the order of their ids, such that the order of the set does
+	 * not depend on the order of the indices
+	 */
+	private static void addInOrder(DynamicComponentSet set, int[] indices, int from, int to,
+			DynamicComponent[] dcByIndex, DynamicComponentPool componentPool) {
+		int[] ids = new int[to - from];
+		for (int i = from; i < to; i++) {
+			ids[i - from] = dcByIndex[indices[i]].id;
+		}
+		Arrays.sort(ids);
+		for (int id : ids) {
+			set.add(componentPool.get(id));
+		}
 	}
 
 	/**
@@ -12,6 +12,8 @@ import java.io.InputStreamReader;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+
 /**
  * represents the rules returned from the GDL grounder in (modified) lparse format
  *
@@ -40,14 +42,72 @@ public class LParseRules {
 	}
 
 
-	public static LParseRules readLParseRules(InputStream is) throws IOException {
-		LParseRules result = new LParseRules();
+	/**
+	 * receives the rules and symbols of an lparse file in the order in which they are read
+	 */
+	public static interface Listener {
+		/**
+		 * called for every basic rule, facts have no positive and negative atoms
+		 */
+		void rule(int head, int[] positives, int[] negatives) throws IOException;
+
+		/**
+		 * called once after the last rule and before the first symbol
+		 */
+		void endOfRules() throws IOException;
+
+		void symbol(int id, String symbol) throws IOException;
+	}
+
+	/**
+	 * reads all rules into memory
+	 */
+	public static LParseRules readLParseRules(InputStream is) throws IOException, InterruptedException {
+		final LParseRules result = new LParseRules();
+		result.size = read(is, new Listener() {
+			@Override
+			public void rule(int head, int[] positives, int[] negatives) {
+				if (positives.length + negatives.length == 0) {
+					result.facts.add(head);
+				} else {
+					List<Rule> rulesForHeadAtom = result.rulesByHeadAtom.get(head);
+					if (rulesForHeadAtom == null) {
+						rulesForHeadAtom = new LinkedList<>();
+						result.rulesByHeadAtom.put(head, rulesForHeadAtom);
+					}
+					rulesForHeadAtom.add(new Rule(head, positives, negatives));
+				}
+			}
+
+			@Override
+			public void endOfRules() {
+			}
+
+			@Override
+			public void symbol(int id, String symbol) {
+				result.symbolTable.put(id, symbol);
+			}
+		});
+		System.out.println("read " + result.size + " rules and " + result.symbolTable.size() + " symbols");
+		return result;
+	}
+
+	/**
+	 * reads the rules and symbols one line at a time and passes them to the listener without keeping them
+	 * @return the number of rules
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public static int read(InputStream is, Listener listener) throws IOException, InterruptedException {
 		BufferedReader br = new BufferedReader(new InputStreamReader(is));
 		String line;
 		boolean readRulesMode = true;
 		boolean doneReading = false;
 		int nbRules = 0;
+		int nbLines = 0;
 		while (!doneReading && (line = br.readLine()) != null) {
+			if (++nbLines % 10000 == 0) {
+				ConcurrencyUtils.checkForInterruption();
+			}
 			line = line.trim();
 			if (line.equals("")) {
 				break;
@@ -58,32 +118,24 @@ public class LParseRules {
 				switch (type) {
 					case 0: // end of rules section
 						readRulesMode = false;
+						listener.endOfRules();
 						break;
 					case 1: // basic rule
 						parts = parts[1].split("\\s+");
 						int head = Integer.parseInt(parts[0]);
 						int nbLiterals = Integer.parseInt(parts[1]);
-						if (nbLiterals == 0) {
-							result.facts.add(head);
-						} else {
-							int nbNegatives = Integer.parseInt(parts[2]);
-							int firstNegative = 3;
-							int[] negatives = new int[nbNegatives];
-							for (int i = 0; i < nbNegatives; i++) {
-								negatives[i] = Integer.parseInt(parts[firstNegative+i]);
-							}
-							int firstPositive = firstNegative+nbNegatives;
-							int[] positives = new int[nbLiterals-nbNegatives];
-							for (int i = 0; i < positives.length; i++) {
-								positives[i] = Integer.parseInt(parts[firstPositive+i]);
-							}
-							List<Rule> rulesForHeadAtom = result.rulesByHeadAtom.get(head);
-							if (rulesForHeadAtom == null) {
-								rulesForHeadAtom = new LinkedList<>();
-								result.rulesByHeadAtom.put(head, rulesForHeadAtom);
-							}
-							rulesForHeadAtom.add(new Rule(head, positives, negatives));
+						int nbNegatives = (nbLiterals == 0 ? 0 : Integer.parseInt(parts[2]));
+						int firstNegative = 3;
+						int[] negatives = new int[nbNegatives];
+						for (int i = 0; i < nbNegatives; i++) {
+							negatives[i] = Integer.parseInt(parts[firstNegative+i]);
 						}
+						int firstPositive = firstNegative+nbNegatives;
+						int[] positives = new int[nbLiterals-nbNegatives];
+						for (int i = 0; i < positives.length; i++) {
+							positives[i] = Integer.parseInt(parts[firstPositive+i]);
+						}
+						listener.rule(head, positives, negatives);
 						nbRules++;
 						if (nbRules % 100000 == 0) {
 							System.out.println("read " + nbRules + " rules");
@@ -96,15 +148,11 @@ public class LParseRules {
 				if (type == 0) {
 					doneReading = true;
 				} else {
-					int id = type;
-					String symbol = parts[1];
-					result.symbolTable.put(id, symbol);
+					listener.symbol(type, parts[1]);
 				}
 			}
 		}
-		System.out.println("read " + nbRules + " rules and " + result.symbolTable.size() + " symbols");
-		result.size = nbRules;
-		return result;
+		return nbRules;
 	}
 
 	public static class Rule {
@@ -0,0 +1,234 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+
+/**
+ * a directory of propnet files (see PropNetFile) keyed by the hash of the canonical form of the rules
+ * (see CanonicalRules)
+ *
+ * The same game under a different name or scrambled with MappingGdlScrambler is found in the cache, while
+ * different games with the same name are not mixed up. The constants of the cached propnet are renamed
+ * to those of the requested description when loading it.
+ *
+ * The total size of the propnet files is bounded by maxSize by deleting the least recently used files
+ * (by their modification time, which is updated on every hit). Several processes can share a cache
+ * directory: files are written to a temporary file and renamed, and each propnet is only created by one process
+ * at a time (the others wait for it, using one lock file per key, <key>.lock). Different games are created
+ * concurrently. Only the eviction locks the whole cache (with cache.lock).
+ *
+ * The checksum of a propnet file is only verified the first time the file is read by this process. Files
+ * that this process wrote are not verified at all.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetCache {
+
+	public static final String DEFAULT_DIRECTORY = "propnets";
+
+	public static final long DEFAULT_MAX_SIZE = 1L << 30;
+
+	private static final String FILE_EXTENSION = ".propnet";
+	private static final String LOCK_FILE_EXTENSION = ".lock";
+	private static final String LOCK_FILE_NAME = "cache" + LOCK_FILE_EXTENSION;
+
+	/**
+	 * locks of the lock files (by path) used by this process (file locks are held by the whole process,
+	 * so threads have to synchronize in addition)
+	 */
+	private static final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * the propnet files (by path and length) whose checksum was verified or that were written by this process
+	 */
+	private static final Set<String> verifiedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final File directory;
+	private final long maxSize;
+
+	public PropNetCache() {
+		this(new File(DEFAULT_DIRECTORY), DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize the maximal total size of the propnet files in bytes
+	 */
+	public PropNetCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * returns the cached propnet for the description or, if there is none, creates it with the factory and
+	 * adds it to the cache
+	 *
+	 * Errors while reading or writing the cache are logged and the propnet is created instead.
+	 */
+	public PropNetStructure get(PropNetStructureFactory factory, List<Gdl> description) throws InterruptedException {
+		CanonicalRules rules = new CanonicalRules(description);
+		String key = rules.getHash() + "_" + factory.getIdentifier();
+		File file = new File(directory, key + FILE_EXTENSION);
+		PropNetStructure structure = read(file, rules);
+		if (structure != null) {
+			return structure;
+		}
+
+		File lockFile = new File(directory, key + LOCK_FILE_EXTENSION);
+		boolean written = false;
+		synchronized (getMonitor(lockFile)) {
+			directory.mkdirs();
+			try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock fileLock = channel.lock();
+				try {
+					// another thread or process might have created the propnet in the meantime
+					structure = read(file, rules);
+					if (structure == null) {
+						structure = factory.create(description);
+						System.out.println("saving propnet to '" + file + "' ...");
+						PropNetFile.write(structure, file, rules.getCanonicalNames());
+						verifiedFiles.add(getVerificationKey(file));
+						written = true;
+					}
+				} finally {
+					fileLock.release();
+				}
+			} catch (IOException e) {
+				System.out.println("propnet cache " + directory + " is not usable: " + e);
+				if (structure == null) {
+					structure = factory.create(description);
+				}
+				return structure;
+			}
+		}
+		if (written) {
+			evict(file);
+		}
+		return structure;
+	}
+
+	/**
+	 * @return the object threads of this process synchronize on before locking the file
+	 */
+	private static Object getMonitor(File lockFile) {
+		String path = lockFile.getAbsolutePath();
+		Object lock = locks.get(path);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(path, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	/**
+	 * @return the propnet in the file or null, if the file does not exist or can not be read
+	 */
+	private PropNetStructure read(File file, CanonicalRules rules) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			String verificationKey = getVerificationKey(file);
+			PropNetStructure structure = PropNetFile.read(file, rules.getConstants(), !verifiedFiles.contains(verificationKey));
+			verifiedFiles.add(verificationKey);
+			// mark the file as recently used
+			file.setLastModified(System.currentTimeMillis());
+			System.out.println("propnet loaded from '" + file + "'");
+			return structure;
+		} catch (IOException e) {
+			// the file might have been evicted by another process
+			System.out.println("File " + file + " is not readable: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static String getVerificationKey(File file) {
+		return file.getAbsolutePath() + ":" + file.length();
+	}
+
+	/**
+	 * deletes the least recently used propnet files until the total size is at most maxSize, while holding
+	 * the lock of the whole cache
+	 * @param keep a file that is not deleted
+	 */
+	private void evict(File keep) {
+		synchronized (getMonitor(new File(directory, LOCK_FILE_NAME))) {
+			try (FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE_NAME).toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock fileLock = channel.lock();
+				try {
+					evictUnlocked(keep);
+				} finally {
+					fileLock.release();
+				}
+			} catch (IOException e) {
+				System.out.println("propnet cache " + directory + " could not be cleaned up: " + e);
+			}
+		}
+	}
+
+	private void evictUnlocked(File keep) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(FILE_EXTENSION);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		long totalSize = 0;
+		for (File file : files) {
+			totalSize += file.length();
+		}
+		if (totalSize <= maxSize) {
+			return;
+		}
+		// the modification times are read once, such that the order does not change while sorting
+		final Map<File, Long> modificationTimes = new HashMap<>();
+		for (File file : files) {
+			modificationTimes.put(file, file.lastModified());
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(modificationTimes.get(f1), modificationTimes.get(f2));
+			}
+		});
+		for (File file : files) {
+			if (totalSize <= maxSize) {
+				break;
+			}
+			if (!file.equals(keep)) {
+				long size = file.length();
+				if (file.delete()) {
+					System.out.println("evicted '" + file + "' from the propnet cache");
+					totalSize -= size;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+
+/**
+ * one independent part of a game as found by PropNetFactoring
+ *
+ * A factor consists of base propositions and moves, such that the next state of the base propositions and the
+ * legality of the moves only depends on base propositions and moves of the same factor.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetFactor {
+
+	private final int[] basePropositionIds;
+	private final PropNetMove[][] possibleMoves;
+	private final boolean isDead;
+	private final PropNetStructure propNetStructure;
+
+	PropNetFactor(int[] basePropositionIds, PropNetMove[][] possibleMoves, boolean isDead, PropNetStructure propNetStructure) {
+		this.basePropositionIds = basePropositionIds;
+		this.possibleMoves = possibleMoves;
+		this.isDead = isDead;
+		this.propNetStructure = propNetStructure;
+	}
+
+	/**
+	 * @return the ids of the base propositions of this factor in the original propnet
+	 */
+	public int[] getBasePropositionIds() {
+		return basePropositionIds;
+	}
+
+	/**
+	 * @return the moves of this factor for the given role (as PropNetMoves of the original propnet)
+	 */
+	public PropNetMove[] getPossibleMoves(int roleId) {
+		return possibleMoves[roleId];
+	}
+
+	/**
+	 * @return true, if no goal or terminal proposition depends on this factor, such that the factor can be
+	 * ignored when searching the game (apart from the moves it makes legal)
+	 */
+	public boolean isDead() {
+		return isDead;
+	}
+
+	/**
+	 * The sub-propnet contains the base propositions, moves and goal propositions of this factor. Goal propositions
+	 * that depend on several factors are missing. The terminal proposition of the sub-propnet is true if some part
+	 * of the terminal condition that only depends on this factor is true (see PropNetFactoring.isTerminalDecomposable()).
+	 *
+	 * Base propositions and moves have the same sentences and terms as in the original propnet, so states can be
+	 * converted by their sentences.
+	 *
+	 * All roles of the game are roles of the sub-propnet, but a role might have no possible moves in it (if it
+	 * only moves in other factors). Such a role has no legal moves in any state of the sub-propnet.
+	 *
+	 * @return a propnet for only this factor
+	 */
+	public PropNetStructure getPropNetStructure() {
+		return propNetStructure;
+	}
+
+	@Override
+	public String toString() {
+		int nbMoves = 0;
+		for (PropNetMove[] moves : possibleMoves) {
+			nbMoves += moves.length;
+		}
+		return "PropNetFactor {#bases: " + basePropositionIds.length + ", #moves: " + nbMoves
+				+ ", #components: " + propNetStructure.getNbComponents() + (isDead ? ", dead" : "") + "}";
+	}
+}
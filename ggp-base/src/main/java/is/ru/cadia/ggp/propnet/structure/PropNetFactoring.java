@@ -0,0 +1,437 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * splits a propnet into independent factors (e.g., for games that are the sum of several smaller games)
+ *
+ * Two base propositions or moves are in the same factor, if one influences the next state of the other or
+ * the legality of the other (or if both influence the same base proposition or move). Thus, the factors are
+ * independent of each other except for the goal and terminal propositions, which can depend on several factors.
+ *
+ * Factors that do not influence any goal or terminal proposition are dead, that is, only needed for
+ * the moves they make legal.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetFactoring {
+
+	// values of supportingFactor for components that do not depend on any or on several factors
+	private static final int NO_FACTOR = -1;
+	private static final int SEVERAL_FACTORS = -2;
+
+	private final PropNetStructure structure;
+	private final PropNetTopology topology;
+
+	/**
+	 * the factor that a component depends on (or NO_FACTOR or SEVERAL_FACTORS)
+	 */
+	private final int[] supportingFactor;
+
+	private final List<PropNetFactor> factors;
+
+	private boolean isTerminalDecomposable = true;
+
+	public PropNetFactoring(PropNetStructure structure) {
+		this.structure = structure;
+		this.topology = structure.getTopology();
+		int nbComponents = topology.getNbComponents();
+
+		// group base propositions and inputs by the next and legal components they influence
+		int[] parents = new int[nbComponents];
+		for (int id = 0; id < nbComponents; id++) {
+			parents[id] = id;
+		}
+		BitSet inCones = new BitSet(nbComponents);
+		IntList stack = new IntArrayList();
+		for (BaseProposition p : structure.getBasePropositions()) {
+			if (p.nextComponent != null) {
+				union(parents, p.id, p.nextComponent.id);
+				stack.add(p.nextComponent.id);
+			}
+		}
+		for (int roleId = 0; roleId < structure.getRoles().length; roleId++) {
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				union(parents, move.getInputComponent().id, move.getLegalComponent().id);
+				stack.add(move.getLegalComponent().id);
+			}
+		}
+		while (!stack.isEmpty()) {
+			int id = stack.removeInt(stack.size() - 1);
+			if (!inCones.get(id)) {
+				inCones.set(id);
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					int input = topology.getInput(i);
+					union(parents, id, input);
+					stack.add(input);
+				}
+			}
+		}
+
+		// number the factors in the order of their first base proposition or input
+		supportingFactor = new int[nbComponents];
+		int[] factorByRoot = new int[nbComponents];
+		Arrays.fill(factorByRoot, NO_FACTOR);
+		int nbFactors = 0;
+		for (int id = 0; id < nbComponents; id++) {
+			supportingFactor[id] = NO_FACTOR;
+			if (isSource(id)) {
+				int root = find(parents, id);
+				if (factorByRoot[root] == NO_FACTOR) {
+					factorByRoot[root] = nbFactors++;
+				}
+				supportingFactor[id] = factorByRoot[root];
+			}
+		}
+		computeSupportingFactors();
+
+		// find the factors that goal and terminal propositions depend on
+		BitSet relevantFactors = new BitSet(nbFactors);
+		List<StaticComponent> goalsAndTerminal = new ArrayList<>();
+		goalsAndTerminal.add(structure.getTerminalProposition());
+		for (int roleId = 0; roleId < structure.getRoles().length; roleId++) {
+			Collections.addAll(goalsAndTerminal, structure.getGoalPropositions(roleId));
+		}
+		BitSet visited = new BitSet(nbComponents);
+		for (StaticComponent c : goalsAndTerminal) {
+			stack.add(c.id);
+		}
+		while (!stack.isEmpty()) {
+			int id = stack.removeInt(stack.size() - 1);
+			if (!visited.get(id)) {
+				visited.set(id);
+				if (isSource(id)) {
+					relevantFactors.set(supportingFactor[id]);
+				}
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					stack.add(topology.getInput(i));
+				}
+			}
+		}
+
+		// split the terminal proposition into parts that only depend on one factor
+		IntList[] terminalParts = new IntList[nbFactors];
+		for (int f = 0; f < nbFactors; f++) {
+			terminalParts[f] = new IntArrayList();
+		}
+		collectTerminalParts(structure.getTerminalProposition().id, terminalParts, new BitSet(nbComponents));
+
+		factors = new ArrayList<>(nbFactors);
+		for (int f = 0; f < nbFactors; f++) {
+			factors.add(createFactor(f, !relevantFactors.get(f), terminalParts[f]));
+		}
+		System.out.println("found " + nbFactors + " factors (" + (nbFactors - relevantFactors.cardinality()) + " dead)"
+				+ (isTerminalDecomposable ? "" : ", terminal is not decomposable"));
+	}
+
+	private static int find(int[] parents, int id) {
+		while (parents[id] != id) {
+			parents[id] = parents[parents[id]];
+			id = parents[id];
+		}
+		return id;
+	}
+
+	private void union(int[] parents, int id1, int id2) {
+		// constants do not connect anything
+		if (isConstant(id1) || isConstant(id2)) {
+			return;
+		}
+		int root1 = find(parents, id1);
+		int root2 = find(parents, id2);
+		if (root1 != root2) {
+			parents[Math.max(root1, root2)] = Math.min(root1, root2);
+		}
+	}
+
+	/**
+	 * @return true for base propositions and inputs
+	 */
+	private boolean isSource(int id) {
+		Type type = topology.getType(id);
+		return type == Type.BASE || type == Type.INPUT;
+	}
+
+	private boolean isConstant(int id) {
+		return !isSource(id) && topology.getNbInputs(id) == 0;
+	}
+
+	/**
+	 * propagates the factors from the base propositions and inputs to all other components until a fixpoint is reached
+	 * (the propnet might be cyclic)
+	 */
+	private void computeSupportingFactors() {
+		int nbComponents = topology.getNbComponents();
+		IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+		BitSet inQueue = new BitSet(nbComponents);
+		int[] order = (structure.isCylic() ? null : structure.getTopologicalOrder());
+		for (int i = 0; i < nbComponents; i++) {
+			int id = (order == null ? i : order[i]);
+			if (!isSource(id)) {
+				queue.enqueue(id);
+				inQueue.set(id);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int id = queue.dequeueInt();
+			inQueue.clear(id);
+			int factor = supportingFactor[id];
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				factor = join(factor, supportingFactor[topology.getInput(i)]);
+			}
+			if (factor != supportingFactor[id]) {
+				supportingFactor[id] = factor;
+				for (int i = topology.getOutputStart(id); i < topology.getOutputStart(id + 1); i++) {
+					int output = topology.getOutput(i);
+					if (!inQueue.get(output)) {
+						queue.enqueue(output);
+						inQueue.set(output);
+					}
+				}
+			}
+		}
+	}
+
+	private static int join(int factor1, int factor2) {
+		if (factor1 == NO_FACTOR || factor1 == factor2) {
+			return factor2;
+		} else if (factor2 == NO_FACTOR) {
+			return factor1;
+		} else {
+			return SEVERAL_FACTORS;
+		}
+	}
+
+	/**
+	 * finds the parts of the terminal proposition that only depend on one factor, assuming that it is a disjunction
+	 * (parts that depend on no factor belong to every factor)
+	 */
+	private void collectTerminalParts(int id, IntList[] terminalParts, BitSet visited) {
+		if (visited.get(id)) {
+			return;
+		}
+		visited.set(id);
+		int factor = supportingFactor[id];
+		if (factor == NO_FACTOR) {
+			for (IntList parts : terminalParts) {
+				parts.add(id);
+			}
+		} else if (factor != SEVERAL_FACTORS) {
+			terminalParts[factor].add(id);
+		} else if (topology.getType(id) == Type.OR || topology.getType(id) == Type.PIPE) {
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				collectTerminalParts(topology.getInput(i), terminalParts, visited);
+			}
+		} else {
+			// this part of the terminal condition depends on several factors
+			isTerminalDecomposable = false;
+		}
+	}
+
+	private PropNetFactor createFactor(int factor, boolean isDead, IntList terminalParts) {
+		int nbComponents = topology.getNbComponents();
+		int nbRoles = structure.getRoles().length;
+
+		// all components that depend on this factor and the constant components they need
+		BitSet included = new BitSet(nbComponents);
+		IntList stack = new IntArrayList();
+		for (int id = 0; id < nbComponents; id++) {
+			if (supportingFactor[id] == factor) {
+				stack.add(id);
+			}
+		}
+		for (BaseProposition p : structure.getBasePropositions()) {
+			if (supportingFactor[p.id] == factor && p.nextComponent != null) {
+				stack.add(p.nextComponent.id);
+			}
+		}
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				if (supportingFactor[move.getInputComponent().id] == factor) {
+					stack.add(move.getLegalComponent().id);
+				}
+			}
+			for (StaticComponent goal : structure.getGoalPropositions(roleId)) {
+				if (supportingFactor[goal.id] == NO_FACTOR) {
+					stack.add(goal.id);
+				}
+			}
+		}
+		stack.addAll(terminalParts);
+		while (!stack.isEmpty()) {
+			int id = stack.removeInt(stack.size() - 1);
+			if (!included.get(id)) {
+				included.set(id);
+				for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+					stack.add(topology.getInput(i));
+				}
+			}
+		}
+
+		// base propositions have the lowest ids, so they keep ids 0 to n-1, and ids stay in topological order
+		int[] newIds = new int[nbComponents];
+		int nbIncluded = 0;
+		IntList basePropositionIds = new IntArrayList();
+		boolean isCyclic = false;
+		for (int id = included.nextSetBit(0); id >= 0; id = included.nextSetBit(id + 1)) {
+			newIds[id] = nbIncluded++;
+			if (topology.getType(id) == Type.BASE) {
+				basePropositionIds.add(id);
+			}
+			isCyclic = isCyclic || topology.isCyclic(id);
+		}
+		// a new component for the terminal proposition, unless it is a single existing component
+		int terminalId = (terminalParts.size() == 1 ? newIds[terminalParts.getInt(0)] : nbIncluded);
+		StaticComponent[] components = new StaticComponent[terminalParts.size() == 1 ? nbIncluded : nbIncluded + 1];
+		for (int id = included.nextSetBit(0); id >= 0; id = included.nextSetBit(id + 1)) {
+			int[] inputs = new int[topology.getNbInputs(id)];
+			for (int i = 0; i < inputs.length; i++) {
+				int input = topology.getInput(topology.getInputStart(id) + i);
+				assert included.get(input);
+				inputs[i] = newIds[input];
+			}
+			IntList outputs = new IntArrayList(topology.getNbOutputs(id));
+			for (int i = topology.getOutputStart(id); i < topology.getOutputStart(id + 1); i++) {
+				int output = topology.getOutput(i);
+				if (included.get(output)) {
+					outputs.add(newIds[output]);
+				}
+			}
+			if (terminalParts.size() > 1 && terminalParts.contains(id)) {
+				outputs.add(terminalId);
+			}
+			StaticComponent c;
+			if (topology.getType(id) == Type.BASE) {
+				BaseProposition p = structure.getBasePropositions()[id];
+				BaseProposition newP = new BaseProposition(newIds[id], Type.BASE, inputs, outputs.toIntArray(), p.sentences);
+				newP.initialValue = p.initialValue;
+				c = newP;
+			} else {
+				c = new StaticComponent(newIds[id], topology.getType(id), inputs, outputs.toIntArray(), false);
+			}
+			c.isCyclic = topology.isCyclic(id);
+			components[newIds[id]] = c;
+		}
+		if (terminalParts.size() != 1) {
+			int[] inputs = new int[terminalParts.size()];
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = newIds[terminalParts.getInt(i)];
+			}
+			// without any part, this factor can not end the game by itself
+			Type type = (terminalParts.isEmpty() ? Type.FALSE : Type.OR);
+			components[terminalId] = new StaticComponent(terminalId, type, inputs, new int[0], false);
+		}
+
+		Map<GdlSentence, BaseProposition> basePropBySentence = new HashMap<>();
+		for (int id : basePropositionIds) {
+			BaseProposition p = structure.getBasePropositions()[id];
+			BaseProposition newP = (BaseProposition)components[newIds[id]];
+			if (p.nextComponent != null) {
+				newP.nextComponent = components[newIds[p.nextComponent.id]];
+			}
+			for (GdlSentence sentence : p.sentences) {
+				basePropBySentence.put(sentence, newP);
+			}
+		}
+
+		Role[] roles = structure.getRoles();
+		Map<Role, Integer> role2id = new HashMap<>(nbRoles);
+		PropNetMove[][] originalMoves = new PropNetMove[nbRoles][];
+		PropNetMove[][] possibleMoves = new PropNetMove[nbRoles][];
+		StaticComponent[][] goalProps = new StaticComponent[nbRoles][];
+		int[][] goalValues = new int[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			role2id.put(roles[roleId], roleId);
+			List<PropNetMove> moves = new ArrayList<>();
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				if (supportingFactor[move.getInputComponent().id] == factor) {
+					moves.add(move);
+				}
+			}
+			originalMoves[roleId] = moves.toArray(new PropNetMove[moves.size()]);
+			possibleMoves[roleId] = new PropNetMove[moves.size()];
+			for (int i = 0; i < moves.size(); i++) {
+				PropNetMove move = moves.get(i);
+				possibleMoves[roleId][i] = new PropNetMove(components[newIds[move.getInputComponent().id]],
+						components[newIds[move.getLegalComponent().id]], move.getContents());
+			}
+			List<StaticComponent> goals = new ArrayList<>();
+			IntList values = new IntArrayList();
+			StaticComponent[] originalGoals = structure.getGoalPropositions(roleId);
+			for (int i = 0; i < originalGoals.length; i++) {
+				int goalFactor = supportingFactor[originalGoals[i].id];
+				if (goalFactor == factor || goalFactor == NO_FACTOR) {
+					goals.add(components[newIds[originalGoals[i].id]]);
+					values.add(structure.getGoalValues(roleId)[i]);
+				}
+			}
+			goalProps[roleId] = goals.toArray(new StaticComponent[goals.size()]);
+			goalValues[roleId] = values.toIntArray();
+		}
+
+		PropNetStructure subPropNet = new PropNetStructure(components, role2id, roles, basePropBySentence,
+				possibleMoves, goalProps, goalValues, components[terminalId], isCyclic);
+		return new PropNetFactor(basePropositionIds.toIntArray(), originalMoves, isDead, subPropNet);
+	}
+
+	/**
+	 * @return all factors including dead ones, ordered by their base propositions
+	 */
+	public List<PropNetFactor> getFactors() {
+		return Collections.unmodifiableList(factors);
+	}
+
+	/**
+	 * @return the factors that are not dead
+	 */
+	public List<PropNetFactor> getRelevantFactors() {
+		List<PropNetFactor> relevantFactors = new ArrayList<>();
+		for (PropNetFactor factor : factors) {
+			if (!factor.isDead()) {
+				relevantFactors.add(factor);
+			}
+		}
+		return relevantFactors;
+	}
+
+	/**
+	 * @return the factor of the base proposition or input with the given id in the original propnet
+	 */
+	public PropNetFactor getFactor(int componentId) {
+		assert isSource(componentId);
+		return factors.get(supportingFactor[componentId]);
+	}
+
+	/**
+	 * @return true if the terminal proposition is a disjunction of parts that only depend on one factor each,
+	 * that is, the game ends as soon as one of the sub-propnets is terminal
+	 */
+	public boolean isTerminalDecomposable() {
+		return isTerminalDecomposable;
+	}
+
+	/**
+	 * @return true if there is more than one factor
+	 */
+	public boolean isFactored() {
+		return factors.size() > 1;
+	}
+}
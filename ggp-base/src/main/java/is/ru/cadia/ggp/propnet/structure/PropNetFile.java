@@ -0,0 +1,548 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * reads and writes PropNetStructures in a versioned binary format that can be memory mapped
+ *
+ * A file consists of a header, a section table and the sections, all in the byte order given in the header:
+ * <pre>
+ * byte[4] magic "GPNB", byte byteOrder (0 = little endian, 1 = big endian), byte[3] 0,
+ * int version, int nbSections, long checksum (of everything after the header), long length (of everything after the header)
+ * nbSections times: int sectionId, int offset (from the start of the file), int length (in bytes), int 0
+ * the sections, each starting at a multiple of 8 bytes
+ * </pre>
+ * The sections are:
+ * <ul>
+ * <li>META: nbComponents, nbBasePropositions, nbRoles, id of the terminal proposition, isCyclic (0 or 1)</li>
+ * <li>TOPOLOGY: the topology as written by PropNetTopology.writeTo</li>
+ * <li>SYMBOLS: nbSymbols, int[nbSymbols+1] start of each symbol in the bytes, UTF-8 bytes of all symbols</li>
+ * <li>ROLES: symbol of each role</li>
+ * <li>BASES: for each base proposition: initialValue (0 or 1), id of the next component, nbSentences, sentences</li>
+ * <li>MOVES: for each role: nbMoves, for each move: id of the input component, id of the legal component, move term</li>
+ * <li>GOALS: for each role: nbGoals, for each goal proposition: id, goal value</li>
+ * </ul>
+ * All sections except TOPOLOGY and SYMBOLS are arrays of ints. Terms are written as the symbol of a constant (>= 0)
+ * or -(arity+1) of a function followed by the symbol of its name and its arguments. Sentences are written as
+ * the symbol of their name, their arity and their arguments.
+ *
+ * When reading a file, the topology of the structure directly uses the memory mapped file and only the
+ * components that are referenced from elsewhere are created (see PropNetStructure.compact()).
+ *
+ * @author stephan
+ *
+ */
+public class PropNetFile {
+
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = {'G', 'P', 'N', 'B'};
+
+	private static final int HEADER_SIZE = 32;
+	private static final int SECTION_ENTRY_SIZE = 16;
+
+	private static final int SECTION_META = 1;
+	private static final int SECTION_TOPOLOGY = 2;
+	private static final int SECTION_SYMBOLS = 3;
+	private static final int SECTION_ROLES = 4;
+	private static final int SECTION_BASES = 5;
+	private static final int SECTION_MOVES = 6;
+	private static final int SECTION_GOALS = 7;
+
+	private static final int NB_SECTIONS = 7;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private PropNetFile() {
+	}
+
+	/**
+	 * writes the structure to the file
+	 *
+	 * The file is first written to a temporary file and then renamed, such that other processes never
+	 * see a partially written file.
+	 */
+	public static void write(PropNetStructure structure, File file) throws IOException {
+		write(structure, file, Collections.<GdlConstant, String>emptyMap());
+	}
+
+	/**
+	 * writes the structure to the file, renaming constants in the symbol table
+	 * @param symbolNames names that are written instead of the names of the constants (e.g., CanonicalRules.getCanonicalNames())
+	 */
+	public static void write(PropNetStructure structure, File file, Map<GdlConstant, String> symbolNames) throws IOException {
+		ByteBuffer buffer = toBuffer(structure, symbolNames);
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", parent);
+		try {
+			try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * reads a structure from a file by memory mapping it
+	 * @throws IOException if the file can not be read, was written with a different version or byte order or is corrupt
+	 */
+	public static PropNetStructure read(File file) throws IOException {
+		return read(file, Collections.<String, GdlConstant>emptyMap());
+	}
+
+	/**
+	 * reads a structure from a file by memory mapping it, renaming constants in the symbol table
+	 * @param constants constants that are used for names in the symbol table (e.g., CanonicalRules.getConstants()),
+	 *   names that are not in the map are used as they are
+	 */
+	public static PropNetStructure read(File file, Map<String, GdlConstant> constants) throws IOException {
+		return read(file, constants, true);
+	}
+
+	/**
+	 * reads a structure from a file by memory mapping it, renaming constants in the symbol table
+	 *
+	 * Computing the checksum reads the whole file, so it can be skipped for a file whose checksum was
+	 * already verified. The header and the structure are checked in any case.
+	 * @param constants constants that are used for names in the symbol table (e.g., CanonicalRules.getConstants()),
+	 *   names that are not in the map are used as they are
+	 * @param verifyChecksum false to skip the checksum
+	 */
+	public static PropNetStructure read(File file, Map<String, GdlConstant> constants, boolean verifyChecksum) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("file " + file + " is too large");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			return fromBuffer(buffer, constants, verifyChecksum);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException e) {
+			throw new IOException("file " + file + " is corrupt", e);
+		}
+	}
+
+	/**
+	 * @return the structure in the file format (position 0, limit at the end of the data)
+	 */
+	public static ByteBuffer toBuffer(PropNetStructure structure, Map<GdlConstant, String> symbolNames) {
+		SymbolTable symbols = new SymbolTable(symbolNames);
+		int nbRoles = structure.getRoles().length;
+
+		IntArrayList meta = new IntArrayList();
+		meta.add(structure.getNbComponents());
+		meta.add(structure.getNbBasePropositions());
+		meta.add(nbRoles);
+		meta.add(structure.getTerminalProposition().id);
+		meta.add(structure.isCylic() ? 1 : 0);
+
+		IntArrayList roles = new IntArrayList();
+		for (Role role : structure.getRoles()) {
+			roles.add(symbols.get(role.getName()));
+		}
+
+		IntArrayList bases = new IntArrayList();
+		for (BaseProposition p : structure.getBasePropositions()) {
+			bases.add(p.initialValue ? 1 : 0);
+			bases.add(p.nextComponent.id);
+			bases.add(p.sentences.length);
+			for (GdlSentence sentence : p.sentences) {
+				symbols.writeSentence(sentence, bases);
+			}
+		}
+
+		IntArrayList moves = new IntArrayList();
+		IntArrayList goals = new IntArrayList();
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			PropNetMove[] possibleMoves = structure.getPossibleMoves(roleId);
+			moves.add(possibleMoves.length);
+			for (PropNetMove move : possibleMoves) {
+				moves.add(move.getInputComponent().id);
+				moves.add(move.getLegalComponent().id);
+				symbols.writeTerm(move.getContents(), moves);
+			}
+			StaticComponent[] goalProps = structure.getGoalPropositions(roleId);
+			int[] goalValues = structure.getGoalValues(roleId);
+			goals.add(goalProps.length);
+			for (int i = 0; i < goalProps.length; i++) {
+				goals.add(goalProps[i].id);
+				goals.add(goalValues[i]);
+			}
+		}
+
+		PropNetTopology topology = structure.getTopology();
+		byte[][] symbolBytes = symbols.getBytes();
+		int symbolsSize = 4 * (symbolBytes.length + 2);
+		for (byte[] bytes : symbolBytes) {
+			symbolsSize += bytes.length;
+		}
+
+		int[] sectionIds = {SECTION_META, SECTION_TOPOLOGY, SECTION_SYMBOLS, SECTION_ROLES, SECTION_BASES, SECTION_MOVES, SECTION_GOALS};
+		int[] sectionSizes = {4 * meta.size(), topology.getSizeInBytes(), symbolsSize, 4 * roles.size(), 4 * bases.size(), 4 * moves.size(), 4 * goals.size()};
+		int[] sectionOffsets = new int[NB_SECTIONS];
+		long size = HEADER_SIZE + NB_SECTIONS * SECTION_ENTRY_SIZE;
+		for (int i = 0; i < NB_SECTIONS; i++) {
+			sectionOffsets[i] = (int)size;
+			size = align(size + sectionSizes[i]);
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("propnet is too large for a propnet file");
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.nativeOrder());
+		buffer.put(MAGIC);
+		buffer.put((byte)(buffer.order() == ByteOrder.BIG_ENDIAN ? 1 : 0));
+		buffer.put(new byte[3]);
+		buffer.putInt(VERSION);
+		buffer.putInt(NB_SECTIONS);
+		buffer.putLong(0); // checksum, see below
+		buffer.putLong(size - HEADER_SIZE);
+		for (int i = 0; i < NB_SECTIONS; i++) {
+			buffer.putInt(sectionIds[i]);
+			buffer.putInt(sectionOffsets[i]);
+			buffer.putInt(sectionSizes[i]);
+			buffer.putInt(0);
+		}
+
+		putInts(buffer, sectionOffsets[0], meta);
+		buffer.position(sectionOffsets[1]);
+		topology.writeTo(buffer);
+		buffer.position(sectionOffsets[2]);
+		buffer.putInt(symbolBytes.length);
+		int start = 0;
+		for (byte[] bytes : symbolBytes) {
+			buffer.putInt(start);
+			start += bytes.length;
+		}
+		buffer.putInt(start);
+		for (byte[] bytes : symbolBytes) {
+			buffer.put(bytes);
+		}
+		putInts(buffer, sectionOffsets[3], roles);
+		putInts(buffer, sectionOffsets[4], bases);
+		putInts(buffer, sectionOffsets[5], moves);
+		putInts(buffer, sectionOffsets[6], goals);
+
+		buffer.putLong(16, computeChecksum(buffer));
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * creates a structure from a buffer in the file format, the topology of the structure uses the buffer directly
+	 * @throws IOException if the buffer does not contain a valid propnet of the current version
+	 */
+	public static PropNetStructure fromBuffer(ByteBuffer buffer, Map<String, GdlConstant> constants) throws IOException {
+		return fromBuffer(buffer, constants, true);
+	}
+
+	/**
+	 * creates a structure from a buffer in the file format, the topology of the structure uses the buffer directly
+	 * @param verifyChecksum false to skip the checksum
+	 * @throws IOException if the buffer does not contain a valid propnet of the current version
+	 */
+	public static PropNetStructure fromBuffer(ByteBuffer buffer, Map<String, GdlConstant> constants, boolean verifyChecksum) throws IOException {
+		buffer = buffer.duplicate();
+		if (buffer.limit() < HEADER_SIZE) {
+			throw new IOException("not a propnet file (too short)");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get(i) != MAGIC[i]) {
+				throw new IOException("not a propnet file (wrong magic number)");
+			}
+		}
+		buffer.order(buffer.get(4) == 1 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		if (buffer.order() != ByteOrder.nativeOrder()) {
+			// the topology is accessed in native byte order
+			throw new IOException("propnet file was written with byte order " + buffer.order());
+		}
+		int version = buffer.getInt(8);
+		if (version != VERSION) {
+			throw new IOException("propnet file has version " + version + " instead of " + VERSION);
+		}
+		int nbSections = buffer.getInt(12);
+		long length = buffer.getLong(24);
+		if (length != buffer.limit() - HEADER_SIZE) {
+			throw new IOException("propnet file is truncated");
+		}
+		if (verifyChecksum && buffer.getLong(16) != computeChecksum(buffer)) {
+			throw new IOException("propnet file has a wrong checksum");
+		}
+		ByteBuffer[] sections = new ByteBuffer[NB_SECTIONS + 1];
+		for (int i = 0; i < nbSections; i++) {
+			int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+			int sectionId = buffer.getInt(entry);
+			if (sectionId >= 0 && sectionId < sections.length) {
+				ByteBuffer section = buffer.duplicate();
+				section.position(buffer.getInt(entry + 4));
+				section.limit(section.position() + buffer.getInt(entry + 8));
+				sections[sectionId] = section.slice().order(buffer.order());
+			}
+		}
+		for (int sectionId = 1; sectionId <= NB_SECTIONS; sectionId++) {
+			if (sections[sectionId] == null) {
+				throw new IOException("propnet file has no section " + sectionId);
+			}
+		}
+
+		IntBuffer meta = sections[SECTION_META].asIntBuffer();
+		int nbComponents = meta.get();
+		int nbBasePropositions = meta.get();
+		int nbRoles = meta.get();
+		int terminalId = meta.get();
+		boolean isCyclic = meta.get() != 0;
+
+		PropNetTopology topology = new PropNetTopology(sections[SECTION_TOPOLOGY]);
+		if (topology.getNbComponents() != nbComponents) {
+			throw new IOException("propnet file is inconsistent");
+		}
+		GdlConstant[] symbols = readSymbols(sections[SECTION_SYMBOLS], constants);
+
+		Map<Role, Integer> role2id = new HashMap<>(nbRoles);
+		Role[] roleById = new Role[nbRoles];
+		IntBuffer roles = sections[SECTION_ROLES].asIntBuffer();
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			roleById[roleId] = new Role(symbols[roles.get()]);
+			role2id.put(roleById[roleId], roleId);
+		}
+
+		// components that are referenced from elsewhere, the others are only in the topology
+		StaticComponent[] componentById = new StaticComponent[nbComponents];
+		Map<GdlSentence, BaseProposition> basePropBySentence = new HashMap<>(2 * nbBasePropositions);
+		BaseProposition[] basePropositions = new BaseProposition[nbBasePropositions];
+		int[] nextIds = new int[nbBasePropositions];
+		IntBuffer bases = sections[SECTION_BASES].asIntBuffer();
+		for (int id = 0; id < nbBasePropositions; id++) {
+			if (topology.getType(id) != Type.BASE) {
+				throw new IOException("propnet file is inconsistent");
+			}
+			boolean initialValue = bases.get() != 0;
+			nextIds[id] = bases.get();
+			GdlSentence[] sentences = new GdlSentence[bases.get()];
+			for (int i = 0; i < sentences.length; i++) {
+				sentences[i] = readSentence(bases, symbols);
+			}
+			BaseProposition p = new BaseProposition(id, Type.BASE, topology.getInputs(id), topology.getOutputs(id), sentences);
+			p.initialValue = initialValue;
+			p.isCyclic = topology.isCyclic(id);
+			for (GdlSentence sentence : sentences) {
+				basePropBySentence.put(sentence, p);
+			}
+			basePropositions[id] = p;
+			componentById[id] = p;
+		}
+		for (BaseProposition p : basePropositions) {
+			p.nextComponent = getComponent(componentById, topology, nextIds[p.id]);
+		}
+
+		PropNetMove[][] possibleMoves = new PropNetMove[nbRoles][];
+		IntBuffer moves = sections[SECTION_MOVES].asIntBuffer();
+		StaticComponent[][] goalProps = new StaticComponent[nbRoles][];
+		int[][] goalValues = new int[nbRoles][];
+		IntBuffer goals = sections[SECTION_GOALS].asIntBuffer();
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			possibleMoves[roleId] = new PropNetMove[moves.get()];
+			for (int i = 0; i < possibleMoves[roleId].length; i++) {
+				StaticComponent input = getComponent(componentById, topology, moves.get());
+				StaticComponent legal = getComponent(componentById, topology, moves.get());
+				possibleMoves[roleId][i] = new PropNetMove(input, legal, readTerm(moves, symbols));
+			}
+			goalProps[roleId] = new StaticComponent[goals.get()];
+			goalValues[roleId] = new int[goalProps[roleId].length];
+			for (int i = 0; i < goalProps[roleId].length; i++) {
+				goalProps[roleId][i] = getComponent(componentById, topology, goals.get());
+				goalValues[roleId][i] = goals.get();
+			}
+		}
+		StaticComponent terminalProposition = getComponent(componentById, topology, terminalId);
+
+		return new PropNetStructure(componentById, topology, role2id, roleById, basePropBySentence,
+				possibleMoves, goalProps, goalValues, terminalProposition, isCyclic);
+	}
+
+	private static StaticComponent getComponent(StaticComponent[] componentById, PropNetTopology topology, int id) {
+		StaticComponent c = componentById[id];
+		if (c == null) {
+			c = topology.createComponent(id);
+			componentById[id] = c;
+		}
+		return c;
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static void putInts(ByteBuffer buffer, int offset, IntArrayList ints) {
+		buffer.position(offset);
+		for (int i = 0; i < ints.size(); i++) {
+			buffer.putInt(ints.getInt(i));
+		}
+	}
+
+	/**
+	 * computes a 64 bit checksum of everything after the header (which has a length divisible by 8)
+	 */
+	private static long computeChecksum(ByteBuffer buffer) {
+		ByteBuffer data = buffer.duplicate();
+		data.position(HEADER_SIZE);
+		data.limit(HEADER_SIZE + (int)((data.limit() - HEADER_SIZE) & ~7L));
+		LongBuffer words = data.slice().order(buffer.order()).asLongBuffer();
+		long checksum = words.limit();
+		while (words.hasRemaining()) {
+			checksum = (checksum ^ words.get()) * 0x9E3779B97F4A7C15L;
+			checksum ^= checksum >>> 32;
+		}
+		return checksum;
+	}
+
+	private static GdlConstant[] readSymbols(ByteBuffer section, Map<String, GdlConstant> constants) {
+		IntBuffer ints = section.asIntBuffer();
+		int nbSymbols = ints.get(0);
+		int bytesStart = 4 * (nbSymbols + 2);
+		GdlConstant[] symbols = new GdlConstant[nbSymbols];
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < nbSymbols; i++) {
+			int start = ints.get(i + 1);
+			int length = ints.get(i + 2) - start;
+			if (bytes.length < length) {
+				bytes = new byte[length];
+			}
+			ByteBuffer symbol = section.duplicate();
+			symbol.position(bytesStart + start);
+			symbol.get(bytes, 0, length);
+			String name = new String(bytes, 0, length, UTF8);
+			GdlConstant constant = constants.get(name);
+			symbols[i] = (constant != null ? constant : GdlPool.getConstant(name));
+		}
+		return symbols;
+	}
+
+	private static GdlTerm readTerm(IntBuffer in, GdlConstant[] symbols) {
+		int code = in.get();
+		if (code >= 0) {
+			return symbols[code];
+		}
+		GdlConstant name = symbols[in.get()];
+		GdlTerm[] body = new GdlTerm[-code - 1];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = readTerm(in, symbols);
+		}
+		return GdlPool.getFunction(name, body);
+	}
+
+	private static GdlSentence readSentence(IntBuffer in, GdlConstant[] symbols) {
+		GdlConstant name = symbols[in.get()];
+		int arity = in.get();
+		if (arity == 0) {
+			return GdlPool.getProposition(name);
+		}
+		GdlTerm[] body = new GdlTerm[arity];
+		for (int i = 0; i < arity; i++) {
+			body[i] = readTerm(in, symbols);
+		}
+		return GdlPool.getRelation(name, body);
+	}
+
+	/**
+	 * assigns consecutive numbers to the constants of the written sentences and terms
+	 */
+	private static class SymbolTable {
+		private final Object2IntOpenHashMap<GdlConstant> idBySymbol = new Object2IntOpenHashMap<>();
+		private final List<GdlConstant> symbols = new ArrayList<>();
+		private final Map<GdlConstant, String> symbolNames;
+
+		public SymbolTable(Map<GdlConstant, String> symbolNames) {
+			this.symbolNames = symbolNames;
+			idBySymbol.defaultReturnValue(-1);
+		}
+
+		public int get(GdlConstant symbol) {
+			int id = idBySymbol.getInt(symbol);
+			if (id == -1) {
+				id = symbols.size();
+				symbols.add(symbol);
+				idBySymbol.put(symbol, id);
+			}
+			return id;
+		}
+
+		public void writeTerm(GdlTerm term, IntArrayList out) {
+			if (term instanceof GdlConstant) {
+				out.add(get((GdlConstant)term));
+			} else if (term instanceof GdlFunction) {
+				GdlFunction function = (GdlFunction)term;
+				out.add(-function.arity() - 1);
+				out.add(get(function.getName()));
+				for (int i = 0; i < function.arity(); i++) {
+					writeTerm(function.get(i), out);
+				}
+			} else {
+				throw new IllegalArgumentException("term is not ground: " + term);
+			}
+		}
+
+		public void writeSentence(GdlSentence sentence, IntArrayList out) {
+			out.add(get(sentence.getName()));
+			out.add(sentence.arity());
+			for (int i = 0; i < sentence.arity(); i++) {
+				writeTerm(sentence.get(i), out);
+			}
+		}
+
+		public byte[][] getBytes() {
+			byte[][] bytes = new byte[symbols.size()][];
+			for (int i = 0; i < bytes.length; i++) {
+				String name = symbolNames.get(symbols.get(i));
+				if (name == null) {
+					name = symbols.get(i).getValue();
+				}
+				bytes[i] = name.getBytes(UTF8);
+			}
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * invariants of the reachable states of a propnet and the shortcuts they allow
+ *
+ * - mutex groups: sets of base propositions of which at most one is true in every reachable state
+ *   (candidates are base propositions that only differ in one argument, e.g., the contents of one cell of a board,
+ *   which are proved by induction over the states)
+ * - latches: base propositions that stay true once they are true (positive) or stay false once they are false (negative)
+ * - for each latch the terminal and goal propositions it decides and the moves it makes illegal,
+ *   such that isTerminal, getGoalValue and isIllegal can be answered from the state alone
+ *
+ * All checks are sound, but incomplete (see ConstraintPropagator) and the analysis stops at the deadline,
+ * so only part of the invariants may be found.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetInvariants {
+
+	private static final int MAX_DEPTH = 3;
+	private static final int MAX_NB_NODES = 200;
+
+	/**
+	 * a condition on the current state: some base proposition in ifTrue is true or some in ifFalse is false
+	 */
+	private static class LatchCondition {
+		final long[] ifTrue;
+		final long[] ifFalse;
+
+		LatchCondition(int nbWords) {
+			ifTrue = new long[nbWords];
+			ifFalse = new long[nbWords];
+		}
+
+		void add(int baseId, boolean value) {
+			long[] words = (value ? ifTrue : ifFalse);
+			words[baseId >>> 6] |= 1L << baseId;
+		}
+
+		boolean holds(long[] state) {
+			for (int i = 0; i < state.length; i++) {
+				if (((state[i] & ifTrue[i]) | (~state[i] & ifFalse[i])) != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final PropNetStructure structure;
+	private final int nbWords;
+	private final ConstraintPropagator propagator;
+	private final long deadline;
+	private boolean isComplete = true;
+
+	private List<int[]> mutexGroups;
+	private final long[] positiveLatches;
+	private final long[] negativeLatches;
+	private int nbLatches = 0;
+
+	// the conditions are null as long as no latch implies them
+	private LatchCondition terminalCondition = null;
+	private final LatchCondition[][] goalConditions;
+	private final LatchCondition[][] illegalConditions;
+	private int nbGoalConditions = 0;
+	private int nbIllegalConditions = 0;
+
+	/**
+	 * @param deadline the time (as in System.currentTimeMillis()) at which the analysis stops
+	 */
+	public PropNetInvariants(PropNetStructure structure, long deadline) {
+		this.structure = structure;
+		this.deadline = deadline;
+		int nbBases = structure.getNbBasePropositions();
+		nbWords = PropNetEvaluator.getNbStateWords(nbBases);
+		positiveLatches = new long[nbWords];
+		negativeLatches = new long[nbWords];
+		int nbRoles = structure.getRoles().length;
+		goalConditions = new LatchCondition[nbRoles][];
+		illegalConditions = new LatchCondition[nbRoles][];
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			goalConditions[roleId] = new LatchCondition[structure.getGoalPropositions(roleId).length];
+			illegalConditions[roleId] = new LatchCondition[structure.getPossibleMoves(roleId).length];
+		}
+		propagator = new ConstraintPropagator(structure, MAX_DEPTH, MAX_NB_NODES);
+
+		mutexGroups = findMutexGroups();
+		propagator.setMutexGroups(mutexGroups);
+		for (int baseId = 0; baseId < nbBases && !isTimeUp(); baseId++) {
+			findLatches(baseId);
+		}
+	}
+
+	private boolean isTimeUp() {
+		if (System.currentTimeMillis() >= deadline) {
+			isComplete = false;
+		}
+		return !isComplete;
+	}
+
+	/**
+	 * @return groups of base propositions whose sentences only differ in one argument, at most one of which
+	 * is true in the initial state and, by induction, in every state
+	 */
+	private List<int[]> findMutexGroups() {
+		Map<String, IntArrayList> candidatesByKey = new LinkedHashMap<>();
+		for (BaseProposition p : structure.getBasePropositions()) {
+			// the arguments of the fluent, e.g., [1, 1, b] for (true (cell 1 1 b))
+			GdlSentence sentence = p.sentences[0];
+			String name = sentence.getName().getValue();
+			List<GdlTerm> arguments = sentence.getBody();
+			if (name.equals("true") && sentence.arity() == 1) {
+				GdlTerm fluent = sentence.get(0);
+				if (fluent instanceof GdlFunction) {
+					name = ((GdlFunction)fluent).getName().getValue();
+					arguments = ((GdlFunction)fluent).getBody();
+				} else {
+					arguments = Collections.emptyList();
+				}
+			}
+			for (int position = 0; position < arguments.size(); position++) {
+				StringBuilder key = new StringBuilder(name).append('/').append(position);
+				for (int i = 0; i < arguments.size(); i++) {
+					key.append(' ').append(i == position ? "_" : arguments.get(i).toString());
+				}
+				IntArrayList candidates = candidatesByKey.get(key.toString());
+				if (candidates == null) {
+					candidates = new IntArrayList();
+					candidatesByKey.put(key.toString(), candidates);
+				}
+				candidates.add(p.id);
+			}
+		}
+		Set<IntArrayList> groups = new LinkedHashSet<>();
+		BaseProposition[] bases = structure.getBasePropositions();
+		for (IntArrayList candidates : candidatesByKey.values()) {
+			int nbInitiallyTrue = 0;
+			for (int id : candidates) {
+				if (bases[id].initialValue) {
+					nbInitiallyTrue++;
+				}
+			}
+			if (candidates.size() > 1 && nbInitiallyTrue <= 1) {
+				groups.add(candidates);
+			}
+		}
+		List<int[]> result = new ArrayList<>(groups.size());
+		for (IntArrayList group : groups) {
+			result.add(group.toIntArray());
+		}
+
+		// remove groups until all remaining ones are mutex in the next state, if they are mutex in the current state
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			propagator.setMutexGroups(result);
+			List<int[]> inductiveGroups = new ArrayList<>(result.size());
+			for (int[] group : result) {
+				if (isInductive(group)) {
+					inductiveGroups.add(group);
+				} else {
+					changed = true;
+				}
+				if (isTimeUp()) {
+					// the remaining groups are not proved to be mutex
+					return Collections.emptyList();
+				}
+			}
+			result = inductiveGroups;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if no two base propositions of the group can be true in the next state
+	 */
+	private boolean isInductive(int[] group) {
+		for (int i = 0; i < group.length; i++) {
+			int next1 = getNextComponentId(group[i]);
+			for (int j = i + 1; j < group.length; j++) {
+				int next2 = getNextComponentId(group[j]);
+				if (!propagator.isContradictory(next1, ConstraintPropagator.TRUE, next2, ConstraintPropagator.TRUE)) {
+					return false;
+				}
+			}
+			if (isTimeUp()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int getNextComponentId(int baseId) {
+		return structure.getBasePropositions()[baseId].nextComponent.id;
+	}
+
+	/**
+	 * checks whether the base proposition is a latch and adds the conditions it decides
+	 */
+	private void findLatches(int baseId) {
+		int nextId = getNextComponentId(baseId);
+		for (boolean value : new boolean[] {true, false}) {
+			byte latchValue = toValue(value);
+			byte opposite = toValue(!value);
+			if (propagator.isContradictory(baseId, latchValue, nextId, opposite)) {
+				long[] latches = (value ? positiveLatches : negativeLatches);
+				latches[baseId >>> 6] |= 1L << baseId;
+				nbLatches++;
+				addDecidedConditions(baseId, value);
+			}
+		}
+	}
+
+	private static byte toValue(boolean value) {
+		return (value ? ConstraintPropagator.TRUE : ConstraintPropagator.FALSE);
+	}
+
+	private void addDecidedConditions(int baseId, boolean value) {
+		byte latchValue = toValue(value);
+		int terminalId = structure.getTerminalProposition().id;
+		if (propagator.isContradictory(baseId, latchValue, terminalId, ConstraintPropagator.FALSE)) {
+			if (terminalCondition == null) {
+				terminalCondition = new LatchCondition(nbWords);
+			}
+			terminalCondition.add(baseId, value);
+		}
+		for (int roleId = 0; roleId < goalConditions.length; roleId++) {
+			// the goal value is the one of the first true goal proposition
+			StaticComponent[] goalProps = structure.getGoalPropositions(roleId);
+			for (int i = 0; i < goalProps.length; i++) {
+				if (propagator.isContradictory(baseId, latchValue, goalProps[i].id, ConstraintPropagator.FALSE)) {
+					if (goalConditions[roleId][i] == null) {
+						goalConditions[roleId][i] = new LatchCondition(nbWords);
+					}
+					goalConditions[roleId][i].add(baseId, value);
+					nbGoalConditions++;
+					break;
+				} else if (!propagator.isContradictory(baseId, latchValue, goalProps[i].id, ConstraintPropagator.TRUE)) {
+					break;
+				}
+			}
+			PropNetMove[] moves = structure.getPossibleMoves(roleId);
+			for (int i = 0; i < moves.length; i++) {
+				if (propagator.isContradictory(baseId, latchValue, moves[i].getLegalComponent().id, ConstraintPropagator.TRUE)) {
+					if (illegalConditions[roleId][i] == null) {
+						illegalConditions[roleId][i] = new LatchCondition(nbWords);
+					}
+					illegalConditions[roleId][i].add(baseId, value);
+					nbIllegalConditions++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return false, if the analysis was stopped at the deadline
+	 */
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	/**
+	 * @return groups of base proposition ids, at most one of which is true in every reachable state
+	 */
+	public List<int[]> getMutexGroups() {
+		return mutexGroups;
+	}
+
+	/**
+	 * @return true if the base proposition stays true once it is true
+	 */
+	public boolean isPositiveLatch(int baseId) {
+		return (positiveLatches[baseId >>> 6] & (1L << baseId)) != 0;
+	}
+
+	/**
+	 * @return true if the base proposition stays false once it is false
+	 */
+	public boolean isNegativeLatch(int baseId) {
+		return (negativeLatches[baseId >>> 6] & (1L << baseId)) != 0;
+	}
+
+	/**
+	 * @param state the current state (as in PropNetMachineState.getWords())
+	 * @return true if some latch in the state implies the terminal proposition
+	 * (false means that the propnet has to be evaluated)
+	 */
+	public boolean isTerminal(long[] state) {
+		return terminalCondition != null && terminalCondition.holds(state);
+	}
+
+	/**
+	 * @param state the current state (as in PropNetMachineState.getWords())
+	 * @return the goal value of the role, if it is decided by some latch in the state, otherwise -1
+	 */
+	public int getGoalValue(long[] state, int roleId) {
+		LatchCondition[] conditions = goalConditions[roleId];
+		for (int i = 0; i < conditions.length; i++) {
+			if (conditions[i] != null && conditions[i].holds(state)) {
+				return structure.getGoalValues(roleId)[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param state the current state (as in PropNetMachineState.getWords())
+	 * @param moveIndex index of the move in PropNetStructure.getPossibleMoves(roleId)
+	 * @return true if some latch in the state makes the move illegal
+	 * (false means that the propnet has to be evaluated)
+	 *
+	 * PropNetStateMachine does not use this: its evaluators compute all legal propositions of a state at once,
+	 * so checking the latches first would only add work.
+	 */
+	public boolean isIllegal(long[] state, int roleId, int moveIndex) {
+		LatchCondition condition = illegalConditions[roleId][moveIndex];
+		return condition != null && condition.holds(state);
+	}
+
+	@Override
+	public String toString() {
+		return "PropNetInvariants {#mutex groups: " + mutexGroups.size() + ", #latches: " + nbLatches
+				+ ", terminal latches: " + (terminalCondition != null) + ", #goal latches: " + nbGoalConditions
+				+ ", #illegal move latches: " + nbIllegalConditions + (isComplete ? "" : ", incomplete") + "}";
+	}
+}
@@ -5,20 +5,21 @@ import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
 import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InvalidObjectException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -52,9 +53,8 @@ public class PropNetStructure implements Serializable {
 	private int nbRoles;
 
 	/**
-     * each Role is mapped to a unique id (counting from 0 to n-1 in the order of the roles) (and back)
+     * each Role has a unique id (counting from 0 to n-1 in the order of the roles)
      */
-    private Map<Role, Integer> role2id = null;
     private Role[] roleById = null;
 
     /**
@@ -70,9 +70,22 @@ public class PropNetStructure implements Serializable {
     private BaseProposition[] basePropositions = null;
 
     /**
-     * map from Move to PropNetMove (the internal move representation) for each role
+     * every distinct move term (of any role) has a unique id (counting from 0 in the order of the roles and moves)
      */
-    private Map<Move, PropNetMove>[] propNetMovesPerRole = null;
+    private GdlTerm[] moveTermById = null;
+    private Map<GdlTerm, Integer> moveTermIds = null;
+
+    /**
+     * moveIndexByTermId[roleid][termid] is the index of the move with that term in possibleMoves[roleid] or -1
+     */
+    private int[][] moveIndexByTermId = null;
+
+    /**
+     * the move term id of each INPUT component (by id) or -1
+     *
+     * All moves without any effect share one INPUT component, which has the move term id of the first of them.
+     */
+    private int[] moveTermIdByInputId = null;
 
     /**
      *  the list of all possible moves per role
@@ -107,6 +120,31 @@ public class PropNetStructure implements Serializable {
 
 	private boolean isCyclic;
 
+	/**
+	 * ids of all components in topological order (inputs before outputs), computed on demand
+	 */
+	private transient int[] topologicalOrder = null;
+
+	/**
+	 * the topology of the propnet in compressed sparse row format, created on demand or by compact()
+	 */
+	private transient PropNetTopology topology = null;
+
+	/**
+	 * true if componentById only contains the components that are referenced from elsewhere (see compact())
+	 */
+	private transient boolean isCompacted = false;
+
+	/**
+	 * random keys of the base propositions (by id) for Zobrist hashing of states, computed on demand
+	 */
+	private transient long[] zobristKeys = null;
+
+	/**
+	 * hash codes of the sentences of the base propositions (by id), computed on demand
+	 */
+	private transient int[] contentHashKeys = null;
+
 	/**
 	 * This method is used by PropNetStructureFactory classes to create the PropNetStructure.
 	 * Don't call it directly.
@@ -116,15 +154,29 @@ public class PropNetStructure implements Serializable {
 			Map<GdlSentence, BaseProposition> basePropBySentence,
 			PropNetMove[][] possibleMoves, StaticComponent[][] goalProps, int[][] goalValues,
 			StaticComponent terminalProposition, boolean isCyclic) {
+		this(componentById, null, role2id, roleById, basePropBySentence, possibleMoves, goalProps, goalValues, terminalProposition, isCyclic);
+	}
+
+	/**
+	 * creates a structure with the given topology
+	 *
+	 * @param componentById all components by id or, if topology is not null, only the referenced components
+	 *   as after compact()
+	 */
+	PropNetStructure(StaticComponent[] componentById, PropNetTopology topology,
+			Map<Role, Integer> role2id, Role[] roleById,
+			Map<GdlSentence, BaseProposition> basePropBySentence,
+			PropNetMove[][] possibleMoves, StaticComponent[][] goalProps, int[][] goalValues,
+			StaticComponent terminalProposition, boolean isCyclic) {
 		super();
 		nbComponents = componentById.length;
 		this.componentById = componentById;
-		assert !Arrays.asList(componentById).contains(null);
+		this.topology = topology;
+		isCompacted = (topology != null);
+		assert isCompacted || !Arrays.asList(componentById).contains(null);
 
 		assert roleById != null;
-		assert role2id != null;
-		assert roleById.length == role2id.size();
-		this.role2id = role2id;
+		assert role2id == null || roleById.length == role2id.size();
 		this.roleById = roleById;
 		nbRoles = roleById.length;
 		assert basePropBySentence != null;
@@ -140,15 +192,7 @@ public class PropNetStructure implements Serializable {
 		assert possibleMoves != null && possibleMoves.length == nbRoles;
 		this.possibleMoves = possibleMoves;
 
-		@SuppressWarnings("unchecked")
-		Map<Move, PropNetMove>[] map = new Map[nbRoles];
-		this.propNetMovesPerRole = map;
-		for (int rid = 0 ; rid < nbRoles ; rid++) {
-			propNetMovesPerRole[rid] = new HashMap<Move, PropNetMove>();
-			for (PropNetMove m : possibleMoves[rid]) {
-				propNetMovesPerRole[rid].put(m, m);
-			}
-		}
+		indexMoves();
 		assert goalProps != null  && goalProps.length == nbRoles;
 		this.goalProps = goalProps;
 		assert goalValues != null  && goalValues.length == nbRoles;
@@ -183,8 +227,56 @@ public class PropNetStructure implements Serializable {
 		return basePropositions;
 	}
 
+	/**
+	 * gives dense ids to the move terms and fills the arrays for translating between terms, moves and INPUT components
+	 */
+	private void indexMoves() {
+		moveTermIds = new HashMap<>();
+		List<GdlTerm> terms = new ArrayList<>();
+		moveTermIdByInputId = new int[nbComponents];
+		Arrays.fill(moveTermIdByInputId, -1);
+		for (int rid = 0; rid < nbRoles; rid++) {
+			for (int i = 0; i < possibleMoves[rid].length; i++) {
+				PropNetMove m = possibleMoves[rid][i];
+				Integer termId = moveTermIds.get(m.getContents());
+				if (termId == null) {
+					termId = terms.size();
+					terms.add(m.getContents());
+					moveTermIds.put(m.getContents(), termId);
+				}
+				m.setIds(rid, i, termId);
+				int inputId = m.getInputComponent().id;
+				if (moveTermIdByInputId[inputId] == -1) {
+					moveTermIdByInputId[inputId] = termId;
+				}
+			}
+		}
+		moveTermById = terms.toArray(new GdlTerm[terms.size()]);
+		moveIndexByTermId = new int[nbRoles][moveTermById.length];
+		for (int rid = 0; rid < nbRoles; rid++) {
+			Arrays.fill(moveIndexByTermId[rid], -1);
+			for (int i = 0; i < possibleMoves[rid].length; i++) {
+				moveIndexByTermId[rid][possibleMoves[rid][i].getMoveTermId()] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return the id of the role or -1 if the role is not in the game
+	 */
 	public int getRoleId(Role role) {
-		return role2id.get(role);
+		// there are only a few roles and their names are usually the same objects, so this is faster than hashing
+		for (int rid = 0; rid < nbRoles; rid++) {
+			if (roleById[rid] == role || roleById[rid].getName() == role.getName()) {
+				return rid;
+			}
+		}
+		for (int rid = 0; rid < nbRoles; rid++) {
+			if (roleById[rid].equals(role)) {
+				return rid;
+			}
+		}
+		return -1;
 	}
 
 	public StaticComponent[] getGoalPropositions(int roleId) {
@@ -203,8 +295,71 @@ public class PropNetStructure implements Serializable {
 		return possibleMoves[roleId];
 	}
 
+	/**
+	 * @return the move of the role with the same term as m or null if the role does not have such a move
+	 */
 	public PropNetMove getPropNetMove(int rid, Move m) {
-		return propNetMovesPerRole[rid].get(m);
+		if (m instanceof PropNetMove && isMoveOfThisPropNet((PropNetMove)m)) {
+			// moves of this propnet are translated without looking at the term
+			return getPropNetMoveByTermId(rid, ((PropNetMove)m).getMoveTermId());
+		}
+		return getPropNetMoveByTermId(rid, getMoveTermId(m.getContents()));
+	}
+
+	/**
+	 * @return true if the move is one of getPossibleMoves(roleId) (and not only a move with the same term)
+	 */
+	public boolean isMoveOfThisPropNet(PropNetMove m) {
+		int roleId = m.getRoleId();
+		return roleId >= 0 && roleId < nbRoles && m.getIndex() < possibleMoves[roleId].length
+				&& possibleMoves[roleId][m.getIndex()] == m;
+	}
+
+	/**
+	 * @return the move of the role with the given move term id or null if the role does not have such a move
+	 */
+	public PropNetMove getPropNetMoveByTermId(int rid, int moveTermId) {
+		if (moveTermId == -1) {
+			return null;
+		}
+		int i = moveIndexByTermId[rid][moveTermId];
+		return (i == -1 ? null : possibleMoves[rid][i]);
+	}
+
+	/**
+	 * @return the number of distinct move terms of all roles
+	 */
+	public int getNbMoveTerms() {
+		return moveTermById.length;
+	}
+
+	public GdlTerm getMoveTerm(int moveTermId) {
+		return moveTermById[moveTermId];
+	}
+
+	/**
+	 * @return the id of the move term or -1 if no role has a move with that term
+	 */
+	public int getMoveTermId(GdlTerm term) {
+		Integer termId = moveTermIds.get(term);
+		return (termId == null ? -1 : termId);
+	}
+
+	/**
+	 * @return the move term id of the INPUT component with the given id or -1 if it is no INPUT component
+	 * (for the INPUT component of the moves without any effect, the term of the first of those moves)
+	 */
+	public int getMoveTermIdOfInput(int inputId) {
+		return moveTermIdByInputId[inputId];
+	}
+
+	/**
+	 * @return the move of the role for the INPUT component with the given id or null if the role does not have
+	 * such a move
+	 */
+	public PropNetMove getPropNetMoveOfInput(int rid, int inputId) {
+		PropNetMove m = getPropNetMoveByTermId(rid, moveTermIdByInputId[inputId]);
+		return (m != null && m.getInputComponent().id == inputId ? m : null);
 	}
 
 	public BaseProposition getBaseProposition(GdlSentence sentence) {
@@ -215,10 +370,72 @@ public class PropNetStructure implements Serializable {
 		return nbComponents;
 	}
 
+	/**
+	 * After compact() the components that are not referenced from elsewhere are created from the topology,
+	 * so this creates a new array with (partly) new objects. Use getTopology() instead where possible.
+	 *
+	 * @return all components by id
+	 */
 	public StaticComponent[] getComponents() {
+		if (isCompacted) {
+			StaticComponent[] components = new StaticComponent[nbComponents];
+			for (int id = 0; id < nbComponents; id++) {
+				components[id] = getComponent(id);
+			}
+			return components;
+		}
 		return componentById;
 	}
 
+	/**
+	 * @return the types and connections of all components in compressed sparse row format
+	 */
+	public PropNetTopology getTopology() {
+		if (topology == null) {
+			topology = PropNetTopology.create(componentById, false);
+		}
+		return topology;
+	}
+
+	/**
+	 * replaces the StaticComponent objects by the compact topology to save memory
+	 *
+	 * Only the components that are referenced from elsewhere (base propositions, inputs, legal, goal,
+	 * terminal and next propositions) are kept as objects. All other components are only stored in
+	 * the topology, getComponent and getComponents create new objects for them.
+	 *
+	 * @param offHeap if true, the topology is stored in a direct buffer outside of the java heap
+	 */
+	public synchronized void compact(boolean offHeap) {
+		if (isCompacted) {
+			return;
+		}
+		if (topology == null || topology.isOffHeap() != offHeap) {
+			topology = PropNetTopology.create(componentById, offHeap);
+		}
+		StaticComponent[] referencedComponents = new StaticComponent[nbComponents];
+		for (BaseProposition p : basePropositions) {
+			referencedComponents[p.id] = p;
+			referencedComponents[p.nextComponent.id] = p.nextComponent;
+		}
+		for (int rid = 0; rid < nbRoles; rid++) {
+			for (PropNetMove m : possibleMoves[rid]) {
+				referencedComponents[m.getInputComponent().id] = m.getInputComponent();
+				referencedComponents[m.getLegalComponent().id] = m.getLegalComponent();
+			}
+			for (StaticComponent goal : goalProps[rid]) {
+				referencedComponents[goal.id] = goal;
+			}
+		}
+		referencedComponents[terminalProposition.id] = terminalProposition;
+		componentById = referencedComponents;
+		isCompacted = true;
+	}
+
+	public boolean isCompacted() {
+		return isCompacted;
+	}
+
 //	/**
 //	 * sets the given input components in the state to true (and all the others to false)
 //	 * also resets the computed bits for anything that might have been influenced by that change
@@ -256,7 +473,7 @@ public class PropNetStructure implements Serializable {
 	private Stats getStats() {
 		if (stats == null) {
 			stats = new Stats();
-			for (StaticComponent c : componentById) {
+			for (StaticComponent c : getComponents()) {
 				stats.nbComponents++;
 				switch (c.type) {
 					case AND: stats.nbAnds++; break;
@@ -316,7 +533,7 @@ public class PropNetStructure implements Serializable {
 
 	private void toDot(OutputStreamWriter os, ComponentFilter filter) throws IOException {
 		os.write("digraph propNet {\n");
-        for ( StaticComponent c : componentById ) {
+        for ( StaticComponent c : getComponents() ) {
         	if (filter.accept(c.id)) {
         		c.toDot(os, filter);
         	}
@@ -325,11 +542,15 @@ public class PropNetStructure implements Serializable {
 	}
 
 	public PropNetMove getPropNetMove(Role r, Move m) {
-		return propNetMovesPerRole[role2id.get(r)].get(m);
+		return getPropNetMove(getRoleId(r), m);
 	}
 
 	public StaticComponent getComponent(int id) {
-		return componentById[id];
+		StaticComponent c = componentById[id];
+		if (c == null) {
+			c = topology.createComponent(id);
+		}
+		return c;
 	}
 
 	// all bits in the state after that are free to be used for special purposes
@@ -341,21 +562,136 @@ public class PropNetStructure implements Serializable {
 		return isCyclic;
 	}
 
-	public void writeToFile(File file) throws FileNotFoundException, IOException {
-		file.getParentFile().mkdirs();
-		ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(file));
-		os.writeObject(this);
-		os.close();
+	/**
+	 * computes (once) an order of all components, such that every component comes after all of its inputs
+	 *
+	 * BASE and INPUT components do not have inputs in the structure (their next/legal components are
+	 * linked separately), so they are always among the first components in the order.
+	 *
+	 * If the ids are already in topological order (see ComponentOrder), the order is simply by id, such that
+	 * the evaluators go through the components in memory order.
+	 *
+	 * @return the ids of all components in topological order
+	 * @throws IllegalStateException if the propnet is cyclic
+	 */
+	public int[] getTopologicalOrder() {
+		if (topologicalOrder == null) {
+			if (isCyclic) {
+				throw new IllegalStateException("cyclic propnets do not have a topological order");
+			}
+			PropNetTopology topology = getTopology();
+			if (isOrderedById(topology)) {
+				int[] order = new int[nbComponents];
+				for (int id = 0; id < nbComponents; id++) {
+					order[id] = id;
+				}
+				topologicalOrder = order;
+			} else {
+				topologicalOrder = computeTopologicalOrder(topology);
+			}
+		}
+		return topologicalOrder;
+	}
+
+	private int[] computeTopologicalOrder(PropNetTopology topology) {
+		// Kahn's algorithm: a component is ready as soon as all of its inputs are ordered
+		int[] nbMissingInputs = new int[nbComponents];
+		int[] order = new int[nbComponents];
+		int nbOrdered = 0;
+		for (int id = 0; id < nbComponents; id++) {
+			nbMissingInputs[id] = topology.getNbInputs(id);
+			if (nbMissingInputs[id] == 0) {
+				order[nbOrdered++] = id;
+			}
+		}
+		for (int next = 0; next < nbOrdered; next++) {
+			int id = order[next];
+			for (int i = topology.getOutputStart(id); i < topology.getOutputStart(id + 1); i++) {
+				int output = topology.getOutput(i);
+				if (--nbMissingInputs[output] == 0) {
+					order[nbOrdered++] = output;
+				}
+			}
+		}
+		if (nbOrdered != nbComponents) {
+			throw new IllegalStateException("propnet contains a cycle, only " + nbOrdered + " of " + nbComponents + " components could be ordered");
+		}
+		return order;
+	}
+
+	/**
+	 * @return true, if every component has a higher id than all of its inputs
+	 */
+	private boolean isOrderedById(PropNetTopology topology) {
+		for (int id = 0; id < nbComponents; id++) {
+			for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+				if (topology.getInput(i) >= id) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The keys are generated with a fixed seed, such that the hash of a state is the same in every run.
+	 *
+	 * @return one random key per base proposition (by id) for Zobrist hashing of states
+	 */
+	public long[] getZobristKeys() {
+		if (zobristKeys == null) {
+			Random random = new Random(0x5DEECE66DL + nbBasePropositions);
+			long[] keys = new long[nbBasePropositions];
+			for (int i = 0; i < nbBasePropositions; i++) {
+				keys[i] = random.nextLong();
+			}
+			zobristKeys = keys;
+		}
+		return zobristKeys;
+	}
+
+	/**
+	 * The key of a base proposition is the XOR of the hash codes of its sentences. Because every sentence
+	 * belongs to one base proposition, the XOR of the keys of the true base propositions of a state is
+	 * the hash code that MachineState computes from the contents of the state.
+	 *
+	 * @return one key per base proposition (by id)
+	 */
+	public int[] getContentHashKeys() {
+		if (contentHashKeys == null) {
+			int[] keys = new int[nbBasePropositions];
+			for (BaseProposition prop : getBasePropositions()) {
+				for (GdlSentence sentence : new HashSet<GdlSentence>(Arrays.asList(prop.sentences))) {
+					keys[prop.id] ^= sentence.hashCode();
+				}
+			}
+			contentHashKeys = keys;
+		}
+		return contentHashKeys;
 	}
 
-	public static PropNetStructure readFromFile(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
-		ObjectInputStream is = new ObjectInputStream(new FileInputStream(file));
-		Object o = is.readObject();
-		is.close();
-		if (o instanceof PropNetStructure) {
-			return (PropNetStructure)o;
-		} else {
-			throw new InvalidObjectException("Object is not of type PropNetStructure: " + o.getClass());
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// a compacted structure is written with all components
+		StaticComponent[] referencedComponents = componentById;
+		componentById = getComponents();
+		try {
+			out.defaultWriteObject();
+		} finally {
+			componentById = referencedComponents;
 		}
 	}
+
+	/**
+	 * writes the structure to a file in the format of PropNetFile
+	 */
+	public void writeToFile(File file) throws IOException {
+		PropNetFile.write(this, file);
+	}
+
+	/**
+	 * reads a structure written by writeToFile, the file is memory mapped and the structure is compacted
+	 */
+	public static PropNetStructure readFromFile(File file) throws IOException {
+		return PropNetFile.read(file);
+	}
 }
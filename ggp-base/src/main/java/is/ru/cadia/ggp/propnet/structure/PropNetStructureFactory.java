@@ -6,22 +6,27 @@ import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
 import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponent;
 import is.ru.cadia.ggp.propnet.structure.dynamic.DynamicComponentPool;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntPriorityQueue;
 import it.unimi.dsi.fastutil.ints.IntStack;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.ggp.base.util.Pair;
@@ -38,8 +43,6 @@ import com.google.common.base.Stopwatch;
 
 public abstract class PropNetStructureFactory {
 
-	private static final String PROPNETSPATH = "propnets";
-
 	private DynamicComponentPool componentPool;
 	private List<Role> roles;
 	private Set<GdlSentence> initialState;
@@ -68,42 +71,61 @@ public abstract class PropNetStructureFactory {
 	// the set of all cyclic components; gets set by giveIdsToComponents()
 	private BitSet cyclicComponents = null;
 
+	// see DynamicPropnetOptimizer(DynamicComponentPool, ExecutorService, int)
+	private int optimizerPartitionSize = DynamicPropnetOptimizer.DEFAULT_PARTITION_SIZE;
+
+	private ComponentOrder componentOrder = ComponentOrder.LOCALITY;
+	private boolean measureComponentOrders = false;
+
 	public abstract PropNetStructure create(List<Gdl> description) throws InterruptedException;
 
 	/**
-	 * tries to load an existing propnet structure for the given game, assuming that the game name uniquely identifies the game
+	 * tries to load an existing propnet structure for the given game from the default PropNetCache
 	 *
-	 * if no file exists, creates the propnet and saves it to a file
-	 * @throws IOException
+	 * The cache is keyed by the rules of the game, the name is only used to decide whether to use the cache.
+	 * If the propnet is not in the cache, it is created and added to the cache.
+	 * @param gameName the name of the game or null, if the propnet should not be cached
 	 */
-	public PropNetStructure create(String gameName, List<Gdl> description) throws InterruptedException, IOException {
+	public PropNetStructure create(String gameName, List<Gdl> description) throws InterruptedException {
 		if (gameName == null) {
 			return create(description);
 		}
-		File propNetFile = getPropNetFileForGame(gameName);
-		PropNetStructure propnetStructure = null;
-		try {
-			propnetStructure = PropNetStructure.readFromFile(propNetFile);
-			System.out.println("propnet loaded from '" + propNetFile + "'");
-		} catch (ClassNotFoundException	| IOException e) {
-			System.out.println("File " + propNetFile + " does not exist or is not readable!");
-		}
-		if (propnetStructure == null) {
-			propnetStructure = create(description);
-			System.out.println("saving propnet to '" + propNetFile + "' ...");
-			propnetStructure.writeToFile(propNetFile);
-		}
-		return propnetStructure;
+		return new PropNetCache().get(this, description);
+	}
+
+	/**
+	 * sets the number of components per partition when optimizing the propnet in parallel (mainly for testing)
+	 */
+	void setOptimizerPartitionSize(int optimizerPartitionSize) {
+		this.optimizerPartitionSize = optimizerPartitionSize;
+	}
+
+	/**
+	 * sets the order in which the components get their ids (default: LOCALITY)
+	 */
+	public void setComponentOrder(ComponentOrder componentOrder) {
+		this.componentOrder = componentOrder;
+	}
+
+	/**
+	 * if set, the average distance between the ids of components and their inputs is printed for every
+	 * ComponentOrder when creating a propnet (as an estimate of the number of cache misses during evaluation)
+	 */
+	public void setMeasureComponentOrders(boolean measureComponentOrders) {
+		this.measureComponentOrders = measureComponentOrders;
 	}
 
-	private File getPropNetFileForGame(String gameName) {
-		String factoryIdentifier;
+	/**
+	 * @return a short name of the factory and its component order, propnets created by different factories
+	 * or with different orders are cached separately
+	 */
+	public String getIdentifier() {
+		String order = componentOrder.name().toLowerCase();
 		if (this instanceof ASPPropNetStructureFactory) {
-			factoryIdentifier = "asp";
+			return "asp_" + order;
 		} else {
-			factoryIdentifier = "base";
-		};
-		return new File(PROPNETSPATH, gameName + "_" + factoryIdentifier + ".propnet");
+			return "base_" + order;
+		}
 	}
 
 	////////////////////////////////
@@ -183,6 +205,14 @@ public abstract class PropNetStructureFactory {
 	 * @throws InterruptedException
 	 */
 	protected PropNetStructure create(List<Role> roles, Set<GdlSentence> initialState, DynamicComponentPool componentPool) throws InterruptedException {
+		return create(roles, initialState, componentPool, null);
+	}
+
+	/**
+	 * same as create(roles, initialState, componentPool), but optimizes the propnet in parallel
+	 * @param executor used for optimizing parts of the propnet in parallel, may be null
+	 */
+	protected PropNetStructure create(List<Role> roles, Set<GdlSentence> initialState, DynamicComponentPool componentPool, ExecutorService executor) throws InterruptedException {
 
 		this.roles = roles;
 		this.initialState = initialState;
@@ -190,7 +220,7 @@ public abstract class PropNetStructureFactory {
 
 //		// optimize the propnet
 		Stopwatch stopWatch = new Stopwatch().start();
-		DynamicPropnetOptimizer optimizer = new DynamicPropnetOptimizer(componentPool);
+		DynamicPropnetOptimizer optimizer = new DynamicPropnetOptimizer(componentPool, executor, optimizerPartitionSize);
 		optimizer.run();
 		System.out.println("optimizations took: " + stopWatch.elapsed(TimeUnit.MILLISECONDS)/1000.0 + "s");
 
@@ -252,23 +282,143 @@ public abstract class PropNetStructureFactory {
 			p.staticId = nextId++;
 		}
 
-		// get the remaining components (the ones that don't have an id yet)
-		Set<DynamicComponent> remainingComponents = new HashSet<>();
+		// get the remaining components (the ones that don't have an id yet) in the order of their ids
+		List<DynamicComponent> remainingComponents = new ArrayList<>();
 		for(DynamicComponent c : componentPool) {
 			if (c.staticId == -1) {
 				remainingComponents.add(c);
 			}
 		}
 		cyclicComponents = new BitSet(componentPool.size());
-		List<DynamicComponent> remainingComponentsInOrder = tarjansSCCAlgorithm(componentPool, remainingComponents, cyclicComponents);
+		List<DynamicComponent> depthFirstOrder = tarjansSCCAlgorithm(componentPool, remainingComponents, cyclicComponents);
+
+		if (measureComponentOrders) {
+			// base propositions have the same ids in every order, so the distance to them can not get much better
+			for (ComponentOrder order : ComponentOrder.values()) {
+				List<DynamicComponent> components = getOrder(order, depthFirstOrder);
+				System.out.println("average input id distance with " + order + " order: "
+						+ getAverageInputDistance(components, nextId, true) + " (without base propositions: "
+						+ getAverageInputDistance(components, nextId, false) + ")"
+						+ (order == componentOrder ? " (used)" : ""));
+			}
+		}
 
 		// now give IDs to the remaining components in order
-		for(DynamicComponent c : remainingComponentsInOrder) {
+		for(DynamicComponent c : getOrder(componentOrder, depthFirstOrder)) {
 			assert c.staticId == -1;
 			c.staticId = nextId++;
 		}
 	}
 
+	/**
+	 * @param depthFirstOrder the components without ids in the order of Tarjan's algorithm
+	 * @return the components in the given order
+	 */
+	private List<DynamicComponent> getOrder(ComponentOrder order, List<DynamicComponent> depthFirstOrder) {
+		if (order == ComponentOrder.DEPTH_FIRST || !cyclicComponents.isEmpty()) {
+			// there is no topological order for cyclic propnets
+			return depthFirstOrder;
+		}
+		return getTopologicalOrder(depthFirstOrder, order == ComponentOrder.LOCALITY);
+	}
+
+	/**
+	 * BASE and INPUT components have inputs in the dynamic propnet (next and legal), but not in the structure
+	 */
+	private static boolean hasInputsInStructure(DynamicComponent c) {
+		return c.type != Type.BASE && c.type != Type.INPUT;
+	}
+
+	/**
+	 * Kahn's algorithm for the components that do not have an id yet (all components with ids are base propositions)
+	 *
+	 * @param components the components in the order of Tarjan's algorithm, which is used to break ties
+	 * @param byLocality if true, the next component is one whose last input was ordered most recently,
+	 * otherwise the components are ordered by level
+	 */
+	private List<DynamicComponent> getTopologicalOrder(List<DynamicComponent> components, boolean byLocality) {
+		int[] positions = new int[componentPool.getHighestId() + 1];
+		Arrays.fill(positions, -1);
+		for (int i = 0; i < components.size(); i++) {
+			positions[components.get(i).id] = i;
+		}
+		int[] nbMissingInputs = new int[components.size()];
+		// the position in the new order of the last input of each component (-1 if it has none or only base propositions)
+		final int[] lastInputPositions = new int[components.size()];
+		IntPriorityQueue readyComponents;
+		if (byLocality) {
+			readyComponents = new IntHeapPriorityQueue(new AbstractIntComparator() {
+				@Override
+				public int compare(int i1, int i2) {
+					if (lastInputPositions[i1] != lastInputPositions[i2]) {
+						return lastInputPositions[i1] > lastInputPositions[i2] ? -1 : 1;
+					}
+					return Integer.compare(i1, i2);
+				}
+			});
+		} else {
+			readyComponents = new IntArrayFIFOQueue();
+		}
+		for (int i = 0; i < components.size(); i++) {
+			DynamicComponent c = components.get(i);
+			lastInputPositions[i] = -1;
+			if (hasInputsInStructure(c)) {
+				for (DynamicComponent input : c.getInputs()) {
+					if (positions[input.id] >= 0) {
+						nbMissingInputs[i]++;
+					}
+				}
+			}
+			if (nbMissingInputs[i] == 0) {
+				readyComponents.enqueue(i);
+			}
+		}
+		List<DynamicComponent> order = new ArrayList<>(components.size());
+		while (!readyComponents.isEmpty()) {
+			DynamicComponent c = components.get(readyComponents.dequeueInt());
+			for (DynamicComponent output : c.getOutputs()) {
+				int j = positions[output.id];
+				if (j >= 0 && hasInputsInStructure(output)) {
+					lastInputPositions[j] = order.size();
+					if (--nbMissingInputs[j] == 0) {
+						readyComponents.enqueue(j);
+					}
+				}
+			}
+			order.add(c);
+		}
+		assert order.size() == components.size();
+		return order;
+	}
+
+	/**
+	 * @param order components that get the ids firstId, firstId+1, ... (all other components must already have their ids)
+	 * @param withBasePropositions whether to count inputs that are base propositions
+	 * @return the average distance between the ids of components and the ids of their inputs in the structure
+	 */
+	private double getAverageInputDistance(List<DynamicComponent> order, int firstId, boolean withBasePropositions) {
+		int[] ids = new int[componentPool.getHighestId() + 1];
+		for (DynamicComponent c : componentPool) {
+			ids[c.id] = c.staticId;
+		}
+		for (int i = 0; i < order.size(); i++) {
+			ids[order.get(i).id] = firstId + i;
+		}
+		long sum = 0;
+		long nbLinks = 0;
+		for (DynamicComponent c : order) {
+			if (hasInputsInStructure(c)) {
+				for (DynamicComponent input : c.getInputs()) {
+					if (withBasePropositions || ids[input.id] >= firstId) {
+						sum += Math.abs(ids[c.id] - ids[input.id]);
+						nbLinks++;
+					}
+				}
+			}
+		}
+		return nbLinks == 0 ? 0 : (double)sum / nbLinks;
+	}
+
 	/**
 	 * run Tarjan's algorithm for finding strongly connected components, but output the topological order it creates
 	 *
@@ -359,14 +509,15 @@ public abstract class PropNetStructureFactory {
         }
 
 		// first find bases, inputs, legals, goals and terminal
-		basePropBySentence = new HashMap<GdlSentence, DynamicComponent>();
+		// linked maps and sets, such that the order of bases and moves only depends on the ids of the components
+		basePropBySentence = new LinkedHashMap<GdlSentence, DynamicComponent>();
 		goalPropsPerRoles = new List[nbRoles];
 		goalValuesPerRoles = new IntList[nbRoles];
 		inputAndLegalPropsPerRole = new Map[nbRoles];
 		for (int rid = 0; rid < nbRoles; rid++) {
 			goalPropsPerRoles[rid] = new LinkedList<>();
 			goalValuesPerRoles[rid] = new IntArrayList();
-			inputAndLegalPropsPerRole[rid] = new HashMap<>();
+			inputAndLegalPropsPerRole[rid] = new LinkedHashMap<>();
 		}
 
 		// remove the INIT component from the propnet
@@ -385,7 +536,7 @@ public abstract class PropNetStructureFactory {
 		}
 
 		// does(R,M) sentences for which there is no INPUT component yet
-		Set<GdlSentence> missingInputs = new HashSet<>();
+		Set<GdlSentence> missingInputs = new LinkedHashSet<>();
 
 		// create a FALSE component as input for BASE that are only true initially
 		DynamicComponent falseComponent = componentPool.create();
@@ -0,0 +1,799 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * finds symmetries of a game as permutations of the base and input propositions
+ *
+ * The optimizations of the propnet (e.g., factoring out common inputs) usually break the symmetries of its
+ * components. Therefore, the symmetries are searched in a graph of the functions the propnet computes:
+ * The next component of each base proposition, the legal component of each move, the goal propositions and
+ * the terminal proposition are expanded into disjunctions of conjunctions (terms) of base, input and INIT
+ * propositions (or their negations). Parts that would get too big are kept as definitions, which are expanded
+ * on their own.
+ *
+ * An automorphism of this graph keeps the initial state, the roles of the moves, the goal values and
+ * the terminal proposition and maps each function to the one of the permuted proposition. Thus, it maps every
+ * state to a state with the same legal moves (up to the permutation), goal values and terminal value.
+ *
+ * The automorphisms are found by colour refinement and a search that individualizes one vertex at a time
+ * (as in graph canonicalization tools like nauty). Every automorphism is verified, but the search stops
+ * at the deadline, so only some of the symmetries may be found. Cyclic propnets are not supported.
+ *
+ * The permutations of the base propositions form a group (up to MAX_GROUP_SIZE elements) that is used to
+ * map each state to a canonical representative of all its symmetric states.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetSymmetries {
+
+	private static final int MAX_GROUP_SIZE = 1024;
+	private static final int MAX_NB_SEARCH_NODES = 100000;
+	// the maximal number of terms of a conjunction before its inputs are kept as definitions
+	private static final int MAX_NB_PRODUCT_TERMS = 256;
+	// the maximal number of terms of all expanded components
+	private static final int MAX_NB_TERMS = 200000;
+
+	// kinds of vertices
+	private static final int BASE = 0;
+	private static final int INPUT = 1;
+	private static final int INIT = 2;
+	private static final int DEFINITION = 3;
+	private static final int TERM = 4;
+	private static final int LEGAL = 5;
+	private static final int GOAL = 6;
+	private static final int TERMINAL = 7;
+
+	// labels of the edges
+	private static final int EDGE_POSITIVE = 0;
+	private static final int EDGE_NEGATIVE = 1;
+	private static final int EDGE_TERM = 2;
+	private static final int EDGE_DOES = 3;
+
+	private static final int[][] FALSE_TERMS = new int[0][];
+	private static final int[][] TRUE_TERMS = new int[][] {new int[0]};
+
+	private final PropNetStructure structure;
+	private final long deadline;
+	private boolean isComplete = true;
+	private int nbSearchNodes = 0;
+
+	// the graph, built by the constructor
+	// vertex i < getNbBasePropositions() is the base proposition with id i
+	private int nbVertices = 0;
+	private final List<List<Integer>> vertexLabels = new ArrayList<>();
+	private final IntArrayList edgeFroms = new IntArrayList();
+	private final IntArrayList edgeTos = new IntArrayList();
+	private final IntArrayList edgeLabels = new IntArrayList();
+	private final Map<Integer, Integer> vertexByComponentId = new HashMap<>();
+	private final Map<List<IntArrayList>, Integer> definitionByTerms = new HashMap<>();
+	private final Map<IntArrayList, Integer> termVertices = new HashMap<>();
+	private int nbTerms = 0;
+
+	// all edges, sorted by target and by source
+	private int[] inStart;
+	private int[] inFrom;
+	private int[] inLabel;
+	private int[] outStart;
+	private int[] outTo;
+	private int[] outLabel;
+
+	/**
+	 * colours of the vertices before refinement (kind, role, goal value, ...)
+	 */
+	private int[] initialColors;
+
+	/**
+	 * automorphisms found by the search as permutations of the vertices
+	 */
+	private final List<int[]> generators = new ArrayList<>();
+
+	/**
+	 * all elements of the group of permutations of the base propositions (except the identity)
+	 */
+	private final List<int[]> basePermutations;
+
+	/**
+	 * @param deadline the time (as in System.currentTimeMillis()) at which the search stops
+	 */
+	public PropNetSymmetries(PropNetStructure structure, long deadline) {
+		this.structure = structure;
+		this.deadline = deadline;
+		if (structure.isCylic() || !buildGraph()) {
+			isComplete = false;
+			basePermutations = Collections.emptyList();
+			return;
+		}
+		findGenerators();
+		basePermutations = getGroup();
+	}
+
+	private boolean isTimeUp() {
+		if (System.currentTimeMillis() >= deadline || nbSearchNodes >= MAX_NB_SEARCH_NODES) {
+			isComplete = false;
+		}
+		return !isComplete;
+	}
+
+	private static long toLong(int high, int low) {
+		return ((long)high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	private int addVertex(Integer... label) {
+		vertexLabels.add(new ArrayList<>(Arrays.asList(label)));
+		return nbVertices++;
+	}
+
+	private void addEdge(int from, int to, int label) {
+		edgeFroms.add(from);
+		edgeTos.add(to);
+		edgeLabels.add(label);
+	}
+
+	/**
+	 * @return the vertex of the INPUT or INIT component
+	 */
+	private int getVariable(int componentId) {
+		Integer vertex = vertexByComponentId.get(componentId);
+		if (vertex == null) {
+			vertex = addVertex(structure.getTopology().getType(componentId) == StaticComponent.Type.INIT ? INIT : INPUT);
+			vertexByComponentId.put(componentId, vertex);
+		}
+		return vertex;
+	}
+
+	/**
+	 * expands all components into sets of terms and builds the graph
+	 *
+	 * @return false, if the expansion was stopped (at the deadline or because there are too many terms)
+	 */
+	private boolean buildGraph() {
+		for (BaseProposition p : structure.getBasePropositions()) {
+			addVertex(BASE, p.initialValue ? 1 : 0);
+		}
+		int[][][] termsById = new int[structure.getTopology().getNbComponents()][][];
+		int nbExpanded = 0;
+		for (int id : structure.getTopologicalOrder()) {
+			termsById[id] = expand(id, termsById);
+			if (termsById[id] == null || ++nbExpanded % 1000 == 0 && isTimeUp()) {
+				return false;
+			}
+		}
+
+		for (BaseProposition p : structure.getBasePropositions()) {
+			addTerms(termsById[p.nextComponent.id], p.id);
+		}
+		int nbRoles = structure.getRoles().length;
+		for (int roleId = 0; roleId < nbRoles; roleId++) {
+			for (PropNetMove move : structure.getPossibleMoves(roleId)) {
+				int input = getVariable(move.getInputComponent().id);
+				vertexLabels.get(input).add(1000000 + roleId);
+				int legal = addVertex(LEGAL, roleId);
+				addEdge(input, legal, EDGE_DOES);
+				addTerms(termsById[move.getLegalComponent().id], legal);
+			}
+			StaticComponent[] goalProps = structure.getGoalPropositions(roleId);
+			for (int i = 0; i < goalProps.length; i++) {
+				addTerms(termsById[goalProps[i].id], addVertex(GOAL, roleId, structure.getGoalValues(roleId)[i]));
+			}
+		}
+		addTerms(termsById[structure.getTerminalProposition().id], addVertex(TERMINAL));
+
+		int nbEdges = edgeFroms.size();
+		inStart = new int[nbVertices + 1];
+		outStart = new int[nbVertices + 1];
+		for (int e = 0; e < nbEdges; e++) {
+			inStart[edgeTos.getInt(e) + 1]++;
+			outStart[edgeFroms.getInt(e) + 1]++;
+		}
+		for (int v = 0; v < nbVertices; v++) {
+			inStart[v + 1] += inStart[v];
+			outStart[v + 1] += outStart[v];
+		}
+		inFrom = new int[nbEdges];
+		inLabel = new int[nbEdges];
+		outTo = new int[nbEdges];
+		outLabel = new int[nbEdges];
+		int[] nextIn = Arrays.copyOf(inStart, nbVertices);
+		int[] nextOut = Arrays.copyOf(outStart, nbVertices);
+		for (int e = 0; e < nbEdges; e++) {
+			int in = nextIn[edgeTos.getInt(e)]++;
+			inFrom[in] = edgeFroms.getInt(e);
+			inLabel[in] = edgeLabels.getInt(e);
+			int out = nextOut[edgeFroms.getInt(e)]++;
+			outTo[out] = edgeTos.getInt(e);
+			outLabel[out] = edgeLabels.getInt(e);
+		}
+		initialColors = getInitialColors();
+		return true;
+	}
+
+	/**
+	 * adds edges from the terms (which are vertices shared by all functions) to the vertex of the function
+	 */
+	private void addTerms(int[][] terms, int functionVertex) {
+		for (int[] term : terms) {
+			IntArrayList key = IntArrayList.wrap(term);
+			Integer vertex = termVertices.get(key);
+			if (vertex == null) {
+				vertex = addVertex(TERM);
+				termVertices.put(key, vertex);
+				for (int literal : term) {
+					addEdge(literal >>> 1, vertex, (literal & 1) == 0 ? EDGE_POSITIVE : EDGE_NEGATIVE);
+				}
+			}
+			addEdge(vertex, functionVertex, EDGE_TERM);
+		}
+	}
+
+	/**
+	 * A literal is a vertex * 2 (+ 1 if negated), a term is a sorted array of literals and
+	 * the terms of a component are sorted (lexicographically).
+	 *
+	 * @return the terms of the component (whose inputs are already expanded) or null if there are too many terms
+	 */
+	private int[][] expand(int id, int[][][] termsById) {
+		PropNetTopology topology = structure.getTopology();
+		int firstInput = topology.getInputStart(id);
+		int lastInput = topology.getInputStart(id + 1);
+		int[][] terms;
+		switch (topology.getType(id)) {
+			case BASE:
+				return new int[][] {new int[] {id * 2}};
+			case INPUT:
+			case INIT:
+				return new int[][] {new int[] {getVariable(id) * 2}};
+			case TRUE:
+				return TRUE_TERMS;
+			case FALSE:
+				return FALSE_TERMS;
+			case PIPE:
+				return (firstInput == lastInput ? FALSE_TERMS : termsById[topology.getInput(firstInput)]);
+			case NOT:
+				terms = negate(termsById[topology.getInput(firstInput)]);
+				break;
+			case OR:
+				List<int[]> union = new ArrayList<>();
+				for (int i = firstInput; i < lastInput; i++) {
+					union.addAll(Arrays.asList(termsById[topology.getInput(i)]));
+				}
+				terms = union.toArray(new int[union.size()][]);
+				break;
+			case AND:
+				int[][][] factors = new int[lastInput - firstInput][][];
+				long nbProductTerms = 1;
+				for (int i = firstInput; i < lastInput; i++) {
+					factors[i - firstInput] = termsById[topology.getInput(i)];
+					nbProductTerms = Math.min(nbProductTerms * Math.max(1, factors[i - firstInput].length), Integer.MAX_VALUE);
+				}
+				if (nbProductTerms > MAX_NB_PRODUCT_TERMS) {
+					for (int i = 0; i < factors.length; i++) {
+						if (factors[i].length > 1) {
+							factors[i] = new int[][] {new int[] {getDefinition(factors[i]) * 2}};
+						}
+					}
+				}
+				terms = TRUE_TERMS;
+				for (int[][] factor : factors) {
+					terms = multiply(terms, factor);
+				}
+				break;
+			default:
+				throw new IllegalStateException("unknown component type: " + topology.getType(id));
+		}
+		terms = normalize(terms);
+		nbTerms += terms.length;
+		return (nbTerms > MAX_NB_TERMS ? null : terms);
+	}
+
+	private int[][] negate(int[][] terms) {
+		if (terms.length == 1) {
+			// not (a and b) = not a or not b
+			int[][] result = new int[terms[0].length][];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = new int[] {terms[0][i] ^ 1};
+			}
+			return result;
+		}
+		int[] literals = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			if (terms[i].length != 1) {
+				return new int[][] {new int[] {getDefinition(terms) * 2 + 1}};
+			}
+			literals[i] = terms[i][0] ^ 1;
+		}
+		// not (a or b) = not a and not b (or true, if there are no terms)
+		return new int[][] {literals};
+	}
+
+	private static int[][] multiply(int[][] terms1, int[][] terms2) {
+		int[][] result = new int[terms1.length * terms2.length][];
+		int k = 0;
+		for (int[] term1 : terms1) {
+			for (int[] term2 : terms2) {
+				int[] product = Arrays.copyOf(term1, term1.length + term2.length);
+				System.arraycopy(term2, 0, product, term1.length, term2.length);
+				result[k++] = product;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * sorts the literals and terms and removes duplicates and contradictory terms
+	 */
+	private static int[][] normalize(int[][] terms) {
+		Set<IntArrayList> seen = new HashSet<>();
+		List<int[]> result = new ArrayList<>(terms.length);
+		for (int[] term : terms) {
+			IntOpenHashSet literals = new IntOpenHashSet(term);
+			boolean isContradictory = false;
+			for (int literal : term) {
+				isContradictory |= literals.contains(literal ^ 1);
+			}
+			int[] sorted = literals.toIntArray();
+			Arrays.sort(sorted);
+			if (!isContradictory && seen.add(IntArrayList.wrap(sorted))) {
+				result.add(sorted);
+			}
+		}
+		Collections.sort(result, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] t1, int[] t2) {
+				for (int i = 0; i < t1.length && i < t2.length; i++) {
+					if (t1[i] != t2[i]) {
+						return Integer.compare(t1[i], t2[i]);
+					}
+				}
+				return Integer.compare(t1.length, t2.length);
+			}
+		});
+		return result.toArray(new int[result.size()][]);
+	}
+
+	/**
+	 * @return the vertex defined by the (normalized) terms, which is the same for equal terms
+	 */
+	private int getDefinition(int[][] terms) {
+		List<IntArrayList> key = new ArrayList<>(terms.length);
+		for (int[] term : terms) {
+			key.add(IntArrayList.wrap(term));
+		}
+		Integer vertex = definitionByTerms.get(key);
+		if (vertex == null) {
+			vertex = addVertex(DEFINITION);
+			definitionByTerms.put(key, vertex);
+			addTerms(terms, vertex);
+		}
+		return vertex;
+	}
+
+	/**
+	 * @return colours that distinguish vertices by everything except their edges
+	 */
+	private int[] getInitialColors() {
+		Map<List<Integer>, Integer> colorByLabel = new HashMap<>();
+		List<List<Integer>> distinctLabels = new ArrayList<>();
+		for (List<Integer> label : vertexLabels) {
+			Collections.sort(label.subList(1, label.size()));
+			if (!colorByLabel.containsKey(label)) {
+				colorByLabel.put(label, 0);
+				distinctLabels.add(label);
+			}
+		}
+		// number the colours in a canonical order
+		Collections.sort(distinctLabels, new Comparator<List<Integer>>() {
+			@Override
+			public int compare(List<Integer> l1, List<Integer> l2) {
+				for (int i = 0; i < l1.size() && i < l2.size(); i++) {
+					int c = Integer.compare(l1.get(i), l2.get(i));
+					if (c != 0) {
+						return c;
+					}
+				}
+				return Integer.compare(l1.size(), l2.size());
+			}
+		});
+		for (int i = 0; i < distinctLabels.size(); i++) {
+			colorByLabel.put(distinctLabels.get(i), i);
+		}
+		int[] colors = new int[nbVertices];
+		for (int v = 0; v < nbVertices; v++) {
+			colors[v] = colorByLabel.get(vertexLabels.get(v));
+		}
+		return colors;
+	}
+
+	/**
+	 * refines the colours until vertices of the same colour have the same number of edges (with each label)
+	 * from and to vertices of each colour
+	 *
+	 * The new colours are numbered by the sorted signatures of the vertices, such that refining
+	 * isomorphic colourings gives the same colours for corresponding vertices.
+	 *
+	 * @return the number of colours
+	 */
+	private int refine(int[] colors) {
+		int nbColors = countColors(colors);
+		while (true) {
+			final long[][] signatures = new long[nbVertices][];
+			for (int v = 0; v < nbVertices; v++) {
+				long[] signature = new long[2 + inStart[v + 1] - inStart[v] + outStart[v + 1] - outStart[v]];
+				int k = 0;
+				signature[k++] = colors[v];
+				for (int e = inStart[v]; e < inStart[v + 1]; e++) {
+					signature[k++] = toLong(inLabel[e], colors[inFrom[e]]);
+				}
+				Arrays.sort(signature, 1, k);
+				signature[k++] = -1;
+				int firstOut = k;
+				for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+					signature[k++] = toLong(outLabel[e], colors[outTo[e]]);
+				}
+				Arrays.sort(signature, firstOut, k);
+				signatures[v] = signature;
+			}
+			Integer[] order = new Integer[nbVertices];
+			for (int v = 0; v < nbVertices; v++) {
+				order[v] = v;
+			}
+			Comparator<Integer> bySignature = new Comparator<Integer>() {
+				@Override
+				public int compare(Integer v1, Integer v2) {
+					return compareSignatures(signatures[v1], signatures[v2]);
+				}
+			};
+			Arrays.sort(order, bySignature);
+			int newNbColors = 0;
+			for (int i = 0; i < nbVertices; i++) {
+				if (i > 0 && bySignature.compare(order[i - 1], order[i]) != 0) {
+					newNbColors++;
+				}
+				colors[order[i]] = newNbColors;
+			}
+			newNbColors++;
+			if (newNbColors == nbColors) {
+				return nbColors;
+			}
+			nbColors = newNbColors;
+		}
+	}
+
+	private static int compareSignatures(long[] s1, long[] s2) {
+		for (int i = 0; i < s1.length && i < s2.length; i++) {
+			if (s1[i] != s2[i]) {
+				return Long.compare(s1[i], s2[i]);
+			}
+		}
+		return Integer.compare(s1.length, s2.length);
+	}
+
+	private static int countColors(int[] colors) {
+		int nbColors = 0;
+		for (int color : colors) {
+			nbColors = Math.max(nbColors, color + 1);
+		}
+		return nbColors;
+	}
+
+	/**
+	 * @return a refined copy of the colours in which the vertex has a colour of its own
+	 */
+	private int[] individualize(int[] colors, int v) {
+		int[] result = colors.clone();
+		result[v] = countColors(colors);
+		refine(result);
+		return result;
+	}
+
+	/**
+	 * @return the number of vertices of each colour
+	 */
+	private static int[] getCellSizes(int[] colors) {
+		int[] sizes = new int[countColors(colors)];
+		for (int color : colors) {
+			sizes[color]++;
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return the first colour with more than one vertex or -1
+	 */
+	private static int getFirstNonSingletonCell(int[] cellSizes) {
+		for (int color = 0; color < cellSizes.length; color++) {
+			if (cellSizes[color] > 1) {
+				return color;
+			}
+		}
+		return -1;
+	}
+
+	private static int getFirstVertex(int[] colors, int color) {
+		for (int v = 0; v < colors.length; v++) {
+			if (colors[v] == color) {
+				return v;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * searches automorphisms along the path of individualizing the first vertex of the first non-singleton
+	 * colour, starting with the deepest level, such that the automorphisms found so far can be used to skip
+	 * vertices in the same orbit
+	 */
+	private void findGenerators() {
+		List<int[]> path = new ArrayList<>();
+		int[] colors = initialColors.clone();
+		refine(colors);
+		while (true) {
+			path.add(colors);
+			int cell = getFirstNonSingletonCell(getCellSizes(colors));
+			if (cell == -1 || isTimeUp()) {
+				break;
+			}
+			colors = individualize(colors, getFirstVertex(colors, cell));
+		}
+		for (int level = path.size() - 2; level >= 0 && !isTimeUp(); level--) {
+			int[] levelColors = path.get(level);
+			int[] childColors = path.get(level + 1);
+			int cell = getFirstNonSingletonCell(getCellSizes(levelColors));
+			int v = getFirstVertex(levelColors, cell);
+			int[] orbits = getOrbits();
+			for (int w = 0; w < nbVertices && !isTimeUp(); w++) {
+				if (levelColors[w] == cell && w != v && findRoot(orbits, w) != findRoot(orbits, v)) {
+					int[] automorphism = findAutomorphism(childColors, individualize(levelColors, w));
+					if (automorphism != null) {
+						generators.add(automorphism);
+						orbits = getOrbits();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a union-find structure of the orbits of the vertices under the generators found so far
+	 */
+	private int[] getOrbits() {
+		int[] parents = new int[nbVertices];
+		for (int v = 0; v < nbVertices; v++) {
+			parents[v] = v;
+		}
+		for (int[] generator : generators) {
+			for (int v = 0; v < nbVertices; v++) {
+				int root1 = findRoot(parents, v);
+				int root2 = findRoot(parents, generator[v]);
+				if (root1 != root2) {
+					parents[root2] = root1;
+				}
+			}
+		}
+		return parents;
+	}
+
+	private static int findRoot(int[] parents, int v) {
+		while (parents[v] != v) {
+			parents[v] = parents[parents[v]];
+			v = parents[v];
+		}
+		return v;
+	}
+
+	/**
+	 * @return an automorphism that maps the vertices of each colour in left to the vertices of the same colour
+	 * in right or null if none was found
+	 */
+	private int[] findAutomorphism(int[] left, int[] right) {
+		nbSearchNodes++;
+		int[] leftSizes = getCellSizes(left);
+		if (!Arrays.equals(leftSizes, getCellSizes(right))) {
+			return null;
+		}
+		int cell = getFirstNonSingletonCell(leftSizes);
+		if (cell == -1) {
+			int[] vertexByColor = new int[nbVertices];
+			for (int v = 0; v < nbVertices; v++) {
+				vertexByColor[right[v]] = v;
+			}
+			int[] permutation = new int[nbVertices];
+			for (int v = 0; v < nbVertices; v++) {
+				permutation[v] = vertexByColor[left[v]];
+			}
+			return (isAutomorphism(permutation) ? permutation : null);
+		}
+		int[] leftChild = individualize(left, getFirstVertex(left, cell));
+		for (int w = 0; w < nbVertices && !isTimeUp(); w++) {
+			if (right[w] == cell) {
+				int[] automorphism = findAutomorphism(leftChild, individualize(right, w));
+				if (automorphism != null) {
+					return automorphism;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the permutation keeps the initial colours and maps every edge to an edge
+	 */
+	private boolean isAutomorphism(int[] permutation) {
+		for (int v = 0; v < nbVertices; v++) {
+			int image = permutation[v];
+			int nbEdges = inStart[v + 1] - inStart[v];
+			if (initialColors[image] != initialColors[v] || nbEdges != inStart[image + 1] - inStart[image]) {
+				return false;
+			}
+			// compare the permuted edges to v with the edges to its image
+			long[] edges = new long[nbEdges];
+			long[] imageEdges = new long[nbEdges];
+			for (int e = 0; e < nbEdges; e++) {
+				edges[e] = toLong(inLabel[inStart[v] + e], permutation[inFrom[inStart[v] + e]]);
+				imageEdges[e] = toLong(inLabel[inStart[image] + e], inFrom[inStart[image] + e]);
+			}
+			Arrays.sort(edges);
+			Arrays.sort(imageEdges);
+			if (!Arrays.equals(edges, imageEdges)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return all elements of the group generated by the base permutations of (some of) the generators
+	 */
+	private List<int[]> getGroup() {
+		int nbBases = structure.getNbBasePropositions();
+		List<int[]> baseGenerators = new ArrayList<>();
+		List<int[]> group = Collections.emptyList();
+		for (int[] generator : generators) {
+			int[] baseGenerator = Arrays.copyOf(generator, nbBases);
+			if (isIdentity(baseGenerator)) {
+				continue;
+			}
+			baseGenerators.add(baseGenerator);
+			List<int[]> closure = getClosure(baseGenerators, nbBases);
+			if (closure == null) {
+				// too many elements, leave out this generator such that the elements still form a group
+				baseGenerators.remove(baseGenerators.size() - 1);
+				isComplete = false;
+			} else {
+				group = closure;
+			}
+		}
+		List<int[]> result = new ArrayList<>(group.size());
+		for (int[] element : group) {
+			if (!isIdentity(element)) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isIdentity(int[] permutation) {
+		for (int i = 0; i < permutation.length; i++) {
+			if (permutation[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return all products of the generators or null if there are more than MAX_GROUP_SIZE
+	 */
+	private static List<int[]> getClosure(List<int[]> generators, int size) {
+		int[] identity = new int[size];
+		for (int i = 0; i < size; i++) {
+			identity[i] = i;
+		}
+		List<int[]> elements = new ArrayList<>();
+		Set<IntArrayList> seen = new HashSet<>();
+		elements.add(identity);
+		seen.add(IntArrayList.wrap(identity));
+		for (int next = 0; next < elements.size(); next++) {
+			for (int[] generator : generators) {
+				int[] product = new int[size];
+				for (int i = 0; i < size; i++) {
+					product[i] = generator[elements.get(next)[i]];
+				}
+				if (seen.add(IntArrayList.wrap(product))) {
+					if (elements.size() >= MAX_GROUP_SIZE) {
+						return null;
+					}
+					elements.add(product);
+				}
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * @return false, if the search was stopped (at the deadline or because the propnet or group became too big)
+	 */
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	/**
+	 * @return all permutations of the base propositions in the symmetry group except the identity
+	 * (permutation[id] is the image of the base proposition with the given id)
+	 */
+	public List<int[]> getBasePermutations() {
+		return basePermutations;
+	}
+
+	/**
+	 * @return true if no symmetries were found
+	 */
+	public boolean isEmpty() {
+		return basePermutations.isEmpty();
+	}
+
+	/**
+	 * @param state the state (as in PropNetMachineState.getWords())
+	 * @return the state permuted with the given permutation (see getBasePermutations())
+	 */
+	public static long[] permute(long[] state, int[] permutation) {
+		long[] result = new long[state.length];
+		for (int w = 0; w < state.length; w++) {
+			for (long word = state[w]; word != 0; word &= word - 1) {
+				int image = permutation[(w << 6) + Long.numberOfTrailingZeros(word)];
+				result[image >>> 6] |= 1L << image;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Symmetric states have the same canonical state, which is the smallest of all symmetric states
+	 * (comparing the words as unsigned numbers from the last to the first).
+	 *
+	 * @param state the state (as in PropNetMachineState.getWords())
+	 * @return the canonical state, which is state itself if it is the smallest
+	 */
+	public long[] getCanonicalState(long[] state) {
+		long[] best = state;
+		for (int[] permutation : basePermutations) {
+			long[] permuted = permute(state, permutation);
+			if (compareStates(permuted, best) < 0) {
+				best = permuted;
+			}
+		}
+		return best;
+	}
+
+	private static int compareStates(long[] s1, long[] s2) {
+		for (int w = s1.length - 1; w >= 0; w--) {
+			if (s1[w] != s2[w]) {
+				return Long.compare(s1[w] + Long.MIN_VALUE, s2[w] + Long.MIN_VALUE);
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "PropNetSymmetries {#generators: " + generators.size() + ", group size: " + (basePermutations.size() + 1)
+				+ ", #vertices: " + nbVertices + ", #state words: " + PropNetEvaluator.getNbStateWords(structure.getNbBasePropositions())
+				+ (isComplete ? "" : ", incomplete") + "}";
+	}
+}
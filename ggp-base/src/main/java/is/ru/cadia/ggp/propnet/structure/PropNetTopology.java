@@ -0,0 +1,278 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * the topology of a propnet (types and connections of all components) in compressed sparse row format
+ *
+ * The inputs of component i are getInput(getInputStart(i)) to getInput(getInputStart(i+1)-1) and
+ * similarly for the outputs. All data is kept in one buffer, which can be on the heap, outside
+ * of the heap (a direct buffer) or a memory mapped file. The layout of the buffer is:
+ * <pre>
+ * int nbComponents, int nbInputLinks, int nbOutputLinks, int 0 (reserved)
+ * int[nbComponents+1] inputStart, int[nbInputLinks] inputs
+ * int[nbComponents+1] outputStart, int[nbOutputLinks] outputs
+ * byte[nbComponents] types (ordinal of StaticComponent.Type)
+ * byte[nbComponents] flags (FLAG_CYCLIC)
+ * </pre>
+ * in native byte order.
+ *
+ * @author stephan
+ *
+ */
+public class PropNetTopology {
+
+	public static final byte FLAG_CYCLIC = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final Type[] TYPES = Type.values();
+
+	private final int nbComponents;
+	private final ByteBuffer buffer;
+	private final IntBuffer inputStart;
+	private final IntBuffer inputs;
+	private final IntBuffer outputStart;
+	private final IntBuffer outputs;
+	private final ByteBuffer types;
+	private final ByteBuffer flags;
+
+	/**
+	 * creates a topology from a buffer in the format described above, the buffer is not copied
+	 * @param buffer a buffer starting at its position with a topology written by writeTo or create
+	 */
+	public PropNetTopology(ByteBuffer buffer) {
+		this.buffer = buffer.slice().order(ByteOrder.nativeOrder());
+		nbComponents = this.buffer.getInt(0);
+		int nbInputLinks = this.buffer.getInt(4);
+		int nbOutputLinks = this.buffer.getInt(8);
+		int offset = HEADER_SIZE;
+		inputStart = intSection(offset, nbComponents + 1);
+		offset += 4 * (nbComponents + 1);
+		inputs = intSection(offset, nbInputLinks);
+		offset += 4 * nbInputLinks;
+		outputStart = intSection(offset, nbComponents + 1);
+		offset += 4 * (nbComponents + 1);
+		outputs = intSection(offset, nbOutputLinks);
+		offset += 4 * nbOutputLinks;
+		types = byteSection(offset, nbComponents);
+		offset += nbComponents;
+		flags = byteSection(offset, nbComponents);
+	}
+
+	private ByteBuffer byteSection(int offset, int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(offset);
+		section.limit(offset + length);
+		return section.slice().order(ByteOrder.nativeOrder());
+	}
+
+	private IntBuffer intSection(int offset, int length) {
+		return byteSection(offset, 4 * length).asIntBuffer();
+	}
+
+	/**
+	 * @return the number of bytes needed for the topology of the given components
+	 */
+	public static int getSize(StaticComponent[] components) {
+		long size = HEADER_SIZE + 2L * 4 * (components.length + 1) + 2L * components.length;
+		for (StaticComponent c : components) {
+			size += 4L * (c.inputs.length + c.outputs.length);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("propnet is too large for a topology buffer");
+		}
+		return (int)size;
+	}
+
+	/**
+	 * creates the topology of the given components
+	 * @param components components by id
+	 * @param offHeap if true, the data is stored in a direct buffer outside of the java heap
+	 */
+	public static PropNetTopology create(StaticComponent[] components, boolean offHeap) {
+		int size = getSize(components);
+		ByteBuffer buffer = (offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+		writeTo(components, buffer);
+		buffer.flip();
+		return new PropNetTopology(buffer);
+	}
+
+	/**
+	 * writes the topology of the components to the buffer (starting at its position) and advances the
+	 * position of the buffer by getSize(components)
+	 */
+	public static void writeTo(StaticComponent[] components, ByteBuffer buffer) {
+		ByteBuffer out = buffer.slice().order(ByteOrder.nativeOrder());
+		int nbInputLinks = 0;
+		int nbOutputLinks = 0;
+		for (StaticComponent c : components) {
+			nbInputLinks += c.inputs.length;
+			nbOutputLinks += c.outputs.length;
+		}
+		out.putInt(components.length);
+		out.putInt(nbInputLinks);
+		out.putInt(nbOutputLinks);
+		out.putInt(0);
+		int start = 0;
+		for (StaticComponent c : components) {
+			out.putInt(start);
+			start += c.inputs.length;
+		}
+		out.putInt(start);
+		for (StaticComponent c : components) {
+			for (int input : c.inputs) {
+				out.putInt(input);
+			}
+		}
+		start = 0;
+		for (StaticComponent c : components) {
+			out.putInt(start);
+			start += c.outputs.length;
+		}
+		out.putInt(start);
+		for (StaticComponent c : components) {
+			for (int output : c.outputs) {
+				out.putInt(output);
+			}
+		}
+		for (StaticComponent c : components) {
+			out.put((byte)c.type.ordinal());
+		}
+		for (StaticComponent c : components) {
+			out.put(c.isCyclic ? FLAG_CYCLIC : 0);
+		}
+		buffer.position(buffer.position() + out.position());
+	}
+
+	/**
+	 * writes this topology to the buffer (starting at its position) and advances the position of
+	 * the buffer by getSizeInBytes()
+	 */
+	public void writeTo(ByteBuffer out) {
+		ByteBuffer source = buffer.duplicate();
+		source.clear();
+		source.limit(getSizeInBytes());
+		out.put(source);
+	}
+
+	public int getSizeInBytes() {
+		return HEADER_SIZE + 4 * (inputStart.limit() + inputs.limit() + outputStart.limit() + outputs.limit()) + 2 * nbComponents;
+	}
+
+	public boolean isOffHeap() {
+		return buffer.isDirect();
+	}
+
+	public int getNbComponents() {
+		return nbComponents;
+	}
+
+	public Type getType(int id) {
+		return TYPES[types.get(id)];
+	}
+
+	public boolean isCyclic(int id) {
+		return (flags.get(id) & FLAG_CYCLIC) != 0;
+	}
+
+	public int getInputStart(int id) {
+		return inputStart.get(id);
+	}
+
+	public int getNbInputs(int id) {
+		return inputStart.get(id + 1) - inputStart.get(id);
+	}
+
+	/**
+	 * @param index position in the input array, between getInputStart(id) and getInputStart(id+1)-1
+	 */
+	public int getInput(int index) {
+		return inputs.get(index);
+	}
+
+	public int getOutputStart(int id) {
+		return outputStart.get(id);
+	}
+
+	public int getNbOutputs(int id) {
+		return outputStart.get(id + 1) - outputStart.get(id);
+	}
+
+	/**
+	 * @param index position in the output array, between getOutputStart(id) and getOutputStart(id+1)-1
+	 */
+	public int getOutput(int index) {
+		return outputs.get(index);
+	}
+
+	/**
+	 * @return a new array with the ids of the inputs of the component
+	 */
+	public int[] getInputs(int id) {
+		int start = inputStart.get(id);
+		int[] result = new int[inputStart.get(id + 1) - start];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = inputs.get(start + i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new array with the ids of the outputs of the component
+	 */
+	public int[] getOutputs(int id) {
+		int start = outputStart.get(id);
+		int[] result = new int[outputStart.get(id + 1) - start];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = outputs.get(start + i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new array with inputStart (of length getNbComponents()+1), for copying the topology onto the heap
+	 */
+	public int[] copyInputStarts() {
+		return copy(inputStart);
+	}
+
+	/**
+	 * @return a new array with the inputs of all components, as indexed by getInputStart
+	 */
+	public int[] copyInputs() {
+		return copy(inputs);
+	}
+
+	/**
+	 * @return a new array with outputStart (of length getNbComponents()+1)
+	 */
+	public int[] copyOutputStarts() {
+		return copy(outputStart);
+	}
+
+	/**
+	 * @return a new array with the outputs of all components, as indexed by getOutputStart
+	 */
+	public int[] copyOutputs() {
+		return copy(outputs);
+	}
+
+	private static int[] copy(IntBuffer source) {
+		int[] result = new int[source.limit()];
+		source.duplicate().get(result);
+		return result;
+	}
+
+	/**
+	 * @return a new StaticComponent with the data of the component (not a BaseProposition)
+	 */
+	public StaticComponent createComponent(int id) {
+		return new StaticComponent(id, getType(id), getInputs(id), getOutputs(id), isCyclic(id));
+	}
+}
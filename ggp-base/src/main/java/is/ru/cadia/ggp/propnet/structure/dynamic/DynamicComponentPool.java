@@ -145,6 +145,29 @@ public class DynamicComponentPool extends AbstractCollection<DynamicComponent> i
 		return highestId;
 	}
 
+	/**
+	 * makes room for components with ids up to maxId, such that creating them with create(id) does not
+	 * change the size of the pool's internal list
+	 *
+	 * This allows several threads to create components with different ids at the same time
+	 * (synchronized on the pool), while other threads get components from the pool.
+	 */
+	public void reserve(int maxId) {
+		components.ensureCapacity(maxId + 1);
+		while (components.size() <= maxId) {
+			components.add(null);
+		}
+	}
+
+	/**
+	 * gives up the room made by reserve(int) that was not used
+	 */
+	public void trim() {
+		while (components.size() > highestId + 1) {
+			components.remove(components.size() - 1);
+		}
+	}
+
 	/**
 	 * changes the id from every component to its staticId (which requires changing inputs and outputs of all components)
 	 */
@@ -31,7 +31,9 @@ public class PropNetStateMachineGamer extends StateMachineGamer
     public void stateMachineMetaGame(long timeout)
             throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException 
     {
-
+        // use at most half of the remaining metagame time for finding latches
+        long deadline = System.currentTimeMillis() + (timeout - System.currentTimeMillis()) / 2;
+        stateMachine.computeInvariants(deadline);
     }
 
     @Override
@@ -14,6 +14,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.StateMachineSelector;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
@@ -149,6 +150,33 @@ public abstract class StateMachineGamer extends Gamer
         }
     }
 
+    /**
+     * Initializes the candidates in parallel, checks them against the current
+     * state machine and switches to the fastest one that is consistent with
+     * it (see StateMachineSelector). This is meant to be called from
+     * stateMachineMetaGame; the reasons for the choice are logged. The
+     * state machine that is not used anymore is released.
+     *
+     * @param timeout time in milliseconds since the era when this function must return
+     * @param candidates state machines that are not initialized yet
+     * @return the state machine that is used from now on
+     */
+    protected final StateMachine selectStateMachine(long timeout, List<StateMachine> candidates) {
+        StateMachine previous = stateMachine;
+        StateMachineSelector selector = new StateMachineSelector(previous, candidates);
+        StateMachine selected = selector.select(getMatch().getGame().getRules(), timeout);
+        if (selected != previous) {
+            switchStateMachine(selected);
+            // switchStateMachine keeps the previous machine if it fails
+            if (stateMachine == selected) {
+                previous.release();
+            } else {
+                selected.release();
+            }
+        }
+        return stateMachine;
+    }
+
     /**
      * A function that can be used when deserializing gamers, to bring a
      * state machine gamer back to the internal state that it has when it
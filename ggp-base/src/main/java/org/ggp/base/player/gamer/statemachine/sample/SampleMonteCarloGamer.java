@@ -1,14 +1,18 @@
 package org.ggp.base.player.gamer.statemachine.sample;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.chaining.ForwardChainingStateMachine;
 
 /**
  * SampleMonteCarloGamer is a simple state-machine-based Gamer. It will use a
@@ -20,11 +24,26 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * doesn't even block obvious one-move wins. This is partially due to the speed
  * of the default state machine (which is slow) and mostly due to the algorithm
  * assuming that the opponent plays completely randomly, which is inaccurate.
+ * To do more simulations, it switches to the fastest state machine that
+ * agrees with the default one during the start clock.
  *
  * @author Sam Schreiber
  */
 public final class SampleMonteCarloGamer extends SampleGamer
 {
+    /**
+     * Selects the fastest consistent state machine for the game.
+     */
+    @Override
+    public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        List<StateMachine> candidates = Arrays.<StateMachine>asList(
+                new PropNetStateMachine(),
+                new CompiledPropNetStateMachine(),
+                new ForwardChainingStateMachine());
+        selectStateMachine(timeout - 1000, candidates);
+    }
+
     /**
      * Employs a simple sample "Monte Carlo" algorithm.
      */
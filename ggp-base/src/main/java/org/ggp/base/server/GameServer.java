@@ -38,11 +38,12 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverStateResults;
 
 public final class GameServer extends Thread implements Subject
 {
     private final Match match;
-    private final StateMachine stateMachine;
+    private final ProverStateMachine stateMachine;
     private MachineState currentState;
 
     private final List<String> hosts;
@@ -76,6 +77,7 @@ public final class GameServer extends Thread implements Subject
         }
 
         stateMachine = new ProverStateMachine();
+        stateMachine.setForkJoinPool(ProverStateMachine.getSharedPool());
         stateMachine.initialize(match.getGame().getRules());
         currentState = stateMachine.getInitialState();
         previousMoves = null;
@@ -164,16 +166,19 @@ public final class GameServer extends Thread implements Subject
             sendStartRequests();
             appendErrorsToMatchDescription();
 
-            while (!stateMachine.isTerminal(currentState)) {
+            // the referee answers the legal, goal and terminal queries of each state at once
+            ProverStateResults currentResults = stateMachine.getStateResults(currentState);
+            while (!currentResults.isTerminal()) {
                 publishWhenNecessary();
                 saveWhenNecessary();
                 notifyObservers(new ServerNewGameStateEvent(currentState));
                 notifyObservers(new ServerTimeEvent(match.getPlayClock() * 1000));
                 notifyObservers(new ServerMatchUpdatedEvent(match, spectatorServerKey, saveToFilename));
-                previousMoves = sendPlayRequests();
+                previousMoves = sendPlayRequests(currentResults);
 
                 notifyObservers(new ServerNewMovesEvent(previousMoves));
                 currentState = stateMachine.getNextState(currentState, previousMoves);
+                currentResults = stateMachine.getStateResults(currentState);
 
                 match.appendMoves2(previousMoves);
                 match.appendState(currentState.getContents());
@@ -183,7 +188,7 @@ public final class GameServer extends Thread implements Subject
                     return;
                 }
             }
-            match.markCompleted(stateMachine.getGoals(currentState));
+            match.markCompleted(currentResults.getGoals());
             publishWhenNecessary();
             saveWhenNecessary();
             notifyObservers(new ServerNewGameStateEvent(currentState));
@@ -258,10 +263,10 @@ public final class GameServer extends Thread implements Subject
         return spectatorServerKey;
     }
 
-    private synchronized List<Move> sendPlayRequests() throws InterruptedException, MoveDefinitionException {
+    private synchronized List<Move> sendPlayRequests(ProverStateResults currentResults) throws InterruptedException, MoveDefinitionException {
         List<PlayRequestThread> threads = new ArrayList<PlayRequestThread>(hosts.size());
         for (int i = 0; i < hosts.size(); i++) {
-            List<Move> legalMoves = stateMachine.getLegalMoves(currentState, stateMachine.getRoles().get(i));
+            List<Move> legalMoves = currentResults.getLegalMoves(stateMachine.getRoles().get(i));
             if (playerPlaysRandomly[i]) {
                 threads.add(new RandomPlayRequestThread(match, legalMoves));
             } else {
@@ -1,5 +1,12 @@
 package org.ggp.base.util.concurrency;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 public class ConcurrencyUtils {
     private ConcurrencyUtils() {
     }
@@ -11,4 +18,39 @@ public class ConcurrencyUtils {
         if (Thread.currentThread().isInterrupted())
             throw new InterruptedException();
     }
+
+    /**
+     * Runs the tasks and returns their results in the order of the tasks.
+     *
+     * If executor is null or there is only one task, the tasks are run in
+     * the current thread. Exceptions thrown by the tasks are rethrown (wrapped
+     * in a RuntimeException if they are checked); if the current thread is
+     * interrupted, the remaining tasks are cancelled.
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks) throws InterruptedException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            if (executor == null || tasks.size() <= 1) {
+                for (Callable<T> task : tasks) {
+                    checkForInterruption();
+                    results.add(task.call());
+                }
+            } else {
+                List<Future<T>> futures = executor.invokeAll(tasks);
+                for (Future<T> future : futures) {
+                    try {
+                        results.add(future.get());
+                    } catch (ExecutionException e) {
+                        // all tasks are done at this point
+                        throw e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
 }
@@ -12,6 +12,8 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -108,6 +110,21 @@ public class OptimizingPropNetFactory {
     }
 
     public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+        return create(description, verbose, null);
+    }
+
+    /**
+     * Creates a PropNet for the game with the given description.
+     *
+     * If executor is not null, the rules of sentence forms that do not
+     * depend on each other are grounded in parallel. The components are
+     * still connected in a single thread and the propnet is equivalent to
+     * the one created without an executor.
+     *
+     * @throws InterruptedException if the thread is interrupted during
+     * PropNet creation.
+     */
+    public static PropNet create(List<Gdl> description, boolean verbose, ExecutorService executor) throws InterruptedException {
         System.out.println("Building propnet...");
 
         long startTime = System.currentTimeMillis();
@@ -165,53 +182,58 @@ public class OptimizingPropNetFactory {
         Constant falseComponent = new Constant(false);
         Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
         Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-        for(SentenceForm form : topologicalOrdering) {
-            ConcurrencyUtils.checkForInterruption();
+        //Sentence forms of the same level do not depend on each other, so they
+        //can be grounded in parallel before they are added one at a time.
+        for(List<SentenceForm> level : getLevels(topologicalOrdering, dependencyGraph, usingBase, usingInput)) {
+            Map<SentenceForm, List<GroundRule>> groundRulesByForm = groundSentenceForms(level, model, components, negations, falseComponent, usingBase, usingInput, dependencyGraph, functionInfoMap, constantChecker, completedSentenceFormValues, executor);
+            for(SentenceForm form : level) {
+                ConcurrencyUtils.checkForInterruption();
 
-            if(verbose) {
-                System.out.print("Adding sentence form " + form);
-                System.out.flush();
-            }
-            if(constantChecker.isConstantForm(form)) {
-                if(verbose)
-                    System.out.println(" (constant)");
-                //Only add it if it's important
-                if(form.getName().equals(GdlPool.LEGAL)
-                        || form.getName().equals(GdlPool.GOAL)
-                        || form.getName().equals(GdlPool.INIT)
-                        || form.getName().equals(GdlPool.NEXT)
-                        || form.getName().equals(GdlPool.TERMINAL)) {
-                    //Add it
-                    for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-                        Proposition trueProp = new Proposition(trueSentence);
-                        trueProp.addInput(trueComponent);
-                        trueComponent.addOutput(trueProp);
-                        components.put(trueSentence, trueComponent);
-                    }
+                if(verbose) {
+                    System.out.print("Adding sentence form " + form);
+                    System.out.flush();
                 }
+                if(constantChecker.isConstantForm(form)) {
+                    if(verbose)
+                        System.out.println(" (constant)");
+                    //Only add it if it's important
+                    if(form.getName().equals(GdlPool.LEGAL)
+                            || form.getName().equals(GdlPool.GOAL)
+                            || form.getName().equals(GdlPool.INIT)
+                            || form.getName().equals(GdlPool.NEXT)
+                            || form.getName().equals(GdlPool.TERMINAL)) {
+                        //Add it
+                        for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+                            Proposition trueProp = new Proposition(trueSentence);
+                            trueProp.addInput(trueComponent);
+                            trueComponent.addOutput(trueProp);
+                            components.put(trueSentence, trueComponent);
+                        }
+                    }
 
-                if(verbose)
-                    System.out.println("Checking whether " + form + " is a functional constant...");
-                addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-                addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+                    if(verbose)
+                        System.out.println("Checking whether " + form + " is a functional constant...");
+                    addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+                    addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
 
-                continue;
+                    continue;
+                }
+                if(verbose)
+                    System.out.println();
+                //TODO: Adjust "recursive forms" appropriately
+                //Add a temporary sentence form thingy? ...
+                Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+                Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+                addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, groundRulesByForm.get(form));
+                //TODO: Pass these over groups of multiple sentence forms
+                if(verbose && !temporaryComponents.isEmpty())
+                    System.out.println("Processing temporary components...");
+                processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+                addFormToCompletedValues(form, completedSentenceFormValues, components);
+                //if(verbose)
+                //TODO: Add this, but with the correct total number of components (not just Propositions)
+                //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
             }
-            if(verbose)
-                System.out.println();
-            //TODO: Adjust "recursive forms" appropriately
-            //Add a temporary sentence form thingy? ...
-            Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-            Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-            addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-            //TODO: Pass these over groups of multiple sentence forms
-            if(verbose && !temporaryComponents.isEmpty())
-                System.out.println("Processing temporary components...");
-            processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-            addFormToCompletedValues(form, completedSentenceFormValues, components);
-            //if(verbose)
-            //TODO: Add this, but with the correct total number of components (not just Propositions)
-            //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
         }
 
         // here we have all components, but they are not all correctly connected yet
@@ -782,6 +804,90 @@ public class OptimizingPropNetFactory {
         output.addInput(or);
     }
 
+    /**
+     * Splits the topological ordering into levels, such that each sentence
+     * form only depends on itself and on forms of lower levels. The forms
+     * of each level are in the order of the topological ordering.
+     */
+    private static List<List<SentenceForm>> getLevels(List<SentenceForm> topologicalOrdering,
+            Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+        Map<SentenceForm, Integer> levelByForm = new HashMap<SentenceForm, Integer>();
+        List<List<SentenceForm>> levels = new ArrayList<List<SentenceForm>>();
+        for(SentenceForm form : topologicalOrdering) {
+            List<SentenceForm> dependencies = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+            //The same additional constraints as in the topological ordering
+            if(usingBase && (form.getName().equals(GdlPool.TRUE) || form.getName().equals(GdlPool.NEXT) || form.getName().equals(GdlPool.INIT))) {
+                dependencies.add(form.withName(GdlPool.BASE));
+            }
+            if(usingInput && (form.getName().equals(GdlPool.DOES) || form.getName().equals(GdlPool.LEGAL))) {
+                dependencies.add(form.withName(GdlPool.INPUT));
+            }
+            int level = 0;
+            for(SentenceForm dependency : dependencies) {
+                Integer dependencyLevel = levelByForm.get(dependency);
+                if(!dependency.equals(form) && dependencyLevel != null) {
+                    level = Math.max(level, dependencyLevel + 1);
+                }
+            }
+            levelByForm.put(form, level);
+            while(levels.size() <= level) {
+                levels.add(new ArrayList<SentenceForm>());
+            }
+            levels.get(level).add(form);
+        }
+        return levels;
+    }
+
+    /**
+     * Grounds the rules of the given sentence forms in parallel, if there is
+     * an executor and more than one form to ground. Constant and recursive
+     * forms and forms that are created from base/input are left out; they
+     * are grounded by addSentenceForm.
+     *
+     * The forms must not depend on each other and no components may be
+     * added while this runs.
+     */
+    private static Map<SentenceForm, List<GroundRule>> groundSentenceForms(List<SentenceForm> forms,
+            final SentenceDomainModel model,
+            final Map<GdlSentence, Component> components,
+            final Map<GdlSentence, Component> negations,
+            final Constant falseComponent,
+            boolean usingBase, boolean usingInput,
+            Multimap<SentenceForm, SentenceForm> dependencyGraph,
+            final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+            final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+            ExecutorService executor) throws InterruptedException {
+        Map<SentenceForm, List<GroundRule>> groundRulesByForm = new HashMap<SentenceForm, List<GroundRule>>();
+        List<SentenceForm> formsToGround = new ArrayList<SentenceForm>();
+        List<Callable<List<GroundRule>>> tasks = new ArrayList<Callable<List<GroundRule>>>();
+        for(final SentenceForm form : forms) {
+            if(constantChecker.isConstantForm(form)
+                    || dependencyGraph.get(form).contains(form)
+                    || (usingInput && form.getName().equals(GdlPool.DOES))
+                    || (usingBase && form.getName().equals(GdlPool.TRUE))) {
+                continue;
+            }
+            formsToGround.add(form);
+            tasks.add(new Callable<List<GroundRule>>() {
+                @Override
+                public List<GroundRule> call() throws InterruptedException {
+                    //There are no temporary components, because the form is not recursive
+                    return groundSentenceForm(form, model, components, negations, falseComponent, Collections.singleton(form),
+                            new HashMap<GdlSentence, Component>(), new HashMap<GdlSentence, Component>(),
+                            functionInfoMap, constantChecker, completedSentenceFormValues);
+                }
+            });
+        }
+        if(executor == null || tasks.size() <= 1) {
+            return groundRulesByForm;
+        }
+        List<List<GroundRule>> results = ConcurrencyUtils.invokeAll(executor, tasks);
+        for(int i = 0; i < formsToGround.size(); i++) {
+            groundRulesByForm.put(formsToGround.get(i), results.get(i));
+        }
+        return groundRulesByForm;
+    }
+
     //TODO: This code is currently used by multiple classes, so perhaps it should be
     //factored out into the SentenceModel.
     private static List<SentenceForm> getTopologicalOrdering(
@@ -838,7 +944,8 @@ public class OptimizingPropNetFactory {
             Set<SentenceForm> recursionForms,
             Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
             Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+            List<GroundRule> groundRules) throws InterruptedException {
         //This is the meat of it (along with the entire Assignments class).
         //We need to enumerate the possible propositions in the sentence form...
         //We also need to hook up the sentence form to the inputs that can make it true.
@@ -847,7 +954,6 @@ public class OptimizingPropNetFactory {
         //true/false if it's a constant.
 
         Set<GdlSentence> alwaysTrueSentences = model.getSentencesListedAsTrue(form);
-        Set<GdlRule> rules = model.getRules(form);
 
         for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
             //We add the sentence as a constant
@@ -888,7 +994,103 @@ public class OptimizingPropNetFactory {
             return;
         }
 
+        if(groundRules == null) {
+            groundRules = groundSentenceForm(form, model, components, negations, falseComponent, recursionForms,
+                    temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+        }
+
         Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
+        for(GroundRule groundRule : groundRules) {
+            ConcurrencyUtils.checkForInterruption();
+
+            List<Component> componentsToConnect = new ArrayList<Component>(groundRule.conjuncts);
+            for(GdlSentence transformed : groundRule.negatedSentences) {
+                componentsToConnect.add(getNegation(transformed, components, negations));
+            }
+            //Connect all the components
+            Proposition andComponent = new Proposition(TEMP);
+
+            andify(componentsToConnect, andComponent, trueComponent);
+            if(!inputsToOr.containsKey(groundRule.head))
+                inputsToOr.put(groundRule.head, new HashSet<Component>());
+            inputsToOr.get(groundRule.head).add(andComponent);
+        }
+
+        //At the end, we hook up the conjuncts
+        for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
+            ConcurrencyUtils.checkForInterruption();
+
+            GdlSentence sentence = entry.getKey();
+            Set<Component> inputs = entry.getValue();
+            Set<Component> realInputs = new HashSet<Component>();
+            for(Component input : inputs) {
+                if(input instanceof Constant || input.getInputs().size() == 0) {
+                    realInputs.add(input);
+                } else {
+                    realInputs.add(input.getSingleInput());
+                    input.getSingleInput().removeOutput(input);
+                    input.removeAllInputs();
+                }
+            }
+
+            Proposition prop = new Proposition(sentence);
+            orify(realInputs, prop, falseComponent);
+            components.put(sentence, prop);
+        }
+
+        //True/does sentences will have none of these rules, but
+        //still need to exist/"float"
+        //We'll do this if we haven't used base/input as a basis
+        if(form.getName().equals(GdlPool.TRUE)
+                || form.getName().equals(GdlPool.DOES)) {
+            for(GdlSentence sentence : model.getDomain(form)) {
+                ConcurrencyUtils.checkForInterruption();
+
+                Proposition prop = new Proposition(sentence);
+                components.put(sentence, prop);
+            }
+        }
+
+    }
+
+    /**
+     * An instance of a rule whose body can be true: the head and the
+     * components of the conjuncts that have to be and-ed together. The
+     * negations of sentences that are not in the form's recursion group
+     * are only looked up (or created) when the rule is connected, so that
+     * grounding itself does not change any shared component.
+     */
+    private static class GroundRule {
+        private final GdlSentence head;
+        private final List<Component> conjuncts;
+        private final List<GdlSentence> negatedSentences;
+
+        public GroundRule(GdlSentence head, List<Component> conjuncts, List<GdlSentence> negatedSentences) {
+            this.head = head;
+            this.conjuncts = conjuncts;
+            this.negatedSentences = negatedSentences;
+        }
+    }
+
+    /**
+     * Enumerates the instances of the rules of the form that can be true.
+     *
+     * This only reads the components and negations of other sentence forms,
+     * unless the form is in its own recursion group, in which case the
+     * temporary components of the form are connected to them. Thus, sentence
+     * forms that do not depend on each other and are not recursive can be
+     * grounded in parallel.
+     */
+    private static List<GroundRule> groundSentenceForm(SentenceForm form, SentenceDomainModel model,
+            Map<GdlSentence, Component> components,
+            Map<GdlSentence, Component> negations,
+            Constant falseComponent,
+            Set<SentenceForm> recursionForms,
+            Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
+            Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+        Set<GdlRule> rules = model.getRules(form);
+        List<GroundRule> groundRules = new ArrayList<GroundRule>();
         for(GdlRule rule : rules) {
             Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, functionInfoMap, completedSentenceFormValues);
 
@@ -910,6 +1112,7 @@ public class OptimizingPropNetFactory {
 
                 //Now we go through the conjuncts as before, but we wait to hook them up.
                 List<Component> componentsToConnect = new ArrayList<Component>(rule.arity());
+                List<GdlSentence> negatedSentences = new ArrayList<GdlSentence>(0);
                 for(GdlLiteral literal : rule.getBody()) {
                     if(literal instanceof GdlSentence) {
                         //Get the sentence post-substitutions
@@ -1012,20 +1215,9 @@ public class OptimizingPropNetFactory {
                                 continue; //to the next conjunct
                             }
 
-                            //Check if we're sharing a component with another sentence with a negation
-                            //(i.e. look for "nots" in our outputs and use those instead)
-                            Not existingNotOutput = getNotOutput(positive);
-                            if(existingNotOutput != null) {
-                                componentsToConnect.add(existingNotOutput);
-                                negations.put(transformed, existingNotOutput);
-                                continue; //to the next conjunct
-                            }
-
-                            Not not = new Not();
-                            not.addInput(positive);
-                            positive.addOutput(not);
-                            negations.put(transformed, not);
-                            conj = not;
+                            //The negation is looked up or created when connecting the rule
+                            negatedSentences.add(transformed);
+                            continue; //to the next conjunct
                         }
                         componentsToConnect.add(conj);
                     } else if(literal instanceof GdlDistinct) {
@@ -1034,60 +1226,45 @@ public class OptimizingPropNetFactory {
                         throw new RuntimeException("Unwanted GdlLiteral type");
                     }
                 }
-                if(!componentsToConnect.contains(null)) {
-                    //Connect all the components
-                    Proposition andComponent = new Proposition(TEMP);
-
-                    andify(componentsToConnect, andComponent, trueComponent);
-                    if(!isThisConstant(andComponent, falseComponent)) {
-                        if(!inputsToOr.containsKey(sentence))
-                            inputsToOr.put(sentence, new HashSet<Component>());
-                        inputsToOr.get(sentence).add(andComponent);
-                        //We'll want to make sure at least one of the non-constant
-                        //components is changing
-                        if(preventDuplicatesFromConstants) {
-                            asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
-                        }
+                //A conjunct that is the false constant would make the rule false
+                if(!componentsToConnect.contains(null) && !componentsToConnect.contains(falseComponent)) {
+                    groundRules.add(new GroundRule(sentence, componentsToConnect, negatedSentences));
+                    //We'll want to make sure at least one of the non-constant
+                    //components is changing
+                    if(preventDuplicatesFromConstants) {
+                        asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
                     }
                 }
             }
         }
+        return groundRules;
+    }
 
-        //At the end, we hook up the conjuncts
-        for(Entry<GdlSentence, Set<Component>> entry : inputsToOr.entrySet()) {
-            ConcurrencyUtils.checkForInterruption();
-
-            GdlSentence sentence = entry.getKey();
-            Set<Component> inputs = entry.getValue();
-            Set<Component> realInputs = new HashSet<Component>();
-            for(Component input : inputs) {
-                if(input instanceof Constant || input.getInputs().size() == 0) {
-                    realInputs.add(input);
-                } else {
-                    realInputs.add(input.getSingleInput());
-                    input.getSingleInput().removeOutput(input);
-                    input.removeAllInputs();
-                }
-            }
-
-            Proposition prop = new Proposition(sentence);
-            orify(realInputs, prop, falseComponent);
-            components.put(sentence, prop);
+    /**
+     * Returns the negation of a sentence that has a component, adding it
+     * to the negations if necessary.
+     */
+    private static Component getNegation(GdlSentence sentence,
+            Map<GdlSentence, Component> components,
+            Map<GdlSentence, Component> negations) {
+        Component negation = negations.get(sentence);
+        if(negation != null) {
+            return negation;
         }
-
-        //True/does sentences will have none of these rules, but
-        //still need to exist/"float"
-        //We'll do this if we haven't used base/input as a basis
-        if(form.getName().equals(GdlPool.TRUE)
-                || form.getName().equals(GdlPool.DOES)) {
-            for(GdlSentence sentence : model.getDomain(form)) {
-                ConcurrencyUtils.checkForInterruption();
-
-                Proposition prop = new Proposition(sentence);
-                components.put(sentence, prop);
-            }
+        Component positive = components.get(sentence);
+        //Check if we're sharing a component with another sentence with a negation
+        //(i.e. look for "nots" in our outputs and use those instead)
+        Not existingNotOutput = getNotOutput(positive);
+        if(existingNotOutput != null) {
+            negations.put(sentence, existingNotOutput);
+            return existingNotOutput;
         }
 
+        Not not = new Not();
+        not.addInput(positive);
+        positive.addOutput(not);
+        negations.put(sentence, not);
+        return not;
     }
 
 
@@ -1,104 +1,165 @@
 package org.ggp.base.util.prover.aima;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
-import org.ggp.base.util.gdl.grammar.GdlDistinct;
-import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlNot;
-import org.ggp.base.util.gdl.grammar.GdlOr;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
 import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.aima.cache.GoalKey;
 import org.ggp.base.util.prover.aima.cache.ProverCache;
 import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
-import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Distinct;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Not;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Or;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Structure;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Variable;
 import org.ggp.base.util.prover.aima.substituter.Substituter;
+import org.ggp.base.util.prover.aima.substitution.Bindings;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 
+/**
+ * A backward-chaining prover with tabling of subgoals.
+ *
+ * The rules are compiled once so that their variables are numbered, and the
+ * variable bindings of a query are kept in a trail-based Bindings store that
+ * is undone on backtracking. Intermediate sentences are never built; only the
+ * answers to subgoals are turned into GdlTerms for the caches.
+ */
 public final class AimaProver implements Prover
 {
 
     private final KnowledgeBase knowledgeBase;
 
+    // the compiled form of every rule of the description that is not a ground fact
+    private final Map<GdlRule, CompiledRule> compiledRules;
+
     private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+    private final ThreadLocal<Bindings> bindings = new ThreadLocal<Bindings>()
+    {
+        @Override
+        protected Bindings initialValue()
+        {
+            return new Bindings();
+        }
+    };
+
     public AimaProver(List<Gdl> description)
     {
         description = DistinctAndNotMover.run(description);
         knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+
+        compiledRules = new HashMap<GdlRule, CompiledRule>();
+        for (Gdl gdl : description)
+        {
+            GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
+            if (!isGroundFact(rule))
+            {
+                compiledRules.put(rule, new CompiledRule(rule));
+            }
+        }
     }
 
     private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
     {
-        LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
-        goals.add(query);
+        return ask(query, new KnowledgeBase(context), ProverCache.createSingleThreadedCache(), askOne);
+    }
 
-        Set<Substitution> answers = new HashSet<Substitution>();
-        ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
-                new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
+    private Set<GdlSentence> ask(GdlSentence query, KnowledgeBase context, ProverCache cache, boolean askOne)
+    {
+        Map<GdlVariable, Variable> variables = new HashMap<GdlVariable, Variable>();
+        Structure goal = CompiledRule.compileSentence(query, variables);
 
-        Set<GdlSentence> results = new HashSet<GdlSentence>();
-        for (Substitution theta : answers)
+        Bindings b = bindings.get();
+        b.clear();
+        try
         {
-            results.add(Substituter.substitute(query, theta));
-        }
+            int frame = b.pushFrame(variables.size());
+            int[] slots = new int[variables.size()];
+            for (int i = 0; i < slots.length; i++)
+            {
+                slots[i] = frame + i;
+            }
 
-        return results;
+            Answers answers = new Answers(slots);
+            ask(new Goals(new Object[] { goal }, frame, null, 0), 0, new Query(context, cache, b), askOne, answers);
+
+            Set<GdlSentence> results = new HashSet<GdlSentence>();
+            for (List<GdlTerm> answer : answers.values)
+            {
+                Substitution theta = new Substitution();
+                for (Map.Entry<GdlVariable, Variable> entry : variables.entrySet())
+                {
+                    GdlTerm value = answer.get(entry.getValue().index);
+                    if (!(value instanceof GdlVariable))
+                    {
+                        theta.put(entry.getKey(), value);
+                    }
+                }
+                results.add(Substituter.substitute(query, theta));
+            }
+            return results;
+        }
+        finally
+        {
+            b.clear();
+        }
     }
 
-    private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    /*
+     * Proves the literals of goals from index on, followed by the remaining
+     * literals of its parents, and adds the bindings of the query variables
+     * to results for each proof.
+     */
+    private void ask(Goals goals, int index, Query query, boolean askOne, Answers results)
     {
-        if (goals.isEmpty())
+        while (goals != null && index == goals.body.length)
         {
-            results.add(theta);
-            isConstant.value = true;
+            index = goals.parentIndex;
+            goals = goals.parent;
+        }
+        if (goals == null)
+        {
+            results.add(query.bindings);
+            query.isConstant = true;
             return;
         }
+
+        Object literal = goals.body[index];
+        if (literal instanceof Distinct)
+        {
+            askDistinct((Distinct) literal, goals, index, query, askOne, results);
+        }
+        else if (literal instanceof Not)
+        {
+            askNot((Not) literal, goals, index, query, askOne, results);
+        }
+        else if (literal instanceof Or)
+        {
+            askOr((Or) literal, goals, index, query, askOne, results);
+        }
         else
         {
-            GdlLiteral literal = goals.removeFirst();
-            GdlLiteral qPrime = Substituter.substitute(literal, theta);
-
-            if (qPrime instanceof GdlDistinct)
-            {
-                GdlDistinct distinct = (GdlDistinct) qPrime;
-                askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else if (qPrime instanceof GdlNot)
-            {
-                GdlNot not = (GdlNot) qPrime;
-                askNot(not, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else if (qPrime instanceof GdlOr)
-            {
-                GdlOr or = (GdlOr) qPrime;
-                askOr(or, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else
-            {
-                GdlSentence sentence = (GdlSentence) qPrime;
-                askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-
-            goals.addFirst(literal);
+            askSentence((Structure) literal, goals, index, query, askOne, results);
         }
     }
 
@@ -108,32 +169,38 @@ public final class AimaProver implements Prover
         return ask(query, context, false);
     }
 
-    private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    /**
+     * Same as askAll(query, session.getContext()), but reuses the answers to
+     * subgoals found by earlier queries in the same session.
+     */
+    public Set<GdlSentence> askAll(GdlSentence query, ProverSession session)
     {
-        if (!distinct.getArg1().equals(distinct.getArg2()))
+        return ask(query, session.getKnowledgeBase(), session.getCache(), false);
+    }
+
+    private void askDistinct(Distinct distinct, Goals goals, int index, Query query, boolean askOne, Answers results)
+    {
+        if (!Unifier.equal(distinct.arg1, goals.frame, distinct.arg2, goals.frame, query.bindings))
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+            ask(goals, index + 1, query, askOne, results);
         } else {
-            isConstant.value = true;
+            query.isConstant = true;
         }
     }
 
-    private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+    private void askNot(Not not, Goals goals, int index, Query query, boolean askOne, Answers results)
     {
-        LinkedList<GdlLiteral> notGoals = new LinkedList<GdlLiteral>();
-        notGoals.add(not.getBody());
-
-        Set<Substitution> notResults = new HashSet<Substitution>();
+        Answers notResults = new Answers(new int[0]);
         boolean isConstant = true;
-        ask(notGoals, context, theta, cache, renamer, true, notResults, recursionHandler, isConstantRet);
-        isConstant &= isConstantRet.value;
+        ask(new Goals(not.body, goals.frame, null, 0), 0, query, true, notResults);
+        isConstant &= query.isConstant;
 
-        if (notResults.isEmpty())
+        if (notResults.values.isEmpty())
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
+            ask(goals, index + 1, query, askOne, results);
+            isConstant &= query.isConstant;
         }
-        isConstantRet.value = isConstant;
+        query.isConstant = isConstant;
     }
 
     @Override
@@ -143,161 +210,192 @@ public final class AimaProver implements Prover
         return (!results.isEmpty()) ? results.iterator().next() : null;
     }
 
-    private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+    /**
+     * Same as askOne(query, session.getContext()), but reuses the answers to
+     * subgoals found by earlier queries in the same session.
+     */
+    public GdlSentence askOne(GdlSentence query, ProverSession session)
+    {
+        Set<GdlSentence> results = ask(query, session.getKnowledgeBase(), session.getCache(), true);
+        return (!results.isEmpty()) ? results.iterator().next() : null;
+    }
+
+    private void askOr(Or or, Goals goals, int index, Query query, boolean askOne, Answers results)
     {
         boolean isConstant = true;
-        for (int i = 0; i < or.arity(); i++)
+        for (Object[] disjunct : or.disjuncts)
         {
-            goals.addFirst(or.get(i));
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
-            goals.removeFirst();
+            ask(new Goals(disjunct, goals.frame, goals, index + 1), 0, query, askOne, results);
+            isConstant &= query.isConstant;
 
-            if (askOne && (!results.isEmpty()))
+            if (askOne && (!results.values.isEmpty()))
             {
                 break;
             }
         }
-        isConstantRet.value = isConstant;
+        query.isConstant = isConstant;
     }
 
-    private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
-            IsConstant isConstantRet) {
-        Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-                context, theta, cache, renamer, recursionHandler, isConstantRet);
+    private void askSentence(Structure sentence, Goals goals, int index, Query query, boolean askOne, Answers results)
+    {
+        Bindings b = query.bindings;
+        GoalKey key = b.getKey(sentence, goals.frame);
+        int[] slots = b.getKeySlots();
+        Collection<List<GdlTerm>> sentenceResults = findSentenceResults(sentence, goals.frame, key, slots, query);
 
-        boolean isConstant = isConstantRet.value;
-        for (Substitution thetaPrime : sentenceResults)
+        boolean isConstant = query.isConstant;
+        for (List<GdlTerm> answer : sentenceResults)
         {
-            ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
-            if (askOne && (!results.isEmpty()))
+            int mark = b.mark();
+            for (int i = 0; i < slots.length; i++)
+            {
+                b.bind(slots[i], answer.get(i), 0);
+            }
+            ask(goals, index + 1, query, askOne, results);
+            isConstant &= query.isConstant;
+            b.undo(mark);
+
+            if (askOne && (!results.values.isEmpty()))
             {
                 break;
             }
         }
-        isConstantRet.value = isConstant;
+        query.isConstant = isConstant;
     }
 
-    private Collection<Substitution> findSentenceResults(GdlSentence sentence,
-            KnowledgeBase context, Substitution theta,
-            ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
-            IsConstant isConstantRet) {
-        GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
-        if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
+    /*
+     * Returns the answers to the subgoal, each as the values of the unbound
+     * variables of the subgoal in the order of slots.
+     */
+    private Collection<List<GdlTerm>> findSentenceResults(Structure sentence, int frame, GoalKey key, int[] slots, Query query)
+    {
+        if (!fixedAnswerCache.contains(key) && !query.cache.contains(key))
         {
-            if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
+            RecursionHandler recursionHandler = query.recursionHandler;
+            if (recursionHandler.alreadyAsking.contains(key)) {
                 //Mark that we're in recursive mode and shouldn't cache results
-                recursionHandler.calledRecursively.add(varRenamedSentence);
+                recursionHandler.calledRecursively.add(key);
                 //Return stuff that we've seen as an answer for this before
-                Collection<GdlSentence> previousResults = recursionHandler.previousResults.get(varRenamedSentence);
-                List<Substitution> results = Lists.newArrayListWithCapacity(previousResults.size());
-                for (GdlSentence knownResult : previousResults) {
-                    results.add(Unifier.unify(sentence, knownResult));
+                Set<List<GdlTerm>> previousResults = recursionHandler.previousResults.get(key);
+                if (previousResults == null) {
+                    return Collections.emptyList();
                 }
-                return results;
+                return new ArrayList<List<GdlTerm>>(previousResults);
             }
-            recursionHandler.alreadyAsking.add(varRenamedSentence);
-            List<GdlRule> candidates = new ArrayList<GdlRule>();
-            candidates.addAll(knowledgeBase.fetch(sentence));
-            candidates.addAll(context.fetch(sentence));
+            recursionHandler.alreadyAsking.add(key);
+            Object[] tokens = key.getTokens();
+            GdlConstant firstKey = getIndexKey(tokens, 2);
+            GdlConstant secondKey = (firstKey == null) ? null : getIndexKey(tokens, (tokens[2] instanceof Integer) ? 4 : 3);
+            List<GdlRule> candidates = knowledgeBase.fetch(sentence.name, firstKey, secondKey);
+            List<GdlRule> contextCandidates = query.context.fetch(sentence.name, firstKey, secondKey);
             boolean isConstant = !isTrueOrDoesSentence(sentence);
 
-            Set<Substitution> sentenceResults = new HashSet<Substitution>();
-            for (GdlRule rule : candidates)
-            {
-                GdlRule r = renamer.rename(rule);
-                Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
+            Answers sentenceResults = new Answers(slots);
+            isConstant &= applyRules(candidates, sentence, frame, query, sentenceResults);
+            isConstant &= applyRules(contextCandidates, sentence, frame, query, sentenceResults);
 
-                if (thetaPrime != null)
-                {
-                    LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-                    for (int i = 0; i < r.arity(); i++)
-                    {
-                        sentenceGoals.add(r.get(i));
-                    }
+            if (recursionHandler.calledRecursively.contains(key)) {
+                Set<List<GdlTerm>> previousResults = new HashSet<List<GdlTerm>>();
+                recursionHandler.previousResults.put(key, previousResults);
+                while (sentenceResults.values.size() > previousResults.size()) {
+                    recursionHandler.calledRecursively.remove(key);
+                    previousResults.addAll(sentenceResults.values);
 
-                    ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-                    isConstant &= isConstantRet.value;
+                    sentenceResults = new Answers(slots);
+                    isConstant &= applyRules(candidates, sentence, frame, query, sentenceResults);
+                    isConstant &= applyRules(contextCandidates, sentence, frame, query, sentenceResults);
                 }
+                recursionHandler.calledRecursively.remove(key);
             }
 
-            if (recursionHandler.calledRecursively.contains(varRenamedSentence)) {
-                Set<GdlSentence> sentencesFromResults = Sets.newHashSet();
-                for (Substitution result : sentenceResults) {
-                    sentencesFromResults.add(Substituter.substitute(sentence, result));
-                }
-                while (sentencesFromResults.size() > recursionHandler.previousResults.get(varRenamedSentence).size()) {
-                    recursionHandler.calledRecursively.remove(varRenamedSentence);
-                    recursionHandler.previousResults.putAll(varRenamedSentence, sentencesFromResults);
-
-                    sentenceResults = Sets.newHashSet();
-                    for (GdlRule rule : candidates) {
-                        GdlRule r = renamer.rename(rule);
-                        Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
-
-                        if (thetaPrime != null) {
-                            LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-                            for (int i = 0; i < r.arity(); i++) {
-                                sentenceGoals.add(r.get(i));
-                            }
-
-                            ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-                            isConstant &= isConstantRet.value;
-                        }
-                    }
-                    sentencesFromResults = Sets.newHashSet();
-                    for (Substitution result : sentenceResults) {
-                        sentencesFromResults.add(Substituter.substitute(sentence, result));
-                    }
-                }
-                recursionHandler.calledRecursively.remove(varRenamedSentence);
-            }
-
-            recursionHandler.alreadyAsking.remove(varRenamedSentence);
-            recursionHandler.previousResults.removeAll(varRenamedSentence);
+            recursionHandler.alreadyAsking.remove(key);
+            recursionHandler.previousResults.remove(key);
 
-            isConstantRet.value = isConstant;
+            query.isConstant = isConstant;
             if (recursionHandler.calledRecursively.isEmpty()) {
                 if (isConstant) {
-                    fixedAnswerCache.put(sentence, varRenamedSentence, sentenceResults);
+                    fixedAnswerCache.put(key, sentenceResults.values);
                 } else {
-                    cache.put(sentence, varRenamedSentence, sentenceResults);
+                    query.cache.put(key, sentenceResults.values);
                 }
             }
 
-            /*
-             * We filter results because they normally contain entries for all the variables
-             * encountered in subqueries, not just the sentence we're interested in. For some
-             * games (e.g. ruleDepthExponential) this is very expensive.
-             */
-            return filterSentenceResults(sentence, sentenceResults);
+            return sentenceResults.values;
         }
 
-        List<Substitution> cachedResults = fixedAnswerCache.get(sentence, varRenamedSentence);
-        isConstantRet.value = (cachedResults != null);
+        List<List<GdlTerm>> cachedResults = fixedAnswerCache.get(key);
+        query.isConstant = (cachedResults != null);
         if (cachedResults == null) {
-            cachedResults = cache.get(sentence, varRenamedSentence);
+            cachedResults = query.cache.get(key);
         }
         return cachedResults;
     }
 
-    private Collection<Substitution> filterSentenceResults(
-            GdlSentence sentence, Set<Substitution> sentenceResults) {
-        Set<GdlVariable> varsInSentence = GdlUtils.getVariablesSet(sentence);
-        List<Substitution> results = Lists.newArrayListWithCapacity(sentenceResults.size());
-        for (Substitution result : sentenceResults) {
-            Substitution fixedResult = new Substitution();
-            for (GdlVariable var : varsInSentence) {
-                fixedResult.put(var, result.get(var));
+    /*
+     * Proves the sentence with each of the rules and adds the answers to
+     * results. Returns false if any of the proofs depended on "true" or "does".
+     */
+    private boolean applyRules(List<GdlRule> rules, Structure sentence, int frame, Query query, Answers results)
+    {
+        Bindings b = query.bindings;
+        boolean isConstant = true;
+        for (GdlRule rule : rules)
+        {
+            int mark = b.mark();
+            if (isGroundFact(rule))
+            {
+                if (Unifier.unify(rule.getHead(), sentence.args, frame, b))
+                {
+                    results.add(b);
+                }
+                b.undo(mark);
+                continue;
             }
-            results.add(fixedResult);
+
+            CompiledRule compiledRule = compiledRules.get(rule);
+            if (compiledRule == null)
+            {
+                // a rule of the context
+                compiledRule = new CompiledRule(rule);
+            }
+            int ruleFrame = b.pushFrame(compiledRule.getNbVariables());
+            if (Unifier.unify(compiledRule.getHead().args, ruleFrame, sentence.args, frame, b))
+            {
+                ask(new Goals(compiledRule.getBody(), ruleFrame, null, 0), 0, query, false, results);
+                isConstant &= query.isConstant;
+            }
+            b.undo(mark);
+            b.popFrame(ruleFrame);
+        }
+        return isConstant;
+    }
+
+    private static boolean isGroundFact(GdlRule rule)
+    {
+        return rule.arity() == 0 && rule.isGround();
+    }
+
+    /*
+     * Returns the constant or function name of the argument that starts at
+     * the given token of a GoalKey, or null for a variable or if there is no
+     * such argument.
+     */
+    private static GdlConstant getIndexKey(Object[] tokens, int i)
+    {
+        if (i >= tokens.length)
+        {
+            return null;
         }
-        return results;
+        Object token = tokens[i];
+        if (token instanceof Integer)
+        {
+            return (((Integer) token).intValue() < 0) ? (GdlConstant) tokens[i + 1] : null;
+        }
+        return (token instanceof GdlConstant) ? (GdlConstant) token : null;
     }
 
-    private boolean isTrueOrDoesSentence(GdlSentence sentence) {
-        GdlConstant name = sentence.getName();
+    private boolean isTrueOrDoesSentence(Structure sentence) {
+        GdlConstant name = sentence.name;
         return name == GdlPool.TRUE || name == GdlPool.DOES;
     }
 
@@ -307,18 +405,74 @@ public final class AimaProver implements Prover
         return askOne(query, context) != null;
     }
 
+    public boolean prove(GdlSentence query, ProverSession session)
+    {
+        return askOne(query, session) != null;
+    }
+
     /*
-     * Mutable value holder; gets modified by methods it's passed to, as a kind of
+     * The literals of a rule body that are still to be proven, from some
+     * index on, in the frame of the rule. When they are proven, the literals
+     * of the parent from parentIndex on are next.
+     */
+    private static final class Goals {
+        public final Object[] body;
+        public final int frame;
+        public final Goals parent;
+        public final int parentIndex;
+
+        public Goals(Object[] body, int frame, Goals parent, int parentIndex) {
+            this.body = body;
+            this.frame = frame;
+            this.parent = parent;
+            this.parentIndex = parentIndex;
+        }
+    }
+
+    /*
+     * Collects the values of some slots for each proof that is found.
+     */
+    private static final class Answers {
+        public final int[] slots;
+        public final Set<List<GdlTerm>> values = new HashSet<List<GdlTerm>>();
+
+        public Answers(int[] slots) {
+            this.slots = slots;
+        }
+
+        public void add(Bindings bindings) {
+            GdlTerm[] answer = new GdlTerm[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                answer[i] = bindings.materializeSlot(slots[i]);
+            }
+            values.add(Arrays.asList(answer));
+        }
+    }
+
+    /*
+     * The state of a single query, to reduce the number of arguments being
+     * passed around.
+     *
+     * isConstant gets modified by the methods the query is passed to, as a kind of
      * additional return value. Tracks whether queries involve "true" or "does" sentences;
      * if not, their answers can be added to the fixedAnswerCache and reused across queries.
      */
-    private static class IsConstant {
-        public boolean value = true;
+    private static final class Query {
+        public final KnowledgeBase context;
+        public final ProverCache cache;
+        public final Bindings bindings;
+        public final RecursionHandler recursionHandler = new RecursionHandler();
+        public boolean isConstant = true;
+
+        public Query(KnowledgeBase context, ProverCache cache, Bindings bindings) {
+            this.context = context;
+            this.cache = cache;
+            this.bindings = bindings;
+        }
     }
 
     /*
-     * Contains some mutable values used by the recursion implementation, to reduce
-     * the number of arguments being passed around.
+     * Contains some mutable values used by the recursion implementation.
      *
      * The general approach to handle recursion is to check for cases where we're
      * querying a sentence we're already in the middle of querying. In that case, we
@@ -331,8 +485,8 @@ public final class AimaProver implements Prover
      * This is not necessarily the most efficient approach, but it gives correct results.
      */
     private static class RecursionHandler {
-        public Set<GdlSentence> alreadyAsking = Sets.newHashSet();
-        public Set<GdlSentence> calledRecursively = Sets.newHashSet();
-        public Multimap<GdlSentence, GdlSentence> previousResults = HashMultimap.create();
+        public Set<GoalKey> alreadyAsking = Sets.newHashSet();
+        public Set<GoalKey> calledRecursively = Sets.newHashSet();
+        public Map<GoalKey, Set<List<GdlTerm>>> previousResults = new HashMap<GoalKey, Set<List<GdlTerm>>>();
     }
 }
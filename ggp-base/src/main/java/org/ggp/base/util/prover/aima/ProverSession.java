@@ -0,0 +1,47 @@
+package org.ggp.base.util.prover.aima;
+
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.cache.ProverCache;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
+
+
+/**
+ * A tabling session for one context (e.g., the sentences of a state).
+ *
+ * Queries that are asked with the same session share the indexed context and
+ * the table of answers to subgoals that depend on the context. Thus, asking for
+ * the legal moves of every role, the goals and terminal in the same state only
+ * derives each intermediate relation once.
+ *
+ * Sessions may be used by several threads at the same time.
+ */
+public final class ProverSession
+{
+    private final Set<GdlSentence> sentences;
+    private final KnowledgeBase context;
+    private final ProverCache cache;
+
+    public ProverSession(Set<GdlSentence> context)
+    {
+        this.sentences = context;
+        this.context = new KnowledgeBase(context);
+        this.cache = ProverCache.createMultiThreadedCache();
+    }
+
+    public Set<GdlSentence> getContext()
+    {
+        return sentences;
+    }
+
+    KnowledgeBase getKnowledgeBase()
+    {
+        return context;
+    }
+
+    ProverCache getCache()
+    {
+        return cache;
+    }
+}
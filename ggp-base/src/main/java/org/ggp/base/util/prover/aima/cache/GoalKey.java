@@ -0,0 +1,59 @@
+package org.ggp.base.util.prover.aima.cache;
+
+import java.util.Arrays;
+
+
+/**
+ * Identifies a subgoal up to the names of its variables, without creating a
+ * renamed copy of the subgoal.
+ *
+ * The tokens are the constants and function names of the subgoal in pre-order.
+ * A function is preceded by -1-arity and an unbound variable is represented by
+ * the number of distinct variables that came before its first occurrence.
+ */
+public final class GoalKey
+{
+    private final Object[] tokens;
+    private final int hashCode;
+
+    public GoalKey(Object[] tokens)
+    {
+        this.tokens = tokens;
+        this.hashCode = Arrays.hashCode(tokens);
+    }
+
+    /**
+     * @return the tokens, must not be modified
+     */
+    public Object[] getTokens()
+    {
+        return tokens;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o instanceof GoalKey)
+        {
+            GoalKey key = (GoalKey) o;
+            return key.hashCode == hashCode && Arrays.equals(key.tokens, tokens);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(tokens);
+    }
+}
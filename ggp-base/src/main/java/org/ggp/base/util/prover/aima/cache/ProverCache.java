@@ -1,69 +1,54 @@
 package org.ggp.base.util.prover.aima.cache;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.ggp.base.util.gdl.grammar.GdlSentence;
-import org.ggp.base.util.prover.aima.substituter.Substituter;
-import org.ggp.base.util.prover.aima.substitution.Substitution;
-import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
 
+/**
+ * Maps subgoals to all of their answers. An answer is the list of the values of
+ * the variables of the subgoal, in the order in which the variables are
+ * numbered in its GoalKey.
+ */
 public final class ProverCache
 {
 
-    private final Map<GdlSentence, Set<GdlSentence>> contents;
+    private final Map<GoalKey, List<List<GdlTerm>>> contents;
 
-    private ProverCache(Map<GdlSentence, Set<GdlSentence>> mapForContents) {
+    private ProverCache(Map<GoalKey, List<List<GdlTerm>>> mapForContents) {
         this.contents = mapForContents;
     }
 
     public static ProverCache createSingleThreadedCache() {
-        return new ProverCache(new HashMap<GdlSentence, Set<GdlSentence>>());
+        return new ProverCache(new HashMap<GoalKey, List<List<GdlTerm>>>());
     }
 
     public static ProverCache createMultiThreadedCache() {
-        return new ProverCache(new ConcurrentHashMap<GdlSentence, Set<GdlSentence>>());
+        return new ProverCache(new ConcurrentHashMap<GoalKey, List<List<GdlTerm>>>());
     }
 
-    /**
-     * NOTE: The given sentence must have been renamed with a VariableRenamer.
-     */
-    public boolean contains(GdlSentence renamedSentence)
+    public boolean contains(GoalKey key)
     {
-        return contents.containsKey(renamedSentence);
+        return contents.containsKey(key);
     }
 
-    public List<Substitution> get(GdlSentence sentence, GdlSentence varRenamedSentence)
+    /**
+     * @return the answers or null if the subgoal is not in the cache
+     */
+    public List<List<GdlTerm>> get(GoalKey key)
     {
-        Set<GdlSentence> cacheContents = contents.get(varRenamedSentence);
-        if (cacheContents == null) {
-            return null;
-        }
-        Set<Substitution> results = new HashSet<Substitution>();
-        for (GdlSentence answer : cacheContents)
-        {
-            results.add(Unifier.unify(sentence, answer));
-        }
-
-        return new ArrayList<Substitution>(results);
+        return contents.get(key);
     }
 
-    public void put(GdlSentence sentence, GdlSentence renamedSentence,
-            Set<Substitution> answers)
+    public void put(GoalKey key, Collection<List<GdlTerm>> answers)
     {
-        Set<GdlSentence> results = new HashSet<GdlSentence>();
-        for (Substitution answer : answers)
-        {
-            results.add(Substituter.substitute(sentence, answer));
-        }
-
-        contents.put(renamedSentence, results);
+        contents.put(key, Collections.unmodifiableList(new ArrayList<List<GdlTerm>>(answers)));
     }
 
 }
@@ -1,49 +1,224 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
 
+/**
+ * The rules of a game (or the sentences of a state) indexed by the relation
+ * name of their head and by the first two constants or function names in the
+ * arguments of the head. Rules with a variable in an indexed position are
+ * returned for any value in that position.
+ *
+ * A KnowledgeBase does not change after it is created, so several threads can
+ * fetch from it without locking.
+ */
 public final class KnowledgeBase
 {
-    private final Map<GdlConstant, List<GdlRule>> contents;
+    /**
+     * The number of argument positions that are indexed.
+     */
+    private static final int NB_INDEXED_KEYS = 2;
+
+    /**
+     * Relations with fewer rules are not indexed by their arguments, because
+     * scanning them is cheaper than building the index.
+     */
+    private static final int MIN_RULES_FOR_INDEX = 8;
+
+    private final Map<GdlConstant, Bucket> contents;
 
     public KnowledgeBase(Set<? extends Gdl> description)
     {
-        contents = new HashMap<GdlConstant, List<GdlRule>>();
+        Map<GdlConstant, List<GdlRule>> rulesByName = new HashMap<GdlConstant, List<GdlRule>>();
         for (Gdl gdl : description)
         {
             GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
             GdlConstant key = rule.getHead().getName();
 
-            if (!contents.containsKey(key))
+            if (!rulesByName.containsKey(key))
             {
-                contents.put(key, new ArrayList<GdlRule>());
+                rulesByName.put(key, new ArrayList<GdlRule>());
             }
-            contents.get(key).add(rule);
+            rulesByName.get(key).add(rule);
+        }
+
+        contents = new HashMap<GdlConstant, Bucket>();
+        for (Map.Entry<GdlConstant, List<GdlRule>> entry : rulesByName.entrySet())
+        {
+            contents.put(entry.getKey(), new Bucket(entry.getValue(), 0));
+        }
+    }
+
+    /**
+     * @return the rules whose head might unify with the sentence, in no
+     * particular order; the list must not be modified
+     */
+    public List<GdlRule> fetch(GdlSentence sentence)
+    {
+        GdlConstant firstKey = getKey(sentence, 0);
+        return fetch(sentence.getName(), firstKey, (firstKey == null) ? null : getKey(sentence, 1));
+    }
+
+    /**
+     * @param firstKey the constant or function name of the first argument or
+     * null for a variable
+     * @param secondKey the next constant or function name in a pre-order walk
+     * of the arguments or null for a variable
+     * @return the rules whose head might unify with a sentence with the given
+     * name and keys, in no particular order; the list must not be modified
+     */
+    public List<GdlRule> fetch(GdlConstant name, GdlConstant firstKey, GdlConstant secondKey)
+    {
+        Bucket bucket = contents.get(name);
+        if (bucket == null)
+        {
+            return Collections.emptyList();
         }
+        return bucket.fetch(firstKey, secondKey);
     }
 
-    public synchronized List<GdlRule> fetch(GdlSentence sentence)
+    /**
+     * The rules that agree with a sentence in the first depth keys, further
+     * split on the next key if there are enough of them.
+     */
+    private static final class Bucket
     {
-        GdlConstant key = sentence.getName();
+        private final List<GdlRule> rules;
+        private final int depth;
+        // null if the rules are not split any further
+        private final Map<GdlConstant, Bucket> bucketsByKey;
+        // the rules with a variable at this depth
+        private final List<GdlRule> unkeyedRules;
+
+        public Bucket(List<GdlRule> rules, int depth)
+        {
+            this.rules = Collections.unmodifiableList(rules);
+            this.depth = depth;
+            if (depth >= NB_INDEXED_KEYS || rules.size() < MIN_RULES_FOR_INDEX)
+            {
+                bucketsByKey = null;
+                unkeyedRules = this.rules;
+                return;
+            }
+
+            List<GdlRule> unkeyed = new ArrayList<GdlRule>();
+            Map<GdlConstant, List<GdlRule>> keyedRules = new LinkedHashMap<GdlConstant, List<GdlRule>>();
+            for (GdlRule rule : rules)
+            {
+                GdlConstant key = getKey(rule.getHead(), depth);
+                if (key == null)
+                {
+                    unkeyed.add(rule);
+                    // a rule with a variable here must be found for every key
+                    for (List<GdlRule> list : keyedRules.values())
+                    {
+                        list.add(rule);
+                    }
+                }
+                else
+                {
+                    List<GdlRule> list = keyedRules.get(key);
+                    if (list == null)
+                    {
+                        // keep the order of the rules, including the unkeyed ones seen so far
+                        list = new ArrayList<GdlRule>(unkeyed);
+                        keyedRules.put(key, list);
+                    }
+                    list.add(rule);
+                }
+            }
+            if (keyedRules.size() <= 1)
+            {
+                // nothing to gain from splitting
+                bucketsByKey = null;
+                unkeyedRules = this.rules;
+                return;
+            }
+            bucketsByKey = new HashMap<GdlConstant, Bucket>();
+            for (Map.Entry<GdlConstant, List<GdlRule>> entry : keyedRules.entrySet())
+            {
+                bucketsByKey.put(entry.getKey(), new Bucket(entry.getValue(), depth + 1));
+            }
+            unkeyedRules = Collections.unmodifiableList(unkeyed);
+        }
 
-        if (contents.containsKey(key))
+        public List<GdlRule> fetch(GdlConstant firstKey, GdlConstant secondKey)
+        {
+            if (bucketsByKey == null)
+            {
+                return rules;
+            }
+            GdlConstant key = (depth == 0) ? firstKey : secondKey;
+            if (key == null)
+            {
+                return rules;
+            }
+            Bucket bucket = bucketsByKey.get(key);
+            if (bucket == null)
+            {
+                return unkeyedRules;
+            }
+            return bucket.fetch(firstKey, secondKey);
+        }
+    }
+
+    /**
+     * Returns the constant or function name at the given position of a
+     * pre-order walk through the arguments of the sentence, or null if there
+     * is a variable at or before that position or the sentence is too short.
+     * Two sentences can only unify if their keys are equal wherever both are
+     * not null.
+     */
+    private static GdlConstant getKey(GdlSentence sentence, int depth)
+    {
+        if (sentence.arity() == 0)
+        {
+            return null;
+        }
+        GdlTerm first = sentence.get(0);
+        if (depth == 0)
+        {
+            return getKey(first);
+        }
+        if (first instanceof GdlFunction)
+        {
+            GdlFunction function = (GdlFunction) first;
+            if (function.arity() > 0)
+            {
+                return getKey(function.get(0));
+            }
+        }
+        else if (!(first instanceof GdlConstant))
+        {
+            return null;
+        }
+        return (sentence.arity() > 1) ? getKey(sentence.get(1)) : null;
+    }
+
+    private static GdlConstant getKey(GdlTerm term)
+    {
+        if (term instanceof GdlConstant)
         {
-            return contents.get(key);
+            return (GdlConstant) term;
         }
-        else
+        else if (term instanceof GdlFunction)
         {
-            return new ArrayList<GdlRule>();
+            return ((GdlFunction) term).getName();
         }
+        return null;
     }
-}
\ No newline at end of file
+}
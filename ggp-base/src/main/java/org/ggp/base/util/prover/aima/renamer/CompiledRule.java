@@ -0,0 +1,197 @@
+package org.ggp.base.util.prover.aima.renamer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+
+/**
+ * A rule whose variables are numbered from 0, so that their bindings can be
+ * kept in a frame of a Bindings object instead of renaming the rule each time
+ * it is used.
+ *
+ * Compiled terms are GdlConstants, ground GdlFunctions (which are used as
+ * they are), Variables and Structures. Compiled literals are Structures (for
+ * sentences), Nots, Ors and Distincts.
+ */
+public final class CompiledRule
+{
+    private final Structure head;
+    private final Object[] body;
+    private final int nbVariables;
+
+    public CompiledRule(GdlRule rule)
+    {
+        Map<GdlVariable, Variable> variables = new HashMap<GdlVariable, Variable>();
+        head = compileSentence(rule.getHead(), variables);
+        body = new Object[rule.arity()];
+        for (int i = 0; i < body.length; i++)
+        {
+            body[i] = compileLiteral(rule.get(i), variables);
+        }
+        nbVariables = variables.size();
+    }
+
+    public Structure getHead()
+    {
+        return head;
+    }
+
+    /**
+     * @return the compiled literals of the body, must not be modified
+     */
+    public Object[] getBody()
+    {
+        return body;
+    }
+
+    public int getNbVariables()
+    {
+        return nbVariables;
+    }
+
+    /**
+     * Compiles a sentence, numbering its variables after the ones already in
+     * the map.
+     */
+    public static Structure compileSentence(GdlSentence sentence, Map<GdlVariable, Variable> variables)
+    {
+        return new Structure(sentence.getName(), compileTerms(sentence.getBody(), variables));
+    }
+
+    private static Object[] compileTerms(List<GdlTerm> terms, Map<GdlVariable, Variable> variables)
+    {
+        Object[] result = new Object[terms.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = compileTerm(terms.get(i), variables);
+        }
+        return result;
+    }
+
+    private static Object compileTerm(GdlTerm term, Map<GdlVariable, Variable> variables)
+    {
+        if (term instanceof GdlVariable)
+        {
+            Variable variable = variables.get(term);
+            if (variable == null)
+            {
+                variable = new Variable(variables.size());
+                variables.put((GdlVariable) term, variable);
+            }
+            return variable;
+        }
+        else if (term instanceof GdlFunction && !term.isGround())
+        {
+            GdlFunction function = (GdlFunction) term;
+            return new Structure(function.getName(), compileTerms(function.getBody(), variables));
+        }
+        else
+        {
+            return term;
+        }
+    }
+
+    private static Object compileLiteral(GdlLiteral literal, Map<GdlVariable, Variable> variables)
+    {
+        if (literal instanceof GdlDistinct)
+        {
+            GdlDistinct distinct = (GdlDistinct) literal;
+            return new Distinct(compileTerm(distinct.getArg1(), variables), compileTerm(distinct.getArg2(), variables));
+        }
+        else if (literal instanceof GdlNot)
+        {
+            return new Not(compileLiteral(((GdlNot) literal).getBody(), variables));
+        }
+        else if (literal instanceof GdlOr)
+        {
+            GdlOr or = (GdlOr) literal;
+            Object[][] disjuncts = new Object[or.arity()][];
+            for (int i = 0; i < disjuncts.length; i++)
+            {
+                disjuncts[i] = new Object[] { compileLiteral(or.get(i), variables) };
+            }
+            return new Or(disjuncts);
+        }
+        else
+        {
+            return compileSentence((GdlSentence) literal, variables);
+        }
+    }
+
+    public static final class Variable
+    {
+        public final int index;
+
+        private Variable(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "?_" + index;
+        }
+    }
+
+    /**
+     * A sentence or a function with at least one variable.
+     */
+    public static final class Structure
+    {
+        public final GdlConstant name;
+        public final Object[] args;
+
+        private Structure(GdlConstant name, Object[] args)
+        {
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    public static final class Not
+    {
+        /** a single compiled literal, so it can be used as a body */
+        public final Object[] body;
+
+        private Not(Object literal)
+        {
+            this.body = new Object[] { literal };
+        }
+    }
+
+    public static final class Or
+    {
+        /** each disjunct as a body with a single literal */
+        public final Object[][] disjuncts;
+
+        private Or(Object[][] disjuncts)
+        {
+            this.disjuncts = disjuncts;
+        }
+    }
+
+    public static final class Distinct
+    {
+        public final Object arg1;
+        public final Object arg2;
+
+        private Distinct(Object arg1, Object arg2)
+        {
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+    }
+}
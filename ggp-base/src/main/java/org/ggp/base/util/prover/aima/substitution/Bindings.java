@@ -0,0 +1,264 @@
+package org.ggp.base.util.prover.aima.substitution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.prover.aima.cache.GoalKey;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Structure;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Variable;
+
+
+/**
+ * A trail-based store for the bindings of numbered variables, in the style of
+ * the WAM.
+ *
+ * Every rule that is used gets a frame, that is a range of slots with one
+ * slot for each of its variables. A compiled term together with the frame it
+ * is used in stands for the term with its variables replaced by their
+ * bindings, so terms are not copied during the search. Each binding is
+ * recorded on the trail and is undone when the search backtracks.
+ *
+ * A Bindings object must only be used by one thread at a time.
+ */
+public final class Bindings
+{
+    private static final int INITIAL_SIZE = 256;
+
+    private Object[] values = new Object[INITIAL_SIZE];
+    private int[] valueFrames = new int[INITIAL_SIZE];
+    private int top = 0;
+
+    private int[] trail = new int[INITIAL_SIZE];
+    private int trailSize = 0;
+
+    // the result of deref
+    private Object term;
+    private int frame;
+
+    // scratch space for getKey
+    private final List<Object> tokens = new ArrayList<Object>();
+    private int[] keySlots = new int[16];
+    private int nbKeySlots = 0;
+
+    /**
+     * Removes all frames and bindings.
+     */
+    public void clear()
+    {
+        Arrays.fill(values, 0, top, null);
+        top = 0;
+        trailSize = 0;
+    }
+
+    /**
+     * Adds a frame with unbound slots on top of the others.
+     *
+     * @return the first slot of the new frame
+     */
+    public int pushFrame(int nbVariables)
+    {
+        int frame = top;
+        top += nbVariables;
+        if (top > values.length)
+        {
+            int size = Math.max(top, 2 * values.length);
+            values = Arrays.copyOf(values, size);
+            valueFrames = Arrays.copyOf(valueFrames, size);
+        }
+        return frame;
+    }
+
+    /**
+     * Removes the given frame and all frames above it. Their slots must have
+     * been unbound by undo before.
+     */
+    public void popFrame(int frame)
+    {
+        top = frame;
+    }
+
+    /**
+     * @return the current position on the trail for undo
+     */
+    public int mark()
+    {
+        return trailSize;
+    }
+
+    /**
+     * Unbinds all slots that were bound since the mark was taken.
+     */
+    public void undo(int mark)
+    {
+        while (trailSize > mark)
+        {
+            values[trail[--trailSize]] = null;
+        }
+    }
+
+    public void bind(int slot, Object term, int frame)
+    {
+        values[slot] = term;
+        valueFrames[slot] = frame;
+        if (trailSize == trail.length)
+        {
+            trail = Arrays.copyOf(trail, 2 * trail.length);
+        }
+        trail[trailSize++] = slot;
+    }
+
+    /**
+     * Follows the bindings of the term as long as it is a bound variable. The
+     * result is read with getTerm() and getFrame(); if it is a Variable, the
+     * variable is unbound and its slot is getFrame() + index.
+     */
+    public void deref(Object term, int frame)
+    {
+        while (term instanceof Variable)
+        {
+            int slot = frame + ((Variable) term).index;
+            Object value = values[slot];
+            if (value == null)
+            {
+                break;
+            }
+            term = value;
+            frame = valueFrames[slot];
+        }
+        this.term = term;
+        this.frame = frame;
+    }
+
+    public Object getTerm()
+    {
+        return term;
+    }
+
+    public int getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     * @return the term with all bound variables replaced, as a GdlTerm from
+     * the GdlPool; unbound variables become variables named after their slot
+     */
+    public GdlTerm materialize(Object term, int frame)
+    {
+        deref(term, frame);
+        term = this.term;
+        frame = this.frame;
+        if (term instanceof Variable)
+        {
+            return GdlPool.getVariable("?_" + (frame + ((Variable) term).index));
+        }
+        else if (term instanceof Structure)
+        {
+            Structure structure = (Structure) term;
+            List<GdlTerm> body = new ArrayList<GdlTerm>(structure.args.length);
+            for (Object arg : structure.args)
+            {
+                body.add(materialize(arg, frame));
+            }
+            return GdlPool.getFunction(structure.name, body);
+        }
+        else
+        {
+            return (GdlTerm) term;
+        }
+    }
+
+    /**
+     * @return the value of the slot like materialize does for a variable
+     * bound to it
+     */
+    public GdlTerm materializeSlot(int slot)
+    {
+        Object value = values[slot];
+        if (value == null)
+        {
+            return GdlPool.getVariable("?_" + slot);
+        }
+        return materialize(value, valueFrames[slot]);
+    }
+
+    /**
+     * Computes the key of a subgoal with the current bindings. The slots of
+     * its unbound variables, in the order in which the key numbers them, are
+     * returned by getKeySlots() afterwards.
+     */
+    public GoalKey getKey(Structure goal, int frame)
+    {
+        tokens.clear();
+        nbKeySlots = 0;
+        tokens.add(goal.name);
+        tokens.add(Integer.valueOf(-1 - goal.args.length));
+        for (Object arg : goal.args)
+        {
+            addTokens(arg, frame);
+        }
+        return new GoalKey(tokens.toArray());
+    }
+
+    /**
+     * @return the slots of the unbound variables of the last key
+     */
+    public int[] getKeySlots()
+    {
+        return Arrays.copyOf(keySlots, nbKeySlots);
+    }
+
+    private void addTokens(Object term, int frame)
+    {
+        deref(term, frame);
+        term = this.term;
+        frame = this.frame;
+        if (term instanceof Variable)
+        {
+            int slot = frame + ((Variable) term).index;
+            int i = 0;
+            while (i < nbKeySlots && keySlots[i] != slot)
+            {
+                i++;
+            }
+            if (i == nbKeySlots)
+            {
+                if (nbKeySlots == keySlots.length)
+                {
+                    keySlots = Arrays.copyOf(keySlots, 2 * keySlots.length);
+                }
+                keySlots[nbKeySlots++] = slot;
+            }
+            tokens.add(Integer.valueOf(i));
+        }
+        else if (term instanceof Structure)
+        {
+            Structure structure = (Structure) term;
+            tokens.add(Integer.valueOf(-1 - structure.args.length));
+            tokens.add(structure.name);
+            for (Object arg : structure.args)
+            {
+                addTokens(arg, frame);
+            }
+        }
+        else if (term instanceof GdlFunction)
+        {
+            // ground functions get the same tokens as structures that are bound to the same values
+            GdlFunction function = (GdlFunction) term;
+            tokens.add(Integer.valueOf(-1 - function.arity()));
+            tokens.add(function.getName());
+            for (int i = 0; i < function.arity(); i++)
+            {
+                addTokens(function.get(i), frame);
+            }
+        }
+        else
+        {
+            tokens.add(term);
+        }
+    }
+}
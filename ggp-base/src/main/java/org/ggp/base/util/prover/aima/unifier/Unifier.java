@@ -5,6 +5,9 @@ import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Structure;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Variable;
+import org.ggp.base.util.prover.aima.substitution.Bindings;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
 
 public final class Unifier
@@ -21,6 +24,156 @@ public final class Unifier
             return null;
     }
 
+    /**
+     * Unifies the arguments of two sentences with the same name by adding
+     * bindings. On failure, some bindings may have been added already and
+     * must be undone by the caller.
+     */
+    public static boolean unify(Object[] xArgs, int xFrame, Object[] yArgs, int yFrame, Bindings bindings)
+    {
+        if (xArgs.length != yArgs.length)
+            return false;
+        for (int i = 0; i < xArgs.length; i++)
+        {
+            if (!unify(xArgs[i], xFrame, yArgs[i], yFrame, bindings))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unifies the arguments of a ground sentence with the arguments of a
+     * compiled sentence with the same name by adding bindings.
+     */
+    public static boolean unify(GdlSentence x, Object[] yArgs, int yFrame, Bindings bindings)
+    {
+        if (x.arity() != yArgs.length)
+            return false;
+        for (int i = 0; i < yArgs.length; i++)
+        {
+            if (!unify(x.get(i), 0, yArgs[i], yFrame, bindings))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unifies two compiled terms by adding bindings. On failure, some
+     * bindings may have been added already and must be undone by the caller.
+     */
+    public static boolean unify(Object x, int xFrame, Object y, int yFrame, Bindings bindings)
+    {
+        bindings.deref(x, xFrame);
+        x = bindings.getTerm();
+        xFrame = bindings.getFrame();
+        bindings.deref(y, yFrame);
+        y = bindings.getTerm();
+        yFrame = bindings.getFrame();
+
+        if (x == y && (xFrame == yFrame || !(x instanceof Variable || x instanceof Structure)))
+            return true;
+        if (x instanceof Variable)
+        {
+            bindings.bind(xFrame + ((Variable) x).index, y, yFrame);
+            return true;
+        }
+        if (y instanceof Variable)
+        {
+            bindings.bind(yFrame + ((Variable) y).index, x, xFrame);
+            return true;
+        }
+        if (x instanceof Structure)
+        {
+            return unifyStructure((Structure) x, xFrame, y, yFrame, bindings);
+        }
+        if (y instanceof Structure)
+        {
+            return unifyStructure((Structure) y, yFrame, x, xFrame, bindings);
+        }
+        // constants and ground functions come from the GdlPool
+        return false;
+    }
+
+    private static boolean unifyStructure(Structure x, int xFrame, Object y, int yFrame, Bindings bindings)
+    {
+        if (y instanceof Structure)
+        {
+            Structure yStructure = (Structure) y;
+            return x.name == yStructure.name && unify(x.args, xFrame, yStructure.args, yFrame, bindings);
+        }
+        else if (y instanceof GdlFunction)
+        {
+            GdlFunction yFunction = (GdlFunction) y;
+            if (x.name != yFunction.getName() || x.args.length != yFunction.arity())
+                return false;
+            for (int i = 0; i < x.args.length; i++)
+            {
+                if (!unify(x.args[i], xFrame, yFunction.get(i), 0, bindings))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the two compiled terms are the same with the current
+     * bindings, where unbound variables are only equal to themselves
+     */
+    public static boolean equal(Object x, int xFrame, Object y, int yFrame, Bindings bindings)
+    {
+        bindings.deref(x, xFrame);
+        x = bindings.getTerm();
+        xFrame = bindings.getFrame();
+        bindings.deref(y, yFrame);
+        y = bindings.getTerm();
+        yFrame = bindings.getFrame();
+
+        if (x instanceof Variable || y instanceof Variable)
+        {
+            return x instanceof Variable && y instanceof Variable
+                    && xFrame + ((Variable) x).index == yFrame + ((Variable) y).index;
+        }
+        if (x instanceof Structure)
+        {
+            return equalStructure((Structure) x, xFrame, y, yFrame, bindings);
+        }
+        if (y instanceof Structure)
+        {
+            return equalStructure((Structure) y, yFrame, x, xFrame, bindings);
+        }
+        return x == y;
+    }
+
+    private static boolean equalStructure(Structure x, int xFrame, Object y, int yFrame, Bindings bindings)
+    {
+        if (y instanceof Structure)
+        {
+            Structure yStructure = (Structure) y;
+            if (x.name != yStructure.name || x.args.length != yStructure.args.length)
+                return false;
+            for (int i = 0; i < x.args.length; i++)
+            {
+                if (!equal(x.args[i], xFrame, yStructure.args[i], yFrame, bindings))
+                    return false;
+            }
+            return true;
+        }
+        else if (y instanceof GdlFunction)
+        {
+            GdlFunction yFunction = (GdlFunction) y;
+            if (x.name != yFunction.getName() || x.args.length != yFunction.arity())
+                return false;
+            for (int i = 0; i < x.args.length; i++)
+            {
+                if (!equal(x.args[i], xFrame, yFunction.get(i), 0, bindings))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
     private static boolean unifyTerm(GdlTerm x, GdlTerm y, Substitution theta)
     {
         if(x.equals(y))
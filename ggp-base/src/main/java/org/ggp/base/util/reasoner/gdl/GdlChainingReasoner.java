@@ -1,16 +1,16 @@
 package org.ggp.base.util.reasoner.gdl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
-import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
-import org.ggp.base.util.gdl.grammar.GdlDistinct;
 import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlNot;
 import org.ggp.base.util.gdl.grammar.GdlOr;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -20,16 +20,10 @@ import org.ggp.base.util.gdl.model.SentenceDomainModels;
 import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
 import org.ggp.base.util.gdl.model.SentenceForm;
 import org.ggp.base.util.gdl.model.SentenceFormModel;
-import org.ggp.base.util.gdl.model.assignments.AddibleFunctionInfo;
-import org.ggp.base.util.gdl.model.assignments.AssignmentIterator;
-import org.ggp.base.util.gdl.model.assignments.Assignments;
-import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
-import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
-import org.ggp.base.util.gdl.transforms.CommonTransforms;
 import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.SetMultimap;
 
 /**
  * An implementation of a ForwardChainingReasoner that uses Gdl objects
@@ -39,10 +33,21 @@ public class GdlChainingReasoner implements
                 DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> {
     private final SentenceFormModel model;
     private final ImmutableMultimap<SentenceForm, GdlSentence> constants;
+    // The forms of the model, so that the sentences of a form are always
+    // stored under the same SentenceForm object
+    private final ImmutableMap<SentenceForm, SentenceForm> forms;
+    // The plans of the rules seen so far, which are reused each time the
+    // rule is applied
+    private final ConcurrentMap<GdlRule, RuleInfo> ruleInfos = new ConcurrentHashMap<GdlRule, RuleInfo>();
 
     private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants) {
         this.model = model;
         this.constants = constants;
+        ImmutableMap.Builder<SentenceForm, SentenceForm> formsBuilder = ImmutableMap.builder();
+        for (SentenceForm form : model.getSentenceForms()) {
+            formsBuilder.put(form, form);
+        }
+        this.forms = formsBuilder.build();
     }
 
     public static GdlChainingReasoner create(SentenceFormModel model) {
@@ -63,79 +68,35 @@ public class GdlChainingReasoner implements
             SentenceDomainModel domainModel,
             GdlSentenceSet sentencesSoFar) throws InterruptedException {
         ConcurrencyUtils.checkForInterruption();
-        SentenceForm headForm = model.getSentenceForm(rule.getHead());
-        Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
-        Map<SentenceForm, ? extends FunctionInfo> functionInfoMap = sentencesSoFar.getFunctionInfo();
-        Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar.getSentences().asMap();
-
-        AssignmentsImpl assignments = new AssignmentsImpl(rule, varDomains, functionInfoMap, completedSentenceFormValues);
-        AssignmentIterator asnItr = assignments.getIterator();
         GdlSentenceSet sentencesToAdd = GdlSentenceSet.create();
-        while (asnItr.hasNext()) {
-            Map<GdlVariable, GdlConstant> assignment = asnItr.next();
-            boolean allSatisfied = true;
-            for (GdlLiteral literal : rule.getBody()) {
-                ConcurrencyUtils.checkForInterruption();
-                if (!satisfies(assignment, literal, sentencesSoFar.getSentences())) {
-                    asnItr.changeOneInNext(GdlUtils.getVariables(literal), assignment);
-                    allSatisfied = false;
-                    break;
-                }
-            }
-            if (allSatisfied) {
-                GdlSentence head = rule.getHead();
-                sentencesToAdd.put(headForm, CommonTransforms.replaceVariables(head, assignment));
-                asnItr.changeOneInNext(GdlUtils.getVariables(head), assignment);
-            }
-        }
+        getRuleInfo(rule, domainModel).plan.evaluate(sentencesSoFar, null, sentencesSoFar, sentencesToAdd);
         return sentencesToAdd;
     }
 
-    private boolean satisfies(Map<GdlVariable, GdlConstant> assignment,
-            GdlLiteral literal, SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
-        if (literal instanceof GdlSentence) {
-            return satisfiesSentence(assignment, (GdlSentence) literal, sentencesSoFar);
-        } else if (literal instanceof GdlNot) {
-            GdlLiteral body = ((GdlNot) literal).getBody();
-            if (!(body instanceof GdlSentence)) {
-                throw new IllegalStateException("Negated literal should be a sentence but isn't: " + body);
-            }
-            return !satisfiesSentence(assignment, (GdlSentence) body, sentencesSoFar);
-        } else if (literal instanceof GdlDistinct) {
-            return satisfiesDistinct(assignment, (GdlDistinct) literal);
-        } else if (literal instanceof GdlOr) {
-            GdlOr or = (GdlOr) literal;
-            for (int i = 0; i < or.arity(); i++) {
-                GdlLiteral innerLiteral = or.get(i);
-                if (satisfies(assignment, innerLiteral, sentencesSoFar)) {
-                    return true;
-                }
-            }
-            return false;
-        } else {
-            throw new IllegalArgumentException("Unrecognized type of literal " + literal.getClass() + " for literal " + literal);
-        }
-    }
-
-    private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
-            GdlSentence sentence,
-            SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
-        sentence = CommonTransforms.replaceVariables(sentence, assignment);
+    /**
+     * Returns the form of the sentence, using the object of the model if
+     * the model has the form.
+     */
+    SentenceForm getSentenceForm(GdlSentence sentence) {
         SentenceForm form = model.getSentenceForm(sentence);
-        return sentencesSoFar.get(form).contains(sentence);
+        SentenceForm modelForm = forms.get(form);
+        return (modelForm != null ? modelForm : form);
     }
 
-    private boolean satisfiesDistinct(Map<GdlVariable, GdlConstant> assignment,
-            GdlDistinct distinct) {
-        distinct = CommonTransforms.replaceVariables(distinct, assignment);
-        return distinct.getArg1() != distinct.getArg2();
+    private RuleInfo getRuleInfo(GdlRule rule, SentenceDomainModel domainModel) {
+        RuleInfo ruleInfo = ruleInfos.get(rule);
+        if (ruleInfo == null || ruleInfo.domainModel != domainModel) {
+            ruleInfo = new RuleInfo(rule, domainModel);
+            ruleInfos.put(rule, ruleInfo);
+        }
+        return ruleInfo;
     }
 
     @Override
     public GdlSentenceSet getUnion(
             GdlSentenceSet oldSentences,
             GdlSentenceSet newSentences) {
-        oldSentences.putAll(newSentences.getSentences());
+        oldSentences.putAll(newSentences);
         return oldSentences;
     }
 
@@ -143,9 +104,11 @@ public class GdlChainingReasoner implements
     public boolean isSubsetOf(
             GdlSentenceSet oldSentences,
             GdlSentenceSet newSentences) {
-        for (Entry<SentenceForm, GdlSentence> entry : newSentences.getSentences().entries()) {
-            if (!oldSentences.containsSentence(entry.getKey(), entry.getValue())) {
-                return false;
+        for (SentenceForm form : newSentences.getForms()) {
+            for (GdlSentence sentence : newSentences.getSentences(form)) {
+                if (!oldSentences.containsSentence(form, sentence)) {
+                    return false;
+                }
             }
         }
         return true;
@@ -156,18 +119,16 @@ public class GdlChainingReasoner implements
             GdlRule rule, SentenceDomainModel domainModel,
             GdlSentenceSet allSentences,
             GdlSentenceSet newSentences) throws InterruptedException {
+        ConcurrencyUtils.checkForInterruption();
+        RuleInfo ruleInfo = getRuleInfo(rule, domainModel);
         GdlSentenceSet results = GdlSentenceSet.create();
-        for (GdlLiteral literal : rule.getBody()) {
-            ConcurrencyUtils.checkForInterruption();
+        for (int i = 0; i < rule.arity(); i++) {
+            GdlLiteral literal = rule.get(i);
             if (literal instanceof GdlSentence) {
-                SentenceForm literalForm = domainModel.getSentenceForm((GdlSentence) literal);
-                addRuleResultsForChosenLiteral(
-                        rule,
-                        (GdlSentence) literal,
-                        newSentences.getSentences().get(literalForm),
-                        domainModel,
-                        allSentences,
-                        results);
+                Collection<GdlSentence> chosenNewSentences = newSentences.getSentences(ruleInfo.literalForms.get(i));
+                if (!chosenNewSentences.isEmpty()) {
+                    ruleInfo.newSentencePlans.get(i).evaluate(allSentences, chosenNewSentences, allSentences, results);
+                }
             } else if (literal instanceof GdlOr) {
                 throw new IllegalArgumentException("Need more implementation work for this to work with ORs here");
             }
@@ -175,44 +136,29 @@ public class GdlChainingReasoner implements
         return results;
     }
 
-    private void addRuleResultsForChosenLiteral(GdlRule rule,
-            GdlSentence chosenLiteral, Set<GdlSentence> chosenNewSentences,
-            SentenceDomainModel domainModel,
-            GdlSentenceSet allSentences,
-            GdlSentenceSet sentencesToAdd) {
-        SentenceForm headForm = model.getSentenceForm(rule.getHead());
-        Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
-        Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences.getFunctionInfo();
-        Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences.getSentences().asMap();
-
-        for (GdlSentence chosenNewSentence : chosenNewSentences) {
-            Map<GdlVariable, GdlConstant> preassignments = GdlUtils.getAssignmentMakingLeftIntoRight(chosenLiteral, chosenNewSentence);
-            if (preassignments != null) {
-                Assignments assignments = new AssignmentsImpl(preassignments, rule, varDomains, functionInfoMap, completedSentenceFormValues);
-                AssignmentIterator asnItr = assignments.getIterator();
-                while (asnItr.hasNext()) {
-                    Map<GdlVariable, GdlConstant> assignment = asnItr.next();
-
-                    boolean allSatisfied = true;
-                    for (GdlLiteral literal : rule.getBody()) {
-                        if (literal == chosenLiteral) {
-                            //Already satisfied
-                            continue;
-                        }
-                        if (!satisfies(assignment, literal, allSentences.getSentences())) {
-                            asnItr.changeOneInNext(GdlUtils.getVariables(literal), assignment);
-                            allSatisfied = false;
-                            break;
-                        }
-                    }
-                    if (allSatisfied) {
-                        GdlSentence head = rule.getHead();
-                        GdlSentence newHead = CommonTransforms.replaceVariables(head, assignment);
-                        if (!allSentences.containsSentence(headForm, newHead)) {
-                            sentencesToAdd.put(headForm, newHead);
-                        }
-                        asnItr.changeOneInNext(GdlUtils.getVariables(head), assignment);
-                    }
+    /**
+     * The plans for applying a rule, which are computed once per rule.
+     */
+    private class RuleInfo {
+        private final SentenceDomainModel domainModel;
+        private final RulePlan plan;
+        // the form of each literal of the body that is a sentence, null for the others
+        private final List<SentenceForm> literalForms = new ArrayList<SentenceForm>();
+        // for each literal that is a sentence, a plan that starts with the new sentences of its form
+        private final List<RulePlan> newSentencePlans = new ArrayList<RulePlan>();
+
+        public RuleInfo(GdlRule rule, SentenceDomainModel domainModel) {
+            this.domainModel = domainModel;
+            Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+            this.plan = RulePlan.create(rule, -1, GdlChainingReasoner.this, domainModel, varDomains);
+            for (int i = 0; i < rule.arity(); i++) {
+                GdlLiteral literal = rule.get(i);
+                if (literal instanceof GdlSentence) {
+                    literalForms.add(getSentenceForm((GdlSentence) literal));
+                    newSentencePlans.add(RulePlan.create(rule, i, GdlChainingReasoner.this, domainModel, varDomains));
+                } else {
+                    literalForms.add(null);
+                    newSentencePlans.add(null);
                 }
             }
         }
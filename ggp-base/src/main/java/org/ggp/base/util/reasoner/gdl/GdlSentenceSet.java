@@ -1,35 +1,53 @@
 package org.ggp.base.util.reasoner.gdl;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.model.SentenceForm;
 import org.ggp.base.util.gdl.model.assignments.AddibleFunctionInfo;
 import org.ggp.base.util.gdl.model.assignments.MutableFunctionInfo;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 
 /**
  * Contains a set of GdlSentences arranged by SentenceForm and the
  * associated FunctionInfo for each SentenceForm. The FunctionInfos
- * are continually and automatically maintained as sentences are
- * added to the set.
+ * are computed the first time they are requested, and from then on
+ * continually and automatically maintained as sentences are added to
+ * the set.
  *
- * Note that this class is not thread-safe.
+ * The sentences of each form are indexed by their tuple, so that the
+ * reasoner can check whether a sentence is in the set without creating
+ * it first.
+ *
+ * A set can be frozen once it is complete, after which it can no longer
+ * be changed. Copies of a frozen set share its sentences of each form
+ * until they add a sentence of that form, so that copying it is cheap.
+ *
+ * Note that this class is not thread-safe, except that a frozen set may
+ * be read and copied concurrently.
  */
 public class GdlSentenceSet {
-    private final SetMultimap<SentenceForm, GdlSentence> sentences;
-    private final Map<SentenceForm, AddibleFunctionInfo> functionInfoMap;
+    private final Map<SentenceForm, FormSentences> sentences;
+    private boolean frozen = false;
+    // null until getFunctionInfo is called
+    private Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = null;
 
     private GdlSentenceSet() {
-        this.sentences = HashMultimap.create();
-        this.functionInfoMap = Maps.newHashMap();
+        this.sentences = Maps.newHashMap();
     }
 
     public static GdlSentenceSet create() {
@@ -43,19 +61,61 @@ public class GdlSentenceSet {
     }
 
     /**
-     * Returns an unmodifiable view of the sentences in this set.
-     * Note that this view may change if the collection is concurrently
-     * modified.
+     * Returns a copy of the sentences in this set.
      */
     public SetMultimap<SentenceForm, GdlSentence> getSentences() {
-        return Multimaps.unmodifiableSetMultimap(sentences);
+        ImmutableSetMultimap.Builder<SentenceForm, GdlSentence> builder = ImmutableSetMultimap.builder();
+        for (Entry<SentenceForm, FormSentences> entry : sentences.entrySet()) {
+            builder.putAll(entry.getKey(), entry.getValue().sentences.values());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the sentences of the given form in this set. The returned
+     * collection must not be modified, and may change if sentences of the
+     * form are added to this set.
+     */
+    public Collection<GdlSentence> getSentences(SentenceForm form) {
+        return getTupleMap(form).values();
+    }
+
+    /**
+     * Returns the sentences of the given form in this set by tuple, with
+     * the same restrictions as {@link #getSentences(SentenceForm)}.
+     */
+    Map<Tuple, GdlSentence> getTupleMap(SentenceForm form) {
+        FormSentences formSentences = sentences.get(form);
+        if (formSentences == null) {
+            return Collections.emptyMap();
+        }
+        return formSentences.sentences;
+    }
+
+    /**
+     * Returns the forms that have at least one sentence in this set.
+     */
+    public Set<SentenceForm> getForms() {
+        return Collections.unmodifiableSet(sentences.keySet());
+    }
+
+    public boolean isEmpty() {
+        return sentences.isEmpty();
     }
 
     /**
      * Returns true iff the given sentence is in this set of sentences.
      */
     public boolean containsSentence(SentenceForm form, GdlSentence sentence) {
-        return sentences.containsEntry(form, sentence);
+        return containsTuple(form, Tuple.of(sentence));
+    }
+
+    /**
+     * Returns true iff the sentence of the given form with the given tuple
+     * is in this set of sentences.
+     */
+    boolean containsTuple(SentenceForm form, Tuple tuple) {
+        return getTupleMap(form).containsKey(tuple);
     }
 
     public void putAll(Multimap<SentenceForm, GdlSentence> newSentences) {
@@ -64,20 +124,170 @@ public class GdlSentenceSet {
         }
     }
 
+    public void putAll(GdlSentenceSet newSentences) {
+        for (Entry<SentenceForm, FormSentences> formEntry : newSentences.sentences.entrySet()) {
+            for (Entry<Tuple, GdlSentence> entry : formEntry.getValue().sentences.entrySet()) {
+                put(formEntry.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     public void put(SentenceForm form, GdlSentence sentence) {
-        if (!containsSentence(form, sentence)) {
-            sentences.put(form, sentence);
-            if (!functionInfoMap.containsKey(form)) {
-                functionInfoMap.put(form, MutableFunctionInfo.create(form));
+        put(form, Tuple.of(sentence), sentence);
+    }
+
+    /**
+     * Adds the sentence, whose tuple must be the given one.
+     */
+    void put(SentenceForm form, Tuple tuple, GdlSentence sentence) {
+        if (frozen) {
+            throw new IllegalStateException("Cannot add sentences to a frozen set");
+        }
+        FormSentences formSentences = sentences.get(form);
+        if (formSentences == null) {
+            formSentences = new FormSentences(new HashMap<Tuple, GdlSentence>(), false);
+            sentences.put(form, formSentences);
+        } else if (formSentences.shared) {
+            if (formSentences.sentences.containsKey(tuple)) {
+                return;
             }
-            functionInfoMap.get(form).addSentence(sentence);
+            formSentences.sentences = new HashMap<Tuple, GdlSentence>(formSentences.sentences);
+            formSentences.shared = false;
+        }
+        if (formSentences.sentences.put(tuple, sentence) == null && functionInfoMap != null) {
+            addToFunctionInfo(form, sentence);
         }
     }
 
+    /**
+     * Prevents any further change to this set.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * Returns a new set with the sentences of the given forms in this set.
+     * If this set is frozen, the copy shares the sentences with it.
+     */
+    public GdlSentenceSet copy(Collection<SentenceForm> forms) {
+        GdlSentenceSet result = create();
+        for (SentenceForm form : forms) {
+            FormSentences formSentences = sentences.get(form);
+            if (formSentences == null) {
+                continue;
+            }
+            if (frozen) {
+                result.sentences.put(form, new FormSentences(formSentences.sentences, true));
+            } else {
+                result.sentences.put(form, new FormSentences(new HashMap<Tuple, GdlSentence>(formSentences.sentences), false));
+            }
+        }
+        return result;
+    }
+
+    private void addToFunctionInfo(SentenceForm form, GdlSentence sentence) {
+        if (!functionInfoMap.containsKey(form)) {
+            functionInfoMap.put(form, MutableFunctionInfo.create(form));
+        }
+        functionInfoMap.get(form).addSentence(sentence);
+    }
+
     /**
      * Returns an unmodifiable view of the function information
      */
     public Map<SentenceForm, AddibleFunctionInfo> getFunctionInfo() {
+        if (functionInfoMap == null) {
+            functionInfoMap = Maps.newHashMap();
+            for (Entry<SentenceForm, FormSentences> entry : sentences.entrySet()) {
+                for (GdlSentence sentence : entry.getValue().sentences.values()) {
+                    addToFunctionInfo(entry.getKey(), sentence);
+                }
+            }
+        }
         return Collections.unmodifiableMap(functionInfoMap);
     }
+
+    /**
+     * The sentences of one form by tuple.
+     */
+    private static final class FormSentences {
+        private Map<Tuple, GdlSentence> sentences;
+        // true if the sentences belong to a frozen set, so that they must be
+        // copied before adding to them
+        private boolean shared;
+
+        public FormSentences(Map<Tuple, GdlSentence> sentences, boolean shared) {
+            this.sentences = sentences;
+            this.shared = shared;
+        }
+    }
+
+    /**
+     * The constants of a ground sentence, with its functions flattened,
+     * which identify the sentence among those of its form. The constants
+     * are compared by identity, which relies on GdlPool.
+     */
+    static final class Tuple {
+        private final GdlConstant[] constants;
+        private final int hashCode;
+
+        public Tuple(GdlConstant[] constants) {
+            this.constants = constants;
+            int hashCode = 1;
+            for (GdlConstant constant : constants) {
+                hashCode = 31 * hashCode + constant.hashCode();
+            }
+            this.hashCode = hashCode;
+        }
+
+        public static Tuple of(GdlSentence sentence) {
+            List<GdlConstant> constants = Lists.newArrayList();
+            for (int i = 0; i < sentence.arity(); i++) {
+                addConstants(sentence.get(i), constants);
+            }
+            return new Tuple(constants.toArray(new GdlConstant[constants.size()]));
+        }
+
+        /**
+         * Adds the constants of the ground term to the list.
+         */
+        public static void addConstants(GdlTerm term, List<GdlConstant> constants) {
+            if (term instanceof GdlConstant) {
+                constants.add((GdlConstant) term);
+            } else if (term instanceof GdlFunction) {
+                GdlFunction function = (GdlFunction) term;
+                for (int i = 0; i < function.arity(); i++) {
+                    addConstants(function.get(i), constants);
+                }
+            } else {
+                throw new IllegalArgumentException("Term should be ground but isn't: " + term);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Tuple)) {
+                return false;
+            }
+            GdlConstant[] other = ((Tuple) obj).constants;
+            if (other.length != constants.length) {
+                return false;
+            }
+            for (int i = 0; i < constants.length; i++) {
+                if (other[i] != constants[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,663 @@
+package org.ggp.base.util.reasoner.gdl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceFormDomain;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet.Tuple;
+
+/**
+ * The order in which GdlChainingReasoner joins the literals of a rule. It is
+ * computed once per rule and reused each time the rule is applied, whatever
+ * the sentences are.
+ *
+ * Positive literals are matched against the sentences one after the other,
+ * starting with the one with the smallest domain for the variables that are
+ * not bound yet. Negated literals, distinct literals, disjunctions and
+ * positive literals whose variables are all bound are checked as soon as
+ * possible. A variable that no positive literal binds takes each value of
+ * its domain.
+ *
+ * Variables take the terms of the sentences they match, and the matched terms
+ * are compared by identity, which relies on GdlPool. Literals whose variables
+ * are all bound are looked up by their tuple, and the head is only created
+ * when it is new.
+ */
+final class RulePlan {
+    private final SentenceForm headForm;
+    private final SentencePattern head;
+    // the heads created so far, so that GdlPool is only asked once for each
+    private final ConcurrentMap<Tuple, GdlSentence> heads = new ConcurrentHashMap<Tuple, GdlSentence>();
+    private final Step[] steps;
+    // the forms of the literals of the body, which the steps refer to by index
+    private final SentenceForm[] forms;
+    private final int nbVariables;
+
+    private RulePlan(SentenceForm headForm, SentencePattern head, Step[] steps, SentenceForm[] forms, int nbVariables) {
+        this.headForm = headForm;
+        this.head = head;
+        this.steps = steps;
+        this.forms = forms;
+        this.nbVariables = nbVariables;
+    }
+
+    /**
+     * @param givenLiteral the index in the body of a positive literal that is
+     * matched first, against the given sentences instead of all sentences,
+     * or -1
+     */
+    public static RulePlan create(GdlRule rule, int givenLiteral,
+            GdlChainingReasoner reasoner, SentenceDomainModel domainModel,
+            Map<GdlVariable, Set<GdlConstant>> varDomains) {
+        return new Planner(rule, reasoner, domainModel, varDomains).plan(givenLiteral);
+    }
+
+    /**
+     * Adds the head of the rule for each assignment that satisfies its body
+     * to the results.
+     *
+     * @param givenSentences the sentences that the given literal is matched
+     * against, if the plan has one
+     * @param knownSentences heads that are in these sentences are not added,
+     * may be null
+     */
+    public void evaluate(GdlSentenceSet sentences,
+            Collection<GdlSentence> givenSentences, GdlSentenceSet knownSentences,
+            GdlSentenceSet results) throws InterruptedException {
+        Execution execution = new Execution(sentences, givenSentences, knownSentences);
+        execution.run(0);
+        for (Map.Entry<Tuple, GdlSentence> entry : execution.newHeads.entrySet()) {
+            results.put(headForm, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private final class Execution {
+        // the sentences of each form of the plan, looked up once
+        private final List<Map<Tuple, GdlSentence>> formSentences;
+        private final Collection<GdlSentence> givenSentences;
+        private final Map<Tuple, GdlSentence> knownHeads;
+        private final Map<Tuple, GdlSentence> newHeads = new HashMap<Tuple, GdlSentence>();
+        private final GdlTerm[] bindings = new GdlTerm[nbVariables];
+        private final List<GdlConstant> tupleBuffer = new ArrayList<GdlConstant>();
+
+        public Execution(GdlSentenceSet sentences,
+                Collection<GdlSentence> givenSentences, GdlSentenceSet knownSentences) {
+            this.formSentences = new ArrayList<Map<Tuple, GdlSentence>>(forms.length);
+            for (SentenceForm form : forms) {
+                formSentences.add(sentences.getTupleMap(form));
+            }
+            this.givenSentences = givenSentences;
+            this.knownHeads = (knownSentences != null ? knownSentences.getTupleMap(headForm)
+                    : Collections.<Tuple, GdlSentence>emptyMap());
+        }
+
+        public void run(int stepIndex) throws InterruptedException {
+            if (stepIndex < steps.length) {
+                steps[stepIndex].run(this, stepIndex + 1);
+                return;
+            }
+            Tuple tuple = getTuple(head);
+            if (!knownHeads.containsKey(tuple) && !newHeads.containsKey(tuple)) {
+                GdlSentence sentence = heads.get(tuple);
+                if (sentence == null) {
+                    sentence = head.instantiate(bindings);
+                    heads.put(tuple, sentence);
+                }
+                newHeads.put(tuple, sentence);
+            }
+        }
+
+        public Tuple getTuple(SentencePattern pattern) {
+            tupleBuffer.clear();
+            pattern.addConstants(bindings, tupleBuffer);
+            return new Tuple(tupleBuffer.toArray(new GdlConstant[tupleBuffer.size()]));
+        }
+    }
+
+    private abstract static class Step {
+        public abstract void run(Execution execution, int nextStep) throws InterruptedException;
+    }
+
+    /**
+     * Binds the new variables of a positive literal to each matching sentence.
+     */
+    private static final class MatchStep extends Step {
+        private final SentencePattern pattern;
+        // the index of the form of the literal, -1 if given
+        private final int form;
+        private final int[] newVariables;
+        // true if no later step uses the new variables, so that one match is enough
+        private boolean existential = false;
+
+        public MatchStep(SentencePattern pattern, int form, int[] newVariables) {
+            this.pattern = pattern;
+            this.form = form;
+            this.newVariables = newVariables;
+        }
+
+        @Override
+        public void run(Execution execution, int nextStep) throws InterruptedException {
+            GdlTerm[] bindings = execution.bindings;
+            Collection<GdlSentence> candidates = (form < 0 ? execution.givenSentences : execution.formSentences.get(form).values());
+            for (GdlSentence sentence : candidates) {
+                ConcurrencyUtils.checkForInterruption();
+                boolean matched = pattern.match(sentence, bindings);
+                if (matched) {
+                    execution.run(nextStep);
+                }
+                for (int variable : newVariables) {
+                    bindings[variable] = null;
+                }
+                if (matched && existential) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds a variable to each value of its domain.
+     */
+    private static final class DomainStep extends Step {
+        private final int variable;
+        private final Set<GdlConstant> domain;
+        private boolean existential = false;
+
+        public DomainStep(int variable, Set<GdlConstant> domain) {
+            this.variable = variable;
+            this.domain = domain;
+        }
+
+        @Override
+        public void run(Execution execution, int nextStep) throws InterruptedException {
+            for (GdlConstant value : domain) {
+                execution.bindings[variable] = value;
+                execution.run(nextStep);
+                execution.bindings[variable] = null;
+                if (existential) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Continues only if a literal without unbound variables holds.
+     */
+    private static final class ConditionStep extends Step {
+        private final Condition condition;
+
+        public ConditionStep(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void run(Execution execution, int nextStep) throws InterruptedException {
+            if (condition.holds(execution)) {
+                execution.run(nextStep);
+            }
+        }
+    }
+
+    private abstract static class Condition {
+        public abstract boolean holds(Execution execution);
+    }
+
+    private static final class SentenceCondition extends Condition {
+        private final SentencePattern pattern;
+        // the index of the form of the literal
+        private final int form;
+        private final boolean negated;
+
+        public SentenceCondition(SentencePattern pattern, int form, boolean negated) {
+            this.pattern = pattern;
+            this.form = form;
+            this.negated = negated;
+        }
+
+        @Override
+        public boolean holds(Execution execution) {
+            return execution.formSentences.get(form).containsKey(execution.getTuple(pattern)) != negated;
+        }
+    }
+
+    private static final class DistinctCondition extends Condition {
+        private final TermPattern arg1;
+        private final TermPattern arg2;
+
+        public DistinctCondition(TermPattern arg1, TermPattern arg2) {
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+        @Override
+        public boolean holds(Execution execution) {
+            return arg1.instantiate(execution.bindings) != arg2.instantiate(execution.bindings);
+        }
+    }
+
+    private static final class OrCondition extends Condition {
+        private final Condition[] disjuncts;
+
+        public OrCondition(Condition[] disjuncts) {
+            this.disjuncts = disjuncts;
+        }
+
+        @Override
+        public boolean holds(Execution execution) {
+            for (Condition disjunct : disjuncts) {
+                if (disjunct.holds(execution)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private abstract static class TermPattern {
+        /**
+         * Binds the unbound variables of the pattern so that it becomes the
+         * term. The caller unbinds them if this returns false.
+         */
+        public abstract boolean match(GdlTerm term, GdlTerm[] bindings);
+
+        public abstract GdlTerm instantiate(GdlTerm[] bindings);
+
+        /**
+         * Adds the constants of the instantiated term to the list.
+         */
+        public abstract void addConstants(GdlTerm[] bindings, List<GdlConstant> constants);
+    }
+
+    private static final class GroundPattern extends TermPattern {
+        private final GdlTerm term;
+
+        public GroundPattern(GdlTerm term) {
+            this.term = term;
+        }
+
+        @Override
+        public boolean match(GdlTerm term, GdlTerm[] bindings) {
+            return term == this.term;
+        }
+
+        @Override
+        public GdlTerm instantiate(GdlTerm[] bindings) {
+            return term;
+        }
+
+        @Override
+        public void addConstants(GdlTerm[] bindings, List<GdlConstant> constants) {
+            Tuple.addConstants(term, constants);
+        }
+    }
+
+    private static final class VariablePattern extends TermPattern {
+        private final int variable;
+
+        public VariablePattern(int variable) {
+            this.variable = variable;
+        }
+
+        @Override
+        public boolean match(GdlTerm term, GdlTerm[] bindings) {
+            GdlTerm value = bindings[variable];
+            if (value == null) {
+                bindings[variable] = term;
+                return true;
+            }
+            return value == term;
+        }
+
+        @Override
+        public GdlTerm instantiate(GdlTerm[] bindings) {
+            return bindings[variable];
+        }
+
+        @Override
+        public void addConstants(GdlTerm[] bindings, List<GdlConstant> constants) {
+            Tuple.addConstants(bindings[variable], constants);
+        }
+    }
+
+    private static final class FunctionPattern extends TermPattern {
+        private final GdlConstant name;
+        private final TermPattern[] args;
+
+        public FunctionPattern(GdlConstant name, TermPattern[] args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        public boolean match(GdlTerm term, GdlTerm[] bindings) {
+            if (!(term instanceof GdlFunction)) {
+                return false;
+            }
+            GdlFunction function = (GdlFunction) term;
+            if (function.getName() != name || function.arity() != args.length) {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].match(function.get(i), bindings)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public GdlTerm instantiate(GdlTerm[] bindings) {
+            GdlTerm[] body = new GdlTerm[args.length];
+            for (int i = 0; i < args.length; i++) {
+                body[i] = args[i].instantiate(bindings);
+            }
+            return GdlPool.getFunction(name, body);
+        }
+
+        @Override
+        public void addConstants(GdlTerm[] bindings, List<GdlConstant> constants) {
+            for (TermPattern arg : args) {
+                arg.addConstants(bindings, constants);
+            }
+        }
+    }
+
+    private static final class SentencePattern {
+        private final GdlSentence sentence;
+        private final TermPattern[] args;
+
+        public SentencePattern(GdlSentence sentence, TermPattern[] args) {
+            this.sentence = sentence;
+            this.args = args;
+        }
+
+        public boolean match(GdlSentence sentence, GdlTerm[] bindings) {
+            if (sentence.getName() != this.sentence.getName() || sentence.arity() != args.length) {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].match(sentence.get(i), bindings)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public GdlSentence instantiate(GdlTerm[] bindings) {
+            if (sentence.isGround()) {
+                return sentence;
+            }
+            GdlTerm[] body = new GdlTerm[args.length];
+            for (int i = 0; i < args.length; i++) {
+                body[i] = args[i].instantiate(bindings);
+            }
+            return GdlPool.getRelation(sentence.getName(), body);
+        }
+
+        public void addConstants(GdlTerm[] bindings, List<GdlConstant> constants) {
+            for (TermPattern arg : args) {
+                arg.addConstants(bindings, constants);
+            }
+        }
+    }
+
+    private static final class Planner {
+        private final GdlRule rule;
+        private final GdlChainingReasoner reasoner;
+        private final SentenceDomainModel domainModel;
+        private final Map<GdlVariable, Set<GdlConstant>> varDomains;
+        private final Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+        private final BitSet bound = new BitSet();
+        private final List<Step> steps = new ArrayList<Step>();
+        private final List<SentenceForm> forms = new ArrayList<SentenceForm>();
+        // the variables that each step uses
+        private final List<BitSet> stepVariables = new ArrayList<BitSet>();
+
+        public Planner(GdlRule rule, GdlChainingReasoner reasoner, SentenceDomainModel domainModel,
+                Map<GdlVariable, Set<GdlConstant>> varDomains) {
+            this.rule = rule;
+            this.reasoner = reasoner;
+            this.domainModel = domainModel;
+            this.varDomains = varDomains;
+            for (GdlVariable variable : GdlUtils.getVariables(rule)) {
+                variables.put(variable, variables.size());
+            }
+        }
+
+        public RulePlan plan(int givenLiteral) {
+            List<GdlSentence> positives = new ArrayList<GdlSentence>();
+            List<GdlLiteral> conditions = new ArrayList<GdlLiteral>();
+            for (int i = 0; i < rule.arity(); i++) {
+                GdlLiteral literal = rule.get(i);
+                if (i == givenLiteral) {
+                    addMatchStep((GdlSentence) literal, true);
+                } else if (literal instanceof GdlSentence) {
+                    positives.add((GdlSentence) literal);
+                } else {
+                    conditions.add(literal);
+                }
+            }
+
+            while (true) {
+                addConditionSteps(positives, conditions);
+                if (positives.isEmpty()) {
+                    break;
+                }
+                GdlSentence best = null;
+                double bestSize = Double.POSITIVE_INFINITY;
+                for (GdlSentence literal : positives) {
+                    double size = getDomainSize(literal);
+                    if (best == null || size < bestSize) {
+                        best = literal;
+                        bestSize = size;
+                    }
+                }
+                positives.remove(best);
+                addMatchStep(best, false);
+            }
+            for (GdlVariable variable : GdlUtils.getVariables(rule)) {
+                int index = variables.get(variable);
+                if (!bound.get(index)) {
+                    Set<GdlConstant> domain = varDomains.get(variable);
+                    if (domain == null) {
+                        throw new IllegalArgumentException("No domain for variable " + variable + " in rule " + rule);
+                    }
+                    BitSet used = new BitSet();
+                    used.set(index);
+                    addStep(new DomainStep(index, domain), used);
+                    addConditionSteps(positives, conditions);
+                }
+            }
+
+            // a step can stop after one match if no later step uses its new variables
+            BitSet usedLater = getVariables(rule.getHead());
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                Step step = steps.get(i);
+                if (step instanceof MatchStep) {
+                    MatchStep matchStep = (MatchStep) step;
+                    matchStep.existential = !intersects(matchStep.newVariables, usedLater);
+                } else if (step instanceof DomainStep) {
+                    DomainStep domainStep = (DomainStep) step;
+                    domainStep.existential = !usedLater.get(domainStep.variable);
+                }
+                usedLater.or(stepVariables.get(i));
+            }
+
+            return new RulePlan(reasoner.getSentenceForm(rule.getHead()), toPattern(rule.getHead()),
+                    steps.toArray(new Step[steps.size()]), forms.toArray(new SentenceForm[forms.size()]),
+                    variables.size());
+        }
+
+        private void addMatchStep(GdlSentence literal, boolean given) {
+            BitSet used = getVariables(literal);
+            BitSet newVariables = (BitSet) used.clone();
+            newVariables.andNot(bound);
+            int[] newVariableArray = new int[newVariables.cardinality()];
+            int n = 0;
+            for (int i = newVariables.nextSetBit(0); i >= 0; i = newVariables.nextSetBit(i + 1)) {
+                newVariableArray[n++] = i;
+            }
+            addStep(new MatchStep(toPattern(literal), (given ? -1 : getFormIndex(literal)), newVariableArray), used);
+        }
+
+        /**
+         * Adds steps for the literals whose variables are all bound.
+         */
+        private void addConditionSteps(List<GdlSentence> positives, List<GdlLiteral> conditions) {
+            for (Iterator<GdlLiteral> it = conditions.iterator(); it.hasNext(); ) {
+                GdlLiteral literal = it.next();
+                BitSet used = getVariables(literal);
+                if (isBound(used)) {
+                    addStep(new ConditionStep(toCondition(literal)), used);
+                    it.remove();
+                }
+            }
+            for (Iterator<GdlSentence> it = positives.iterator(); it.hasNext(); ) {
+                GdlSentence literal = it.next();
+                BitSet used = getVariables(literal);
+                if (isBound(used)) {
+                    addStep(new ConditionStep(toCondition(literal)), used);
+                    it.remove();
+                }
+            }
+        }
+
+        private void addStep(Step step, BitSet used) {
+            steps.add(step);
+            stepVariables.add(used);
+            bound.or(used);
+        }
+
+        private int getFormIndex(GdlSentence literal) {
+            SentenceForm form = reasoner.getSentenceForm(literal);
+            int index = forms.indexOf(form);
+            if (index < 0) {
+                index = forms.size();
+                forms.add(form);
+            }
+            return index;
+        }
+
+        private boolean isBound(BitSet used) {
+            BitSet unbound = (BitSet) used.clone();
+            unbound.andNot(bound);
+            return unbound.isEmpty();
+        }
+
+        private static boolean intersects(int[] variables, BitSet set) {
+            for (int variable : variables) {
+                if (set.get(variable)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the product of the domain sizes of the unbound variables of
+         * the literal, which is the number of its possible matches.
+         */
+        private double getDomainSize(GdlSentence literal) {
+            SentenceFormDomain domain = domainModel.getDomain(reasoner.getSentenceForm(literal));
+            if (domain == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            List<GdlTerm> tuple = GdlUtils.getTupleFromSentence(literal);
+            BitSet counted = new BitSet();
+            double size = 1;
+            for (int i = 0; i < tuple.size(); i++) {
+                GdlTerm term = tuple.get(i);
+                if (term instanceof GdlVariable) {
+                    int index = variables.get(term);
+                    if (!bound.get(index) && !counted.get(index)) {
+                        counted.set(index);
+                        size *= domain.getDomainForSlot(i).size();
+                    }
+                }
+            }
+            return size;
+        }
+
+        private BitSet getVariables(GdlLiteral literal) {
+            BitSet result = new BitSet();
+            for (GdlVariable variable : GdlUtils.getVariables(literal)) {
+                result.set(variables.get(variable));
+            }
+            return result;
+        }
+
+        private Condition toCondition(GdlLiteral literal) {
+            if (literal instanceof GdlSentence) {
+                GdlSentence sentence = (GdlSentence) literal;
+                return new SentenceCondition(toPattern(sentence), getFormIndex(sentence), false);
+            } else if (literal instanceof GdlNot) {
+                GdlLiteral body = ((GdlNot) literal).getBody();
+                if (!(body instanceof GdlSentence)) {
+                    throw new IllegalStateException("Negated literal should be a sentence but isn't: " + body);
+                }
+                GdlSentence sentence = (GdlSentence) body;
+                return new SentenceCondition(toPattern(sentence), getFormIndex(sentence), true);
+            } else if (literal instanceof GdlDistinct) {
+                GdlDistinct distinct = (GdlDistinct) literal;
+                return new DistinctCondition(toPattern(distinct.getArg1()), toPattern(distinct.getArg2()));
+            } else if (literal instanceof GdlOr) {
+                GdlOr or = (GdlOr) literal;
+                Condition[] disjuncts = new Condition[or.arity()];
+                for (int i = 0; i < or.arity(); i++) {
+                    disjuncts[i] = toCondition(or.get(i));
+                }
+                return new OrCondition(disjuncts);
+            } else {
+                throw new IllegalArgumentException("Unrecognized type of literal " + literal.getClass() + " for literal " + literal);
+            }
+        }
+
+        private SentencePattern toPattern(GdlSentence sentence) {
+            TermPattern[] args = new TermPattern[sentence.arity()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = toPattern(sentence.get(i));
+            }
+            return new SentencePattern(sentence, args);
+        }
+
+        private TermPattern toPattern(GdlTerm term) {
+            if (term instanceof GdlVariable) {
+                return new VariablePattern(variables.get(term));
+            } else if (term instanceof GdlFunction && !term.isGround()) {
+                GdlFunction function = (GdlFunction) term;
+                TermPattern[] args = new TermPattern[function.arity()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = toPattern(function.get(i));
+                }
+                return new FunctionPattern(function.getName(), args);
+            } else {
+                return new GroundPattern(term);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.List;
+
+import javassist.CannotCompileException;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+
+import is.ru.cadia.ggp.propnet.evaluator.CompiledPropNet;
+import is.ru.cadia.ggp.propnet.evaluator.CompiledPropNetEvaluator;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetCompiler;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
+import is.ru.cadia.ggp.propnet.structure.PropNetCache;
+
+/**
+ * A PropNetStateMachine that compiles the propnet to bytecode when it is
+ * initialized (i.e., at metagame time) and evaluates it with the generated
+ * code.
+ *
+ * Cyclic propnets are handled in the same way as in PropNetStateMachine. If
+ * the propnet can not be compiled, the machine falls back to the evaluator of
+ * PropNetStateMachine.
+ */
+public class CompiledPropNetStateMachine extends PropNetStateMachine
+{
+    private Class<? extends CompiledPropNet> compiledClass = null;
+
+    public CompiledPropNetStateMachine()
+    {
+    }
+
+    /**
+     * @see PropNetStateMachine#PropNetStateMachine(PropNetCache)
+     */
+    public CompiledPropNetStateMachine(PropNetCache cache)
+    {
+        super(cache);
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        super.initialize(description);
+        compiledClass = null;
+        if (!propNet.isCylic())
+        {
+            try
+            {
+                compiledClass = new PropNetCompiler().compile(propNet);
+            }
+            catch (CannotCompileException e)
+            {
+                GamerLogger.logError("StateMachine", "Failed to compile the propnet, using the uncompiled propnet instead.");
+                GamerLogger.logStackTrace("StateMachine", e);
+            }
+        }
+    }
+
+    @Override
+    public void release()
+    {
+        super.release();
+        // lets the class loader of the compiled propnet be collected
+        compiledClass = null;
+    }
+
+    @Override
+    protected PropNetEvaluator createEvaluator()
+    {
+        if (compiledClass == null)
+        {
+            return super.createEvaluator();
+        }
+        return new CompiledPropNetEvaluator(propNet, compiledClass);
+    }
+}
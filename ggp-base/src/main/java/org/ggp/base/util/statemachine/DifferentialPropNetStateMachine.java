@@ -0,0 +1,38 @@
+package org.ggp.base.util.statemachine;
+
+import is.ru.cadia.ggp.propnet.evaluator.DifferentialPropNetEvaluator;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
+import is.ru.cadia.ggp.propnet.structure.PropNetCache;
+
+/**
+ * A PropNetStateMachine that keeps the values of all components between
+ * calls and only propagates the base propositions and inputs that changed
+ * since the last call. This is fastest when successive calls are about the
+ * same or similar states, e.g., in depth charges.
+ *
+ * Cyclic propnets are evaluated in the same way as in PropNetStateMachine.
+ */
+public class DifferentialPropNetStateMachine extends PropNetStateMachine
+{
+    public DifferentialPropNetStateMachine()
+    {
+    }
+
+    /**
+     * @see PropNetStateMachine#PropNetStateMachine(PropNetCache)
+     */
+    public DifferentialPropNetStateMachine(PropNetCache cache)
+    {
+        super(cache);
+    }
+
+    @Override
+    protected PropNetEvaluator createEvaluator()
+    {
+        if (propNet.isCylic())
+        {
+            return super.createEvaluator();
+        }
+        return new DifferentialPropNetEvaluator(propNet);
+    }
+}
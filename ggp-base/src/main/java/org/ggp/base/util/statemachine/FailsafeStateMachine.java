@@ -86,7 +86,8 @@ public class FailsafeStateMachine extends StateMachine
 
     private boolean attemptLoadingProverMachine() {
         try {
-            StateMachine theStateMachine = new ProverStateMachine();
+            ProverStateMachine theStateMachine = new ProverStateMachine();
+            theStateMachine.setForkJoinPool(ProverStateMachine.getSharedPool());
             theStateMachine.initialize(gameDescription);
             theBackingMachine = theStateMachine;
             GamerLogger.log("StateMachine", "Failsafe Machine: successfully loaded traditional prover.");
@@ -123,6 +124,28 @@ public class FailsafeStateMachine extends StateMachine
         return getGoal(state, role);
     }
 
+    @Override
+    public List<Integer> getGoals(MachineState state) throws GoalDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+
+        try {
+            return theBackingMachine.getGoals(state);
+        } catch(GoalDefinitionException ge) {
+            throw ge;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getGoals(state);
+    }
+
     @Override
     public MachineState getInitialState() {
         if(theBackingMachine == null)
@@ -165,6 +188,28 @@ public class FailsafeStateMachine extends StateMachine
         return getLegalMoves(state, role);
     }
 
+    @Override
+    public List<List<Move>> getLegalJointMoves(MachineState state) throws MoveDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+
+        try {
+            return theBackingMachine.getLegalJointMoves(state);
+        } catch(MoveDefinitionException me) {
+            throw me;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getLegalJointMoves(state);
+    }
+
     @Override
     public Move getRandomMove(MachineState state, Role role) throws MoveDefinitionException {
         if(theBackingMachine == null)
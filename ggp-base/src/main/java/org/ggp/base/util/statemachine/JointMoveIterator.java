@@ -0,0 +1,115 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over all joint moves that can be built from the legal moves of
+ * each role, without building the Cartesian product. The joint moves are
+ * enumerated in the same order as in {@link StateMachine#getLegalJointMoves(MachineState)}:
+ * the move of the last role changes fastest.
+ * <p>
+ * Each call of {@link #next()} returns a new list, which the caller may keep.
+ * {@link #getMoveIndices()} gives the joint move last returned as indices
+ * into the lists of legal moves without any allocation.
+ */
+public class JointMoveIterator implements Iterator<List<Move>>
+{
+    private final List<List<Move>> legalMoves;
+    private final int[] moveIndices;
+    private boolean hasNext;
+    private boolean started = false;
+
+    /**
+     * @param legalMoves the legal moves of each role, in the order of
+     * {@link StateMachine#getRoles()}
+     */
+    public JointMoveIterator(List<List<Move>> legalMoves)
+    {
+        this.legalMoves = legalMoves;
+        this.moveIndices = new int[legalMoves.size()];
+        boolean allRolesHaveMoves = !legalMoves.isEmpty();
+        for (List<Move> moves : legalMoves) {
+            allRolesHaveMoves = allRolesHaveMoves && !moves.isEmpty();
+        }
+        hasNext = allRolesHaveMoves;
+    }
+
+    /**
+     * @return the number of joint moves (the product of the numbers of
+     * legal moves of the roles)
+     */
+    public long getNbJointMoves()
+    {
+        if (legalMoves.isEmpty()) {
+            return 0;
+        }
+        long nbJointMoves = 1;
+        for (List<Move> moves : legalMoves) {
+            nbJointMoves *= moves.size();
+        }
+        return nbJointMoves;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return hasNext;
+    }
+
+    @Override
+    public List<Move> next()
+    {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        if (started) {
+            advance();
+        }
+        started = true;
+        List<Move> jointMove = new ArrayList<Move>(moveIndices.length);
+        for (int i = 0; i < moveIndices.length; i++) {
+            jointMove.add(legalMoves.get(i).get(moveIndices[i]));
+        }
+        hasNext = !isLastJointMove();
+        return jointMove;
+    }
+
+    /**
+     * @return for each role the index of its move in the joint move last
+     * returned by {@link #next()}, the array must not be changed
+     */
+    public int[] getMoveIndices()
+    {
+        return moveIndices;
+    }
+
+    private void advance()
+    {
+        for (int i = moveIndices.length - 1; i >= 0; i--) {
+            moveIndices[i]++;
+            if (moveIndices[i] < legalMoves.get(i).size()) {
+                return;
+            }
+            moveIndices[i] = 0;
+        }
+    }
+
+    private boolean isLastJointMove()
+    {
+        for (int i = 0; i < moveIndices.length; i++) {
+            if (moveIndices[i] != legalMoves.get(i).size() - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
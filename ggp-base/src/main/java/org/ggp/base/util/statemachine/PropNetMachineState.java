@@ -1,52 +1,215 @@
 package org.ggp.base.util.statemachine;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.BitSet;
 import java.util.HashSet;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
 import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.PropNetSymmetries;
 import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
 
 
+/**
+ * A state of a propnet, stored as one bit per base proposition (bit i%64 of
+ * word i/64 is the value of the base proposition with id i).
+ *
+ * The Zobrist hash of the state (XOR of the keys of all true base
+ * propositions, see PropNetStructure.getZobristKeys()) is computed once, and
+ * for successor states only the base propositions that changed are hashed.
+ * It is available through getZobristHash() as a fast key for transposition
+ * tables. hashCode() returns the same value as for any other MachineState
+ * with the same contents (see PropNetStructure.getContentHashKeys()), so
+ * that PropNetMachineStates and other states can be mixed in hash-based
+ * collections. Comparing two PropNetMachineStates of the same propnet
+ * compares the words directly. The GDL sentences of the state are only
+ * computed if getContents() is called.
+ *
+ * The words of a state must not be changed after the state was created.
+ */
 public class PropNetMachineState extends MachineState {
-    private BitSet gameState;
-    private PropNetStructure propNet;
+    private final long[] words;
+    private final long hash;
+    private final PropNetStructure propNet;
+    private volatile Set<GdlSentence> contents = null;
+    // the hash code of the contents, 0 if it was not computed yet
+    private volatile int contentHash = 0;
 
+    public PropNetMachineState(long[] words, long hash, PropNetStructure propNet)
+    {
+        this.words = words;
+        this.hash = hash;
+        this.propNet = propNet;
+    }
+
+    public PropNetMachineState(long[] words, PropNetStructure propNet)
+    {
+        this(words, computeHash(words, propNet.getZobristKeys()), propNet);
+    }
 
     public PropNetMachineState(BitSet gameState, PropNetStructure propNet)
     {
-        this.gameState = gameState;
-        this.propNet = propNet;
+        this(Arrays.copyOf(gameState.toLongArray(), PropNetEvaluator.getNbStateWords(propNet.getNbBasePropositions())), propNet);
+    }
+
+    /**
+     * @return the Zobrist hash of the state given as words
+     */
+    public static long computeHash(long[] words, long[] zobristKeys)
+    {
+        long hash = 0;
+        for (int w = 0; w < words.length; w++)
+        {
+            for (long word = words[w]; word != 0; word &= word - 1)
+            {
+                hash ^= zobristKeys[(w << 6) + Long.numberOfTrailingZeros(word)];
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Creates a successor of this state, computing its hash from the hash of
+     * this state and the base propositions that changed.
+     */
+    public PropNetMachineState getSuccessor(long[] nextWords)
+    {
+        long[] zobristKeys = propNet.getZobristKeys();
+        long nextHash = hash;
+        for (int w = 0; w < words.length; w++)
+        {
+            for (long diff = words[w] ^ nextWords[w]; diff != 0; diff &= diff - 1)
+            {
+                nextHash ^= zobristKeys[(w << 6) + Long.numberOfTrailingZeros(diff)];
+            }
+        }
+        return new PropNetMachineState(nextWords, nextHash, propNet);
+    }
+
+    /**
+     * @return the words of the state, which must not be changed
+     */
+    public long[] getWords()
+    {
+        return words;
+    }
+
+    public long getZobristHash()
+    {
+        return hash;
+    }
+
+    public PropNetStructure getPropNet()
+    {
+        return propNet;
+    }
+
+    /**
+     * @return the smallest of the states that are symmetric to this one (see
+     * PropNetSymmetries.getCanonicalState), which is this state itself if it
+     * is the smallest
+     */
+    public PropNetMachineState getCanonicalState(PropNetSymmetries symmetries)
+    {
+        long[] canonicalWords = symmetries.getCanonicalState(words);
+        if (canonicalWords == words)
+        {
+            return this;
+        }
+        return new PropNetMachineState(canonicalWords, propNet);
     }
 
+    /**
+     * @return the value of the base proposition with the given id
+     */
+    public boolean isSet(int basePropositionId)
+    {
+        return PropNetEvaluator.isSet(words, basePropositionId);
+    }
+
+    /**
+     * @return a new BitSet with the values of the base propositions
+     */
     public BitSet getCurrentState()
     {
-        return gameState;
+        return BitSet.valueOf(words);
     }
 
     @Override
-    public Set<GdlSentence> getContents() 
+    public Set<GdlSentence> getContents()
     {
-        Set<GdlSentence> sentences = new HashSet<GdlSentence>();
-        for (BaseProposition prop : propNet.getBasePropositions())
+        Set<GdlSentence> sentences = contents;
+        if (sentences == null)
         {
-            if (gameState.get(prop.id))
+            sentences = new HashSet<GdlSentence>();
+            for (BaseProposition prop : propNet.getBasePropositions())
             {
-                for (GdlSentence sentence : prop.sentences)
+                if (isSet(prop.id))
                 {
-                    sentences.add(sentence);
+                    for (GdlSentence sentence : prop.sentences)
+                    {
+                        sentences.add(sentence);
+                    }
                 }
             }
+            sentences = Collections.unmodifiableSet(sentences);
+            contents = sentences;
         }
         return sentences;
     }
 
     @Override
-    public MachineState clone() 
+    public MachineState clone()
     {
-        return new PropNetMachineState((BitSet)gameState.clone(), propNet);
+        return new PropNetMachineState(words.clone(), hash, propNet);
+    }
+
+    /**
+     * @return the hash code of the contents of the state, computed from the
+     * words without creating the contents
+     */
+    @Override
+    public int hashCode()
+    {
+        int h = contentHash;
+        if (h == 0)
+        {
+            int[] keys = propNet.getContentHashKeys();
+            for (int w = 0; w < words.length; w++)
+            {
+                for (long word = words[w]; word != 0; word &= word - 1)
+                {
+                    h ^= keys[(w << 6) + Long.numberOfTrailingZeros(word)];
+                }
+            }
+            contentHash = h;
+        }
+        return h;
+    }
+
+    /**
+     * PropNetMachineStates of the same propnet are compared by their words,
+     * other states by their contents.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o instanceof PropNetMachineState)
+        {
+            PropNetMachineState state = (PropNetMachineState)o;
+            if (state.propNet == propNet)
+            {
+                return state.hash == hash && Arrays.equals(state.words, words);
+            }
+        }
+        return super.equals(o);
     }
-    
-}
\ No newline at end of file
+}
@@ -1,21 +1,34 @@
 package org.ggp.base.util.statemachine;
 
 import java.util.List;
+import java.util.Set;
 
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
+import is.ru.cadia.ggp.propnet.MoveSelectionPolicy;
 import is.ru.cadia.ggp.propnet.PropNetMove; 
+import is.ru.cadia.ggp.propnet.evaluator.FixpointPropNetEvaluator;
+import is.ru.cadia.ggp.propnet.evaluator.ForwardPropNetEvaluator;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
 import is.ru.cadia.ggp.propnet.structure.GGPBasePropNetStructureFactory;
+import is.ru.cadia.ggp.propnet.structure.PropNetCache;
+import is.ru.cadia.ggp.propnet.structure.PropNetFactoring;
+import is.ru.cadia.ggp.propnet.structure.PropNetInvariants;
 import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
 import is.ru.cadia.ggp.propnet.structure.PropNetStructureFactory;
+import is.ru.cadia.ggp.propnet.structure.PropNetSymmetries;
+import is.ru.cadia.ggp.propnet.structure.PropNetTopology;
 import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
 import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
 import is.ru.cadia.ggp.propnet.structure.components.StaticComponent.Type;
@@ -25,21 +38,297 @@ public class PropNetStateMachine extends StateMachine
     PropNetStructure propNet;
     boolean initialized = false;
 
+    /**
+     * Evaluators, one per thread because they keep the values of the last
+     * evaluated state. If createEvaluator returns null, the recursive prove
+     * is used instead.
+     */
+    ThreadLocal<PropNetEvaluator> evaluators = null;
+
+    /**
+     * Scratch buffers of one thread for performPlayout.
+     */
+    private static class PlayoutBuffers
+    {
+        final long[] state1;
+        final long[] state2;
+        final int[][] legalMoveIndices;
+        final int[] inputIds;
+
+        PlayoutBuffers(PropNetStructure propNet)
+        {
+            int nbWords = PropNetEvaluator.getNbStateWords(propNet.getNbBasePropositions());
+            state1 = new long[nbWords];
+            state2 = new long[nbWords];
+            int nbRoles = propNet.getRoles().length;
+            legalMoveIndices = new int[nbRoles][];
+            for (int roleId = 0; roleId < nbRoles; roleId++)
+            {
+                legalMoveIndices[roleId] = new int[propNet.getPossibleMoves(roleId).length];
+            }
+            inputIds = new int[nbRoles];
+        }
+    }
+
+    ThreadLocal<PlayoutBuffers> playoutBuffers = null;
+
+    /**
+     * Cache the propnet is loaded from (or saved to), null if the propnet
+     * should always be created.
+     */
+    private final PropNetCache cache;
+
+    /**
+     * The independent parts of the game, computed on demand.
+     */
+    private volatile PropNetFactoring factoring = null;
+
+    /**
+     * Latches and the shortcuts they allow, null until computeInvariants is
+     * called.
+     */
+    private volatile PropNetInvariants invariants = null;
+
+    /**
+     * Symmetries of the game, null until computeSymmetries is called.
+     */
+    private volatile PropNetSymmetries symmetries = null;
+
+    public PropNetStateMachine()
+    {
+        this((PropNetCache)null);
+    }
+
+    /**
+     * @param cache if not null, propnets are loaded from and saved to the
+     * cache instead of creating them for every match
+     */
+    public PropNetStateMachine(PropNetCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Creates an initialized state machine for the given propnet, e.g., for
+     * one factor of a game (see getFactoring()).
+     */
+    public PropNetStateMachine(PropNetStructure propNet)
+    {
+        this((PropNetCache)null);
+        initialize(propNet);
+    }
+
     @Override
     public void initialize(List<Gdl> description) 
     {
         PropNetStructureFactory factory = new GGPBasePropNetStructureFactory();
         try 
         {
-            propNet = factory.create(description);
+            if (cache == null)
+            {
+                propNet = factory.create(description);
+            }
+            else
+            {
+                propNet = cache.get(factory, description);
+            }
         } 
         catch (InterruptedException e) 
         {
             throw new RuntimeException(e);
         }
+        initialize(propNet);
+    }
+
+    private void initialize(final PropNetStructure propNet)
+    {
+        this.propNet = propNet;
+        factoring = null;
+        invariants = null;
+        symmetries = null;
+        if (!propNet.isCylic())
+        {
+            // compute the order once instead of in each thread
+            propNet.getTopologicalOrder();
+        }
+        evaluators = new ThreadLocal<PropNetEvaluator>() {
+            @Override
+            protected PropNetEvaluator initialValue()
+            {
+                return createEvaluator();
+            }
+        };
+        playoutBuffers = new ThreadLocal<PlayoutBuffers>() {
+            @Override
+            protected PlayoutBuffers initialValue()
+            {
+                return new PlayoutBuffers(propNet);
+            }
+        };
         initialized = true;
     }
 
+    @Override
+    public void release()
+    {
+        if (initialized)
+        {
+            // the values of other threads go away with the ThreadLocals
+            evaluators.remove();
+            playoutBuffers.remove();
+        }
+        initialized = false;
+        evaluators = null;
+        playoutBuffers = null;
+        propNet = null;
+        factoring = null;
+        invariants = null;
+        symmetries = null;
+    }
+
+    public PropNetStructure getPropNetStructure()
+    {
+        return propNet;
+    }
+
+    /**
+     * The sub-propnets of the factors can be used with
+     * PropNetStateMachine(PropNetStructure). States of this state machine
+     * are converted to states of a factor with
+     * getMachineStateFromSentenceList(state.getContents()).
+     *
+     * A factor keeps all roles, even those without moves in the factor
+     * (e.g., a role that only plays in another part of the game). For such a
+     * role getLegalMoves on the factor's state machine throws a
+     * MoveDefinitionException, so callers have to check
+     * getPossibleMoves(roleId) of the factor and take the moves of that role
+     * from the other factors.
+     *
+     * @return the independent factors of the game
+     */
+    public synchronized PropNetFactoring getFactoring()
+    {
+        if (factoring == null)
+        {
+            factoring = new PropNetFactoring(propNet);
+        }
+        return factoring;
+    }
+
+    /**
+     * Finds latches of the game (see PropNetInvariants), which are used from
+     * then on to answer isTerminal and getGoal without evaluating the propnet.
+     *
+     * @param deadline the time at which the analysis stops (e.g., before the
+     * end of the metagame)
+     */
+    public PropNetInvariants computeInvariants(long deadline)
+    {
+        invariants = new PropNetInvariants(propNet, deadline);
+        return invariants;
+    }
+
+    /**
+     * @return the invariants found by computeInvariants or null
+     */
+    public PropNetInvariants getInvariants()
+    {
+        return invariants;
+    }
+
+    /**
+     * Finds symmetries of the game (see PropNetSymmetries), such that
+     * symmetric states can be mapped to the same canonical state with
+     * PropNetMachineState.getCanonicalState, e.g., to share entries of
+     * transposition tables.
+     *
+     * @param deadline the time at which the search stops (e.g., before the
+     * end of the metagame)
+     */
+    public PropNetSymmetries computeSymmetries(long deadline)
+    {
+        symmetries = new PropNetSymmetries(propNet, deadline);
+        return symmetries;
+    }
+
+    /**
+     * @return the symmetries found by computeSymmetries or null
+     */
+    public PropNetSymmetries getSymmetries()
+    {
+        return symmetries;
+    }
+
+    /**
+     * Creates the evaluator used by each thread. Cyclic propnets are
+     * evaluated by computing the fixpoint of each cycle.
+     */
+    protected PropNetEvaluator createEvaluator()
+    {
+        if (propNet.isCylic())
+        {
+            return new FixpointPropNetEvaluator(propNet);
+        }
+        return new ForwardPropNetEvaluator(propNet);
+    }
+
+    /**
+     * @return the evaluator of the current thread set to the given state or
+     * null if there is none (see createEvaluator)
+     */
+    protected PropNetEvaluator getEvaluator(MachineState state)
+    {
+        PropNetEvaluator evaluator = evaluators.get();
+        if (evaluator != null)
+        {
+            evaluator.setState(toPropNetMachineState(state).getWords());
+        }
+        return evaluator;
+    }
+
+    /**
+     * @return the state itself if it is a state of this propnet, otherwise a
+     * PropNetMachineState with the same contents
+     */
+    protected PropNetMachineState toPropNetMachineState(MachineState state)
+    {
+        if (state instanceof PropNetMachineState && ((PropNetMachineState)state).getPropNet() == propNet)
+        {
+            return (PropNetMachineState)state;
+        }
+        return getMachineStateFromSentenceList(state.getContents());
+    }
+
+    @Override
+    public PropNetMachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+    {
+        long[] words = new long[PropNetEvaluator.getNbStateWords(propNet.getNbBasePropositions())];
+        for (GdlSentence sentence : sentenceList)
+        {
+            BaseProposition prop = propNet.getBaseProposition(sentence);
+            if (prop != null)
+            {
+                words[prop.id >>> 6] |= 1L << prop.id;
+            }
+        }
+        return new PropNetMachineState(words, propNet);
+    }
+
+    /**
+     * @return the PropNetMove of the given role for the move or null if
+     * there is no such move
+     */
+    protected PropNetMove toPropNetMove(int roleId, Move move)
+    {
+        if (move instanceof PropNetMove && ((PropNetMove)move).getRoleId() == roleId
+                && propNet.isMoveOfThisPropNet((PropNetMove)move))
+        {
+            // the usual case: a move of this propnet and role
+            return (PropNetMove)move;
+        }
+        return propNet.getPropNetMove(roleId, move);
+    }
+
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
@@ -50,10 +339,31 @@ public class PropNetStateMachine extends StateMachine
 
         int roleId = propNet.getRoleId(role);
 
+        PropNetInvariants invariants = this.invariants;
+        if (invariants != null)
+        {
+            int goalValue = invariants.getGoalValue(toPropNetMachineState(state).getWords(), roleId);
+            if (goalValue >= 0)
+            {
+                return goalValue;
+            }
+        }
+
+        PropNetEvaluator evaluator = getEvaluator(state);
+        if (evaluator != null)
+        {
+            int goalValue = evaluator.getGoalValue(roleId);
+            if (goalValue < 0)
+            {
+                throw new GoalDefinitionException(state, role);
+            }
+            return goalValue;
+        }
+
         int[] goalValues = propNet.getGoalValues(roleId);
         StaticComponent[] goalProps = propNet.getGoalPropositions(roleId);
 
-        BitSet stateBits = ((PropNetMachineState)state).getCurrentState();
+        BitSet stateBits = toPropNetMachineState(state).getCurrentState();
         BitSet proved = (BitSet)(stateBits.clone());
 
         int goalPropIdx = 0;
@@ -73,16 +383,29 @@ public class PropNetStateMachine extends StateMachine
     @Override
     public boolean isTerminal(MachineState state) 
     {
-        BitSet currentState = ((PropNetMachineState)state).getCurrentState();
+        PropNetInvariants invariants = this.invariants;
+        if (invariants != null && invariants.isTerminal(toPropNetMachineState(state).getWords()))
+        {
+            return true;
+        }
+
+        PropNetEvaluator evaluator = getEvaluator(state);
+        if (evaluator != null)
+        {
+            return evaluator.isTerminal();
+        }
+
+        BitSet currentState = toPropNetMachineState(state).getCurrentState();
         StaticComponent termComp = propNet.getTerminalProposition();
 
         BitSet proved = new BitSet(propNet.getNbComponents());
 
-        for (StaticComponent comp : propNet.getComponents())
+        PropNetTopology topology = propNet.getTopology();
+        for (int id = 0; id < topology.getNbComponents(); id++)
         {
-            if (comp.type == Type.BASE || comp.type == Type.INPUT)
+            if (topology.getType(id) == Type.BASE || topology.getType(id) == Type.INPUT)
             {
-                proved.set(comp.id, true);
+                proved.set(id, true);
             }
         }
 
@@ -110,14 +433,17 @@ public class PropNetStateMachine extends StateMachine
             throw new RuntimeException("Getting initial state from uninitialized state machine");
         }
 
-        BitSet set = new BitSet(propNet.getNbComponents());
+        long[] words = new long[PropNetEvaluator.getNbStateWords(propNet.getNbBasePropositions())];
 
         for (BaseProposition prop : propNet.getBasePropositions())
         {
-            set.set(prop.id, prop.initialValue);
+            if (prop.initialValue)
+            {
+                words[prop.id >>> 6] |= 1L << prop.id;
+            }
         }
 
-        return new PropNetMachineState(set, propNet);
+        return new PropNetMachineState(words, propNet);
     }
 
     public void prove(BitSet proved, BitSet set, StaticComponent comp)
@@ -178,8 +504,23 @@ public class PropNetStateMachine extends StateMachine
     public List<Move> getLegalMoves(MachineState state, Role role)
     {
         List<Move> moves = new ArrayList<Move>();
-        PropNetMove[] possibleMoves = propNet.getPossibleMoves(propNet.getRoleId(role));
-        PropNetMachineState propNetState = (PropNetMachineState)(state);
+        int roleId = propNet.getRoleId(role);
+        PropNetMove[] possibleMoves = propNet.getPossibleMoves(roleId);
+
+        PropNetEvaluator evaluator = getEvaluator(state);
+        if (evaluator != null)
+        {
+            for (int i = 0; i < possibleMoves.length; i++)
+            {
+                if (evaluator.isLegal(roleId, i))
+                {
+                    moves.add(possibleMoves[i]);
+                }
+            }
+            return moves;
+        }
+
+        PropNetMachineState propNetState = toPropNetMachineState(state);
 
         BitSet currentState = propNetState.getCurrentState();
 
@@ -190,36 +531,149 @@ public class PropNetStateMachine extends StateMachine
             proven.set(baseProp.id, true);
         }
 
-        for (PropNetMove move : possibleMoves)
+        for (int i = 0; i < possibleMoves.length; i++)
         {
-            prove(proven, currentState, move.getLegalComponent());
-            if (currentState.get(move.getLegalComponent().id))
+            StaticComponent legalComponent = possibleMoves[i].getLegalComponent();
+            prove(proven, currentState, legalComponent);
+            if (currentState.get(legalComponent.id))
             {
-                moves.add(move);
+                moves.add(possibleMoves[i]);
             }
         }
 
         return moves;
     }
 
+    /**
+     * Computes the legal moves of all roles with one evaluation of the
+     * propnet.
+     *
+     * @return for each role id, the indices of the legal moves of the role in
+     * getPropNetStructure().getPossibleMoves(roleId) in increasing order
+     */
+    public int[][] getLegalMoveIndices(MachineState state)
+    {
+        int nbRoles = propNet.getRoles().length;
+        int[][] legalMoveIndices = new int[nbRoles][];
+
+        PropNetEvaluator evaluator = getEvaluator(state);
+        BitSet currentState = null;
+        BitSet proven = null;
+        if (evaluator == null)
+        {
+            // one set of proven components for all roles
+            currentState = toPropNetMachineState(state).getCurrentState();
+            proven = new BitSet(propNet.getNbComponents());
+            for (BaseProposition baseProp : propNet.getBasePropositions())
+            {
+                proven.set(baseProp.id, true);
+            }
+        }
+
+        for (int roleId = 0; roleId < nbRoles; roleId++)
+        {
+            PropNetMove[] possibleMoves = propNet.getPossibleMoves(roleId);
+            int[] indices = new int[possibleMoves.length];
+            int nbLegalMoves = 0;
+            for (int i = 0; i < possibleMoves.length; i++)
+            {
+                boolean isLegal;
+                if (evaluator != null)
+                {
+                    isLegal = evaluator.isLegal(roleId, i);
+                }
+                else
+                {
+                    StaticComponent legalComponent = possibleMoves[i].getLegalComponent();
+                    prove(proven, currentState, legalComponent);
+                    isLegal = currentState.get(legalComponent.id);
+                }
+                if (isLegal)
+                {
+                    indices[nbLegalMoves++] = i;
+                }
+            }
+            legalMoveIndices[roleId] = Arrays.copyOf(indices, nbLegalMoves);
+        }
+        return legalMoveIndices;
+    }
+
+    /**
+     * @return the legal moves of all roles (by role id), computed with one
+     * evaluation of the propnet
+     */
+    private List<List<Move>> getLegalMovesOfAllRoles(MachineState state)
+    {
+        int[][] legalMoveIndices = getLegalMoveIndices(state);
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>(legalMoveIndices.length);
+        for (int roleId = 0; roleId < legalMoveIndices.length; roleId++)
+        {
+            PropNetMove[] possibleMoves = propNet.getPossibleMoves(roleId);
+            List<Move> moves = new ArrayList<Move>(legalMoveIndices[roleId].length);
+            for (int i : legalMoveIndices[roleId])
+            {
+                moves.add(possibleMoves[i]);
+            }
+            legalMoves.add(moves);
+        }
+        return legalMoves;
+    }
+
+    @Override
+    public JointMoveIterator getLegalJointMoveIterator(MachineState state)
+    {
+        return new JointMoveIterator(getLegalMovesOfAllRoles(state));
+    }
+
+    @Override
+    public List<List<Move>> getLegalJointMoves(MachineState state)
+    {
+        JointMoveIterator iterator = getLegalJointMoveIterator(state);
+        List<List<Move>> jointMoves = new ArrayList<List<Move>>((int)Math.min(iterator.getNbJointMoves(), Integer.MAX_VALUE));
+        while (iterator.hasNext())
+        {
+            jointMoves.add(iterator.next());
+        }
+        return jointMoves;
+    }
+
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
-        BitSet currentState = (BitSet)((PropNetMachineState)state).getCurrentState().clone();
+        int[] inputIds = new int[moves.size()];
+        for (int roleId = 0; roleId < inputIds.length; roleId++)
+        {
+            PropNetMove move = toPropNetMove(roleId, moves.get(roleId));
+            if (move == null)
+            {
+                throw new TransitionDefinitionException(state, moves);
+            }
+            inputIds[roleId] = move.getInputComponent().id;
+        }
+
+        PropNetEvaluator evaluator = getEvaluator(state);
+        if (evaluator != null)
+        {
+            evaluator.setInputs(inputIds, inputIds.length);
+            return toPropNetMachineState(state).getSuccessor(evaluator.getNextState());
+        }
+
+        BitSet currentState = toPropNetMachineState(state).getCurrentState();
         BitSet nextState = new BitSet(propNet.getNbComponents());
         
-        for (Move move : moves)
+        for (int inputId : inputIds)
         {
-            currentState.set(((PropNetMove)move).getInputComponent().id, true);
+            currentState.set(inputId, true);
         }
         
         BitSet proved = new BitSet(propNet.getNbComponents());
 
-        for (StaticComponent comp : propNet.getComponents())
+        PropNetTopology topology = propNet.getTopology();
+        for (int id = 0; id < topology.getNbComponents(); id++)
         {
-            if (comp.type == Type.BASE || comp.type == Type.INPUT)
+            if (topology.getType(id) == Type.BASE || topology.getType(id) == Type.INPUT)
             {
-                proved.set(comp.id, true);
+                proved.set(id, true);
             }
         }
 
@@ -235,22 +689,129 @@ public class PropNetStateMachine extends StateMachine
         return new PropNetMachineState(nextState, propNet);
     }
 
-    @Override
-    public Move getMoveFromTerm(GdlTerm term)
+    /**
+     * Plays moves chosen by the policy from the given state until a terminal
+     * state is reached.
+     *
+     * With an evaluator the playout runs in per-thread buffers and does not
+     * allocate any objects (except for the exceptions in case of errors in the
+     * game description), so it is much cheaper than performDepthCharge.
+     *
+     * @param policy chooses the moves, moves are given as indices into
+     * getPropNetStructure().getPossibleMoves(roleId)
+     * @param goalValues filled with the goal value of each role (by role id)
+     * in the terminal state
+     * @return the number of steps until the terminal state was reached
+     */
+    public int performPlayout(MachineState state, MoveSelectionPolicy policy, int[] goalValues) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException
     {
-        Move move = new Move(term);
-
+        PlayoutBuffers buffers = playoutBuffers.get();
         Role[] roles = propNet.getRoles();
+        PropNetEvaluator evaluator = getEvaluator(state);
+        if (evaluator == null)
+        {
+            return performPlayoutWithoutEvaluator(state, policy, goalValues, buffers);
+        }
+        long[] currentState = toPropNetMachineState(state).getWords();
+        int depth = 0;
+        while (!evaluator.isTerminal())
+        {
+            for (int roleId = 0; roleId < roles.length; roleId++)
+            {
+                int[] legalMoveIndices = buffers.legalMoveIndices[roleId];
+                int nbLegalMoves = 0;
+                for (int i = 0; i < legalMoveIndices.length; i++)
+                {
+                    if (evaluator.isLegal(roleId, i))
+                    {
+                        legalMoveIndices[nbLegalMoves++] = i;
+                    }
+                }
+                if (nbLegalMoves == 0)
+                {
+                    throw new MoveDefinitionException(new PropNetMachineState(currentState.clone(), propNet), roles[roleId]);
+                }
+                int moveIndex = policy.selectMove(roleId, legalMoveIndices, nbLegalMoves, depth);
+                buffers.inputIds[roleId] = propNet.getPossibleMoves(roleId)[moveIndex].getInputComponent().id;
+            }
+            evaluator.setInputs(buffers.inputIds, roles.length);
+            // the buffers are used alternately, so the evaluator never holds the buffer that is overwritten
+            long[] nextState = (currentState == buffers.state1 ? buffers.state2 : buffers.state1);
+            evaluator.getNextState(nextState);
+            evaluator.setState(nextState);
+            currentState = nextState;
+            depth++;
+        }
+        for (int roleId = 0; roleId < roles.length; roleId++)
+        {
+            goalValues[roleId] = evaluator.getGoalValue(roleId);
+            if (goalValues[roleId] < 0)
+            {
+                throw new GoalDefinitionException(new PropNetMachineState(currentState.clone(), propNet), roles[roleId]);
+            }
+        }
+        return depth;
+    }
 
-        for (Role role : roles) 
+    /**
+     * performPlayout without an evaluator, based on the usual state machine
+     * methods
+     */
+    private int performPlayoutWithoutEvaluator(MachineState state, MoveSelectionPolicy policy, int[] goalValues, PlayoutBuffers buffers) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException
+    {
+        Role[] roles = propNet.getRoles();
+        List<Move> jointMove = new ArrayList<Move>(roles.length);
+        int depth = 0;
+        while (!isTerminal(state))
         {
-            PropNetMove propNetMove = null;
-            if ((propNetMove = propNet.getPropNetMove(role, move)) != null)
+            jointMove.clear();
+            for (int roleId = 0; roleId < roles.length; roleId++)
             {
-                return propNetMove;               
+                // the legal moves are a sub list of the possible moves in the same order
+                PropNetMove[] possibleMoves = propNet.getPossibleMoves(roleId);
+                int[] legalMoveIndices = buffers.legalMoveIndices[roleId];
+                int nbLegalMoves = 0;
+                int i = 0;
+                for (Move move : getLegalMoves(state, roles[roleId]))
+                {
+                    while (possibleMoves[i] != move)
+                    {
+                        i++;
+                    }
+                    legalMoveIndices[nbLegalMoves++] = i;
+                }
+                if (nbLegalMoves == 0)
+                {
+                    throw new MoveDefinitionException(state, roles[roleId]);
+                }
+                jointMove.add(possibleMoves[policy.selectMove(roleId, legalMoveIndices, nbLegalMoves, depth)]);
             }
+            state = getNextState(state, jointMove);
+            depth++;
+        }
+        for (int roleId = 0; roleId < roles.length; roleId++)
+        {
+            goalValues[roleId] = getGoal(state, roles[roleId]);
         }
+        return depth;
+    }
 
+    @Override
+    public Move getMoveFromTerm(GdlTerm term)
+    {
+        int moveTermId = propNet.getMoveTermId(term);
+        if (moveTermId == -1)
+        {
+            return null;
+        }
+        for (int roleId = 0; roleId < propNet.getRoles().length; roleId++)
+        {
+            PropNetMove propNetMove = propNet.getPropNetMoveByTermId(roleId, moveTermId);
+            if (propNetMove != null)
+            {
+                return propNetMove;
+            }
+        }
         return null;
     }
 
@@ -117,6 +117,13 @@ public abstract class StateMachine
      */
     public void doPerMoveWork() {}
 
+    /** Override this to free the memory held by the state machine (like caches
+     * or per-thread evaluators) when it is not needed anymore.
+     * <p>
+     * CONTRACT: After calling this method, the state machine should not be used.
+     */
+    public void release() {}
+
     /** Override this to provide memory-saving destructive-next-state functionality.
      * <p>
      * CONTRACT: After calling this method, "state" should not be accessed.
@@ -170,6 +177,21 @@ public abstract class StateMachine
         return crossProduct;
     }
 
+    /**
+     * Returns an iterator over every joint move possible in the given state,
+     * in the same order as {@link #getLegalJointMoves(MachineState)}, but
+     * without building all joint moves in advance. This is preferable when
+     * there are many roles with several legal moves each.
+     */
+    public JointMoveIterator getLegalJointMoveIterator(MachineState state) throws MoveDefinitionException
+    {
+        List<List<Move>> legals = new ArrayList<List<Move>>();
+        for (Role role : getRoles()) {
+            legals.add(getLegalMoves(state, role));
+        }
+        return new JointMoveIterator(legals);
+    }
+
     /**
      * Returns a list of every joint move possible in the given state in which
      * the given role makes the given move. This will be a subset of the list
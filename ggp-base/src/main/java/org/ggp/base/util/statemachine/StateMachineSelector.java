@@ -0,0 +1,328 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+
+
+/**
+ * Picks the fastest correct state machine for a game during the start clock.
+ *
+ * The candidates are initialized in parallel. Each candidate that is ready
+ * in time is cross-checked against the reference machine with
+ * StateMachineVerifier.checkMachineConsistency. Then the playouts per second
+ * of the reference and of every consistent candidate are measured on the
+ * game, and the fastest machine is selected. The reference is used if no
+ * candidate is both consistent and faster.
+ *
+ * The reason for selecting or rejecting each machine is logged and can be
+ * read with getResults(). The rejected candidates are released (see
+ * StateMachine.release), except for those that timed out, whose
+ * initialization is interrupted instead. The reference is left to the caller.
+ */
+public class StateMachineSelector
+{
+    /**
+     * The share of the available time that is used for initializing the
+     * candidates. The rest is split between consistency checks and
+     * benchmarks.
+     */
+    private static final double INITIALIZATION_SHARE = 0.5;
+
+    /**
+     * The share of the available time that is kept as a safety margin.
+     */
+    private static final double SAFETY_SHARE = 0.1;
+
+    public static enum Status
+    {
+        SELECTED,
+        FAILED_TO_INITIALIZE,
+        TIMED_OUT,
+        INCONSISTENT,
+        FAILED_BENCHMARK,
+        SLOWER
+    }
+
+    /**
+     * The outcome for one of the state machines.
+     */
+    public static class Result
+    {
+        private final StateMachine machine;
+        private Status status = null;
+        private String reason = null;
+        private double playoutsPerSecond = 0;
+
+        private Result(StateMachine machine)
+        {
+            this.machine = machine;
+        }
+
+        public StateMachine getMachine()
+        {
+            return machine;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * @return the measured playouts per second or 0 if the machine was
+         * not benchmarked
+         */
+        public double getPlayoutsPerSecond()
+        {
+            return playoutsPerSecond;
+        }
+
+        @Override
+        public String toString()
+        {
+            return machine.getName() + ": " + status + " (" + reason + ")";
+        }
+    }
+
+    private final StateMachine reference;
+    private final List<StateMachine> candidates;
+    private final List<Result> results = new ArrayList<Result>();
+
+    /**
+     * @param reference an initialized state machine that is known to be
+     * correct (e.g., a ProverStateMachine)
+     * @param candidates state machines that are not initialized yet
+     */
+    public StateMachineSelector(StateMachine reference, List<StateMachine> candidates)
+    {
+        this.reference = reference;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Initializes, checks and benchmarks the candidates.
+     *
+     * @param description the rules of the game
+     * @param timeout the time (as in System.currentTimeMillis()) at which
+     * this method must return
+     * @return the selected state machine, which is initialized
+     */
+    public StateMachine select(List<Gdl> description, long timeout)
+    {
+        results.clear();
+        long available = Math.max(0, timeout - System.currentTimeMillis());
+        long initializationDeadline = System.currentTimeMillis() + (long)(available * INITIALIZATION_SHARE);
+
+        List<Result> ready = initializeCandidates(description, initializationDeadline);
+
+        // one time slot for each consistency check and each benchmark
+        long remaining = (long)((timeout - System.currentTimeMillis()) - available * SAFETY_SHARE);
+        long slot = Math.max(1, remaining / (2 * ready.size() + 1));
+        List<Result> consistent = new ArrayList<Result>();
+        for (Result result : ready)
+        {
+            if (StateMachineVerifier.checkMachineConsistency(reference, result.machine, slot))
+            {
+                consistent.add(result);
+            }
+            else
+            {
+                reject(result, Status.INCONSISTENT, "differs from " + reference.getName() + " (see consistency log)");
+            }
+        }
+
+        Result best = new Result(reference);
+        results.add(0, best);
+        benchmark(best, slot);
+        if (best.status != null)
+        {
+            // the reference is still used if nothing else works
+            GamerLogger.logError("StateMachine", "StateMachineSelector: reference " + reference.getName() + " failed its benchmark.");
+            best.playoutsPerSecond = 0;
+        }
+        for (Result result : consistent)
+        {
+            benchmark(result, slot);
+            if (result.status != null)
+            {
+                continue;
+            }
+            if (result.playoutsPerSecond > best.playoutsPerSecond)
+            {
+                reject(best, Status.SLOWER, format(best.playoutsPerSecond) + " playouts/s vs " + format(result.playoutsPerSecond) + " of " + result.machine.getName());
+                best = result;
+            }
+            else
+            {
+                reject(result, Status.SLOWER, format(result.playoutsPerSecond) + " playouts/s vs " + format(best.playoutsPerSecond) + " of " + best.machine.getName());
+            }
+        }
+        best.status = Status.SELECTED;
+        best.reason = (best.machine == reference && consistent.isEmpty()
+                ? "reference, no other machine passed the consistency check"
+                : "fastest consistent machine with " + format(best.playoutsPerSecond) + " playouts/s");
+        GamerLogger.log("StateMachine", "StateMachineSelector: selected " + best);
+        for (Result result : results)
+        {
+            // a candidate that timed out may still be initializing in its thread
+            if (result != best && result.machine != reference && result.status != Status.TIMED_OUT)
+            {
+                result.machine.release();
+            }
+        }
+        return best.machine;
+    }
+
+    /**
+     * @return the outcome for each state machine, starting with the
+     * reference (empty until select is called)
+     */
+    public List<Result> getResults()
+    {
+        return Collections.unmodifiableList(results);
+    }
+
+    private void reject(Result result, Status status, String reason)
+    {
+        result.status = status;
+        result.reason = reason;
+        GamerLogger.log("StateMachine", "StateMachineSelector: rejected " + result);
+    }
+
+    private static String format(double playoutsPerSecond)
+    {
+        return String.format("%.1f", playoutsPerSecond);
+    }
+
+    /**
+     * Initializes all candidates in parallel.
+     *
+     * @return the results of the candidates that were initialized before the
+     * deadline
+     */
+    private List<Result> initializeCandidates(final List<Gdl> description, long deadline)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, candidates.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                // a candidate that does not finish in time must not keep the player alive
+                Thread thread = new Thread(r, "StateMachineSelector");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (final StateMachine candidate : candidates)
+        {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call()
+                {
+                    long start = System.currentTimeMillis();
+                    candidate.initialize(description);
+                    // fail here instead of during the consistency check
+                    candidate.getInitialState();
+                    return System.currentTimeMillis() - start;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<Result> ready = new ArrayList<Result>();
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            Result result = new Result(candidates.get(i));
+            results.add(result);
+            try
+            {
+                long time = futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                GamerLogger.log("StateMachine", "StateMachineSelector: initialized " + result.machine.getName() + " in " + time + "ms");
+                ready.add(result);
+            }
+            catch (TimeoutException e)
+            {
+                futures.get(i).cancel(true);
+                reject(result, Status.TIMED_OUT, "not initialized before the deadline");
+            }
+            catch (ExecutionException e)
+            {
+                reject(result, Status.FAILED_TO_INITIALIZE, String.valueOf(e.getCause()));
+            }
+            catch (InterruptedException e)
+            {
+                futures.get(i).cancel(true);
+                reject(result, Status.TIMED_OUT, "interrupted");
+                Thread.currentThread().interrupt();
+            }
+        }
+        executor.shutdownNow();
+        return ready;
+    }
+
+    /**
+     * Runs random playouts from the initial state for the given time and
+     * sets the playouts per second of the result, or rejects it if the
+     * machine throws an exception. A playout that is not finished at the
+     * end counts with the share of the average playout length it reached.
+     */
+    private void benchmark(Result result, long time)
+    {
+        StateMachine machine = result.machine;
+        long start = System.currentTimeMillis();
+        long end = start + time;
+        int nbPlayouts = 0;
+        long nbSteps = 0;
+        int nbCurrentSteps = 0;
+        try
+        {
+            MachineState initialState = machine.getInitialState();
+            MachineState state = initialState;
+            while (System.currentTimeMillis() < end)
+            {
+                if (machine.isTerminal(state))
+                {
+                    nbPlayouts++;
+                    nbSteps += nbCurrentSteps;
+                    nbCurrentSteps = 0;
+                    state = initialState;
+                }
+                else
+                {
+                    state = machine.getNextState(state, machine.getRandomJointMove(state));
+                    nbCurrentSteps++;
+                }
+            }
+        }
+        catch (Exception | StackOverflowError e)
+        {
+            reject(result, Status.FAILED_BENCHMARK, String.valueOf(e));
+            return;
+        }
+        double playouts = nbPlayouts;
+        if (nbPlayouts > 0 && nbSteps > 0)
+        {
+            playouts += nbCurrentSteps / ((double)nbSteps / nbPlayouts);
+        }
+        result.playoutsPerSecond = playouts * 1000 / Math.max(1, System.currentTimeMillis() - start);
+        GamerLogger.log("StateMachine", "StateMachineSelector: " + machine.getName() + " does " + format(result.playoutsPerSecond) + " playouts/s");
+    }
+}
@@ -123,6 +123,13 @@ public final class CachedStateMachine extends StateMachine
         ttlCache.prune();
     }
 
+    @Override
+    public void release()
+    {
+        ttlCache.clear();
+        backingStateMachine.release();
+    }
+
     @Override
     public void initialize(List<Gdl> description) {
         backingStateMachine.initialize(description);
@@ -0,0 +1,449 @@
+package org.ggp.base.util.statemachine.implementation.chaining;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceForms;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SimpleMachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Multimap;
+
+
+/**
+ * A state machine that computes the sentences that are true in a state
+ * bottom-up with a GdlChainingReasoner, without building a propnet.
+ *
+ * The sentence forms of the game are split into strata, which are evaluated
+ * in topological order. Sentences of constant forms are computed once during
+ * initialization. The sentences that do not depend on "does", which include
+ * legal, goal and terminal, are computed once per state and kept for the
+ * most recent state. The sentences that depend on "does", including next,
+ * are computed for each call of getNextState. Recursive strata are evaluated
+ * semi-naively: after a first pass over their rules, each pass only uses the
+ * sentences that were new in the pass before.
+ *
+ * The order in which each rule joins its conjuncts is planned once per rule
+ * by the reasoner, from the sentence domains of the model, and reused for
+ * every state. The sentences of the constant forms and of each state are
+ * frozen, so the sets built from them share their sentences instead of
+ * copying them. Like the propnet factories, this needs a game whose sentence
+ * domains are finite.
+ */
+public class ForwardChainingStateMachine extends StateMachine
+{
+    private static final Set<GdlConstant> QUERIED_NAMES =
+            ImmutableSet.of(GdlPool.LEGAL, GdlPool.GOAL, GdlPool.TERMINAL, GdlPool.NEXT);
+
+    private SentenceDomainModel model;
+    private GdlChainingReasoner reasoner;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+
+    // the constant sentences, plus the sentences listed as true of the other forms
+    private GdlSentenceSet constantSentences;
+    // the forms that are copied from constantSentences for each state
+    private List<SentenceForm> stateInputForms;
+    private List<Stratum> stateStrata;
+    // the forms that are copied from the sentences of the state for each transition
+    private List<SentenceForm> actionInputForms;
+    private List<Stratum> actionStrata;
+
+    // the forms of the game by name, which is read-only after initialize
+    private ImmutableListMultimap<GdlConstant, SentenceForm> formsByName;
+
+    // the sentences of the most recently evaluated state
+    private Evaluation lastEvaluation = null;
+
+    /**
+     * Initialize must be called before using the StateMachine
+     */
+    public ForwardChainingStateMachine()
+    {
+
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try
+        {
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            reasoner = GdlChainingReasoner.create(model);
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+            lastEvaluation = null;
+            ImmutableListMultimap.Builder<GdlConstant, SentenceForm> formsBuilder = ImmutableListMultimap.builder();
+            for (SentenceForm form : model.getSentenceForms())
+            {
+                formsBuilder.put(form.getName(), form);
+            }
+            formsByName = formsBuilder.build();
+
+            Set<SentenceForm> constantForms = model.getConstantSentenceForms();
+            Multimap<SentenceForm, SentenceForm> dependencyGraph = model.getDependencyGraph();
+            // unlike the independent forms of the model, this does not follow dependencies through true
+            Set<SentenceForm> moveDependentForms = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(),
+                    ImmutableSetMultimap.copyOf(dependencyGraph), SentenceForms.DOES_PRED);
+            List<Stratum> constantStrata = new ArrayList<Stratum>();
+            stateStrata = new ArrayList<Stratum>();
+            actionStrata = new ArrayList<Stratum>();
+            for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(model.getSentenceForms(), dependencyGraph))
+            {
+                Stratum stratum = new Stratum(forms);
+                if (constantForms.containsAll(forms))
+                {
+                    constantStrata.add(stratum);
+                }
+                else if (Collections.disjoint(moveDependentForms, forms))
+                {
+                    stateStrata.add(stratum);
+                }
+                else
+                {
+                    actionStrata.add(stratum);
+                }
+            }
+
+            constantSentences = evaluate(reasoner.getConstantSentences(), constantStrata);
+            constantSentences.freeze();
+            // every form that is not constant, the constant forms used by the other rules and the constant
+            // forms that are queried directly
+            Set<SentenceForm> inputForms = getInputForms(stateStrata);
+            inputForms.addAll(getInputForms(actionStrata));
+            stateInputForms = new ArrayList<SentenceForm>();
+            for (SentenceForm form : model.getSentenceForms())
+            {
+                if (!constantForms.contains(form) || inputForms.contains(form) || QUERIED_NAMES.contains(form.getName()))
+                {
+                    stateInputForms.add(form);
+                }
+            }
+            Set<SentenceForm> actionForms = getInputForms(actionStrata);
+            actionInputForms = new ArrayList<SentenceForm>();
+            for (SentenceForm form : model.getSentenceForms())
+            {
+                // the objects of the dependency graph may be different ones
+                if (actionForms.contains(form))
+                {
+                    actionInputForms.add(form);
+                }
+            }
+
+            Set<GdlSentence> initialContents = new HashSet<GdlSentence>();
+            for (GdlSentence sentence : getSentences(constantSentences, GdlPool.INIT))
+            {
+                initialContents.add(GdlPool.getRelation(GdlPool.TRUE, sentence.getBody()));
+            }
+            initialState = new SimpleMachineState(initialContents);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the forms that the rules of the strata depend on, together
+     * with the forms of the strata themselves, whose sentences listed as true
+     * must be kept.
+     */
+    private Set<SentenceForm> getInputForms(List<Stratum> strata)
+    {
+        Set<SentenceForm> inputForms = new HashSet<SentenceForm>();
+        for (Stratum stratum : strata)
+        {
+            for (SentenceForm form : stratum.forms)
+            {
+                inputForms.add(form);
+                inputForms.addAll(model.getDependencyGraph().get(form));
+            }
+        }
+        return inputForms;
+    }
+
+    /**
+     * Adds all sentences that follow from the rules of the strata to the
+     * sentences, which must contain the sentences of all lower strata.
+     */
+    private GdlSentenceSet evaluate(GdlSentenceSet sentences, List<Stratum> strata) throws InterruptedException
+    {
+        for (Stratum stratum : strata)
+        {
+            // One non-differential pass, collecting the changes
+            GdlSentenceSet newlyTrueSentences = GdlSentenceSet.create();
+            for (GdlRule rule : stratum.rules)
+            {
+                // the results only contain sentences that are not known yet
+                GdlSentenceSet ruleResults = reasoner.getRuleResults(rule, model, sentences);
+                if (!ruleResults.isEmpty())
+                {
+                    sentences = reasoner.getUnion(sentences, ruleResults);
+                    if (stratum.recursive)
+                    {
+                        newlyTrueSentences = reasoner.getUnion(newlyTrueSentences, ruleResults);
+                    }
+                }
+            }
+            if (!stratum.recursive)
+            {
+                continue;
+            }
+
+            // Now differential passes, each one only joining with the sentences new in the last one
+            boolean somethingChanged = !newlyTrueSentences.isEmpty();
+            while (somethingChanged)
+            {
+                somethingChanged = false;
+                GdlSentenceSet newStuffInThisPass = GdlSentenceSet.create();
+                for (GdlRule rule : stratum.rules)
+                {
+                    GdlSentenceSet ruleResults =
+                            reasoner.getRuleResultsForNewSentences(rule, model, sentences, newlyTrueSentences);
+                    if (!ruleResults.isEmpty())
+                    {
+                        somethingChanged = true;
+                        newStuffInThisPass = reasoner.getUnion(newStuffInThisPass, ruleResults);
+                    }
+                }
+                sentences = reasoner.getUnion(sentences, newStuffInThisPass);
+                newlyTrueSentences = newStuffInThisPass;
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * Returns the sentences that are true in the state and do not depend on
+     * the moves of the players.
+     */
+    private GdlSentenceSet getStateSentences(MachineState state)
+    {
+        Evaluation evaluation = lastEvaluation;
+        if (evaluation != null && evaluation.state.equals(state))
+        {
+            return evaluation.sentences;
+        }
+
+        GdlSentenceSet sentences = constantSentences.copy(stateInputForms);
+        for (GdlSentence sentence : state.getContents())
+        {
+            SentenceForm form = getSentenceForm(sentence);
+            if (form != null)
+            {
+                sentences.put(form, sentence);
+            }
+        }
+        try
+        {
+            sentences = evaluate(sentences, stateStrata);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        sentences.freeze();
+        lastEvaluation = new Evaluation(state, sentences);
+        return sentences;
+    }
+
+    /**
+     * Returns the form of a true or does sentence, or null if no rule of the
+     * game can use the sentence.
+     */
+    private SentenceForm getSentenceForm(GdlSentence sentence)
+    {
+        for (SentenceForm form : formsByName.get(sentence.getName()))
+        {
+            if (form.matches(sentence))
+            {
+                return form;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sentences with the given name, of any form
+     */
+    private List<GdlSentence> getSentences(GdlSentenceSet sentences, GdlConstant name)
+    {
+        List<GdlSentence> result = new ArrayList<GdlSentence>();
+        for (SentenceForm form : formsByName.get(name))
+        {
+            result.addAll(sentences.getSentences(form));
+        }
+        return result;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Integer goal = null;
+        for (GdlSentence sentence : getSentences(getStateSentences(state), GdlPool.GOAL))
+        {
+            if (sentence.get(0) == role.getName())
+            {
+                if (goal != null)
+                {
+                    GamerLogger.logError("StateMachine", "Got more than one goal value for " + role + " when expecting one.");
+                    throw new GoalDefinitionException(state, role);
+                }
+                try
+                {
+                    goal = Integer.parseInt(sentence.get(1).toString());
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new GoalDefinitionException(state, role);
+                }
+            }
+        }
+        if (goal == null)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        return !getSentences(getStateSentences(state), GdlPool.TERMINAL).isEmpty();
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        List<Move> moves = new ArrayList<Move>();
+        for (GdlSentence sentence : getSentences(getStateSentences(state), GdlPool.LEGAL))
+        {
+            if (sentence.get(0) == role.getName())
+            {
+                moves.add(new Move(sentence.get(1)));
+            }
+        }
+        if (moves.isEmpty())
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        GdlSentenceSet stateSentences = getStateSentences(state);
+        GdlSentenceSet sentences = stateSentences.copy(actionInputForms);
+        for (int i = 0; i < roles.size(); i++)
+        {
+            GdlSentence does = ProverQueryBuilder.toDoes(roles.get(i), moves.get(i));
+            SentenceForm form = getSentenceForm(does);
+            if (form != null)
+            {
+                sentences.put(form, does);
+            }
+        }
+        try
+        {
+            sentences = evaluate(sentences, actionStrata);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        // next sentences that do not depend on the moves are already in the sentences of the state
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (GdlSentenceSet set : ImmutableList.of(stateSentences, sentences))
+        {
+            for (GdlSentence sentence : getSentences(set, GdlPool.NEXT))
+            {
+                contents.add(GdlPool.getRelation(GdlPool.TRUE, sentence.getBody()));
+            }
+        }
+        return new SimpleMachineState(contents);
+    }
+
+    /**
+     * Sentence forms that depend on each other, with the rules for them.
+     */
+    private final class Stratum
+    {
+        private final Set<SentenceForm> forms;
+        private final List<GdlRule> rules = new ArrayList<GdlRule>();
+        // true if a rule of the stratum depends on a form of the stratum
+        private final boolean recursive;
+
+        public Stratum(Set<SentenceForm> forms)
+        {
+            this.forms = forms;
+            boolean recursive = false;
+            for (SentenceForm form : forms)
+            {
+                rules.addAll(model.getRules(form));
+                for (SentenceForm input : model.getDependencyGraph().get(form))
+                {
+                    recursive |= forms.contains(input);
+                }
+            }
+            this.recursive = recursive;
+        }
+    }
+
+    private static final class Evaluation
+    {
+        private final MachineState state;
+        private final GdlSentenceSet sentences;
+
+        public Evaluation(MachineState state, GdlSentenceSet sentences)
+        {
+            this.state = state;
+            this.sentences = sentences;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package org.ggp.base.util.statemachine.implementation.prover;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.logging.GamerLogger;
-import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.prover.aima.ProverSession;
+import org.ggp.base.util.statemachine.JointMoveIterator;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -20,15 +28,30 @@ import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
 import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverStateResults;
 
 import com.google.common.collect.ImmutableList;
 
 
 public class ProverStateMachine extends StateMachine
 {
+    /**
+     * The default number of states for which the answers to subgoals are kept.
+     */
+    public static final int DEFAULT_TABLING_CAPACITY = 16;
+
+    /**
+     * A pool that state machines can share to answer the queries of all roles
+     * in parallel (see setForkJoinPool). No threads are started before it is
+     * used.
+     */
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+
     private MachineState initialState;
-    private Prover prover;
+    private AimaProver prover;
     private ImmutableList<Role> roles;
+    private Map<MachineState, ProverSession> sessions = createSessionMap(DEFAULT_TABLING_CAPACITY);
+    private ForkJoinPool pool = null;
 
     /**
      * Initialize must be called before using the StateMachine
@@ -38,10 +61,80 @@ public class ProverStateMachine extends StateMachine
 
     }
 
+    /**
+     * Sets the number of states for which the answers to subgoals are kept.
+     * Legal, goal and terminal queries on one of the most recently used states
+     * reuse what earlier queries on the same state derived. 0 disables this.
+     */
+    public void setTablingCapacity(int nbStates)
+    {
+        sessions = (nbStates > 0 ? createSessionMap(nbStates) : null);
+    }
+
+    /**
+     * Sets the pool in which the queries of all roles are answered in
+     * parallel by getStateResults, getGoals and getLegalJointMoves. With
+     * null (the default), they are answered one after the other in the
+     * calling thread, which is better for players that already keep one
+     * state machine per thread.
+     */
+    public void setForkJoinPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the pool shared by all state machines of this process that
+     * opt in to parallel queries
+     */
+    public static ForkJoinPool getSharedPool()
+    {
+        return SHARED_POOL;
+    }
+
+    private static Map<MachineState, ProverSession> createSessionMap(final int nbStates)
+    {
+        return new LinkedHashMap<MachineState, ProverSession>(2 * nbStates, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MachineState, ProverSession> eldest)
+            {
+                return size() > nbStates;
+            }
+        };
+    }
+
+    private ProverSession getSession(MachineState state)
+    {
+        Map<MachineState, ProverSession> sessions = this.sessions;
+        if (sessions == null)
+        {
+            return new ProverSession(ProverQueryBuilder.getContext(state));
+        }
+        synchronized (sessions)
+        {
+            ProverSession session = sessions.get(state);
+            if (session == null)
+            {
+                session = new ProverSession(ProverQueryBuilder.getContext(state));
+                sessions.put(state, session);
+            }
+            return session;
+        }
+    }
+
     @Override
     public void initialize(List<Gdl> description)
     {
         prover = new AimaProver(description);
+        if (sessions != null)
+        {
+            synchronized (sessions)
+            {
+                sessions.clear();
+            }
+        }
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
@@ -55,14 +148,58 @@ public class ProverStateMachine extends StateMachine
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), getSession(state));
+        return toGoal(state, role, results);
+    }
+
+    /**
+     * Answers the goal queries of all roles in parallel if a pool is set.
+     */
+    @Override
+    public List<Integer> getGoals(MachineState state) throws GoalDefinitionException
+    {
+        ProverSession session = getSession(state);
+        List<QueryTask> tasks = new ArrayList<QueryTask>();
+        for (Role role : roles)
+        {
+            tasks.add(new QueryTask(ProverQueryBuilder.getGoalQuery(role), session));
+        }
+        invokeAll(tasks);
 
+        List<Integer> goals = new ArrayList<Integer>(roles.size());
+        for (int i = 0; i < roles.size(); i++)
+        {
+            goals.add(toGoal(state, roles.get(i), tasks.get(i).results));
+        }
+        return goals;
+    }
+
+    private int toGoal(MachineState state, Role role, Set<GdlSentence> results) throws GoalDefinitionException
+    {
         if (results.size() != 1)
         {
             GamerLogger.logError("StateMachine", "Got goal results of size: " + results.size() + " when expecting size one.");
             throw new GoalDefinitionException(state, role);
         }
 
+        Integer goal = parseGoal(results);
+        if (goal == null)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    /**
+     * @return the goal value or null if there is not exactly one
+     */
+    private static Integer parseGoal(Set<GdlSentence> results)
+    {
+        if (results.size() != 1)
+        {
+            return null;
+        }
+
         try
         {
             GdlRelation relation = (GdlRelation) results.iterator().next();
@@ -72,7 +209,7 @@ public class ProverStateMachine extends StateMachine
         }
         catch (Exception e)
         {
-            throw new GoalDefinitionException(state, role);
+            return null;
         }
     }
 
@@ -85,7 +222,7 @@ public class ProverStateMachine extends StateMachine
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), getSession(state));
 
         if (results.isEmpty())
         {
@@ -95,6 +232,49 @@ public class ProverStateMachine extends StateMachine
         return new ProverResultParser().toMoves(results);
     }
 
+    /**
+     * Answers the legal queries of all roles in parallel if a pool is set.
+     */
+    @Override
+    public List<List<Move>> getLegalJointMoves(MachineState state) throws MoveDefinitionException
+    {
+        List<List<Move>> crossProduct = new ArrayList<List<Move>>();
+        crossProductLegalMoves(getAllLegalMoves(state), crossProduct, new LinkedList<Move>());
+
+        return crossProduct;
+    }
+
+    /**
+     * Answers the legal queries of all roles in parallel if a pool is set.
+     */
+    @Override
+    public JointMoveIterator getLegalJointMoveIterator(MachineState state) throws MoveDefinitionException
+    {
+        return new JointMoveIterator(getAllLegalMoves(state));
+    }
+
+    private List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException
+    {
+        ProverSession session = getSession(state);
+        List<QueryTask> tasks = new ArrayList<QueryTask>();
+        for (Role role : roles)
+        {
+            tasks.add(new QueryTask(ProverQueryBuilder.getLegalQuery(role), session));
+        }
+        invokeAll(tasks);
+
+        List<List<Move>> legals = new ArrayList<List<Move>>(roles.size());
+        for (int i = 0; i < roles.size(); i++)
+        {
+            if (tasks.get(i).results.isEmpty())
+            {
+                throw new MoveDefinitionException(state, roles.get(i));
+            }
+            legals.add(new ProverResultParser().toMoves(tasks.get(i).results));
+        }
+        return legals;
+    }
+
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
@@ -120,6 +300,92 @@ public class ProverStateMachine extends StateMachine
     @Override
     public boolean isTerminal(MachineState state)
     {
-        return prover.prove(ProverQueryBuilder.getTerminalQuery(), ProverQueryBuilder.getContext(state));
+        return prover.prove(ProverQueryBuilder.getTerminalQuery(), getSession(state));
+    }
+
+    /**
+     * Answers the terminal query and the legal and goal queries of all roles
+     * for the state at once (in parallel if a pool is set). A role without
+     * legal moves or without a goal value only causes an exception when its
+     * moves or its goal value are read from the results.
+     */
+    public ProverStateResults getStateResults(MachineState state)
+    {
+        ProverSession session = getSession(state);
+        List<QueryTask> tasks = new ArrayList<QueryTask>();
+        for (Role role : roles)
+        {
+            tasks.add(new QueryTask(ProverQueryBuilder.getLegalQuery(role), session));
+            tasks.add(new QueryTask(ProverQueryBuilder.getGoalQuery(role), session));
+        }
+        QueryTask terminalTask = new QueryTask(ProverQueryBuilder.getTerminalQuery(), session);
+        tasks.add(terminalTask);
+        invokeAll(tasks);
+
+        List<List<Move>> legalMoves = new ArrayList<List<Move>>(roles.size());
+        List<Integer> goals = new ArrayList<Integer>(roles.size());
+        for (int i = 0; i < roles.size(); i++)
+        {
+            Set<GdlSentence> legalResults = tasks.get(2 * i).results;
+            legalMoves.add(legalResults.isEmpty() ? null : new ProverResultParser().toMoves(legalResults));
+            goals.add(parseGoal(tasks.get(2 * i + 1).results));
+        }
+        return new ProverStateResults(state, roles, !terminalTask.results.isEmpty(), legalMoves, goals);
+    }
+
+    /**
+     * Runs the tasks in the pool and waits for all of them.
+     */
+    private void invokeAll(final List<? extends ForkJoinTask<?>> tasks)
+    {
+        if (pool == null || tasks.size() <= 1)
+        {
+            for (ForkJoinTask<?> task : tasks)
+            {
+                task.invoke();
+            }
+        }
+        else if (ForkJoinTask.inForkJoinPool())
+        {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else
+        {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute()
+                {
+                    invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    /**
+     * Asks the prover for all answers to a query in a session. Several of
+     * these can run at the same time, because the session and the prover can
+     * be shared between threads.
+     */
+    private final class QueryTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final GdlSentence query;
+        private final ProverSession session;
+        private Set<GdlSentence> results;
+
+        public QueryTask(GdlSentence query, ProverSession session)
+        {
+            this.query = query;
+            this.session = session;
+        }
+
+        @Override
+        protected void compute()
+        {
+            results = prover.askAll(query, session);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package org.ggp.base.util.statemachine.implementation.prover.result;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+
+/**
+ * The answers to the terminal query and to the legal and goal queries of all
+ * roles in one state, as computed by ProverStateMachine.getStateResults.
+ */
+public final class ProverStateResults
+{
+
+    private final MachineState state;
+    private final List<Role> roles;
+    private final boolean terminal;
+    // null for a role without legal moves
+    private final List<List<Move>> legalMoves;
+    // null for a role without exactly one goal value
+    private final List<Integer> goals;
+
+    /**
+     * @param legalMoves the legal moves of each role in the order of roles,
+     * null for a role without legal moves
+     * @param goals the goal value of each role in the order of roles, null
+     * for a role without exactly one goal value
+     */
+    public ProverStateResults(MachineState state, List<Role> roles, boolean terminal, List<List<Move>> legalMoves, List<Integer> goals)
+    {
+        this.state = state;
+        this.roles = roles;
+        this.terminal = terminal;
+        this.legalMoves = legalMoves;
+        this.goals = goals;
+    }
+
+    public MachineState getState()
+    {
+        return state;
+    }
+
+    public boolean isTerminal()
+    {
+        return terminal;
+    }
+
+    public List<Move> getLegalMoves(Role role) throws MoveDefinitionException
+    {
+        List<Move> moves = legalMoves.get(roles.indexOf(role));
+        if (moves == null)
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    public int getGoal(Role role) throws GoalDefinitionException
+    {
+        Integer goal = goals.get(roles.indexOf(role));
+        if (goal == null)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    /**
+     * @return the goal values of all roles, in the order of the roles
+     */
+    public List<Integer> getGoals() throws GoalDefinitionException
+    {
+        List<Integer> result = new ArrayList<Integer>(roles.size());
+        for (Role role : roles)
+        {
+            result.add(getGoal(role));
+        }
+        return result;
+    }
+
+}
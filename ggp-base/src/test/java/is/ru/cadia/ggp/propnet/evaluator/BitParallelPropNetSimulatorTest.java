@@ -0,0 +1,103 @@
+package is.ru.cadia.ggp.propnet.evaluator;
+
+import is.ru.cadia.ggp.propnet.structure.GGPBasePropNetStructureFactory;
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BitParallelPropNetSimulatorTest extends Assert {
+
+    private static PropNetStructure createStructure(String gameKey) throws InterruptedException {
+        return new GGPBasePropNetStructureFactory().create(new TestGameRepository().getGame(gameKey).getRules());
+    }
+
+    private static long[] getInitialState(PropNetStructure structure) {
+        long[] state = new long[PropNetEvaluator.getNbStateWords(structure.getNbBasePropositions())];
+        for (BaseProposition p : structure.getBasePropositions()) {
+            if (p.initialValue) {
+                state[p.id >>> 6] |= 1L << p.id;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * plays random games in all lanes and compares each lane with a single state evaluator
+     */
+    private void checkAgainstForwardEvaluator(String gameKey) throws InterruptedException {
+        PropNetStructure structure = createStructure(gameKey);
+        int nbRoles = structure.getRoles().length;
+        BitParallelPropNetSimulator simulator = new BitParallelPropNetSimulator(structure);
+        PropNetEvaluator evaluator = new ForwardPropNetEvaluator(structure);
+        Random random = new Random(42);
+        long[][] states = new long[BitParallelPropNetSimulator.NB_LANES][];
+        for (int lane = 0; lane < states.length; lane++) {
+            states[lane] = getInitialState(structure);
+        }
+        simulator.setStateInAllLanes(states[0]);
+        int[][] jointMoves = new int[states.length][nbRoles];
+        int[] inputIds = new int[nbRoles];
+        long running = ~simulator.getTerminalMask();
+        while (running != 0) {
+            for (int lane = 0; lane < states.length; lane++) {
+                evaluator.setState(states[lane]);
+                boolean isTerminal = evaluator.isTerminal();
+                assertEquals(isTerminal, (simulator.getTerminalMask() >>> lane & 1L) != 0);
+                for (int roleId = 0; roleId < nbRoles; roleId++) {
+                    assertEquals(evaluator.getGoalValue(roleId), simulator.getGoalValue(roleId, lane));
+                    int nbMoves = structure.getPossibleMoves(roleId).length;
+                    int nbLegal = 0;
+                    for (int i = 0; i < nbMoves; i++) {
+                        boolean isLegal = evaluator.isLegal(roleId, i);
+                        assertEquals(isLegal, (simulator.getLegalMask(roleId, i) >>> lane & 1L) != 0);
+                        if (isLegal && random.nextInt(++nbLegal) == 0) {
+                            jointMoves[lane][roleId] = i;
+                        }
+                    }
+                    inputIds[roleId] = structure.getPossibleMoves(roleId)[jointMoves[lane][roleId]].getInputComponent().id;
+                }
+                if ((running >>> lane & 1L) != 0) {
+                    evaluator.setInputs(inputIds, nbRoles);
+                    states[lane] = evaluator.getNextState();
+                }
+            }
+            simulator.setJointMoves(jointMoves);
+            simulator.setActiveLanes(running);
+            simulator.advance();
+            for (int lane = 0; lane < states.length; lane++) {
+                assertArrayEquals(states[lane], simulator.getState(lane));
+            }
+            running &= ~simulator.getTerminalMask();
+        }
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        checkAgainstForwardEvaluator("ticTacToe");
+    }
+
+    @Test
+    public void testConnectFour() throws Exception {
+        checkAgainstForwardEvaluator("connectFour");
+    }
+
+    @Test
+    public void testDepthCharges() throws Exception {
+        PropNetStructure structure = createStructure("ticTacToe");
+        BitParallelPropNetSimulator simulator = new BitParallelPropNetSimulator(structure);
+        int[][] goalValues = new int[BitParallelPropNetSimulator.NB_LANES][structure.getRoles().length];
+        int[] depths = new int[BitParallelPropNetSimulator.NB_LANES];
+        long finished = simulator.performDepthCharges(getInitialState(structure), new Random(42), goalValues, depths);
+        assertEquals(BitParallelPropNetSimulator.ALL_LANES, finished);
+        assertEquals(BitParallelPropNetSimulator.ALL_LANES, simulator.getTerminalMask());
+        for (int lane = 0; lane < depths.length; lane++) {
+            assertTrue(depths[lane] >= 5 && depths[lane] <= 9);
+            assertEquals(100, goalValues[lane][0] + goalValues[lane][1]);
+        }
+    }
+}
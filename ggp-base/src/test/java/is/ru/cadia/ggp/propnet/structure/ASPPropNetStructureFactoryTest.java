@@ -0,0 +1,131 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ASPPropNetStructureFactoryTest extends Assert {
+
+    private static final String GAME =
+            "(role robot) " +
+            "(init (cell a)) " +
+            "(<= (legal robot flip) (true (cell a))) " +
+            "(<= (legal robot flip) (true (cell b))) " +
+            "(<= (legal robot stay) (true (cell a))) " +
+            "(<= (next (cell b)) (does robot flip) (true (cell a))) " +
+            "(<= (next (cell a)) (does robot flip) (true (cell b))) " +
+            "(<= (next (cell a)) (does robot stay) (true (cell a))) " +
+            "(<= (next done) (true (cell b))) " +
+            "(<= terminal (true done)) " +
+            "(<= (goal robot 100) (true done)) " +
+            "(<= (goal robot 0) (not (true done))) " +
+            "(<= helper (true (cell a)))";
+
+    /**
+     * the grounded version of GAME, the rule for atom 16 (helper) is not needed for anything
+     */
+    private static final String LPARSE =
+            "1 1 0 0\n" +
+            "1 2 0 0\n" +
+            "1 5 1 0 3\n" +
+            "1 5 1 0 4\n" +
+            "1 6 1 0 3\n" +
+            "1 9 2 0 7 3\n" +
+            "1 10 2 0 7 4\n" +
+            "1 10 2 0 8 3\n" +
+            "1 11 1 0 4\n" +
+            "1 13 1 0 12\n" +
+            "1 14 1 0 12\n" +
+            "1 15 1 1 12\n" +
+            "1 16 1 0 3\n" +
+            "0\n" +
+            "1 (role robot)\n" +
+            "2 (init (cell a))\n" +
+            "3 (true (cell a))\n" +
+            "4 (true (cell b))\n" +
+            "5 (legal robot flip)\n" +
+            "6 (legal robot stay)\n" +
+            "7 (does robot flip)\n" +
+            "8 (does robot stay)\n" +
+            "9 (next (cell b))\n" +
+            "10 (next (cell a))\n" +
+            "11 (next done)\n" +
+            "12 (true done)\n" +
+            "13 terminal\n" +
+            "14 (goal robot 100)\n" +
+            "15 (goal robot 0)\n" +
+            "16 helper\n" +
+            "0\n";
+
+    /**
+     * reads the lparse rules from a string instead of running the grounder
+     */
+    private static class StringFactory extends ASPPropNetStructureFactory {
+        private final String lparse;
+
+        public StringFactory(String lparse) {
+            this.lparse = lparse;
+        }
+
+        @Override
+        protected int runAspGrounder(LParseRules.Listener listener) throws InterruptedException {
+            try {
+                return LParseRules.read(new ByteArrayInputStream(lparse.getBytes(StandardCharsets.UTF_8)), listener);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void checkFactory(String lparse, boolean boundedMemory) throws Exception {
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(GAME)).getRules();
+        StringFactory factory = new StringFactory(lparse);
+        factory.setBoundedMemory(boundedMemory);
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine subject = new PropNetStateMachine(factory.create(rules));
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        checkFactory(LPARSE, false);
+    }
+
+    @Test
+    public void testBoundedMemory() throws Exception {
+        checkFactory(LPARSE, true);
+    }
+
+    @Test
+    public void testBoundedMemoryWithLongSymbol() throws Exception {
+        // a symbol of an atom without rules that does not fit into writeUTF
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            name.append('x');
+        }
+        String lparse = LPARSE.substring(0, LPARSE.length() - 2) + "17 (true (cell " + name + "))\n0\n";
+        checkFactory(lparse, true);
+    }
+
+    @Test
+    public void testReadLParseRules() throws Exception {
+        LParseRules rules = LParseRules.readLParseRules(new ByteArrayInputStream(LPARSE.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(13, rules.size());
+        assertEquals(16, rules.symbolTable.size());
+        assertTrue(rules.facts.contains(1));
+        assertTrue(rules.facts.contains(2));
+        assertEquals(2, rules.rulesByHeadAtom.get(5).size());
+        assertArrayEquals(new int[] {12}, rules.rulesByHeadAtom.get(15).get(0).negatives);
+    }
+}
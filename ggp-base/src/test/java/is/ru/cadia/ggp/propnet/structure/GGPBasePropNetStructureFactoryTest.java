@@ -0,0 +1,127 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GGPBasePropNetStructureFactoryTest extends Assert {
+
+    private static ByteBuffer toBuffer(PropNetStructure structure) {
+        return PropNetFile.toBuffer(structure, Collections.<GdlConstant, String>emptyMap());
+    }
+
+    /**
+     * the components get the same ids, no matter how many threads are used and in which run
+     */
+    private static void checkReproducible(String gameKey) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(gameKey).getRules();
+        PropNetStructure sequential = new GGPBasePropNetStructureFactory(1).create(rules);
+        PropNetStructure parallel = new GGPBasePropNetStructureFactory(4).create(rules);
+        PropNetStructure parallelAgain = new GGPBasePropNetStructureFactory(4).create(rules);
+        assertEquals(toBuffer(sequential), toBuffer(parallel));
+        assertEquals(toBuffer(sequential), toBuffer(parallelAgain));
+        assertEquals(PropNetTopologyTest.playGames(sequential), PropNetTopologyTest.playGames(parallel));
+    }
+
+    @Test
+    public void testReproducibleTicTacToe() throws Exception {
+        checkReproducible("ticTacToe");
+    }
+
+    @Test
+    public void testReproducibleConnectFour() throws Exception {
+        checkReproducible("connectFour");
+    }
+
+    /**
+     * optimizes the propnet in many small partitions and checks the result against the prover
+     */
+    private static void checkPartitionedOptimization(String gameKey, int partitionSize) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(gameKey).getRules();
+        GGPBasePropNetStructureFactory sequentialFactory = new GGPBasePropNetStructureFactory(1);
+        sequentialFactory.setOptimizerPartitionSize(partitionSize);
+        GGPBasePropNetStructureFactory parallelFactory = new GGPBasePropNetStructureFactory(4);
+        parallelFactory.setOptimizerPartitionSize(partitionSize);
+        assertEquals(toBuffer(sequentialFactory.create(rules)), toBuffer(parallelFactory.create(rules)));
+
+        File directory = Files.createTempDirectory("propnets").toFile();
+        try {
+            PropNetCache cache = new PropNetCache(directory, PropNetCache.DEFAULT_MAX_SIZE);
+            cache.get(parallelFactory, rules);
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            StateMachine subject = new PropNetStateMachine(cache);
+            subject.initialize(rules);
+            assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testPartitionedOptimizationTicTacToe() throws Exception {
+        checkPartitionedOptimization("ticTacToe", 20);
+    }
+
+    @Test
+    public void testPartitionedOptimizationConnectFour() throws Exception {
+        checkPartitionedOptimization("connectFour", 100);
+    }
+
+    private static double getAverageInputDistance(PropNetStructure structure) {
+        PropNetTopology topology = structure.getTopology();
+        long sum = 0;
+        for (int id = 0; id < structure.getNbComponents(); id++) {
+            for (int i = topology.getInputStart(id); i < topology.getInputStart(id + 1); i++) {
+                sum += id - topology.getInput(i);
+            }
+        }
+        return (double)sum / topology.getInputStart(structure.getNbComponents());
+    }
+
+    /**
+     * all component orders give the same game with the same base propositions and ids in topological order
+     */
+    @Test
+    public void testComponentOrders() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        List<String> expectedGames = null;
+        double depthFirstDistance = 0;
+        for (ComponentOrder order : ComponentOrder.values()) {
+            GGPBasePropNetStructureFactory factory = new GGPBasePropNetStructureFactory(1);
+            factory.setComponentOrder(order);
+            factory.setMeasureComponentOrders(true);
+            PropNetStructure structure = factory.create(rules);
+            int[] topologicalOrder = structure.getTopologicalOrder();
+            for (int i = 0; i < topologicalOrder.length; i++) {
+                assertEquals(i, topologicalOrder[i]);
+            }
+            List<String> games = PropNetTopologyTest.playGames(structure);
+            if (expectedGames == null) {
+                expectedGames = games;
+            } else {
+                assertEquals(expectedGames, games);
+            }
+            if (order == ComponentOrder.DEPTH_FIRST) {
+                depthFirstDistance = getAverageInputDistance(structure);
+            } else if (order == ComponentOrder.LOCALITY) {
+                assertTrue(getAverageInputDistance(structure) < depthFirstDistance);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.scrambler.GdlScrambler;
+import org.ggp.base.util.gdl.scrambler.MappingGdlScrambler;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropNetCacheTest extends Assert {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("propnets").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+
+    private static List<Gdl> scramble(List<Gdl> description, long seed) throws Exception {
+        GdlScrambler scrambler = new MappingGdlScrambler(new Random(seed));
+        List<Gdl> scrambled = new ArrayList<Gdl>();
+        for (Gdl gdl : description) {
+            scrambled.add(GdlFactory.create(scrambler.scramble(gdl)));
+        }
+        return scrambled;
+    }
+
+    /**
+     * checks that the structure uses the constants of the description by comparing roles and initial state with the prover
+     */
+    private static void checkSymbols(List<Gdl> description, PropNetStructure structure) {
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(description);
+        assertEquals(prover.getRoles(), Arrays.asList(structure.getRoles()));
+        Set<GdlSentence> initialState = new HashSet<GdlSentence>();
+        for (BaseProposition p : structure.getBasePropositions()) {
+            if (p.initialValue) {
+                initialState.addAll(Arrays.asList(p.sentences));
+            }
+        }
+        assertEquals(prover.getInitialState().getContents(), initialState);
+    }
+
+    @Test
+    public void testCanonicalRules() throws Exception {
+        List<Gdl> rules = getRules("ticTacToe");
+        String hash = new CanonicalRules(rules).getHash();
+        assertEquals(hash, new CanonicalRules(scramble(rules, 1)).getHash());
+        assertEquals(hash, new CanonicalRules(scramble(rules, 2)).getHash());
+        assertFalse(hash.equals(new CanonicalRules(getRules("connectFour")).getHash()));
+    }
+
+    @Test
+    public void testScrambledHit() throws Exception {
+        PropNetCache cache = new PropNetCache(directory, PropNetCache.DEFAULT_MAX_SIZE);
+        List<Gdl> rules = getRules("ticTacToe");
+        PropNetStructure created = cache.get(new GGPBasePropNetStructureFactory(), rules);
+        assertFalse(created.isCompacted());
+        PropNetStructure loaded = cache.get(new GGPBasePropNetStructureFactory(), rules);
+        assertTrue(loaded.isCompacted());
+        checkSymbols(rules, loaded);
+
+        List<Gdl> scrambledRules = scramble(rules, 3);
+        PropNetStructure scrambled = cache.get(new GGPBasePropNetStructureFactory(), scrambledRules);
+        assertTrue(scrambled.isCompacted());
+        checkSymbols(scrambledRules, scrambled);
+        assertEquals(PropNetTopologyTest.playGames(created), PropNetTopologyTest.playGames(scrambled));
+    }
+
+    @Test
+    public void testComponentOrder() throws Exception {
+        PropNetCache cache = new PropNetCache(directory, PropNetCache.DEFAULT_MAX_SIZE);
+        List<Gdl> rules = getRules("ticTacToe");
+        cache.get(new GGPBasePropNetStructureFactory(), rules);
+        // a propnet with another component order is not taken from the cache
+        GGPBasePropNetStructureFactory factory = new GGPBasePropNetStructureFactory();
+        factory.setComponentOrder(ComponentOrder.DEPTH_FIRST);
+        assertFalse(cache.get(factory, rules).isCompacted());
+        assertTrue(cache.get(factory, rules).isCompacted());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        PropNetCache cache = new PropNetCache(directory, 1);
+        cache.get(new GGPBasePropNetStructureFactory(), getRules("ticTacToe"));
+        cache.get(new GGPBasePropNetStructureFactory(), getRules("connectFour"));
+        // only the most recently created propnet is kept
+        assertTrue(cache.get(new GGPBasePropNetStructureFactory(), getRules("connectFour")).isCompacted());
+        assertFalse(cache.get(new GGPBasePropNetStructureFactory(), getRules("ticTacToe")).isCompacted());
+        // one propnet file, the lock files of the two keys and the lock file of the cache
+        assertEquals(4, directory.listFiles().length);
+        int nbPropNetFiles = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".propnet")) {
+                nbPropNetFiles++;
+            }
+        }
+        assertEquals(1, nbPropNetFiles);
+    }
+}
@@ -0,0 +1,97 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetFactoringTest extends Assert {
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+
+    /**
+     * games with a single factor are the same game as their only sub-propnet
+     */
+    private static void checkSingleFactor(String gameKey) throws Exception {
+        List<Gdl> rules = getRules(gameKey);
+        PropNetFactoring factoring = new PropNetStateMachine(new GGPBasePropNetStructureFactory().create(rules)).getFactoring();
+        assertFalse(factoring.isFactored());
+        assertTrue(factoring.isTerminalDecomposable());
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine subject = new PropNetStateMachine(factoring.getFactors().get(0).getPropNetStructure());
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        checkSingleFactor("ticTacToe");
+    }
+
+    @Test
+    public void testConnectFour() throws Exception {
+        checkSingleFactor("connectFour");
+    }
+
+    @Test
+    public void testIndependentCounters() throws Exception {
+        PropNetStateMachine sm = new PropNetStateMachine();
+        sm.initialize(getRules("independentCounters"));
+        PropNetFactoring factoring = sm.getFactoring();
+        assertTrue(factoring.isFactored());
+        assertTrue(factoring.isTerminalDecomposable());
+        assertEquals(3, factoring.getFactors().size());
+        assertEquals(2, factoring.getRelevantFactors().size());
+
+        Move incA = sm.getMoveFromTerm(GdlFactory.createTerm("incA"));
+        Move toggle = sm.getMoveFromTerm(GdlFactory.createTerm("toggle"));
+        for (PropNetFactor factor : factoring.getFactors()) {
+            PropNetStateMachine factorMachine = new PropNetStateMachine(factor.getPropNetStructure());
+            List<Move> moves = factorMachine.getLegalMoves(factorMachine.getInitialState(), factorMachine.getRoles().get(0));
+            assertEquals(1, moves.size());
+            assertEquals(moves.get(0).getContents().equals(toggle.getContents()), factor.isDead());
+            assertEquals(factor.getBasePropositionIds().length, factor.getPropNetStructure().getNbBasePropositions());
+        }
+
+        // play the counter a in the whole game and in its factor
+        PropNetFactor factorA = factoring.getFactor(((PropNetMove)incA).getInputComponent().id);
+        PropNetStateMachine factorMachine = new PropNetStateMachine(factorA.getPropNetStructure());
+        MachineState state = sm.getInitialState();
+        for (int i = 0; i < 3; i++) {
+            MachineState factorState = factorMachine.getMachineStateFromSentenceList(state.getContents());
+            assertFalse(factorMachine.isTerminal(factorState));
+            assertFalse(sm.isTerminal(state));
+            state = sm.getNextState(state, Arrays.asList(i == 1 ? toggle : incA));
+        }
+        state = sm.getNextState(state, Arrays.asList(incA));
+        MachineState factorState = factorMachine.getMachineStateFromSentenceList(state.getContents());
+        assertTrue(sm.isTerminal(state));
+        assertTrue(factorMachine.isTerminal(factorState));
+        assertEquals(100, factorMachine.getGoal(factorState, factorMachine.getRoles().get(0)));
+        assertEquals(1, factorA.getPropNetStructure().getPossibleMoves(0).length);
+    }
+
+    @Test
+    public void testReinitialize() throws Exception {
+        PropNetStateMachine sm = new PropNetStateMachine();
+        sm.initialize(getRules("independentCounters"));
+        assertTrue(sm.getFactoring().isFactored());
+        sm.release();
+        sm.initialize(getRules("ticTacToe"));
+        assertFalse(sm.getFactoring().isFactored());
+    }
+}
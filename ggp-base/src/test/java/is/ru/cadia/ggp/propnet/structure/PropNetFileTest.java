@@ -0,0 +1,111 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetFileTest extends Assert {
+
+    private void checkSameStructure(PropNetStructure expected, PropNetStructure actual) {
+        assertEquals(expected.getNbComponents(), actual.getNbComponents());
+        assertEquals(expected.getNbBasePropositions(), actual.getNbBasePropositions());
+        assertEquals(expected.isCylic(), actual.isCylic());
+        assertArrayEquals(expected.getRoles(), actual.getRoles());
+        assertEquals(expected.getTerminalProposition().id, actual.getTerminalProposition().id);
+        for (BaseProposition p : expected.getBasePropositions()) {
+            BaseProposition q = actual.getBasePropositions()[p.id];
+            assertArrayEquals(p.sentences, q.sentences);
+            assertEquals(p.initialValue, q.initialValue);
+            assertEquals(p.nextComponent.id, q.nextComponent.id);
+            assertSame(q, actual.getBaseProposition(p.sentences[0]));
+        }
+        for (int roleId = 0; roleId < expected.getRoles().length; roleId++) {
+            assertArrayEquals(expected.getPossibleMoves(roleId), actual.getPossibleMoves(roleId));
+            for (PropNetMove move : expected.getPossibleMoves(roleId)) {
+                PropNetMove actualMove = actual.getPropNetMove(roleId, move);
+                assertEquals(move.getInputComponent().id, actualMove.getInputComponent().id);
+                assertEquals(move.getLegalComponent().id, actualMove.getLegalComponent().id);
+            }
+            assertArrayEquals(expected.getGoalValues(roleId), actual.getGoalValues(roleId));
+            for (int i = 0; i < expected.getGoalPropositions(roleId).length; i++) {
+                assertEquals(expected.getGoalPropositions(roleId)[i].id, actual.getGoalPropositions(roleId)[i].id);
+            }
+        }
+        assertEquals(PropNetTopologyTest.playGames(expected), PropNetTopologyTest.playGames(actual));
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        File file = File.createTempFile("test", ".propnet");
+        try {
+            for (String gameKey : Arrays.asList("ticTacToe", "connectFour")) {
+                PropNetStructure structure = PropNetTopologyTest.createStructure(gameKey);
+                structure.writeToFile(file);
+                PropNetStructure loaded = PropNetStructure.readFromFile(file);
+                assertTrue(loaded.isCompacted());
+                checkSameStructure(structure, loaded);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        File file = File.createTempFile("test", ".propnet");
+        try {
+            PropNetTopologyTest.createStructure("ticTacToe").writeToFile(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length() / 2);
+                int b = raf.read();
+                raf.seek(raf.length() / 2);
+                raf.write(b ^ 1);
+            }
+            try {
+                PropNetStructure.readFromFile(file);
+                fail("corrupt file was read");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInconsistentFileWithoutChecksum() throws Exception {
+        File file = File.createTempFile("test", ".propnet");
+        try {
+            PropNetStructure structure = PropNetTopologyTest.createStructure("ticTacToe");
+            structure.writeToFile(file);
+            checkSameStructure(structure, PropNetFile.read(file, Collections.<String, GdlConstant>emptyMap(), false));
+            // set the length of the last section (GOALS) to 0 in the section table
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer zero = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(0);
+                zero.flip();
+                channel.write(zero, 32 + 6 * 16 + 8);
+            }
+            try {
+                PropNetFile.read(file, Collections.<String, GdlConstant>emptyMap(), false);
+                fail("inconsistent file was read");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.PropNetMachineState;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetInvariantsTest extends Assert {
+
+    private static final long DEADLINE = Long.MAX_VALUE;
+
+    private static List<Gdl> getRules(String gameKey) {
+        return new TestGameRepository().getGame(gameKey).getRules();
+    }
+
+    private static PropNetStateMachine createStateMachine(String gameKey) {
+        PropNetStateMachine sm = new PropNetStateMachine();
+        sm.initialize(getRules(gameKey));
+        return sm;
+    }
+
+    private static int getBaseId(PropNetStateMachine sm, String sentence) throws Exception {
+        return sm.getPropNetStructure().getBaseProposition(GdlFactory.createTerm(sentence).toSentence()).id;
+    }
+
+    /**
+     * the shortcuts must not change the game
+     */
+    private static void checkConsistency(String gameKey, long deadline) throws Exception {
+        List<Gdl> rules = getRules(gameKey);
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        PropNetStateMachine subject = new PropNetStateMachine();
+        subject.initialize(rules);
+        subject.computeInvariants(deadline);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        PropNetInvariants invariants = sm.computeInvariants(DEADLINE);
+        assertTrue(invariants.isComplete());
+
+        int blank = getBaseId(sm, "( true ( cell 1 1 b ) )");
+        int x = getBaseId(sm, "( true ( cell 1 1 x ) )");
+        int o = getBaseId(sm, "( true ( cell 1 1 o ) )");
+        boolean foundCellGroup = false;
+        for (int[] group : invariants.getMutexGroups()) {
+            int[] sorted = group.clone();
+            Arrays.sort(sorted);
+            int[] expected = new int[] {blank, x, o};
+            Arrays.sort(expected);
+            foundCellGroup |= Arrays.equals(expected, sorted);
+        }
+        assertTrue(foundCellGroup);
+
+        assertTrue(invariants.isPositiveLatch(x));
+        assertTrue(invariants.isPositiveLatch(o));
+        assertTrue(invariants.isNegativeLatch(blank));
+        assertFalse(invariants.isPositiveLatch(blank));
+
+        // after marking (1,1) nobody can mark it again
+        Move mark = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 1 1 )"));
+        Move noop = sm.getMoveFromTerm(GdlFactory.createTerm("noop"));
+        MachineState state = sm.getNextState(sm.getInitialState(), Arrays.asList(mark, noop));
+        long[] words = ((PropNetMachineState)state).getWords();
+        for (int roleId = 0; roleId < 2; roleId++) {
+            PropNetMove[] moves = sm.getPropNetStructure().getPossibleMoves(roleId);
+            for (int i = 0; i < moves.length; i++) {
+                if (moves[i].getContents().equals(mark.getContents())) {
+                    assertTrue(invariants.isIllegal(words, roleId, i));
+                }
+            }
+        }
+        checkConsistency("ticTacToe", DEADLINE);
+    }
+
+    @Test
+    public void testConnectFour() throws Exception {
+        checkConsistency("connectFour", DEADLINE);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        PropNetInvariants invariants = sm.computeInvariants(0);
+        assertFalse(invariants.isComplete());
+        assertTrue(invariants.getMutexGroups().isEmpty());
+        checkConsistency("ticTacToe", 0);
+    }
+
+    @Test
+    public void testReinitialize() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        sm.computeInvariants(DEADLINE);
+        sm.release();
+        sm.initialize(getRules("connectFour"));
+        assertNull(sm.getInvariants());
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(getRules("connectFour"));
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, sm, 1000));
+    }
+}
@@ -0,0 +1,123 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.PropNetMachineState;
+import org.ggp.base.util.statemachine.PropNetStateMachine;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetSymmetriesTest extends Assert {
+
+    private static final long DEADLINE = Long.MAX_VALUE;
+
+    private static PropNetStateMachine createStateMachine(String gameKey) {
+        PropNetStateMachine sm = new PropNetStateMachine();
+        sm.initialize(new TestGameRepository().getGame(gameKey).getRules());
+        return sm;
+    }
+
+    private static MachineState play(PropNetStateMachine sm, String... moves) throws Exception {
+        MachineState state = sm.getInitialState();
+        for (int i = 0; i < moves.length; i += 2) {
+            Move move1 = sm.getMoveFromTerm(GdlFactory.createTerm(moves[i]));
+            Move move2 = sm.getMoveFromTerm(GdlFactory.createTerm(moves[i + 1]));
+            state = sm.getNextState(state, Arrays.asList(move1, move2));
+        }
+        return state;
+    }
+
+    /**
+     * symmetric states must have the same goal values, terminal value and number of legal moves
+     */
+    private static void checkSymmetricStates(PropNetStateMachine sm, PropNetSymmetries symmetries) throws Exception {
+        MachineState state = sm.getInitialState();
+        while (!sm.isTerminal(state)) {
+            long[] words = ((PropNetMachineState)state).getWords();
+            for (int[] permutation : symmetries.getBasePermutations()) {
+                MachineState image = new PropNetMachineState(PropNetSymmetries.permute(words, permutation), sm.getPropNetStructure());
+                assertEquals(sm.isTerminal(state), sm.isTerminal(image));
+                for (Role role : sm.getRoles()) {
+                    assertEquals(sm.getLegalMoves(state, role).size(), sm.getLegalMoves(image, role).size());
+                }
+                assertEquals(((PropNetMachineState)state).getCanonicalState(symmetries),
+                        ((PropNetMachineState)image).getCanonicalState(symmetries));
+            }
+            state = sm.getRandomNextState(state);
+        }
+        List<Integer> goals = sm.getGoals(state);
+        long[] words = ((PropNetMachineState)state).getWords();
+        for (int[] permutation : symmetries.getBasePermutations()) {
+            MachineState image = new PropNetMachineState(PropNetSymmetries.permute(words, permutation), sm.getPropNetStructure());
+            assertTrue(sm.isTerminal(image));
+            assertEquals(goals, sm.getGoals(image));
+        }
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        PropNetSymmetries symmetries = sm.computeSymmetries(DEADLINE);
+        assertTrue(symmetries.isComplete());
+        // the rotations and reflections of the board
+        assertEquals(7, symmetries.getBasePermutations().size());
+
+        PropNetMachineState corner1 = (PropNetMachineState)play(sm, "( mark 1 1 )", "noop");
+        PropNetMachineState corner2 = (PropNetMachineState)play(sm, "( mark 3 3 )", "noop");
+        PropNetMachineState center = (PropNetMachineState)play(sm, "( mark 2 2 )", "noop");
+        assertFalse(corner1.equals(corner2));
+        assertEquals(corner1.getCanonicalState(symmetries), corner2.getCanonicalState(symmetries));
+        assertFalse(corner1.getCanonicalState(symmetries).equals(center.getCanonicalState(symmetries)));
+        // the initial state is only symmetric to itself
+        PropNetMachineState initialState = (PropNetMachineState)sm.getInitialState();
+        assertSame(initialState, initialState.getCanonicalState(symmetries));
+
+        for (int i = 0; i < 10; i++) {
+            checkSymmetricStates(sm, symmetries);
+        }
+    }
+
+    @Test
+    public void testConnectFour() throws Exception {
+        PropNetStateMachine sm = createStateMachine("connectFour");
+        PropNetSymmetries symmetries = sm.computeSymmetries(DEADLINE);
+        // the reflection of the board
+        assertEquals(1, symmetries.getBasePermutations().size());
+        for (int i = 0; i < 10; i++) {
+            checkSymmetricStates(sm, symmetries);
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        PropNetSymmetries symmetries = sm.computeSymmetries(0);
+        assertFalse(symmetries.isComplete());
+        MachineState state = play(sm, "( mark 1 1 )", "noop");
+        checkSymmetricStates(sm, symmetries);
+        assertNotNull(((PropNetMachineState)state).getCanonicalState(symmetries));
+    }
+
+    @Test
+    public void testCyclicPropNet() throws Exception {
+        PropNetStateMachine sm = createStateMachine("connectedGraph");
+        PropNetSymmetries symmetries = sm.computeSymmetries(DEADLINE);
+        assertFalse(symmetries.isComplete());
+        assertTrue(symmetries.isEmpty());
+    }
+
+    @Test
+    public void testReinitialize() throws Exception {
+        PropNetStateMachine sm = createStateMachine("ticTacToe");
+        sm.computeSymmetries(DEADLINE);
+        sm.release();
+        sm.initialize(new TestGameRepository().getGame("connectFour").getRules());
+        assertNull(sm.getSymmetries());
+    }
+}
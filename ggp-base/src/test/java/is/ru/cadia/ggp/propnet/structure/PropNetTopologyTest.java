@@ -0,0 +1,111 @@
+package is.ru.cadia.ggp.propnet.structure;
+
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.evaluator.ForwardPropNetEvaluator;
+import is.ru.cadia.ggp.propnet.evaluator.PropNetEvaluator;
+import is.ru.cadia.ggp.propnet.structure.components.BaseProposition;
+import is.ru.cadia.ggp.propnet.structure.components.StaticComponent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetTopologyTest extends Assert {
+
+    static PropNetStructure createStructure(String gameKey) throws InterruptedException {
+        return new GGPBasePropNetStructureFactory().create(new TestGameRepository().getGame(gameKey).getRules());
+    }
+
+    private static void assertSameComponent(StaticComponent expected, StaticComponent actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.type, actual.type);
+        assertArrayEquals(expected.inputs, actual.inputs);
+        assertArrayEquals(expected.outputs, actual.outputs);
+        assertEquals(expected.isCyclic, actual.isCyclic);
+    }
+
+    private void checkTopology(StaticComponent[] components, PropNetTopology topology) {
+        assertEquals(components.length, topology.getNbComponents());
+        for (StaticComponent c : components) {
+            assertSameComponent(c, topology.createComponent(c.id));
+            assertEquals(c.inputs.length, topology.getNbInputs(c.id));
+            assertEquals(c.outputs.length, topology.getNbOutputs(c.id));
+        }
+    }
+
+    @Test
+    public void testTopology() throws Exception {
+        StaticComponent[] components = createStructure("connectFour").getComponents();
+        checkTopology(components, PropNetTopology.create(components, false));
+        PropNetTopology offHeap = PropNetTopology.create(components, true);
+        assertTrue(offHeap.isOffHeap());
+        checkTopology(components, offHeap);
+    }
+
+    /**
+     * plays random games and records the states, the legality of all moves and the goal values in terminal states
+     */
+    static List<String> playGames(PropNetStructure structure) {
+        List<String> trace = new ArrayList<String>();
+        PropNetEvaluator evaluator = new ForwardPropNetEvaluator(structure);
+        int nbRoles = structure.getRoles().length;
+        Random random = new Random(42);
+        for (int game = 0; game < 20; game++) {
+            long[] state = new long[PropNetEvaluator.getNbStateWords(structure.getNbBasePropositions())];
+            for (BaseProposition p : structure.getBasePropositions()) {
+                if (p.initialValue) {
+                    state[p.id >>> 6] |= 1L << p.id;
+                }
+            }
+            evaluator.setState(state);
+            while (!evaluator.isTerminal()) {
+                int[] inputIds = new int[nbRoles];
+                StringBuilder legal = new StringBuilder();
+                for (int roleId = 0; roleId < nbRoles; roleId++) {
+                    int nbLegal = 0;
+                    PropNetMove[] moves = structure.getPossibleMoves(roleId);
+                    for (int i = 0; i < moves.length; i++) {
+                        if (evaluator.isLegal(roleId, i)) {
+                            legal.append(roleId).append(':').append(i).append(' ');
+                            if (random.nextInt(++nbLegal) == 0) {
+                                inputIds[roleId] = moves[i].getInputComponent().id;
+                            }
+                        }
+                    }
+                }
+                trace.add(legal.toString());
+                evaluator.setInputs(inputIds, nbRoles);
+                state = evaluator.getNextState();
+                trace.add(Arrays.toString(state));
+                evaluator.setState(state);
+            }
+            for (int roleId = 0; roleId < nbRoles; roleId++) {
+                trace.add("goal " + evaluator.getGoalValue(roleId));
+            }
+        }
+        return trace;
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            PropNetStructure structure = createStructure("connectFour");
+            StaticComponent[] components = structure.getComponents();
+            int[] topologicalOrder = structure.getTopologicalOrder().clone();
+            List<String> trace = playGames(structure);
+            structure.compact(offHeap);
+            assertTrue(structure.isCompacted());
+            assertEquals(offHeap, structure.getTopology().isOffHeap());
+            for (int id = 0; id < components.length; id++) {
+                assertSameComponent(components[id], structure.getComponent(id));
+            }
+            assertArrayEquals(topologicalOrder, structure.getTopologicalOrder());
+            assertEquals(trace, playGames(structure));
+        }
+    }
+}
@@ -1,5 +1,15 @@
 package org.ggp.base.test;
 
+import is.ru.cadia.ggp.propnet.evaluator.BitParallelPropNetSimulatorTest;
+import is.ru.cadia.ggp.propnet.structure.ASPPropNetStructureFactoryTest;
+import is.ru.cadia.ggp.propnet.structure.GGPBasePropNetStructureFactoryTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetCacheTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetFactoringTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetFileTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetInvariantsTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetSymmetriesTest;
+import is.ru.cadia.ggp.propnet.structure.PropNetTopologyTest;
+
 import org.ggp.base.apps.logging.LogSummarizerTest;
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
@@ -16,6 +26,13 @@ import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBaseTest;
+import org.ggp.base.util.prover.aima.substitution.BindingsTest;
+import org.ggp.base.util.statemachine.CompiledPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.DifferentialPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.PropNetStateMachineTest;
+import org.ggp.base.util.statemachine.StateMachineSelectorTest;
+import org.ggp.base.util.statemachine.implementation.chaining.ForwardChainingStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
@@ -23,23 +40,39 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    ASPPropNetStructureFactoryTest.class,
     BaseCryptographyTest.class,
     BaseHashingTest.class,
+    BindingsTest.class,
+    BitParallelPropNetSimulatorTest.class,
     CanonicalJSONTest.class,
     ClojureGamerTest.class,
+    CompiledPropNetStateMachineTest.class,
     DependencyGraphsTest.class,
+    DifferentialPropNetStateMachineTest.class,
+    ForwardChainingStateMachineTest.class,
     GameParsingTest.class,
     GdlCleanerTest.class,
     GdlRendererTest.class,
     GdlScramblerTest.class,
+    GGPBasePropNetStructureFactoryTest.class,
     HttpTest.class,
     InfoResponseTest.class,
+    KnowledgeBaseTest.class,
     LogSummarizerTest.class,
     NoTabsInRulesheetsTest.class,
+    PropNetCacheTest.class,
+    PropNetFactoringTest.class,
+    PropNetFileTest.class,
+    PropNetInvariantsTest.class,
+    PropNetStateMachineTest.class,
+    PropNetSymmetriesTest.class,
+    PropNetTopologyTest.class,
     ProverStateMachineTest.class,
     PythonGamerTest.class,
     SignableJSONTest.class,
     SimpleSentenceFormTest.class,
+    StateMachineSelectorTest.class,
     StaticValidationTest.class,
     TiltyardRequestFarmTest.class,
 })
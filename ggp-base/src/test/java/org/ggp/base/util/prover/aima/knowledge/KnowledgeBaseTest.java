@@ -0,0 +1,57 @@
+package org.ggp.base.util.prover.aima.knowledge;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KnowledgeBaseTest extends Assert {
+
+    private static KnowledgeBase createTicTacToeState() throws Exception {
+        Set<Gdl> state = new HashSet<Gdl>();
+        for (int x = 1; x <= 3; x++) {
+            for (int y = 1; y <= 3; y++) {
+                state.add(GdlFactory.create("(true (cell " + x + " " + y + " b))"));
+            }
+        }
+        state.add(GdlFactory.create("(true (control xplayer))"));
+        state.add(GdlFactory.create("(<= (true (cell 2 ?y ?m)) (foo ?y ?m))"));
+        return new KnowledgeBase(state);
+    }
+
+    private static List<GdlRule> fetch(KnowledgeBase kb, String sentence) throws Exception {
+        return kb.fetch((GdlSentence)GdlFactory.create(sentence));
+    }
+
+    @Test
+    public void testIndexedFetch() throws Exception {
+        KnowledgeBase kb = createTicTacToeState();
+        assertEquals(11, fetch(kb, "(true ?x)").size());
+        assertEquals(10, fetch(kb, "(true (cell ?x ?y ?m))").size());
+        assertEquals(1, fetch(kb, "(true (control ?p))").size());
+        // the rule for cell 2 is only found for cell 2
+        assertEquals(3, fetch(kb, "(true (cell 1 ?y ?m))").size());
+        assertEquals(4, fetch(kb, "(true (cell 2 ?y b))").size());
+        assertEquals(0, fetch(kb, "(true (step 1))").size());
+        assertEquals(0, fetch(kb, "(next (cell 1 1 b))").size());
+    }
+
+    @Test
+    public void testVariablesInRules() throws Exception {
+        Set<Gdl> rules = new HashSet<Gdl>();
+        for (int i = 0; i < 10; i++) {
+            rules.add(GdlFactory.create("(succ " + i + " " + (i + 1) + ")"));
+        }
+        rules.add(GdlFactory.create("(<= (succ ?x ?y) (bigger ?y ?x))"));
+        KnowledgeBase kb = new KnowledgeBase(rules);
+        assertEquals(2, fetch(kb, "(succ 3 ?y)").size());
+        assertEquals(1, fetch(kb, "(succ 42 ?y)").size());
+        assertEquals(11, fetch(kb, "(succ ?x 4)").size());
+    }
+}
@@ -0,0 +1,67 @@
+package org.ggp.base.util.prover.aima.substitution;
+
+import java.util.HashMap;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Structure;
+import org.ggp.base.util.prover.aima.renamer.CompiledRule.Variable;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BindingsTest extends Assert {
+
+    private static Structure compile(String sentence) throws Exception {
+        return CompiledRule.compileSentence((GdlSentence)GdlFactory.create(sentence),
+                new HashMap<GdlVariable, Variable>());
+    }
+
+    @Test
+    public void testUnifyAndUndo() throws Exception {
+        CompiledRule rule = new CompiledRule((GdlRule)GdlFactory.create(
+                "(<= (next (cell ?x ?y ?m)) (does ?p (mark ?x ?y)) (mark ?p ?m))"));
+        Structure goal = compile("(next (cell 1 ?a x))");
+
+        Bindings bindings = new Bindings();
+        int goalFrame = bindings.pushFrame(1);
+        int ruleFrame = bindings.pushFrame(rule.getNbVariables());
+        int mark = bindings.mark();
+        assertTrue(Unifier.unify(rule.getHead().args, ruleFrame, goal.args, goalFrame, bindings));
+
+        // the body is seen with the bindings of the head, without being copied
+        Structure does = (Structure) rule.getBody()[0];
+        assertEquals(GdlFactory.createTerm("(mark 1 ?_0)"), bindings.materialize(does.args[1], ruleFrame));
+        assertEquals(GdlPool.getConstant("x"), bindings.materializeSlot(ruleFrame + 2));
+        assertTrue(Unifier.unify(((Structure) goal.args[0]).args[1], goalFrame, GdlPool.getConstant("3"), 0, bindings));
+        assertEquals(GdlFactory.createTerm("(mark 1 3)"), bindings.materialize(does.args[1], ruleFrame));
+
+        bindings.undo(mark);
+        assertEquals(GdlFactory.createTerm("(mark ?_1 ?_2)"), bindings.materialize(does.args[1], ruleFrame));
+        assertFalse(Unifier.unify(rule.getHead().args, ruleFrame, compile("(next (control x))").args, goalFrame, bindings));
+        bindings.undo(mark);
+        bindings.popFrame(ruleFrame);
+    }
+
+    @Test
+    public void testKeys() throws Exception {
+        Bindings bindings = new Bindings();
+        int frame = bindings.pushFrame(2);
+        Structure goal1 = compile("(legal ?p (mark ?x ?p))");
+        Structure goal2 = compile("(legal ?q (mark ?y ?q))");
+        Structure goal3 = compile("(legal ?p (mark ?p ?x))");
+        assertEquals(bindings.getKey(goal1, frame), bindings.getKey(goal2, frame));
+        assertFalse(bindings.getKey(goal1, frame).equals(bindings.getKey(goal3, frame)));
+        assertArrayEquals(new int[] {frame, frame + 1}, bindings.getKeySlots());
+
+        // a bound variable has the same key as its value
+        bindings.bind(frame, GdlPool.getConstant("white"), 0);
+        int otherFrame = bindings.pushFrame(1);
+        assertEquals(bindings.getKey(compile("(legal white (mark ?x white))"), otherFrame), bindings.getKey(goal1, frame));
+        assertArrayEquals(new int[] {frame + 1}, bindings.getKeySlots());
+    }
+}
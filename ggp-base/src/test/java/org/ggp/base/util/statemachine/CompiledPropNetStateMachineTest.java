@@ -0,0 +1,9 @@
+package org.ggp.base.util.statemachine;
+
+public class CompiledPropNetStateMachineTest extends PropNetStateMachineTest {
+
+    @Override
+    protected StateMachine createStateMachine() {
+        return new CompiledPropNetStateMachine();
+    }
+}
@@ -0,0 +1,197 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import is.ru.cadia.ggp.propnet.MoveSelectionPolicy;
+import is.ru.cadia.ggp.propnet.PropNetMove;
+import is.ru.cadia.ggp.propnet.structure.PropNetStructure;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetStateMachineTest extends Assert {
+
+    protected StateMachine createStateMachine() {
+        return new PropNetStateMachine();
+    }
+
+    private void checkConsistency(String gameKey) {
+        List<Gdl> description = new TestGameRepository().getGame(gameKey).getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+        StateMachine subject = createStateMachine();
+        subject.initialize(description);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        checkConsistency("ticTacToe");
+    }
+
+    @Test
+    public void testConnectFour() throws Exception {
+        checkConsistency("connectFour");
+    }
+
+    @Test
+    public void testSimpleMutex() throws Exception {
+        checkConsistency("simpleMutex");
+    }
+
+    @Test
+    public void testCyclicPropNet() throws Exception {
+        PropNetStateMachine sm = (PropNetStateMachine)createStateMachine();
+        sm.initialize(new TestGameRepository().getGame("connectedGraph").getRules());
+        assertTrue(sm.getPropNetStructure().isCylic());
+        checkConsistency("connectedGraph");
+        int[] goalValues = new int[1];
+        for (int i = 0; i < 20; i++) {
+            sm.performPlayout(sm.getInitialState(), MoveSelectionPolicy.RANDOM, goalValues);
+            assertTrue(goalValues[0] == 0 || goalValues[0] == 50 || goalValues[0] == 100);
+        }
+    }
+
+    @Test
+    public void testMoveTranslation() throws Exception {
+        PropNetStateMachine sm = (PropNetStateMachine)createStateMachine();
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        PropNetStructure structure = sm.getPropNetStructure();
+        for (Role role : sm.getRoles()) {
+            int roleId = structure.getRoleId(role);
+            assertEquals(roleId, structure.getRoleId(new Role(role.getName())));
+            PropNetMove[] moves = structure.getPossibleMoves(roleId);
+            for (int i = 0; i < moves.length; i++) {
+                assertEquals(roleId, moves[i].getRoleId());
+                assertEquals(i, moves[i].getIndex());
+                int moveTermId = moves[i].getMoveTermId();
+                assertEquals(moves[i].getContents(), structure.getMoveTerm(moveTermId));
+                assertSame(moves[i], structure.getPropNetMoveOfInput(roleId, moves[i].getInputComponent().id));
+                assertEquals(moveTermId, structure.getMoveTermId(moves[i].getContents()));
+                assertSame(moves[i], structure.getPropNetMoveByTermId(roleId, moveTermId));
+                assertSame(moves[i], structure.getPropNetMove(roleId, new Move(moves[i].getContents())));
+            }
+        }
+        // both roles have the same move terms
+        assertEquals(structure.getPossibleMoves(0).length, structure.getNbMoveTerms());
+
+        // the move of one role is translated to the same move of the other role
+        Move noop = sm.getMoveFromTerm(GdlFactory.createTerm("noop"));
+        Move m11 = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 1 1 )"));
+        Move m22 = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 2 2 )"));
+        MachineState state = sm.getNextState(sm.getInitialState(), Arrays.asList(m11, noop));
+        state = sm.getNextState(state, Arrays.asList(noop, m22));
+        assertTrue(state.toString().contains("( cell 2 2 o )"));
+        assertNull(sm.getMoveFromTerm(GdlFactory.createTerm("( mark 4 4 )")));
+        assertEquals(-1, structure.getRoleId(new Role(GdlPool.getConstant("nobody"))));
+    }
+
+    @Test
+    public void testStateEquality() throws Exception {
+        StateMachine sm = createStateMachine();
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        Move noop = sm.getMoveFromTerm(GdlFactory.createTerm("noop"));
+        Move m11 = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 1 1 )"));
+        Move m22 = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 2 2 )"));
+        Move m33 = sm.getMoveFromTerm(GdlFactory.createTerm("( mark 3 3 )"));
+        MachineState s1 = sm.getInitialState();
+        s1 = sm.getNextState(s1, Arrays.asList(m11, noop));
+        s1 = sm.getNextState(s1, Arrays.asList(noop, m22));
+        s1 = sm.getNextState(s1, Arrays.asList(m33, noop));
+        MachineState s2 = sm.getInitialState();
+        s2 = sm.getNextState(s2, Arrays.asList(m33, noop));
+        s2 = sm.getNextState(s2, Arrays.asList(noop, m22));
+        s2 = sm.getNextState(s2, Arrays.asList(m11, noop));
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(s1.getContents(), s2.getContents());
+        MachineState s3 = sm.getMachineStateFromSentenceList(s1.getContents());
+        assertEquals(s1, s3);
+        assertEquals(s1.hashCode(), s3.hashCode());
+        assertEquals(s1, s1.clone());
+        assertFalse(s1.equals(sm.getInitialState()));
+        // states of other machines with the same contents are equal and have the same hash code
+        MachineState simple = new SimpleMachineState(new HashSet<GdlSentence>(s1.getContents()));
+        assertEquals(s1, simple);
+        assertEquals(simple, s1);
+        assertEquals(simple.hashCode(), s1.hashCode());
+        assertTrue(new HashSet<MachineState>(Arrays.asList(simple)).contains(s1));
+    }
+
+    @Test
+    public void testPlayouts() throws Exception {
+        PropNetStateMachine sm = (PropNetStateMachine)createStateMachine();
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        int[] goalValues = new int[2];
+        for (int i = 0; i < 100; i++) {
+            int depth = sm.performPlayout(sm.getInitialState(), MoveSelectionPolicy.RANDOM, goalValues);
+            assertTrue(depth >= 5 && depth <= 9);
+            assertEquals(100, goalValues[0] + goalValues[1]);
+        }
+        // replaying the moves chosen in a playout with the usual methods must give the same result
+        final PropNetStructure propNet = sm.getPropNetStructure();
+        final List<Move> chosenMoves = new ArrayList<Move>();
+        MoveSelectionPolicy recordingPolicy = new MoveSelectionPolicy() {
+            @Override
+            public int selectMove(int roleId, int[] legalMoveIndices, int nbLegalMoves, int depth) {
+                int moveIndex = legalMoveIndices[nbLegalMoves - 1];
+                chosenMoves.add(propNet.getPossibleMoves(roleId)[moveIndex]);
+                return moveIndex;
+            }
+        };
+        int depth = sm.performPlayout(sm.getInitialState(), recordingPolicy, goalValues);
+        assertEquals(2 * depth, chosenMoves.size());
+        MachineState state = sm.getInitialState();
+        for (int i = 0; i < depth; i++) {
+            assertFalse(sm.isTerminal(state));
+            state = sm.getNextState(state, chosenMoves.subList(2 * i, 2 * i + 2));
+        }
+        assertTrue(sm.isTerminal(state));
+        assertEquals(goalValues[0], sm.getGoal(state, sm.getRoles().get(0)));
+        assertEquals(goalValues[1], sm.getGoal(state, sm.getRoles().get(1)));
+    }
+
+    @Test
+    public void testLegalJointMoves() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+        StateMachine sm = createStateMachine();
+        sm.initialize(description);
+        MachineState referenceState = reference.getInitialState();
+        MachineState state = sm.getInitialState();
+        while (!reference.isTerminal(referenceState)) {
+            List<List<Move>> jointMoves = sm.getLegalJointMoves(state);
+            assertEquals(new HashSet<List<Move>>(reference.getLegalJointMoves(referenceState)), new HashSet<List<Move>>(jointMoves));
+            JointMoveIterator iterator = sm.getLegalJointMoveIterator(state);
+            assertEquals(jointMoves.size(), iterator.getNbJointMoves());
+            for (List<Move> jointMove : jointMoves) {
+                assertTrue(iterator.hasNext());
+                assertEquals(jointMove, iterator.next());
+            }
+            assertFalse(iterator.hasNext());
+            List<Move> jointMove = jointMoves.get(jointMoves.size() / 2);
+            referenceState = reference.getNextState(referenceState, jointMove);
+            state = sm.getNextState(state, jointMove);
+        }
+    }
+
+    @Test
+    public void testCases() throws Exception {
+        checkConsistency("test_case_1a");
+        checkConsistency("test_case_2a");
+        checkConsistency("test_case_3c");
+        checkConsistency("test_case_4a");
+        checkConsistency("test_case_5b");
+    }
+}
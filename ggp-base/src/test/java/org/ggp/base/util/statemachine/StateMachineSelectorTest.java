@@ -0,0 +1,87 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachineSelector.Result;
+import org.ggp.base.util.statemachine.StateMachineSelector.Status;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateMachineSelectorTest extends Assert {
+
+    /**
+     * a state machine that never ends the game
+     */
+    private static class NeverTerminalStateMachine extends ProverStateMachine {
+        boolean released = false;
+
+        @Override
+        public boolean isTerminal(MachineState state) {
+            return false;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    /**
+     * a state machine that can not handle any game
+     */
+    private static class BrokenStateMachine extends ProverStateMachine {
+        @Override
+        public void initialize(List<Gdl> description) {
+            throw new IllegalArgumentException("unsupported game");
+        }
+    }
+
+    @Test
+    public void testSelection() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine propNet = new PropNetStateMachine();
+        NeverTerminalStateMachine neverTerminal = new NeverTerminalStateMachine();
+        StateMachine broken = new BrokenStateMachine();
+        StateMachineSelector selector = new StateMachineSelector(reference, Arrays.asList(propNet, neverTerminal, broken));
+
+        StateMachine selected = selector.select(rules, System.currentTimeMillis() + 6000);
+
+        assertSame(propNet, selected);
+        assertTrue(neverTerminal.released);
+        List<Result> results = selector.getResults();
+        assertEquals(4, results.size());
+        for (Result result : results) {
+            assertNotNull(result.getReason());
+            if (result.getMachine() == reference) {
+                assertEquals(Status.SLOWER, result.getStatus());
+                assertTrue(result.getPlayoutsPerSecond() > 0);
+            } else if (result.getMachine() == propNet) {
+                assertEquals(Status.SELECTED, result.getStatus());
+                assertTrue(result.getPlayoutsPerSecond() > 0);
+            } else if (result.getMachine() == neverTerminal) {
+                assertEquals(Status.INCONSISTENT, result.getStatus());
+            } else {
+                assertSame(broken, result.getMachine());
+                assertEquals(Status.FAILED_TO_INITIALIZE, result.getStatus());
+            }
+        }
+    }
+
+    @Test
+    public void testNoCandidates() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachineSelector selector = new StateMachineSelector(reference, Arrays.<StateMachine>asList());
+
+        assertSame(reference, selector.select(rules, System.currentTimeMillis() + 500));
+        assertEquals(1, selector.getResults().size());
+        assertEquals(Status.SELECTED, selector.getResults().get(0).getStatus());
+    }
+}
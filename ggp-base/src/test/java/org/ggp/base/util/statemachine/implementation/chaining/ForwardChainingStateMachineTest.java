@@ -0,0 +1,52 @@
+package org.ggp.base.util.statemachine.implementation.chaining;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class ForwardChainingStateMachineTest extends Assert {
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        ForwardChainingStateMachine sm = new ForwardChainingStateMachine();
+        sm.initialize(desc);
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+
+        MachineState state = sm.getInitialState();
+        assertEquals(prover.getInitialState(), state);
+        while (!sm.isTerminal(state)) {
+            for (Role role : sm.getRoles()) {
+                assertEquals(ImmutableSet.copyOf(prover.getLegalMoves(state, role)),
+                        ImmutableSet.copyOf(sm.getLegalMoves(state, role)));
+            }
+            state = sm.getRandomNextState(state);
+        }
+        assertTrue(prover.isTerminal(state));
+        assertEquals(prover.getGoals(state), sm.getGoals(state));
+    }
+
+    @Test
+    public void testConsistency() throws Exception {
+        // connectedGraph and test_case_4a have recursive rules, test_case_3b has constant legal and goal rules
+        for (String game : Arrays.asList("connectFour", "connectedGraph", "test_case_3b", "test_case_4a", "test_case_5c")) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            ProverStateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            ForwardChainingStateMachine sm = new ForwardChainingStateMachine();
+            sm.initialize(desc);
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(prover, sm, 500));
+        }
+    }
+}
@@ -13,6 +13,8 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverStateResults;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -206,6 +208,53 @@ public class ProverStateMachineTest extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    /**
+     * reusing answers from earlier queries on the same state does not change the results
+     */
+    @Test
+    public void testTabling() throws Exception {
+        for (String game : Arrays.asList("ticTacToe", "connectFour", "test_case_5c")) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            ProverStateMachine untabled = new ProverStateMachine();
+            untabled.setTablingCapacity(0);
+            untabled.initialize(desc);
+            ProverStateMachine tabled = new ProverStateMachine();
+            tabled.setTablingCapacity(2);
+            tabled.initialize(desc);
+            assertTrue(StateMachineVerifier.checkMachineConsistency(untabled, tabled, 500));
+        }
+    }
+
+    @Test
+    public void testStateResults() throws Exception {
+        for (String game : Arrays.asList("ticTacToe", "connectFour", "test_case_5c")) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            ProverStateMachine sequential = new ProverStateMachine();
+            sequential.setTablingCapacity(0);
+            sequential.initialize(desc);
+            sm.setForkJoinPool(ProverStateMachine.getSharedPool());
+            sm.initialize(desc);
+
+            MachineState state = sm.getInitialState();
+            while (true) {
+                ProverStateResults results = sm.getStateResults(state);
+                assertEquals(sequential.isTerminal(state), results.isTerminal());
+                if (results.isTerminal()) {
+                    assertEquals(sequential.getGoals(state), results.getGoals());
+                    assertEquals(sequential.getGoals(state), sm.getGoals(state));
+                    break;
+                }
+                for (Role role : sm.getRoles()) {
+                    assertEquals(ImmutableSet.copyOf(sequential.getLegalMoves(state, role)),
+                            ImmutableSet.copyOf(results.getLegalMoves(role)));
+                }
+                assertEquals(ImmutableSet.copyOf(sequential.getLegalJointMoves(state)),
+                        ImmutableSet.copyOf(sm.getLegalJointMoves(state)));
+                state = sm.getRandomNextState(state);
+            }
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);